@@ -0,0 +1,379 @@
+/* Copyright (c) 2016 Microsoft Corporation. This software is licensed under the MIT License.
+ * See the license file delivered with this project for further information.
+ */
+package io.jxcore.node;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shapes the data relayed from the Node layer to the radio (the TCP to Bluetooth direction).
+ * Every connection shares the same antenna, so without shaping one bulk transfer (e.g. replicating
+ * a large attachment) starves the small interactive exchanges with the other peers.
+ *
+ * Every connection has a share of a priority class. A share can be limited with a token bucket of
+ * its own (the per connection rate limit of its class) and, if the rate of the link is set, the
+ * shares compete for the tokens of the link in a weighted fair manner: the chunks are granted in
+ * the order of their virtual finish times, which advance by the size of the chunk divided by the
+ * weight of the class. Thus, when busy, the classes get the link in proportion to their weights
+ * and, when not, a single connection can use the whole link.
+ *
+ * With no limits set (the default) the shares only count the bytes and never wait.
+ */
+public class BandwidthShaper {
+
+    /**
+     * The priority classes with their weights.
+     */
+    public enum PriorityClass {
+        INTERACTIVE(4),
+        DEFAULT(2),
+        BULK(1);
+
+        public final int weight;
+
+        PriorityClass(int weight) {
+            this.weight = weight;
+        }
+
+        /**
+         * @param name The name of the class, case insensitive.
+         * @return The class or null, if not recognized.
+         */
+        public static PriorityClass fromName(String name) {
+            for (PriorityClass priorityClass : values()) {
+                if (priorityClass.name().equalsIgnoreCase(name)) {
+                    return priorityClass;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * The share of a single connection. Used by one sending thread at a time.
+     */
+    public class Share {
+        private final PriorityClass mPriorityClass;
+        private final long mRateLimitInBytesPerSecond;
+        private double mNumberOfTokens = BURST_SIZE_IN_BYTES;
+        private long mLastRefillTimeInNanoseconds = NOT_REFILLED;
+        private double mVirtualStartTime = 0;
+        private double mVirtualFinishTime = 0;
+        private int mNumberOfBytesRequested = 0;
+        private boolean mIsClosed = false;
+
+        private Share(PriorityClass priorityClass, long rateLimitInBytesPerSecond) {
+            mPriorityClass = priorityClass;
+            mRateLimitInBytesPerSecond = rateLimitInBytesPerSecond;
+        }
+
+        /**
+         * Waits until the given number of bytes can be sent.
+         *
+         * @param numberOfBytes The number of bytes to send.
+         * @return True, if granted. False, if the share was closed while waiting.
+         */
+        public boolean acquire(int numberOfBytes) {
+            return BandwidthShaper.this.acquire(this, numberOfBytes);
+        }
+
+        /**
+         * Releases the share and wakes up the sending thread, if waiting. Can be called many times.
+         */
+        public void close() {
+            synchronized (BandwidthShaper.this) {
+                if (!mIsClosed) {
+                    mIsClosed = true;
+                    mWaitingShares.remove(this);
+                    BandwidthShaper.this.notifyAll();
+                }
+            }
+        }
+
+        public PriorityClass getPriorityClass() {
+            return mPriorityClass;
+        }
+    }
+
+    private static final String TAG = BandwidthShaper.class.getName();
+    private static final BandwidthShaper DEFAULT_INSTANCE = new BandwidthShaper();
+    private static final long NOT_REFILLED = -1;
+    private static final long NANOSECONDS_PER_SECOND = 1000000000L;
+    private static final long MAXIMUM_WAIT_IN_NANOSECONDS = 100 * 1000000L;
+    static final long GRANTED = 0;
+    static final long NOT_YOUR_TURN = Long.MAX_VALUE;
+    static final int BURST_SIZE_IN_BYTES = 16 * 1024;
+    private final List<Share> mWaitingShares = new ArrayList<Share>();
+    private final long[] mRateLimitsInBytesPerSecond = new long[PriorityClass.values().length];
+    private final AtomicLong[] mNumberOfBytesSent = new AtomicLong[PriorityClass.values().length];
+    private final AtomicLong[] mTotalWaitTimeInNanoseconds = new AtomicLong[PriorityClass.values().length];
+    private long mLinkRateInBytesPerSecond = 0;
+    private double mNumberOfLinkTokens = BURST_SIZE_IN_BYTES;
+    private long mLastLinkRefillTimeInNanoseconds = NOT_REFILLED;
+    private double mVirtualTime = 0;
+
+    /**
+     * @return The shaper shared by all the connections.
+     */
+    public static BandwidthShaper getDefault() {
+        return DEFAULT_INSTANCE;
+    }
+
+    BandwidthShaper() {
+        for (int i = 0; i < mNumberOfBytesSent.length; i++) {
+            mNumberOfBytesSent[i] = new AtomicLong(0);
+            mTotalWaitTimeInNanoseconds[i] = new AtomicLong(0);
+        }
+    }
+
+    /**
+     * Sets the rate of the link shared in a weighted fair manner. Should be set somewhat below
+     * the throughput the radio achieves, otherwise the radio, not the shaper, is the bottleneck.
+     *
+     * @param linkRateInBytesPerSecond The rate in bytes per second, 0 for no link shaping.
+     */
+    public synchronized void setLinkRate(long linkRateInBytesPerSecond) {
+        Log.i(TAG, "setLinkRate: " + linkRateInBytesPerSecond + " B/s");
+        mLinkRateInBytesPerSecond = Math.max(0, linkRateInBytesPerSecond);
+        mLastLinkRefillTimeInNanoseconds = NOT_REFILLED;
+        notifyAll();
+    }
+
+    /**
+     * Sets the rate limit of every connection of the given class. Applies to the shares
+     * registered after this call.
+     *
+     * @param priorityClass             The priority class.
+     * @param rateLimitInBytesPerSecond The rate limit in bytes per second, 0 for no limit.
+     */
+    public synchronized void setConnectionRateLimit(PriorityClass priorityClass, long rateLimitInBytesPerSecond) {
+        Log.i(TAG, "setConnectionRateLimit: " + priorityClass + ": " + rateLimitInBytesPerSecond + " B/s");
+        mRateLimitsInBytesPerSecond[priorityClass.ordinal()] = Math.max(0, rateLimitInBytesPerSecond);
+    }
+
+    /**
+     * Registers a connection.
+     *
+     * @param priorityClass The priority class of the connection.
+     * @return The share of the connection. Must be closed, when the connection is closed.
+     */
+    public synchronized Share register(PriorityClass priorityClass) {
+        return new Share(priorityClass, mRateLimitsInBytesPerSecond[priorityClass.ordinal()]);
+    }
+
+    /**
+     * @param priorityClass The priority class.
+     * @return The number of bytes sent by the connections of the class.
+     */
+    public long getNumberOfBytesSent(PriorityClass priorityClass) {
+        return mNumberOfBytesSent[priorityClass.ordinal()].get();
+    }
+
+    /**
+     * @param priorityClass The priority class.
+     * @return The share of all the bytes sent achieved by the class, from 0 to 1.
+     */
+    public double getAchievedShare(PriorityClass priorityClass) {
+        long totalNumberOfBytesSent = 0;
+
+        for (AtomicLong numberOfBytesSent : mNumberOfBytesSent) {
+            totalNumberOfBytesSent += numberOfBytesSent.get();
+        }
+
+        return (totalNumberOfBytesSent > 0)
+            ? (double) getNumberOfBytesSent(priorityClass) / totalNumberOfBytesSent : 0;
+    }
+
+    /**
+     * @param priorityClass The priority class.
+     * @return The total time the connections of the class waited for their share in milliseconds.
+     */
+    public long getTotalWaitTimeInMilliseconds(PriorityClass priorityClass) {
+        return mTotalWaitTimeInNanoseconds[priorityClass.ordinal()].get() / 1000000L;
+    }
+
+    /**
+     * Resets the counters.
+     */
+    public void resetStatistics() {
+        for (int i = 0; i < mNumberOfBytesSent.length; i++) {
+            mNumberOfBytesSent[i].set(0);
+            mTotalWaitTimeInNanoseconds[i].set(0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder();
+
+        for (PriorityClass priorityClass : PriorityClass.values()) {
+            if (stringBuilder.length() > 0) {
+                stringBuilder.append(", ");
+            }
+
+            stringBuilder.append(priorityClass).append(": ")
+                .append(getNumberOfBytesSent(priorityClass)).append(" B (")
+                .append(Math.round(getAchievedShare(priorityClass) * 100)).append(" %, waited ")
+                .append(getTotalWaitTimeInMilliseconds(priorityClass)).append(" ms)");
+        }
+
+        return stringBuilder.toString();
+    }
+
+    /**
+     * Queues the request of the given share, which must not have another request queued.
+     *
+     * @param share         The share.
+     * @param numberOfBytes The number of bytes to send.
+     */
+    synchronized void enqueue(Share share, int numberOfBytes) {
+        share.mVirtualStartTime = Math.max(mVirtualTime, share.mVirtualFinishTime);
+        share.mVirtualFinishTime = share.mVirtualStartTime + (double) numberOfBytes / share.mPriorityClass.weight;
+        share.mNumberOfBytesRequested = numberOfBytes;
+        mWaitingShares.add(share);
+    }
+
+    /**
+     * Grants the queued request of the given share, if it is its turn and there are enough tokens.
+     *
+     * @param share                 The share.
+     * @param numberOfBytes         The number of bytes to send.
+     * @param currentTimeInNanoseconds The current time.
+     * @return GRANTED, if granted. NOT_YOUR_TURN, if another share goes first. Otherwise the time
+     * to wait for the tokens in nanoseconds.
+     */
+    synchronized long tryAcquire(Share share, int numberOfBytes, long currentTimeInNanoseconds) {
+        refill(currentTimeInNanoseconds);
+        long timeToWait = timeToWaitForTokens(share, numberOfBytes);
+
+        if (timeToWait != GRANTED) {
+            return timeToWait;
+        }
+
+        if (mLinkRateInBytesPerSecond > 0) {
+            // Served in the order of the virtual finish times amongst the shares with tokens
+            for (Share waitingShare : mWaitingShares) {
+                if (waitingShare != share
+                    && waitingShare.mVirtualFinishTime < share.mVirtualFinishTime
+                    && timeToWaitForTokens(waitingShare, waitingShare.mNumberOfBytesRequested) == GRANTED) {
+                    return NOT_YOUR_TURN;
+                }
+            }
+
+            if (mNumberOfLinkTokens < Math.min(numberOfBytes, BURST_SIZE_IN_BYTES)) {
+                return (long) ((Math.min(numberOfBytes, BURST_SIZE_IN_BYTES) - mNumberOfLinkTokens)
+                    * NANOSECONDS_PER_SECOND / mLinkRateInBytesPerSecond) + 1;
+            }
+
+            mNumberOfLinkTokens -= numberOfBytes;
+        }
+
+        if (share.mRateLimitInBytesPerSecond > 0) {
+            share.mNumberOfTokens -= numberOfBytes;
+        }
+
+        mWaitingShares.remove(share);
+        mVirtualTime = Math.max(mVirtualTime, share.mVirtualStartTime);
+        mNumberOfBytesSent[share.mPriorityClass.ordinal()].addAndGet(numberOfBytes);
+        return GRANTED;
+    }
+
+    /**
+     * Blocks until the request is granted or the share is closed.
+     */
+    private boolean acquire(Share share, int numberOfBytes) {
+        synchronized (this) {
+            if (mLinkRateInBytesPerSecond == 0 && share.mRateLimitInBytesPerSecond == 0) {
+                // Nothing to shape
+                mNumberOfBytesSent[share.mPriorityClass.ordinal()].addAndGet(numberOfBytes);
+                return !share.mIsClosed;
+            }
+        }
+
+        long startTime = System.nanoTime();
+        boolean isGranted = false;
+
+        synchronized (this) {
+            if (share.mIsClosed) {
+                return false;
+            }
+
+            enqueue(share, numberOfBytes);
+
+            try {
+                while (!share.mIsClosed) {
+                    long timeToWait = tryAcquire(share, numberOfBytes, System.nanoTime());
+
+                    if (timeToWait == GRANTED) {
+                        isGranted = true;
+                        // The next in turn may be waiting for us
+                        notifyAll();
+                        break;
+                    }
+
+                    timeToWait = Math.min(timeToWait, MAXIMUM_WAIT_IN_NANOSECONDS);
+                    wait(timeToWait / 1000000L, (int) (timeToWait % 1000000L));
+                }
+            } catch (InterruptedException e) {
+                Log.w(TAG, "acquire: Interrupted while waiting for the share");
+                Thread.currentThread().interrupt();
+            }
+
+            if (!isGranted) {
+                mWaitingShares.remove(share);
+                notifyAll();
+            }
+        }
+
+        mTotalWaitTimeInNanoseconds[share.mPriorityClass.ordinal()].addAndGet(System.nanoTime() - startTime);
+        return isGranted;
+    }
+
+    /**
+     * @return GRANTED, if the share has enough tokens of its own. Otherwise the time to wait in nanoseconds.
+     */
+    private long timeToWaitForTokens(Share share, int numberOfBytes) {
+        // A chunk larger than the burst is allowed to take the bucket into debt
+        int numberOfTokensRequired = Math.min(numberOfBytes, BURST_SIZE_IN_BYTES);
+
+        if (share.mRateLimitInBytesPerSecond > 0 && share.mNumberOfTokens < numberOfTokensRequired) {
+            return (long) ((numberOfTokensRequired - share.mNumberOfTokens)
+                * NANOSECONDS_PER_SECOND / share.mRateLimitInBytesPerSecond) + 1;
+        }
+
+        return GRANTED;
+    }
+
+    /**
+     * Adds the tokens accumulated since the last refill to the buckets of the link and the
+     * waiting shares.
+     */
+    private void refill(long currentTimeInNanoseconds) {
+        if (mLinkRateInBytesPerSecond > 0) {
+            if (mLastLinkRefillTimeInNanoseconds != NOT_REFILLED) {
+                mNumberOfLinkTokens = Math.min(BURST_SIZE_IN_BYTES, mNumberOfLinkTokens
+                    + (double) (currentTimeInNanoseconds - mLastLinkRefillTimeInNanoseconds)
+                    * mLinkRateInBytesPerSecond / NANOSECONDS_PER_SECOND);
+            }
+
+            mLastLinkRefillTimeInNanoseconds = currentTimeInNanoseconds;
+        }
+
+        for (Share share : mWaitingShares) {
+            if (share.mRateLimitInBytesPerSecond > 0) {
+                if (share.mLastRefillTimeInNanoseconds != NOT_REFILLED) {
+                    share.mNumberOfTokens = Math.min(BURST_SIZE_IN_BYTES, share.mNumberOfTokens
+                        + (double) (currentTimeInNanoseconds - share.mLastRefillTimeInNanoseconds)
+                        * share.mRateLimitInBytesPerSecond / NANOSECONDS_PER_SECOND);
+                }
+
+                share.mLastRefillTimeInNanoseconds = currentTimeInNanoseconds;
+            }
+        }
+    }
+}
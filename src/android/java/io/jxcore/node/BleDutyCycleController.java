@@ -0,0 +1,270 @@
+/* Copyright (c) 2016 Microsoft Corporation. This software is licensed under the MIT License.
+ * See the license file delivered with this project for further information.
+ */
+package io.jxcore.node;
+
+import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.ScanSettings;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses the Bluetooth LE advertise and scan settings (the duty cycle) based on the live load:
+ * the aggregate throughput of the relayed data, the number of active connections and the recent
+ * discovery rate. In most modern phones the Bluetooth and BLE stacks share the same 2.4 GHz
+ * antenna (along with Wi-Fi), so the busier the link is, the less of the antenna the discovery
+ * gets. When the link is idle, the discovery is run at full power to keep it fresh.
+ *
+ * The load is evaluated periodically while there is any (and until the discovery is back at full
+ * power). Moving to a lower power level happens right away, while moving back up requires the load
+ * to stay below the exit threshold (half of the entry threshold) for a number of consecutive
+ * evaluations, so that the settings do not flap between the chunks of a transfer. A high discovery
+ * rate (peers appearing and updating) prevents pausing the scanning.
+ *
+ * The data path only adds to a counter and, if the evaluation is not running, arms the timer.
+ */
+public class BleDutyCycleController {
+
+    /**
+     * The duty cycle levels from the most to the least discovery.
+     */
+    public enum Level {
+        DISCOVERY(AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY, AdvertiseSettings.ADVERTISE_TX_POWER_HIGH,
+            ScanSettings.SCAN_MODE_LOW_LATENCY),
+        BALANCED(AdvertiseSettings.ADVERTISE_MODE_BALANCED, AdvertiseSettings.ADVERTISE_TX_POWER_MEDIUM,
+            ScanSettings.SCAN_MODE_BALANCED),
+        LOW_POWER(AdvertiseSettings.ADVERTISE_MODE_LOW_POWER, AdvertiseSettings.ADVERTISE_TX_POWER_LOW,
+            ScanSettings.SCAN_MODE_LOW_POWER),
+        SCANNING_PAUSED(AdvertiseSettings.ADVERTISE_MODE_LOW_POWER, AdvertiseSettings.ADVERTISE_TX_POWER_LOW,
+            SCAN_MODE_OPPORTUNISTIC);
+
+        public final int advertiseMode;
+        public final int advertiseTxPowerLevel;
+        public final int scanMode;
+
+        Level(int advertiseMode, int advertiseTxPowerLevel, int scanMode) {
+            this.advertiseMode = advertiseMode;
+            this.advertiseTxPowerLevel = advertiseTxPowerLevel;
+            this.scanMode = scanMode;
+        }
+    }
+
+    public interface Listener {
+        /**
+         * @return The number of active (incoming and outgoing) connections.
+         */
+        int getNumberOfActiveConnections();
+
+        /**
+         * Called, on the thread of the scheduler, when the duty cycle level changes.
+         *
+         * @param level The new level.
+         */
+        void onDutyCycleLevelChanged(Level level);
+    }
+
+    /**
+     * ScanSettings.SCAN_MODE_OPPORTUNISTIC (API level 23): no scanning of our own, only the results
+     * of the scans of the other applications are received.
+     */
+    public static final int SCAN_MODE_OPPORTUNISTIC = -1;
+
+    private static final String TAG = BleDutyCycleController.class.getName();
+    static final long EVALUATION_INTERVAL_IN_MILLISECONDS = 1000;
+    static final long BALANCED_THROUGHPUT_IN_BYTES_PER_SECOND = 1024;
+    static final long LOW_POWER_THROUGHPUT_IN_BYTES_PER_SECOND = 32 * 1024;
+    static final long SCANNING_PAUSED_THROUGHPUT_IN_BYTES_PER_SECOND = 256 * 1024;
+    static final int FRESH_DISCOVERY_EVENTS_PER_EVALUATION = 2;
+    static final int NUMBER_OF_EVALUATIONS_BEFORE_RAISING_DISCOVERY = 5;
+    private final Scheduler mScheduler;
+    private final Listener mListener;
+    private final ReusableTimer mEvaluationTimer;
+    private final AtomicLong mNumberOfBytesTransferred = new AtomicLong(0);
+    private final AtomicLong mNumberOfDiscoveryEvents = new AtomicLong(0);
+    private final AtomicBoolean mIsEvaluating = new AtomicBoolean(false);
+    private Level mLevel = Level.DISCOVERY;
+    private long mThroughputInBytesPerSecond = 0;
+    private long mNumberOfDiscoveryEventsInLastEvaluation = 0;
+    private int mNumberOfEvaluationsBelowLevel = 0;
+    private long mLastEvaluationTime = 0;
+    private long mNumberOfLevelChanges = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param scheduler The scheduler for the evaluations.
+     * @param listener  The listener, which applies the settings of the level.
+     */
+    public BleDutyCycleController(Scheduler scheduler, Listener listener) {
+        mScheduler = scheduler;
+        mListener = listener;
+        mEvaluationTimer = new ReusableTimer(mScheduler, new Runnable() {
+            @Override
+            public void run() {
+                evaluate();
+            }
+        });
+    }
+
+    /**
+     * Called for every chunk of data transferred. Does not allocate.
+     *
+     * @param numberOfBytes The number of bytes transferred.
+     */
+    public void onDataTransferred(int numberOfBytes) {
+        mNumberOfBytesTransferred.addAndGet(numberOfBytes);
+        startEvaluating();
+    }
+
+    /**
+     * Called when a peer is discovered or updated.
+     */
+    public void onDiscoveryEvent() {
+        mNumberOfDiscoveryEvents.incrementAndGet();
+    }
+
+    /**
+     * Starts evaluating the load, if not already evaluating, e.g. when a connection is established.
+     */
+    public void startEvaluating() {
+        if (mIsEvaluating.compareAndSet(false, true)) {
+            synchronized (this) {
+                mLastEvaluationTime = mScheduler.currentTimeMillis();
+            }
+
+            mEvaluationTimer.arm(EVALUATION_INTERVAL_IN_MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops evaluating and returns to the full discovery level without notifying the listener,
+     * e.g. when everything is stopped.
+     */
+    public synchronized void reset() {
+        mEvaluationTimer.cancel();
+        mIsEvaluating.set(false);
+        mNumberOfBytesTransferred.set(0);
+        mThroughputInBytesPerSecond = 0;
+        mNumberOfEvaluationsBelowLevel = 0;
+        mLevel = Level.DISCOVERY;
+    }
+
+    /**
+     * @return The current level.
+     */
+    public synchronized Level getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * @return The smoothed throughput in bytes per second as of the last evaluation.
+     */
+    public synchronized long getThroughputInBytesPerSecond() {
+        return mThroughputInBytesPerSecond;
+    }
+
+    /**
+     * @return The number of times the level has changed.
+     */
+    public synchronized long getNumberOfLevelChanges() {
+        return mNumberOfLevelChanges;
+    }
+
+    /**
+     * @return True, if the load is being evaluated periodically.
+     */
+    public boolean isEvaluating() {
+        return mIsEvaluating.get();
+    }
+
+    /**
+     * Resolves the level for the given load.
+     *
+     * @param throughputInBytesPerSecond The throughput in bytes per second.
+     * @param numberOfActiveConnections  The number of active connections.
+     * @param numberOfDiscoveryEvents    The number of discovery events since the last evaluation.
+     * @param thresholdDivisor           1 for the entry thresholds, 2 for the exit thresholds.
+     * @return The level.
+     */
+    static Level resolveLevel(long throughputInBytesPerSecond, int numberOfActiveConnections,
+                              long numberOfDiscoveryEvents, int thresholdDivisor) {
+        Level level;
+
+        if (throughputInBytesPerSecond >= SCANNING_PAUSED_THROUGHPUT_IN_BYTES_PER_SECOND / thresholdDivisor) {
+            level = Level.SCANNING_PAUSED;
+        } else if (throughputInBytesPerSecond >= LOW_POWER_THROUGHPUT_IN_BYTES_PER_SECOND / thresholdDivisor) {
+            level = Level.LOW_POWER;
+        } else if (throughputInBytesPerSecond >= BALANCED_THROUGHPUT_IN_BYTES_PER_SECOND / thresholdDivisor
+            || numberOfActiveConnections > 0) {
+            level = Level.BALANCED;
+        } else {
+            level = Level.DISCOVERY;
+        }
+
+        if (level == Level.SCANNING_PAUSED && numberOfDiscoveryEvents >= FRESH_DISCOVERY_EVENTS_PER_EVALUATION) {
+            // Peers are appearing, keep scanning
+            level = Level.LOW_POWER;
+        }
+
+        return level;
+    }
+
+    /**
+     * Evaluates the load since the last evaluation and changes the level, if necessary.
+     */
+    private void evaluate() {
+        int numberOfActiveConnections = mListener.getNumberOfActiveConnections();
+        Level newLevel = null;
+
+        synchronized (this) {
+            long now = mScheduler.currentTimeMillis();
+            long elapsedTime = Math.max(1, now - mLastEvaluationTime);
+            mLastEvaluationTime = now;
+
+            long throughput = mNumberOfBytesTransferred.getAndSet(0) * 1000 / elapsedTime;
+            // Smoothed so that a single slow chunk does not count as the end of a transfer
+            mThroughputInBytesPerSecond = (mThroughputInBytesPerSecond + throughput) / 2;
+            mNumberOfDiscoveryEventsInLastEvaluation = mNumberOfDiscoveryEvents.getAndSet(0);
+
+            Level entryLevel = resolveLevel(mThroughputInBytesPerSecond, numberOfActiveConnections,
+                mNumberOfDiscoveryEventsInLastEvaluation, 1);
+            Level exitLevel = resolveLevel(mThroughputInBytesPerSecond, numberOfActiveConnections,
+                mNumberOfDiscoveryEventsInLastEvaluation, 2);
+
+            if (entryLevel.ordinal() > mLevel.ordinal()) {
+                newLevel = entryLevel;
+            } else if (exitLevel.ordinal() < mLevel.ordinal()) {
+                mNumberOfEvaluationsBelowLevel++;
+
+                if (mNumberOfEvaluationsBelowLevel >= NUMBER_OF_EVALUATIONS_BEFORE_RAISING_DISCOVERY) {
+                    // One level at a time
+                    newLevel = Level.values()[mLevel.ordinal() - 1];
+                }
+            } else {
+                mNumberOfEvaluationsBelowLevel = 0;
+            }
+
+            if (newLevel != null) {
+                Log.i(TAG, "evaluate: " + mLevel + " -> " + newLevel + " (throughput: "
+                    + mThroughputInBytesPerSecond + " B/s, connections: " + numberOfActiveConnections
+                    + ", discovery events: " + mNumberOfDiscoveryEventsInLastEvaluation + ")");
+                mLevel = newLevel;
+                mNumberOfEvaluationsBelowLevel = 0;
+                mNumberOfLevelChanges++;
+            }
+
+            if (mLevel == Level.DISCOVERY && mThroughputInBytesPerSecond == 0 && numberOfActiveConnections == 0) {
+                // Idle, the data path will start evaluating again
+                mIsEvaluating.set(false);
+            } else {
+                mEvaluationTimer.arm(EVALUATION_INTERVAL_IN_MILLISECONDS);
+            }
+        }
+
+        if (newLevel != null) {
+            mListener.onDutyCycleLevelChanged(newLevel);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/* Copyright (c) 2016 Microsoft Corporation. This software is licensed under the MIT License.
+ * See the license file delivered with this project for further information.
+ */
+package io.jxcore.node;
+
+import android.bluetooth.BluetoothSocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A Bluetooth (RFCOMM) connection as a relay transport. RFCOMM has no half-close and segments
+ * the writes itself.
+ */
+class BluetoothRelayTransport implements RelayTransport {
+    private final BluetoothSocket mBluetoothSocket;
+
+    /**
+     * Constructor.
+     *
+     * @param bluetoothSocket The connected Bluetooth socket.
+     */
+    BluetoothRelayTransport(BluetoothSocket bluetoothSocket) {
+        if (bluetoothSocket == null) {
+            throw new NullPointerException("The Bluetooth socket is null");
+        }
+
+        mBluetoothSocket = bluetoothSocket;
+    }
+
+    public BluetoothSocket getBluetoothSocket() {
+        return mBluetoothSocket;
+    }
+
+    @Override
+    public String getName() {
+        return "Bluetooth";
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return (mBluetoothSocket.getRemoteDevice() != null)
+            ? mBluetoothSocket.getRemoteDevice().getAddress() : null;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return mBluetoothSocket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return mBluetoothSocket.getOutputStream();
+    }
+
+    @Override
+    public boolean isHalfCloseSupported() {
+        return false;
+    }
+
+    @Override
+    public int getMaximumFrameSize() {
+        return NO_MAXIMUM_FRAME_SIZE;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mBluetoothSocket.close();
+    }
+}
@@ -0,0 +1,254 @@
+/* Copyright (c) 2016 Microsoft Corporation. This software is licensed under the MIT License.
+ * See the license file delivered with this project for further information.
+ */
+package io.jxcore.node;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Closes the connections being torn down in parallel on the closer executor so that the caller
+ * does not block on the close, which can take long (BluetoothSocket.close() can block for
+ * seconds on some devices).
+ *
+ * Each teardown has a deadline. When every connection has been closed or the deadline has
+ * passed, whichever comes first, the teardown is reported (logged and passed to the listener)
+ * including the connections, which did not close in time.
+ */
+public class ConnectionCloser {
+    public interface Listener {
+        /**
+         * Called when a teardown has finished i.e. every connection has been closed or the
+         * deadline has passed.
+         *
+         * @param report The report of the teardown.
+         */
+        void onTeardownFinished(TeardownReport report);
+    }
+
+    /**
+     * The outcome of a teardown.
+     */
+    public static class TeardownReport {
+        public final String name;
+        public final int numberOfConnections;
+        public final long durationInMilliseconds;
+
+        /**
+         * The connections, which were not closed when the deadline passed.
+         */
+        public final List<String> connectionsExceedingDeadline;
+
+        TeardownReport(String name, int numberOfConnections, long durationInMilliseconds,
+                       List<String> connectionsExceedingDeadline) {
+            this.name = name;
+            this.numberOfConnections = numberOfConnections;
+            this.durationInMilliseconds = durationInMilliseconds;
+            this.connectionsExceedingDeadline = Collections.unmodifiableList(connectionsExceedingDeadline);
+        }
+
+        /**
+         * @return True, if every connection was closed before the deadline.
+         */
+        public boolean isComplete() {
+            return connectionsExceedingDeadline.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %d connection(s) in %d ms, %d exceeded the deadline%s",
+                name, numberOfConnections, durationInMilliseconds, connectionsExceedingDeadline.size(),
+                isComplete() ? "" : " " + connectionsExceedingDeadline);
+        }
+    }
+
+    /**
+     * The state of a single teardown.
+     */
+    private class Teardown {
+        private final String mName;
+        private final List<SocketThreadBase> mSocketThreadsNotClosed;
+        private final int mNumberOfConnections;
+        private final long mStartTime;
+        private Scheduler.ScheduledTask mDeadlineTask = null;
+        private boolean mIsReported = false;
+
+        Teardown(String name, List<? extends SocketThreadBase> socketThreads) {
+            mName = name;
+            mSocketThreadsNotClosed = new ArrayList<SocketThreadBase>(socketThreads);
+            mNumberOfConnections = socketThreads.size();
+            mStartTime = mScheduler.currentTimeMillis();
+        }
+
+        void start() {
+            synchronized (this) {
+                mDeadlineTask = mScheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        onDeadline();
+                    }
+                }, mDeadlineInMilliseconds);
+            }
+
+            for (SocketThreadBase socketThread : new ArrayList<SocketThreadBase>(mSocketThreadsNotClosed)) {
+                final SocketThreadBase socketThreadToClose = socketThread;
+                Runnable closeRunnable = new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            socketThreadToClose.close();
+                        } catch (RuntimeException e) {
+                            Log.e(TAG, "start: Failed to close " + describe(socketThreadToClose)
+                                + ": " + e.getMessage(), e);
+                        } finally {
+                            onClosed(socketThreadToClose);
+                        }
+                    }
+                };
+
+                try {
+                    mExecutor.execute(closeRunnable);
+                } catch (RejectedExecutionException e) {
+                    Log.e(TAG, "start: The closer executor rejected the close, closing on the caller thread");
+                    closeRunnable.run();
+                }
+            }
+        }
+
+        private void onClosed(SocketThreadBase socketThread) {
+            TeardownReport report = null;
+
+            synchronized (this) {
+                // SocketThreadBase.equals compares the peers, so remove by identity
+                for (int i = 0; i < mSocketThreadsNotClosed.size(); i++) {
+                    if (mSocketThreadsNotClosed.get(i) == socketThread) {
+                        mSocketThreadsNotClosed.remove(i);
+                        break;
+                    }
+                }
+
+                if (mIsReported) {
+                    Log.w(TAG, "onClosed: " + describe(socketThread) + " closed "
+                        + (mScheduler.currentTimeMillis() - mStartTime) + " ms after the teardown started");
+                } else if (mSocketThreadsNotClosed.isEmpty()) {
+                    if (mDeadlineTask != null) {
+                        mDeadlineTask.cancel();
+                        mDeadlineTask = null;
+                    }
+
+                    report = createReport();
+                }
+            }
+
+            if (report != null) {
+                notifyTeardownFinished(report);
+            }
+        }
+
+        private void onDeadline() {
+            TeardownReport report = null;
+
+            synchronized (this) {
+                mDeadlineTask = null;
+
+                if (!mIsReported) {
+                    report = createReport();
+                }
+            }
+
+            if (report != null) {
+                notifyTeardownFinished(report);
+            }
+        }
+
+        /**
+         * Should be called while holding the lock of this teardown.
+         */
+        private TeardownReport createReport() {
+            mIsReported = true;
+            List<String> connectionsExceedingDeadline = new ArrayList<String>();
+
+            for (SocketThreadBase socketThread : mSocketThreadsNotClosed) {
+                connectionsExceedingDeadline.add(describe(socketThread));
+            }
+
+            return new TeardownReport(mName, mNumberOfConnections,
+                mScheduler.currentTimeMillis() - mStartTime, connectionsExceedingDeadline);
+        }
+    }
+
+    private static final String TAG = ConnectionCloser.class.getName();
+    public static final long DEFAULT_DEADLINE_IN_MILLISECONDS = 3000;
+    private final Executor mExecutor;
+    private final Scheduler mScheduler;
+    private final long mDeadlineInMilliseconds;
+    private volatile Listener mListener = null;
+
+    /**
+     * Constructor for a closer running on the closer executor with the default deadline.
+     */
+    public ConnectionCloser() {
+        this(ConnectionExecutors.getCloserExecutor(), HandlerScheduler.getDefault(),
+            DEFAULT_DEADLINE_IN_MILLISECONDS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param executor               The executor to close the connections on.
+     * @param scheduler              The scheduler for measuring the time and for the deadline.
+     * @param deadlineInMilliseconds The time in milliseconds a connection has for closing.
+     */
+    public ConnectionCloser(Executor executor, Scheduler scheduler, long deadlineInMilliseconds) {
+        mExecutor = executor;
+        mScheduler = scheduler;
+        mDeadlineInMilliseconds = deadlineInMilliseconds;
+    }
+
+    /**
+     * @param listener The listener for the teardown reports. Can be null.
+     */
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Closes the given socket threads asynchronously. Returns without waiting for the closes.
+     * The socket threads should already be removed from the connection model.
+     *
+     * @param name          The name of the teardown for the report.
+     * @param socketThreads The socket threads to close.
+     */
+    public void closeAll(String name, List<? extends SocketThreadBase> socketThreads) {
+        if (socketThreads.isEmpty()) {
+            return;
+        }
+
+        Log.d(TAG, "closeAll: " + name + ": Closing " + socketThreads.size() + " connection(s)");
+        new Teardown(name, socketThreads).start();
+    }
+
+    private void notifyTeardownFinished(TeardownReport report) {
+        if (report.isComplete()) {
+            Log.i(TAG, "notifyTeardownFinished: " + report);
+        } else {
+            Log.w(TAG, "notifyTeardownFinished: " + report);
+        }
+
+        Listener listener = mListener;
+
+        if (listener != null) {
+            listener.onTeardownFinished(report);
+        }
+    }
+
+    private static String describe(SocketThreadBase socketThread) {
+        return "peer " + socketThread.getPeerProperties() + " (thread " + socketThread.getId() + ")";
+    }
+}
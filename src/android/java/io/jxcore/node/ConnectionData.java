@@ -10,16 +10,23 @@ public class ConnectionData {
     public final PeerProperties peerProperties;
     public final int id;
     public final boolean isIncoming;
+    public final BandwidthShaper.PriorityClass priorityClass;
 
     public ConnectionData(PeerProperties peerProperties, boolean isIncoming) {
+        this(peerProperties, isIncoming, BandwidthShaper.PriorityClass.DEFAULT);
+    }
+
+    public ConnectionData(PeerProperties peerProperties, boolean isIncoming,
+                          BandwidthShaper.PriorityClass priorityClass) {
         this.peerProperties = peerProperties;
         this.isIncoming = isIncoming;
+        this.priorityClass = priorityClass;
         this.id = INDEX_ID.getAndAdd(1);
     }
 
     @Override
     public String toString() {
         return "Peer properties: " + peerProperties.toString() + ".\n Is incomming connection: " +
-            isIncoming + ".\n id: " + id;
+            isIncoming + ".\n Priority class: " + priorityClass + ".\n id: " + id;
     }
 }
@@ -0,0 +1,242 @@
+/* Copyright (c) 2016 Microsoft Corporation. This software is licensed under the MIT License.
+ * See the license file delivered with this project for further information.
+ */
+package io.jxcore.node;
+
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The shared executors for the connection work: the control executor runs the socket threads
+ * (establishing the local connection: connect/accept) and the short radio steps of the start and
+ * stop operations (see StartStopOperationHandler), and the data executor runs the stream copying
+ * threads.
+ *
+ * The executors do not queue: every task gets a thread right away (an idle one is reused, if
+ * available), since the tasks block for the lifetime of a connection and a queued task would stall
+ * the connection indefinitely. The executors are bounded by the number of threads the connections
+ * served at most need (see MAXIMUM_NUMBER_OF_CONNECTIONS_SERVED) and the tasks exceeding the bound
+ * are rejected, which fails the connection. The bound can be changed (see
+ * setMaximumNumberOfThreads). The pool threads are created with a smaller stack than the default,
+ * since the work does not recurse deep.
+ *
+ * The closer executor runs the closing of the connections being torn down (see ConnectionCloser).
+ * Unlike the others it queues: a close is short-lived (or bounded by the deadline of the closer),
+ * so it is fine for it to wait for a free thread.
+ */
+public class ConnectionExecutors {
+
+    /**
+     * A snapshot of the metrics of an executor.
+     */
+    public static class Statistics {
+        public final String name;
+        public final int poolSize;
+        public final int activeCount;
+        public final int largestPoolSize;
+        public final int maximumPoolSize;
+        public final long completedTaskCount;
+        public final long rejectedTaskCount;
+
+        Statistics(String name, int poolSize, int activeCount, int largestPoolSize, int maximumPoolSize,
+                   long completedTaskCount, long rejectedTaskCount) {
+            this.name = name;
+            this.poolSize = poolSize;
+            this.activeCount = activeCount;
+            this.largestPoolSize = largestPoolSize;
+            this.maximumPoolSize = maximumPoolSize;
+            this.completedTaskCount = completedTaskCount;
+            this.rejectedTaskCount = rejectedTaskCount;
+        }
+
+        /**
+         * @return The peak utilization of the pool (0-1), 1 meaning the pool has been saturated.
+         * Always 0, if the pool is not bounded (see setMaximumNumberOfThreads).
+         */
+        public double getPeakUtilization() {
+            return (maximumPoolSize > 0 && maximumPoolSize != NO_MAXIMUM_NUMBER_OF_THREADS)
+                ? (double) largestPoolSize / maximumPoolSize : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                "%s: %d/%d threads active (pool size %d, largest %d, peak utilization %.0f %%), %d tasks completed, %d rejected",
+                name, activeCount, maximumPoolSize, poolSize, largestPoolSize, getPeakUtilization() * 100,
+                completedTaskCount, rejectedTaskCount);
+        }
+    }
+
+    /**
+     * A bounded executor with named threads of the given stack size.
+     */
+    private static class NamedExecutor extends ThreadPoolExecutor {
+        private final String mName;
+        private final AtomicLong mRejectedTaskCount = new AtomicLong();
+        private volatile long mThreadStackSizeInBytes;
+
+        NamedExecutor(String name, int maximumPoolSize, long threadStackSizeInBytes) {
+            this(name, 0, maximumPoolSize, new SynchronousQueue<Runnable>(), threadStackSizeInBytes);
+        }
+
+        NamedExecutor(final String name, int corePoolSize, int maximumPoolSize,
+                      BlockingQueue<Runnable> workQueue, long threadStackSizeInBytes) {
+            super(corePoolSize, maximumPoolSize, KEEP_ALIVE_TIME_IN_SECONDS, TimeUnit.SECONDS, workQueue);
+
+            mName = name;
+            mThreadStackSizeInBytes = threadStackSizeInBytes;
+
+            setThreadFactory(new ThreadFactory() {
+                private final AtomicInteger mThreadNumber = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(null, runnable,
+                        "Thali/" + name + "-" + mThreadNumber.incrementAndGet(), mThreadStackSizeInBytes);
+                    thread.setUncaughtExceptionHandler(UNCAUGHT_EXCEPTION_HANDLER);
+                    return thread;
+                }
+            });
+
+            setRejectedExecutionHandler(new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                    mRejectedTaskCount.incrementAndGet();
+                    Log.e(TAG, "rejectedExecution: The " + mName + " executor is saturated: " + getStatistics());
+                    throw new RejectedExecutionException("The " + mName + " executor is saturated");
+                }
+            });
+        }
+
+        Statistics getStatistics() {
+            return new Statistics(mName, getPoolSize(), getActiveCount(), getLargestPoolSize(),
+                getMaximumPoolSize(), getCompletedTaskCount(), mRejectedTaskCount.get());
+        }
+    }
+
+    private static final String TAG = ConnectionExecutors.class.getName();
+    private static final long KEEP_ALIVE_TIME_IN_SECONDS = 30;
+
+    public static final int NO_MAXIMUM_NUMBER_OF_THREADS = Integer.MAX_VALUE;
+
+    // The outgoing connections are limited by ConnectionHelper, and as many incoming connections
+    // are served on top of them. The connections beyond are rejected
+    static final int MAXIMUM_NUMBER_OF_CONNECTIONS_SERVED = 2 * ConnectionHelper.MAXIMUM_NUMBER_OF_CONNECTIONS;
+
+    // The radio steps of the start and stop operations in flight
+    private static final int NUMBER_OF_OPERATION_THREADS = 4;
+
+    // Per connection, one socket thread, blocking (e.g. in accept) until the local connection is
+    // established, and one control frame of the link upgrade being sent (see UpgradableLink), and
+    // two stream copying threads
+    static final int DEFAULT_MAXIMUM_NUMBER_OF_CONTROL_THREADS =
+        2 * MAXIMUM_NUMBER_OF_CONNECTIONS_SERVED + NUMBER_OF_OPERATION_THREADS;
+    static final int DEFAULT_MAXIMUM_NUMBER_OF_DATA_THREADS = 2 * MAXIMUM_NUMBER_OF_CONNECTIONS_SERVED;
+
+    // The number of connections closed in parallel when tearing down
+    private static final int NUMBER_OF_CLOSER_THREADS = 8;
+
+    private static final long DEFAULT_CONTROL_THREAD_STACK_SIZE_IN_BYTES = 256 * 1024;
+    private static final long DEFAULT_DATA_THREAD_STACK_SIZE_IN_BYTES = 128 * 1024;
+    private static final long CLOSER_THREAD_STACK_SIZE_IN_BYTES = 128 * 1024;
+
+    private static final Thread.UncaughtExceptionHandler UNCAUGHT_EXCEPTION_HANDLER =
+        new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread thread, Throwable throwable) {
+                Log.e(TAG, "Uncaught exception in thread " + thread.getName() + ": " + throwable.getMessage(), throwable);
+            }
+        };
+
+    private static final NamedExecutor mControlExecutor = new NamedExecutor(
+        "Control", DEFAULT_MAXIMUM_NUMBER_OF_CONTROL_THREADS, DEFAULT_CONTROL_THREAD_STACK_SIZE_IN_BYTES);
+    private static final NamedExecutor mDataExecutor = new NamedExecutor(
+        "Data", DEFAULT_MAXIMUM_NUMBER_OF_DATA_THREADS, DEFAULT_DATA_THREAD_STACK_SIZE_IN_BYTES);
+    private static final NamedExecutor mCloserExecutor = new NamedExecutor(
+        "Closer", NUMBER_OF_CLOSER_THREADS, NUMBER_OF_CLOSER_THREADS,
+        new LinkedBlockingQueue<Runnable>(), CLOSER_THREAD_STACK_SIZE_IN_BYTES);
+
+    static {
+        mCloserExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private ConnectionExecutors() {
+    }
+
+    /**
+     * @return The executor for establishing the connections (the socket threads).
+     */
+    public static ThreadPoolExecutor getControlExecutor() {
+        return mControlExecutor;
+    }
+
+    /**
+     * @return The executor for copying the data (the stream copying threads).
+     */
+    public static ThreadPoolExecutor getDataExecutor() {
+        return mDataExecutor;
+    }
+
+    /**
+     * @return The executor for closing the connections being torn down.
+     */
+    public static ThreadPoolExecutor getCloserExecutor() {
+        return mCloserExecutor;
+    }
+
+    /**
+     * Sets the maximum number of threads in the executors. The connections exceeding the maximum
+     * are rejected, so the maximum should exceed the number of connections expected. The defaults
+     * are DEFAULT_MAXIMUM_NUMBER_OF_CONTROL_THREADS and DEFAULT_MAXIMUM_NUMBER_OF_DATA_THREADS.
+     *
+     * @param maximumNumberOfControlThreads The maximum number of control threads or
+     *                                      NO_MAXIMUM_NUMBER_OF_THREADS.
+     * @param maximumNumberOfDataThreads    The maximum number of data threads or
+     *                                      NO_MAXIMUM_NUMBER_OF_THREADS.
+     */
+    public static void setMaximumNumberOfThreads(int maximumNumberOfControlThreads, int maximumNumberOfDataThreads) {
+        Log.i(TAG, "setMaximumNumberOfThreads: Control: " + maximumNumberOfControlThreads
+            + ", data: " + maximumNumberOfDataThreads);
+        mControlExecutor.setMaximumPoolSize(maximumNumberOfControlThreads);
+        mDataExecutor.setMaximumPoolSize(maximumNumberOfDataThreads);
+    }
+
+    /**
+     * Sets the stack size of the threads created after this call. Note that the value is only a
+     * hint to the runtime.
+     *
+     * @param controlThreadStackSizeInBytes The stack size of the control threads in bytes.
+     *                                      0 for the default of the runtime.
+     * @param dataThreadStackSizeInBytes    The stack size of the data threads in bytes.
+     *                                      0 for the default of the runtime.
+     */
+    public static void setThreadStackSizes(long controlThreadStackSizeInBytes, long dataThreadStackSizeInBytes) {
+        Log.i(TAG, "setThreadStackSizes: Control: " + controlThreadStackSizeInBytes
+            + " bytes, data: " + dataThreadStackSizeInBytes + " bytes");
+        mControlExecutor.mThreadStackSizeInBytes = controlThreadStackSizeInBytes;
+        mDataExecutor.mThreadStackSizeInBytes = dataThreadStackSizeInBytes;
+    }
+
+    public static Statistics getControlStatistics() {
+        return mControlExecutor.getStatistics();
+    }
+
+    public static Statistics getDataStatistics() {
+        return mDataExecutor.getStatistics();
+    }
+
+    public static Statistics getCloserStatistics() {
+        return mCloserExecutor.getStatistics();
+    }
+}
@@ -8,7 +8,6 @@ import android.bluetooth.BluetoothSocket;
 import android.bluetooth.le.AdvertiseSettings;
 import android.bluetooth.le.ScanSettings;
 import android.content.Context;
-import android.os.CountDownTimer;
 import android.system.ErrnoException;
 import android.system.OsConstants;
 import android.util.Log;
@@ -21,7 +20,10 @@ import org.thaliproject.p2p.btconnectorlib.DiscoveryManagerSettings;
 import org.thaliproject.p2p.btconnectorlib.PeerProperties;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Wraps the Android connector library functionality and provides an interface for JXcore layer
@@ -42,8 +44,10 @@ public class ConnectionHelper
     private static final UUID BLE_SERVICE_UUID = UUID.fromString(BLE_SERVICE_UUID_AS_STRING);
     private static final int MANUFACTURER_ID = 7413;
     private static final long NOTIFY_DISCOVERY_ADVERTISING_STATE_DELAY_IN_MILLISECONDS = 500;
-    private static final long POWER_UP_BLE_DISCOVERY_DELAY_IN_MILLISECONDS = 15000;
-    private static final int MAXIMUM_NUMBER_OF_CONNECTIONS = 30; // TODO: Determine a way to figure out a proper value here, see issue #37
+    private static final int MINIMUM_API_LEVEL_FOR_OPPORTUNISTIC_SCAN_MODE = 23;
+    private static final int MAXIMUM_NUMBER_OF_PRECONNECT_SLOTS = 2;
+    private static final long PRECONNECT_SLOT_TIME_TO_LIVE_IN_MILLISECONDS = 10000;
+    static final int MAXIMUM_NUMBER_OF_CONNECTIONS = 30; // TODO: Determine a way to figure out a proper value here, see issue #37
 
     private final Context mContext;
     private final Thread.UncaughtExceptionHandler mThreadUncaughtExceptionHandler;
@@ -54,9 +58,31 @@ public class ConnectionHelper
     private final DiscoveryManagerSettings mDiscoveryManagerSettings;
     private final ConnectivityMonitor mConnectivityMonitor;
     private final StartStopOperationHandler mStartStopOperationHandler;
-    private CountDownTimer mNotifyDiscoveryAdvertisingStateUpdateNonTcp = null;
-    private CountDownTimer mPowerUpBleDiscoveryTimer = null;
+    private final Scheduler mScheduler;
+    private final ReusableTimer mNotifyDiscoveryAdvertisingStateUpdateNonTcp;
+    private final BleDutyCycleController mBleDutyCycleController;
+    private final PreconnectSlots<BluetoothSocket> mPreconnectSlots;
+    private final PeerLivenessTable mPeerLivenessTable;
+    private final MultiConnectLinks mMultiConnectLinks;
+    private volatile boolean mIsSpeculativePreconnectEnabled = false;
+    private volatile boolean mIsDiscovering = false;
+    private volatile boolean mIsAdvertising = false;
     private int mServerPortNumber = NO_PORT_NUMBER;
+    private String mServerSocketPath = null;
+
+    private final Runnable mNotifyDiscoveryAdvertisingStateUpdateNonTcpRunnable = new Runnable() {
+        @Override
+        public void run() {
+            final boolean isDiscovering = mIsDiscovering;
+            final boolean isAdvertising = mIsAdvertising;
+
+            Log.v(TAG, "Notifying discovery manager state change: is discovering: "
+                + isDiscovering + ", is advertising: " + isAdvertising);
+
+            mStartStopOperationHandler.processCurrentOperationStatus();
+            surroundingStateObserver.notifyDiscoveryAdvertisingStateUpdateNonTcp(isDiscovering, isAdvertising);
+        }
+    };
 
     // Uncomment the following to take the TestHelper into use.
     // See the documentation in TestHelper.java for more information.
@@ -66,7 +92,44 @@ public class ConnectionHelper
      * Constructor.
      */
     public ConnectionHelper(SurroundingStateObserver stateObserver) {
+        this(stateObserver, HandlerScheduler.getDefault());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param stateObserver The observer of the surrounding state.
+     * @param scheduler     The scheduler for the timers (debouncing and the operation timeouts).
+     */
+    public ConnectionHelper(SurroundingStateObserver stateObserver, Scheduler scheduler) {
         mContext = jxcore.activity.getBaseContext();
+        mScheduler = scheduler;
+        mNotifyDiscoveryAdvertisingStateUpdateNonTcp =
+            new ReusableTimer(mScheduler, mNotifyDiscoveryAdvertisingStateUpdateNonTcpRunnable);
+        mBleDutyCycleController = new BleDutyCycleController(mScheduler, new BleDutyCycleController.Listener() {
+            @Override
+            public int getNumberOfActiveConnections() {
+                return mConnectionModel.getNumberOfCurrentConnections();
+            }
+
+            @Override
+            public void onDutyCycleLevelChanged(BleDutyCycleController.Level level) {
+                applyBleDutyCycleLevel(level);
+            }
+        });
+        mPreconnectSlots = new PreconnectSlots<BluetoothSocket>(
+            mScheduler, MAXIMUM_NUMBER_OF_PRECONNECT_SLOTS, PRECONNECT_SLOT_TIME_TO_LIVE_IN_MILLISECONDS);
+        mPeerLivenessTable = new PeerLivenessTable(mScheduler, new PeerLivenessTable.Listener() {
+            @Override
+            public boolean hasConnection(String peerId) {
+                return mConnectionModel.hasConnection(peerId);
+            }
+
+            @Override
+            public void onPeerAvailabilityChanged(PeerProperties peerProperties, boolean isAvailable) {
+                surroundingStateObserver.notifyPeerAvailabilityChanged(peerProperties, isAvailable);
+            }
+        });
 
         mThreadUncaughtExceptionHandler = new Thread.UncaughtExceptionHandler() {
             @Override
@@ -82,6 +145,32 @@ public class ConnectionHelper
         surroundingStateObserver = stateObserver;
 
         mConnectionModel = new ConnectionModel();
+        mMultiConnectLinks = new MultiConnectLinks(new MultiConnectLinks.Connector() {
+            @Override
+            public String connect(String peerId, JXcoreThaliCallback callback) {
+                return ConnectionHelper.this.connect(peerId, callback);
+            }
+
+            @Override
+            public int getListeningPortNumber(String peerId) {
+                return mConnectionModel.getListeningPortNumberOfOutgoingConnection(peerId);
+            }
+
+            @Override
+            public boolean disconnect(String peerId) {
+                return disconnectOutgoingConnection(peerId);
+            }
+        }, new MultiConnectLinks.Listener() {
+            @Override
+            public void onMultiConnectResolved(String syncValue, String errorMessage, int listeningPortNumber) {
+                surroundingStateObserver.notifyMultiConnectResolved(syncValue, errorMessage, listeningPortNumber);
+            }
+
+            @Override
+            public void onMultiConnectConnectionFailure(String peerId, String errorMessage) {
+                surroundingStateObserver.notifyMultiConnectConnectionFailure(peerId, errorMessage);
+            }
+        });
 
         mConnectionManager = new ConnectionManager(mContext, this, SERVICE_UUID, BLUETOOTH_NAME);
         ConnectionManagerSettings connectionManagerSettings = ConnectionManagerSettings.getInstance(mContext);
@@ -101,9 +190,9 @@ public class ConnectionHelper
             Log.e(TAG, "Constructor: Bluetooth LE discovery mode is not supported");
         }
 
-        mConnectivityMonitor = new ConnectivityMonitor(mDiscoveryManager, surroundingStateObserver);
+        mConnectivityMonitor = new ConnectivityMonitor(mDiscoveryManager, surroundingStateObserver, mScheduler);
 
-        mStartStopOperationHandler = new StartStopOperationHandler(mConnectionManager, mDiscoveryManager);
+        mStartStopOperationHandler = new StartStopOperationHandler(mConnectionManager, mDiscoveryManager, mScheduler);
 
         // Uncomment the following to take the TestHelper into use.
         // See the documentation in TestHelper.java for more information.
@@ -123,6 +212,8 @@ public class ConnectionHelper
      */
     public void dispose() {
         mStartStopOperationHandler.cancelCurrentOperation();
+        mPreconnectSlots.clear();
+        mPeerLivenessTable.clear();
         mConnectionManager.dispose();
         mDiscoveryManager.dispose();
         mConnectivityMonitor.stop();
@@ -146,6 +237,7 @@ public class ConnectionHelper
 
         if (serverPortNumber > 0) {
             mServerPortNumber = serverPortNumber;
+            mServerSocketPath = null;
         }
 
         restoreDefaultBleDiscoverySettings();
@@ -163,6 +255,25 @@ public class ConnectionHelper
         return true;
     }
 
+    /**
+     * Starts the connection manager and the discovery manager bridging the incoming connections to
+     * the Unix domain socket of the Node server instead of a TCP port. This also tells that the
+     * Node layer can connect to Unix domain sockets, so the outgoing connections, which callbacks
+     * accept a path, listen on one instead of a TCP port.
+     *
+     * @param serverSocketPath    The path of the Unix domain socket of the Node server.
+     * @param startAdvertisements If true, will start advertising our presence and scanning for other peers.
+     *                            If false, will only scan for other peers.
+     * @param callback            The callback to call when we get the (start) operation result.
+     * @return True, if started successfully. False otherwise.
+     */
+    public synchronized boolean start(
+        String serverSocketPath, boolean startAdvertisements, JXcoreThaliCallback callback) {
+        Log.i(TAG, "start: Server socket path: " + serverSocketPath);
+        mServerSocketPath = serverSocketPath;
+        return start(NO_PORT_NUMBER, startAdvertisements, callback);
+    }
+
     /**
      * Stops discovery partially (listening) or stops everything depending on the given argument.
      *
@@ -178,11 +289,9 @@ public class ConnectionHelper
 
         if (!stopOnlyListeningForAdvertisements) {
             killConnections(false);
-
-            if (mPowerUpBleDiscoveryTimer != null) {
-                mPowerUpBleDiscoveryTimer.cancel();
-                mPowerUpBleDiscoveryTimer = null;
-            }
+            mPreconnectSlots.clear();
+            mPeerLivenessTable.clear();
+            mBleDutyCycleController.reset();
         }
 
         mStartStopOperationHandler.executeStopOperation(stopOnlyListeningForAdvertisements, callback);
@@ -196,6 +305,7 @@ public class ConnectionHelper
      */
     public synchronized int killConnections(boolean killIncomingConnections) {
         mConnectionModel.closeAndRemoveAllOutgoingConnections();
+        mMultiConnectLinks.clear();
         int numberOfIncomingConnectionsKilled = 0;
 
         if (killIncomingConnections) {
@@ -234,6 +344,66 @@ public class ConnectionHelper
         return mConnectionModel;
     }
 
+    /**
+     * @return The latency statistics of the start and stop state transitions.
+     */
+    public final TransitionLatencyStatistics getTransitionLatencyStatistics() {
+        return mStartStopOperationHandler.getLatencyStatistics();
+    }
+
+    /**
+     * @return The statistics of the generation updates, ours and the ones of the peers.
+     */
+    public final GenerationStatistics getGenerationStatistics() {
+        return mStartStopOperationHandler.getGenerationStatistics();
+    }
+
+    /**
+     * Enables or disables the speculative connections: when enabled, a connection to a peer
+     * announcing a new generation is started right away and held (for a limited time) for the
+     * connect call, which is expected to follow. Disabled by default, since every connection not
+     * used costs the time of the shared antenna.
+     *
+     * @param enabled True, if the speculative connections should be made.
+     */
+    public void setSpeculativePreconnectEnabled(boolean enabled) {
+        Log.i(TAG, "setSpeculativePreconnectEnabled: " + enabled);
+        mIsSpeculativePreconnectEnabled = enabled;
+    }
+
+    /**
+     * @return True, if the speculative connections are enabled.
+     */
+    public boolean isSpeculativePreconnectEnabled() {
+        return mIsSpeculativePreconnectEnabled;
+    }
+
+    /**
+     * Sets the time to live and the hysteresis of the peer availability: a lost peer is notified
+     * unavailable only after it has been missed the given number of times, the loss being the
+     * first miss and every time to live period without the peer being seen again another.
+     *
+     * @param timeToLiveInMilliseconds        The time a lost peer has to be seen again.
+     * @param numberOfMissesBeforeUnavailable The number of misses before the peer is unavailable.
+     */
+    public void setPeerLivenessParameters(long timeToLiveInMilliseconds, int numberOfMissesBeforeUnavailable) {
+        mPeerLivenessTable.setParameters(timeToLiveInMilliseconds, numberOfMissesBeforeUnavailable);
+    }
+
+    /**
+     * @return The liveness table, which drives the peer availability notifications.
+     */
+    public final PeerLivenessTable getPeerLivenessTable() {
+        return mPeerLivenessTable;
+    }
+
+    /**
+     * @return The slots of the speculative connections including their hit, miss and waste counts.
+     */
+    public final PreconnectSlots<BluetoothSocket> getPreconnectSlots() {
+        return mPreconnectSlots;
+    }
+
     /**
      * Disconnects the outgoing connection with the given peer ID.
      *
@@ -334,6 +504,24 @@ public class ConnectionHelper
             return errorMessage;
         }
 
+        PreconnectSlots<BluetoothSocket>.Claim claim = mPreconnectSlots.takeOrClaim(bluetoothMacAddress);
+
+        if (claim != null && claim.getWarmSocket() != null) {
+            Log.i(TAG, "connect: Using the speculative connection to peer with ID " + bluetoothMacAddress);
+            finalizeConnection(claim.getWarmSocket(), null, null, false, selectedDevice);
+            return null;
+        }
+
+        if (claim != null) {
+            // The connection is finalized, when the attempt in flight succeeds
+            Log.i(TAG, "connect: Joining the speculative connection attempt to peer with ID " + bluetoothMacAddress);
+            return null;
+        }
+
+        if (mIsSpeculativePreconnectEnabled) {
+            mPreconnectSlots.recordMiss();
+        }
+
         if (mConnectionManager.connect(selectedDevice)) {
             Log.i(TAG, "connect: Connection process successfully started (peer ID: " + bluetoothMacAddress + ")");
         } else {
@@ -345,6 +533,36 @@ public class ConnectionHelper
         return null;
     }
 
+    /**
+     * Resolves the port of the link to the given peer, reusing the existing outgoing connection
+     * to the peer or establishing one. The result is notified via the surrounding state observer.
+     *
+     * @param bluetoothMacAddress The Bluetooth MAC address of the peer.
+     * @param syncValue           The value identifying the call in the notification.
+     */
+    public void multiConnect(String bluetoothMacAddress, String syncValue) {
+        Log.i(TAG, "multiConnect: Peer ID: " + bluetoothMacAddress + ", sync value: " + syncValue);
+        mMultiConnectLinks.multiConnect(bluetoothMacAddress, syncValue);
+    }
+
+    /**
+     * Closes the link to the given peer established by multiConnect.
+     *
+     * @param bluetoothMacAddress The Bluetooth MAC address of the peer.
+     * @return True, if there was a link or one being established.
+     */
+    public boolean disconnect(String bluetoothMacAddress) {
+        Log.i(TAG, "disconnect: Peer ID: " + bluetoothMacAddress);
+        return mMultiConnectLinks.disconnect(bluetoothMacAddress);
+    }
+
+    /**
+     * @return The links established by multiConnect.
+     */
+    public final MultiConnectLinks getMultiConnectLinks() {
+        return mMultiConnectLinks;
+    }
+
     /**
      * Toggles between the system decided and the default alternative insecure RFCOMM port number.
      */
@@ -389,6 +607,50 @@ public class ConnectionHelper
             throw new RuntimeException("onConnected: Bluetooth socket is null");
         }
 
+        if (!isIncoming && mPreconnectSlots.onConnected(peerProperties.getBluetoothMacAddress(), bluetoothSocket)) {
+            // Speculative, held until the connect call takes it
+            return;
+        }
+
+        finalizeConnection(bluetoothSocket, null, null, isIncoming, peerProperties);
+    }
+
+    /**
+     * Takes ownership of the given streams and finalizes the connection. This is used by
+     * transports, which do not provide the streams via a Bluetooth socket (e.g. a simulated
+     * transport used for testing).
+     *
+     * @param bluetoothSocket The Bluetooth socket. Can be null.
+     * @param inputStream     The input stream of the connection.
+     * @param outputStream    The output stream of the connection.
+     * @param isIncoming      True, if the connection is incoming. False, if it is outgoing.
+     * @param peerProperties  The peer properties.
+     */
+    void onConnected(BluetoothSocket bluetoothSocket, InputStream inputStream, OutputStream outputStream,
+                     boolean isIncoming, PeerProperties peerProperties) {
+        Log.i(TAG, "onConnected: " + (isIncoming ? "Incoming" : "Outgoing")
+            + " connection (streams given) to peer " + peerProperties.toString());
+
+        if (inputStream == null || outputStream == null) {
+            Log.e(TAG, "onConnected: Input or output stream is null");
+            throw new IllegalArgumentException("onConnected: Input or output stream is null");
+        }
+
+        finalizeConnection(bluetoothSocket, inputStream, outputStream, isIncoming, peerProperties);
+    }
+
+    /**
+     * Adds the peer to the peer model, if not already there, and constructs the socket thread
+     * for the new connection.
+     *
+     * @param bluetoothSocket The Bluetooth socket. Can be null, if the streams are given.
+     * @param inputStream     The input stream. If null, the stream is taken from the Bluetooth socket.
+     * @param outputStream    The output stream. If null, the stream is taken from the Bluetooth socket.
+     * @param isIncoming      True, if the connection is incoming. False, if it is outgoing.
+     * @param peerProperties  The peer properties.
+     */
+    private void finalizeConnection(BluetoothSocket bluetoothSocket, InputStream inputStream,
+                                    OutputStream outputStream, boolean isIncoming, PeerProperties peerProperties) {
         if (mDiscoveryManager.getPeerModel()
             .getDiscoveredPeerByBluetoothMacAddress(peerProperties.getBluetoothMacAddress()) == null) {
             Log.i(TAG, "onConnected: This (" + peerProperties.toString()
@@ -397,9 +659,9 @@ public class ConnectionHelper
         }
 
         if (isIncoming) {
-            handleIncomingConnection(bluetoothSocket, peerProperties);
+            handleIncomingConnection(bluetoothSocket, inputStream, outputStream, peerProperties);
         } else {
-            handleOutgoingConnection(bluetoothSocket, peerProperties);
+            handleOutgoingConnection(bluetoothSocket, inputStream, outputStream, peerProperties);
         }
 
         Log.d(TAG, "onConnected: The total number of connections is now "
@@ -416,6 +678,7 @@ public class ConnectionHelper
         if (peerProperties != null) {
             Log.e(TAG, "onConnectionTimeout: Connection attempt with peer " + peerProperties + " timed out");
             final String bluetoothMacAddress = peerProperties.getBluetoothMacAddress();
+            boolean wasUnclaimedSpeculativeAttempt = mPreconnectSlots.onConnectionFailed(bluetoothMacAddress);
             final JXcoreThaliCallback callback =
                 mConnectionModel.getOutgoingConnectionCallbackByBluetoothMacAddress(bluetoothMacAddress);
 
@@ -427,7 +690,9 @@ public class ConnectionHelper
                 mConnectionModel.removeOutgoingConnectionCallback(bluetoothMacAddress);
             }
 
-            toggleBetweenSystemDecidedAndAlternativeInsecureRfcommPortNumber();
+            if (!wasUnclaimedSpeculativeAttempt) {
+                toggleBetweenSystemDecidedAndAlternativeInsecureRfcommPortNumber();
+            }
         } else {
             Log.e(TAG, "onConnectionTimeout");
         }
@@ -444,8 +709,14 @@ public class ConnectionHelper
         Log.e(TAG, "onConnectionFailed: Peer properties: " + peerProperties + ", error message: " + errorMessage);
         //if properties are null this is incoming connection
         if (peerProperties != null) {
+            boolean wasUnclaimedSpeculativeAttempt =
+                mPreconnectSlots.onConnectionFailed(peerProperties.getBluetoothMacAddress());
             handleOutgoingConnectionFailure(peerProperties, errorMessage);
-            toggleBetweenSystemDecidedAndAlternativeInsecureRfcommPortNumber();
+
+            // A failed speculative attempt nobody waits for must not change the port of the next connect call
+            if (!wasUnclaimedSpeculativeAttempt) {
+                toggleBetweenSystemDecidedAndAlternativeInsecureRfcommPortNumber();
+            }
         }
     }
 
@@ -475,37 +746,16 @@ public class ConnectionHelper
             + ", is discovering: " + isDiscovering + ", is advertising: " + isAdvertising);
 
         // Since we may get more than one state changed events when starting/stopping the discovery
-        // manager, we use a timer to suppress excess notifications to Node layer
-
-        if (mNotifyDiscoveryAdvertisingStateUpdateNonTcp != null) {
-            // There was a pending notification - cancel it
-            mNotifyDiscoveryAdvertisingStateUpdateNonTcp.cancel();
-            mNotifyDiscoveryAdvertisingStateUpdateNonTcp = null;
-        }
-
-        mNotifyDiscoveryAdvertisingStateUpdateNonTcp = new CountDownTimer(
-            NOTIFY_DISCOVERY_ADVERTISING_STATE_DELAY_IN_MILLISECONDS,
-            NOTIFY_DISCOVERY_ADVERTISING_STATE_DELAY_IN_MILLISECONDS) {
-            @Override
-            public void onTick(long l) {
-                // Not used
-            }
-
-            @Override
-            public void onFinish() {
-                Log.v(TAG, "Notifying discovery manager state change: is discovering: "
-                    + isDiscovering + ", is advertising: " + isAdvertising);
-
-                mStartStopOperationHandler.processCurrentOperationStatus();
-                surroundingStateObserver.notifyDiscoveryAdvertisingStateUpdateNonTcp(isDiscovering, isAdvertising);
-                mNotifyDiscoveryAdvertisingStateUpdateNonTcp.cancel();
-                mNotifyDiscoveryAdvertisingStateUpdateNonTcp = null;
-            }
-        }.start();
+        // manager, we use a timer to suppress excess notifications to Node layer: every event
+        // re-arms the timer and the state of the last one is notified
+        mIsDiscovering = isDiscovering;
+        mIsAdvertising = isAdvertising;
+        mNotifyDiscoveryAdvertisingStateUpdateNonTcp.arm(NOTIFY_DISCOVERY_ADVERTISING_STATE_DELAY_IN_MILLISECONDS);
     }
 
     /**
-     * Called when a peer is discovered. Tries to add the peer to the list and notifies the listener.
+     * Called when a peer is discovered. Notifies the listener, unless the peer is still considered
+     * available and its generation is the same.
      *
      * @param peerProperties The peer properties.
      */
@@ -516,7 +766,8 @@ public class ConnectionHelper
             + ", device name: '" + peerProperties.getDeviceName()
             + "', device address: '" + peerProperties.getDeviceAddress() + "'");
 
-        surroundingStateObserver.notifyPeerAvailabilityChanged(peerProperties, true);
+        recordPeerAvailability(peerProperties, true);
+        mPeerLivenessTable.onPeerSeen(peerProperties);
     }
 
     /**
@@ -530,11 +781,17 @@ public class ConnectionHelper
             + ", device name: '" + peerProperties.getDeviceName()
             + "', device address: '" + peerProperties.getDeviceAddress() + "'");
 
-        surroundingStateObserver.notifyPeerAvailabilityChanged(peerProperties, true);
+        if (recordPeerAvailability(peerProperties, true)) {
+            // Started before notifying, so that the connect call that follows finds the attempt
+            preconnect(peerProperties);
+        }
+
+        mPeerLivenessTable.onPeerSeen(peerProperties);
     }
 
     /**
-     * Called when a peer is lost. Tries to remove the peer from the list and notifies the listener.
+     * Called when a peer is lost. Counted as a miss by the liveness table, which notifies the
+     * listener once the peer has been missed enough times.
      *
      * @param peerProperties The peer properties.
      */
@@ -546,7 +803,52 @@ public class ConnectionHelper
             // If we are still connected, the peer can't certainly be lost, add it back
             mDiscoveryManager.getPeerModel().addOrUpdateDiscoveredPeer(peerProperties);
         } else {
-            surroundingStateObserver.notifyPeerAvailabilityChanged(peerProperties, false);
+            recordPeerAvailability(peerProperties, false);
+            mPeerLivenessTable.onPeerLost(peerProperties);
+        }
+    }
+
+    /**
+     * Records the availability report of the given peer in the generation statistics and, if
+     * discovered or updated, as a discovery event for the BLE duty cycle controller.
+     *
+     * @param peerProperties The peer properties.
+     * @param isAvailable    True, if the peer was discovered or updated. False, if lost.
+     * @return True, if the generation of the peer changed.
+     */
+    private boolean recordPeerAvailability(PeerProperties peerProperties, boolean isAvailable) {
+        if (isAvailable) {
+            mBleDutyCycleController.onDiscoveryEvent();
+        }
+
+        return mStartStopOperationHandler.getGenerationStatistics().recordPeerAvailability(
+            peerProperties.getId(), peerProperties.getExtraInformation(), isAvailable,
+            mScheduler.currentTimeMillis());
+    }
+
+    /**
+     * Starts a speculative connection to the given peer, if enabled and there is a free slot, and
+     * no connection nor a connection attempt to the peer exists.
+     *
+     * @param peerProperties The properties of the peer, which announced a new generation.
+     */
+    private synchronized void preconnect(PeerProperties peerProperties) {
+        final String bluetoothMacAddress = peerProperties.getBluetoothMacAddress();
+
+        if (!mIsSpeculativePreconnectEnabled
+            || !BluetoothAdapter.checkBluetoothAddress(bluetoothMacAddress)
+            || mConnectionModel.hasOutgoingConnection(bluetoothMacAddress)
+            || mConnectionModel.getOutgoingConnectionCallbackByBluetoothMacAddress(bluetoothMacAddress) != null
+            || hasMaximumNumberOfConnections()
+            || !mPreconnectSlots.reserve(bluetoothMacAddress)) {
+            return;
+        }
+
+        if (mConnectionManager.connect(peerProperties)) {
+            Log.i(TAG, "preconnect: Speculative connection process started (peer ID: " + bluetoothMacAddress + ")");
+        } else {
+            Log.w(TAG, "preconnect: Failed to start the speculative connection to peer with ID " + bluetoothMacAddress);
+            mPreconnectSlots.onConnectionFailed(bluetoothMacAddress);
         }
     }
 
@@ -571,90 +873,107 @@ public class ConnectionHelper
     /**
      * Constructs the thread around the new outgoing connection and sets the callbacks.
      *
-     * @param bluetoothSocket The Bluetooth socket of the new connection.
+     * @param bluetoothSocket The Bluetooth socket of the new connection. Can be null, if the streams are given.
+     * @param inputStream     The input stream or null, if the stream should be taken from the socket.
+     * @param outputStream    The output stream or null, if the stream should be taken from the socket.
      * @param peerProperties  The properties of the peer we are now connected to.
      */
-    private void handleOutgoingConnection(BluetoothSocket bluetoothSocket, PeerProperties peerProperties) {
+    private void handleOutgoingConnection(BluetoothSocket bluetoothSocket, InputStream inputStream,
+                                          OutputStream outputStream, PeerProperties peerProperties) {
         OutgoingSocketThread newOutgoingSocketThread = null;
         final String finalPeerId = peerProperties.getId();
         final JXcoreThaliCallback callback = mConnectionModel.getOutgoingConnectionCallbackByBluetoothMacAddress(finalPeerId);
+        // Without a callback (e.g. cancelled) nobody asked for a priority
+        final ConnectionData connectionData = new ConnectionData(peerProperties, false,
+            (callback != null) ? callback.getPriorityClass() : BandwidthShaper.PriorityClass.DEFAULT);
+        // A Unix domain socket, if negotiated with the Node layer and the caller can take a path
+        final String localSocketPath =
+            (mServerSocketPath != null && callback != null && callback.isLocalSocketPathAccepted())
+                ? LocalDomainSockets.createOutgoingSocketPath(mServerSocketPath, connectionData.id) : null;
 
-        try {
-            newOutgoingSocketThread = new OutgoingSocketThread(bluetoothSocket, new ConnectionData(peerProperties, false),
-                new SocketThreadBase.Listener() {
+        final SocketThreadBase.Listener listener = new SocketThreadBase.Listener() {
 
-                    private static final String NO_AVAILABLE_PORTS = "No available TCP ports";
+            private static final String NO_AVAILABLE_PORTS = "No available TCP ports";
 
-                    @Override
-                    public void onListeningForIncomingConnections(int portNumber) {
-                        Log.i(TAG, "onListeningForIncomingConnections: Outgoing connection is using port "
-                            + portNumber + " (peer ID: " + finalPeerId + ")");
+            @Override
+            public void onListeningForIncomingConnections(int portNumber) {
+                Log.i(TAG, "onListeningForIncomingConnections: Outgoing connection is using "
+                    + ((localSocketPath != null) ? localSocketPath : "port " + portNumber)
+                    + " (peer ID: " + finalPeerId + ")");
+
+                if (callback != null) {
+                    if (localSocketPath != null) {
+                        callback.getListenerOrIncomingConnection().setListeningOnSocketPath(localSocketPath);
+                    } else {
+                        callback.getListenerOrIncomingConnection().setListeningOnPortNumber(portNumber);
+                    }
 
-                        if (callback != null) {
-                            callback.getListenerOrIncomingConnection().setListeningOnPortNumber(portNumber);
-                            callback.callOnConnectCallback(null, callback.getListenerOrIncomingConnection());
-                        }
+                    callback.callOnConnectCallback(null, callback.getListenerOrIncomingConnection());
+                }
 
-                        // Remove the callback since it's no longer needed
-                        mConnectionModel.removeOutgoingConnectionCallback(finalPeerId);
-                    }
+                // Remove the callback since it's no longer needed
+                mConnectionModel.removeOutgoingConnectionCallback(finalPeerId);
+            }
 
-                    @Override
-                    public void onDataTransferred(int numberOfBytes) {
-                        jxcore.activity.runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                lowerBleDiscoveryPowerAndStartResetTimer();
-                            }
-                        });
-                    }
+            @Override
+            public void onDataTransferred(int numberOfBytes) {
+                notifyDataTransferred(numberOfBytes);
+            }
 
-                    @Override
-                    public void onDone(SocketThreadBase who, boolean threadDoneWasSending) {
-                        Log.i(TAG, "onDone: Outgoing connection, peer "
-                            + who.getPeerProperties().toString() + " done, closing connection...");
+            @Override
+            public void onDone(SocketThreadBase who, boolean threadDoneWasSending) {
+                Log.i(TAG, "onDone: Outgoing connection, peer "
+                    + who.getPeerProperties().toString() + " done, closing connection...");
 
-                        final String peerId = who.getPeerProperties().getId();
-                        closeAndRemoveOutgoingThread(peerId);
-                    }
+                final String peerId = who.getPeerProperties().getId();
+                closeAndRemoveOutgoingThread(peerId);
+            }
 
-                    @Override
-                    public void onDisconnected(SocketThreadBase who, String errorMessage) {
-                        Log.w(TAG, "onDisconnected: Outgoing connection, peer "
-                            + who.getPeerProperties().toString()
-                            + " disconnected: " + errorMessage);
+            @Override
+            public void onDisconnected(SocketThreadBase who, String errorMessage) {
+                Log.w(TAG, "onDisconnected: Outgoing connection, peer "
+                    + who.getPeerProperties().toString()
+                    + " disconnected: " + errorMessage);
 
-                        final String peerId = who.getPeerProperties().getId();
-                        closeAndRemoveOutgoingThread(peerId);
-                    }
+                final String peerId = who.getPeerProperties().getId();
+                closeAndRemoveOutgoingThread(peerId);
+            }
 
-                    @Override
-                    public void onDisconnected(SocketThreadBase who, Exception exception) {
-                        Log.w(TAG, "onDisconnected: Outgoing connection, peer "
-                            + who.getPeerProperties().toString()
-                            + " disconnected: " + exception.getMessage());
-                        //No available port
-                        if (exception.getCause() instanceof ErrnoException
-                            && ((ErrnoException) exception.getCause()).errno == OsConstants.EMFILE) {
-                            processErrnoException(who);
-                        } else {
-                            onDisconnected(who, exception.getMessage());
-                        }
-                    }
+            @Override
+            public void onDisconnected(SocketThreadBase who, Exception exception) {
+                Log.w(TAG, "onDisconnected: Outgoing connection, peer "
+                    + who.getPeerProperties().toString()
+                    + " disconnected: " + exception.getMessage());
+                //No available port
+                if (exception.getCause() instanceof ErrnoException
+                    && ((ErrnoException) exception.getCause()).errno == OsConstants.EMFILE) {
+                    processErrnoException(who);
+                } else {
+                    onDisconnected(who, exception.getMessage());
+                }
+            }
 
-                    private void processErrnoException(SocketThreadBase who) {
-                        callback.callOnConnectCallback(NO_AVAILABLE_PORTS, null);
-                        closeAndRemoveOutgoingThread(who.getPeerProperties().getId());
-                    }
+            private void processErrnoException(SocketThreadBase who) {
+                callback.callOnConnectCallback(NO_AVAILABLE_PORTS, null);
+                closeAndRemoveOutgoingThread(who.getPeerProperties().getId());
+            }
 
-                    @Override
-                    public void onTransferError(SocketThreadBase who, String errorMessage) {
-                        Log.w(TAG, "onTransferError: Outgoing connection, peer "
-                            + who.getPeerProperties().toString()
-                            + ", data transfer error: " + errorMessage);
-                        onDisconnected(who, errorMessage);
-                    }
-                });
+            @Override
+            public void onTransferError(SocketThreadBase who, String errorMessage) {
+                Log.w(TAG, "onTransferError: Outgoing connection, peer "
+                    + who.getPeerProperties().toString()
+                    + ", data transfer error: " + errorMessage);
+                onDisconnected(who, errorMessage);
+            }
+        };
+
+        try {
+            if (inputStream != null && outputStream != null) {
+                newOutgoingSocketThread = new OutgoingSocketThread(
+                    bluetoothSocket, connectionData, listener, inputStream, outputStream);
+            } else {
+                newOutgoingSocketThread = new OutgoingSocketThread(bluetoothSocket, connectionData, listener);
+            }
         } catch (IOException e) {
             Log.e(TAG, "handleOutgoingConnection: Failed to create an outgoing connection thread instance: " + e.getMessage(), e);
 
@@ -675,12 +994,27 @@ public class ConnectionHelper
 
         if (newOutgoingSocketThread != null) {
             if (!mConnectionModel.contains(newOutgoingSocketThread)){
-                lowerBleDiscoveryPowerAndStartResetTimer();
+                // The number of connections affects the BLE duty cycle even without data transferred
+                mBleDutyCycleController.startEvaluating();
 
                 newOutgoingSocketThread.setUncaughtExceptionHandler(mThreadUncaughtExceptionHandler);
                 newOutgoingSocketThread.setPeerProperties(peerProperties);
+                newOutgoingSocketThread.setLocalSocketPath(localSocketPath);
                 mConnectionModel.addConnectionThread(newOutgoingSocketThread);
-                newOutgoingSocketThread.start();
+
+                try {
+                    newOutgoingSocketThread.start();
+                } catch (RejectedExecutionException e) {
+                    Log.e(TAG, "handleOutgoingConnection: Failed to start the outgoing connection thread: " + e.getMessage());
+
+                    if (callback != null) {
+                        callback.callOnConnectCallback(
+                            "Failed to start the outgoing connection thread: " + e.getMessage(), null);
+                    }
+
+                    closeAndRemoveOutgoingThread(finalPeerId);
+                    return;
+                }
 
                 Log.i(TAG, "onConnected: Outgoing socket thread, for peer "
                         + peerProperties + ", created successfully");
@@ -690,90 +1024,111 @@ public class ConnectionHelper
                         ConnectionManagerSettings.SYSTEM_DECIDED_INSECURE_RFCOMM_SOCKET_PORT);
             } else {
                 Log.e(TAG, "addConnectionThread: A matching thread for outgoing connection already exists");
-                try {
-                    bluetoothSocket.close();
-                } catch (IOException e) {
-                    Log.e(TAG, "handleOutgoingConnection: Failed to close the Bluetooth socket: " + e.getMessage(), e);
-                }
+                closeSocketOrStreams(bluetoothSocket, inputStream, outputStream);
 
                 mConnectionModel.removeOutgoingConnectionCallback(finalPeerId);
             }
         }
     }
 
+    /**
+     * Called, via the socket thread listeners, for every chunk of data transferred. Since this is
+     * in the data path, only the counter of the BLE duty cycle controller is updated and no
+     * objects are allocated.
+     *
+     * @param numberOfBytes The number of bytes transferred.
+     */
+    void notifyDataTransferred(int numberOfBytes) {
+        mBleDutyCycleController.onDataTransferred(numberOfBytes);
+    }
+
+    /**
+     * @return The controller of the Bluetooth LE duty cycle.
+     */
+    public final BleDutyCycleController getBleDutyCycleController() {
+        return mBleDutyCycleController;
+    }
+
     private boolean closeAndRemoveOutgoingThread(String peerId) {
-        return mConnectionModel.closeAndRemoveOutgoingConnectionThread(peerId);
+        boolean wasClosed = mConnectionModel.closeAndRemoveOutgoingConnectionThread(peerId);
+        mMultiConnectLinks.onLinkClosed(peerId);
+        return wasClosed;
     }
 
     /**
      * Constructs the thread around the new incoming connection and sets the callbacks.
      *
-     * @param bluetoothSocket The Bluetooth socket of the new connection.
+     * @param bluetoothSocket The Bluetooth socket of the new connection. Can be null, if the streams are given.
+     * @param inputStream     The input stream or null, if the stream should be taken from the socket.
+     * @param outputStream    The output stream or null, if the stream should be taken from the socket.
      * @param peerProperties  The properties of the peer we are now connected to.
      */
-    private void handleIncomingConnection(BluetoothSocket bluetoothSocket, PeerProperties peerProperties) {
+    private void handleIncomingConnection(BluetoothSocket bluetoothSocket, InputStream inputStream,
+                                          OutputStream outputStream, PeerProperties peerProperties) {
         IncomingSocketThread newIncomingSocketThread = null;
+        final ConnectionData connectionData = new ConnectionData(peerProperties, true);
 
-        try {
-            newIncomingSocketThread = new IncomingSocketThread(bluetoothSocket, new ConnectionData(peerProperties, true),
-                new SocketThreadBase.Listener() {
-                    @Override
-                    public void onListeningForIncomingConnections(int portNumber) {
-                        // Not applicable for incoming connections
-                    }
+        final SocketThreadBase.Listener listener = new SocketThreadBase.Listener() {
+            @Override
+            public void onListeningForIncomingConnections(int portNumber) {
+                // Not applicable for incoming connections
+            }
 
-                    @Override
-                    public void onDataTransferred(int numberOfBytes) {
-                        jxcore.activity.runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                lowerBleDiscoveryPowerAndStartResetTimer();
-                            }
-                        });
-                    }
+            @Override
+            public void onDataTransferred(int numberOfBytes) {
+                notifyDataTransferred(numberOfBytes);
+            }
 
-                    @Override
-                    public void onDone(SocketThreadBase who, boolean threadDoneWasSending) {
-                        Log.i(TAG, "onDone: Incoming connection, peer "
-                            + who.getPeerProperties().toString() + " done, closing connection...");
+            @Override
+            public void onDone(SocketThreadBase who, boolean threadDoneWasSending) {
+                Log.i(TAG, "onDone: Incoming connection, peer "
+                    + who.getPeerProperties().toString() + " done, closing connection...");
 
-                        final IncomingSocketThread incomingSocketThread = (IncomingSocketThread) who;
-                        mConnectionModel.closeAndRemoveIncomingConnectionThread(incomingSocketThread.getId());
-                    }
+                final IncomingSocketThread incomingSocketThread = (IncomingSocketThread) who;
+                mConnectionModel.closeAndRemoveIncomingConnectionThread(incomingSocketThread.getId());
+            }
 
-                    @Override
-                    public void onDisconnected(SocketThreadBase who, String errorMessage) {
-                        Log.w(TAG, "onDisconnected: Incoming connection, peer "
-                            + who.getPeerProperties().toString()
-                            + " disconnected: " + errorMessage);
-
-                        final IncomingSocketThread incomingSocketThread = (IncomingSocketThread) who;
-                        boolean closed = mConnectionModel.closeAndRemoveIncomingConnectionThread(incomingSocketThread.getId());
-                        if (!closed) {
-                            throw new RuntimeException("Trying to close nonexistent incoming connection");
-                        }
-                        surroundingStateObserver.notifyIncomingConnectionToPortNumberFailed(
-                            incomingSocketThread.getTcpPortNumber());
-                    }
+            @Override
+            public void onDisconnected(SocketThreadBase who, String errorMessage) {
+                Log.w(TAG, "onDisconnected: Incoming connection, peer "
+                    + who.getPeerProperties().toString()
+                    + " disconnected: " + errorMessage);
+
+                final IncomingSocketThread incomingSocketThread = (IncomingSocketThread) who;
+                boolean closed = mConnectionModel.closeAndRemoveIncomingConnectionThread(incomingSocketThread.getId());
+                if (!closed) {
+                    throw new RuntimeException("Trying to close nonexistent incoming connection");
+                }
+                surroundingStateObserver.notifyIncomingConnectionToPortNumberFailed(
+                    incomingSocketThread.getTcpPortNumber());
+            }
 
-                    @Override
-                    public void onTransferError(SocketThreadBase who, String errorMessage) {
-                        Log.i(TAG, "onTransferError: Incoming connection, peer "
-                            + who.getPeerProperties().toString() + ", data transfer error, closing connection...");
+            @Override
+            public void onTransferError(SocketThreadBase who, String errorMessage) {
+                Log.i(TAG, "onTransferError: Incoming connection, peer "
+                    + who.getPeerProperties().toString() + ", data transfer error, closing connection...");
 
-                        final IncomingSocketThread incomingSocketThread = (IncomingSocketThread) who;
-                        mConnectionModel.closeAndRemoveIncomingConnectionThread(incomingSocketThread.getId());
-                    }
+                final IncomingSocketThread incomingSocketThread = (IncomingSocketThread) who;
+                mConnectionModel.closeAndRemoveIncomingConnectionThread(incomingSocketThread.getId());
+            }
 
-                    @Override
-                    public void onDisconnected(SocketThreadBase who, Exception exception) {
-                        // It will be never called in current implementation of IncomingSocketThread
-                        // Default implementation without eating of the exceptions for some future cases
-                        if (exception != null) {
-                            onDisconnected(who, exception.getMessage());
-                        }
-                    }
-                });
+            @Override
+            public void onDisconnected(SocketThreadBase who, Exception exception) {
+                // It will be never called in current implementation of IncomingSocketThread
+                // Default implementation without eating of the exceptions for some future cases
+                if (exception != null) {
+                    onDisconnected(who, exception.getMessage());
+                }
+            }
+        };
+
+        try {
+            if (inputStream != null && outputStream != null) {
+                newIncomingSocketThread = new IncomingSocketThread(
+                    bluetoothSocket, connectionData, listener, inputStream, outputStream);
+            } else {
+                newIncomingSocketThread = new IncomingSocketThread(bluetoothSocket, connectionData, listener);
+            }
         } catch (IOException e) {
             Log.e(TAG, "handleIncomingConnection: Failed to create an incoming connection thread instance: " + e.getMessage(), e);
 
@@ -788,24 +1143,55 @@ public class ConnectionHelper
 
         if (newIncomingSocketThread != null) {
             if (!mConnectionModel.contains(newIncomingSocketThread)){
-                lowerBleDiscoveryPowerAndStartResetTimer();
+                // The number of connections affects the BLE duty cycle even without data transferred
+                mBleDutyCycleController.startEvaluating();
 
                 newIncomingSocketThread.setUncaughtExceptionHandler(mThreadUncaughtExceptionHandler);
                 newIncomingSocketThread.setPeerProperties(peerProperties);
                 newIncomingSocketThread.setTcpPortNumber(mServerPortNumber);
+                newIncomingSocketThread.setServerSocketPath(mServerSocketPath);
                 mConnectionModel.addConnectionThread(newIncomingSocketThread);
-                newIncomingSocketThread.start();
+
+                try {
+                    newIncomingSocketThread.start();
+                } catch (RejectedExecutionException e) {
+                    Log.e(TAG, "handleIncomingConnection: Failed to start the incoming connection thread: " + e.getMessage());
+                    mConnectionModel.closeAndRemoveIncomingConnectionThread(newIncomingSocketThread.getId());
+                    return;
+                }
 
                 Log.i(TAG, "onConnected: Incoming socket thread, for peer "
                         + peerProperties + ", created successfully");
             } else {
                 Log.e(TAG, "addConnectionThread: A matching thread for incoming connection already exists");
-                try {
-                    bluetoothSocket.close();
-                } catch (IOException e) {
-                    Log.e(TAG, "handleIncomingConnection: Failed to close the Bluetooth socket: " + e.getMessage(), e);
+                closeSocketOrStreams(bluetoothSocket, inputStream, outputStream);
+            }
+        }
+    }
+
+    /**
+     * Closes the given Bluetooth socket or, if there is no socket, the given streams.
+     *
+     * @param bluetoothSocket The Bluetooth socket. Can be null.
+     * @param inputStream     The input stream. Can be null.
+     * @param outputStream    The output stream. Can be null.
+     */
+    private void closeSocketOrStreams(BluetoothSocket bluetoothSocket, InputStream inputStream,
+                                      OutputStream outputStream) {
+        try {
+            if (bluetoothSocket != null) {
+                bluetoothSocket.close();
+            } else {
+                if (inputStream != null) {
+                    inputStream.close();
+                }
+
+                if (outputStream != null) {
+                    outputStream.close();
                 }
             }
+        } catch (IOException e) {
+            Log.e(TAG, "closeSocketOrStreams: Failed to close the Bluetooth socket: " + e.getMessage(), e);
         }
     }
 
@@ -830,46 +1216,31 @@ public class ConnectionHelper
     }
 
     /**
-     * Lowers the BLE discovery power settings. If the power settings are already changed, the
-     * timer for resetting the settings is restarted.
+     * Applies the advertise and scan settings of the given BLE duty cycle level.
      * <p>
-     * This method should be called when a data transfer is started to ensure a reasonable data
-     * transfer speed as using BLE for discovery will likely interfere with the data transfer done
-     * utilizing Bluetooth sockets because in most modern phones the Bluetooth and BLE stacks
-     * share the same 2.4 GHz antenna (along with WiFi).
+     * Using BLE for discovery will likely interfere with the data transfer done utilizing
+     * Bluetooth sockets, so the controller lowers the level while the data is transferred.
      * <p>
      * Note that changing the power settings in the fly may disturb ongoing connection attempts
      * (and incoming connections) causing connection failures.
+     *
+     * @param level The level.
      */
-    private synchronized void lowerBleDiscoveryPowerAndStartResetTimer() {
-        if (mPowerUpBleDiscoveryTimer == null) {
-            Log.i(TAG, "lowerBleDiscoveryPowerAndStartResetTimer: Lowering the power settings");
-
-            // Create a timer to increase the power used by Bluetooth LE advertiser and scanner
-            // once the data transfer is over.
-            mPowerUpBleDiscoveryTimer = new CountDownTimer(
-                POWER_UP_BLE_DISCOVERY_DELAY_IN_MILLISECONDS, POWER_UP_BLE_DISCOVERY_DELAY_IN_MILLISECONDS) {
-                @Override
-                public void onTick(long millisUntilFinished) {
-                    // Not used
-                }
+    private synchronized void applyBleDutyCycleLevel(BleDutyCycleController.Level level) {
+        Log.i(TAG, "applyBleDutyCycleLevel: " + level);
+        int scanMode = level.scanMode;
 
-                @Override
-                public void onFinish() {
-                    restoreDefaultBleDiscoverySettings();
-                }
-            };
+        if (scanMode == BleDutyCycleController.SCAN_MODE_OPPORTUNISTIC
+            && android.os.Build.VERSION.SDK_INT < MINIMUM_API_LEVEL_FOR_OPPORTUNISTIC_SCAN_MODE) {
+            scanMode = ScanSettings.SCAN_MODE_LOW_POWER;
+        }
 
+        if (!mDiscoveryManagerSettings.setAdvertiseScanModeAndTxPowerLevel(
+                level.advertiseMode, level.advertiseTxPowerLevel, scanMode)
+            && scanMode == BleDutyCycleController.SCAN_MODE_OPPORTUNISTIC) {
+            Log.w(TAG, "applyBleDutyCycleLevel: Failed to pause scanning, using the low power scan mode instead");
             mDiscoveryManagerSettings.setAdvertiseScanModeAndTxPowerLevel(
-                AdvertiseSettings.ADVERTISE_MODE_LOW_POWER,
-                AdvertiseSettings.ADVERTISE_TX_POWER_LOW,
-                ScanSettings.SCAN_MODE_LOW_POWER);
-
-            mPowerUpBleDiscoveryTimer.start();
-        } else {
-            // Restart the timer
-            mPowerUpBleDiscoveryTimer.cancel();
-            mPowerUpBleDiscoveryTimer.start();
+                level.advertiseMode, level.advertiseTxPowerLevel, ScanSettings.SCAN_MODE_LOW_POWER);
         }
     }
 
@@ -877,18 +1248,11 @@ public class ConnectionHelper
      * Restores the default Bluetooth LE discovery settings.
      */
     private synchronized void restoreDefaultBleDiscoverySettings() {
-        if (mPowerUpBleDiscoveryTimer != null) {
-            mPowerUpBleDiscoveryTimer.cancel();
-            mPowerUpBleDiscoveryTimer = null;
-        }
+        mBleDutyCycleController.reset();
 
-        if (mDiscoveryManagerSettings.getAdvertiseMode() == AdvertiseSettings.ADVERTISE_MODE_LOW_POWER) {
+        if (mDiscoveryManagerSettings.getAdvertiseMode() != AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY) {
             Log.i(TAG, "restoreDefaultBleDiscoverySettings: Powering the BLE discovery back up");
-
-            mDiscoveryManagerSettings.setAdvertiseScanModeAndTxPowerLevel(
-                AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY,
-                AdvertiseSettings.ADVERTISE_TX_POWER_HIGH,
-                ScanSettings.SCAN_MODE_LOW_LATENCY);
+            applyBleDutyCycleLevel(BleDutyCycleController.Level.DISCOVERY);
         }
     }
 }
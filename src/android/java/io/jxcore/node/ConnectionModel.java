@@ -5,7 +5,9 @@ package io.jxcore.node;
 
 import android.util.Log;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
@@ -16,11 +18,29 @@ public class ConnectionModel {
     private final CopyOnWriteArrayList<IncomingSocketThread> mIncomingSocketThreads = new CopyOnWriteArrayList<IncomingSocketThread>();
     private final CopyOnWriteArrayList<OutgoingSocketThread> mOutgoingSocketThreads = new CopyOnWriteArrayList<OutgoingSocketThread>();
     private final HashMap<String, JXcoreThaliCallback> mOutgoingConnectionCallbacks = new HashMap<String, JXcoreThaliCallback>();
+    private final ConnectionCloser mConnectionCloser;
 
     /**
      * Constructor.
      */
     public ConnectionModel() {
+        this(new ConnectionCloser());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param connectionCloser The closer for tearing down all the connections.
+     */
+    public ConnectionModel(ConnectionCloser connectionCloser) {
+        mConnectionCloser = connectionCloser;
+    }
+
+    /**
+     * @return The closer for tearing down all the connections.
+     */
+    public ConnectionCloser getConnectionCloser() {
+        return mConnectionCloser;
     }
 
     /**
@@ -43,6 +63,18 @@ public class ConnectionModel {
         return (findSocketThread(peerId, false) != null);
     }
 
+    /**
+     * @param peerId The peer ID.
+     * @return The port the outgoing connection to the peer is listening on or
+     * ConnectionHelper.NO_PORT_NUMBER, if no such connection exists, it is not listening yet or it
+     * has already accepted its connection.
+     */
+    public synchronized int getListeningPortNumberOfOutgoingConnection(final String peerId) {
+        OutgoingSocketThread outgoingSocketThread = (OutgoingSocketThread) findSocketThread(peerId, false);
+        return (outgoingSocketThread != null)
+            ? outgoingSocketThread.getListeningOnPortNumber() : ConnectionHelper.NO_PORT_NUMBER;
+    }
+
     /**
      * Checks if we have either an incoming or outgoing connection with a peer matching the given ID.
      *
@@ -146,7 +178,7 @@ public class ConnectionModel {
      * @param incomingSocketThread An incoming (connection) socket thread instance to add.
      * @return True, if the thread was successfully added to the collection. False otherwise.
      */
-    public boolean addConnectionThread(IncomingSocketThread incomingSocketThread) {
+    public synchronized boolean addConnectionThread(IncomingSocketThread incomingSocketThread) {
         return mIncomingSocketThreads.add(incomingSocketThread);
     }
 
@@ -156,7 +188,7 @@ public class ConnectionModel {
      * @param outgoingSocketThread An outgoing (connection) socket thread instance to add.
      * @return True, if the thread was successfully added to the collection. False otherwise.
      */
-    public boolean addConnectionThread(OutgoingSocketThread outgoingSocketThread) {
+    public synchronized boolean addConnectionThread(OutgoingSocketThread outgoingSocketThread) {
         return mOutgoingSocketThreads.add(outgoingSocketThread);
     }
 
@@ -166,7 +198,7 @@ public class ConnectionModel {
      * @param incomingSocketThread An incoming (connection) socket thread instance to add.
      * @return True, if the thread is already added to the collection. False otherwise.
      */
-    public boolean contains(IncomingSocketThread incomingSocketThread) {
+    public synchronized boolean contains(IncomingSocketThread incomingSocketThread) {
         return mIncomingSocketThreads.contains(incomingSocketThread);
     }
 
@@ -176,7 +208,7 @@ public class ConnectionModel {
      * @param outgoingSocketThread An outgoing (connection) socket thread instance to add.
      * @return True, if the thread is already added to the collection. False otherwise.
      */
-    public boolean contains(OutgoingSocketThread outgoingSocketThread) {
+    public synchronized boolean contains(OutgoingSocketThread outgoingSocketThread) {
         return mOutgoingSocketThreads.contains(outgoingSocketThread);
     }
 
@@ -234,40 +266,51 @@ public class ConnectionModel {
     }
 
     /**
-     * Disconnects all outgoing connections.
+     * Disconnects all outgoing connections. The connections are removed right away, but closed
+     * asynchronously by the connection closer.
      */
-    public synchronized void closeAndRemoveAllOutgoingConnections() {
-        for (OutgoingSocketThread outgoingSocketThread : mOutgoingSocketThreads) {
-            if (outgoingSocketThread != null) {
-                Log.d(TAG, "closeAndRemoveAllOutgoingConnections: Peer: " + outgoingSocketThread.getPeerProperties().toString());
-                outgoingSocketThread.close();
+    public void closeAndRemoveAllOutgoingConnections() {
+        List<OutgoingSocketThread> outgoingSocketThreadsToClose = new ArrayList<OutgoingSocketThread>();
+
+        synchronized (this) {
+            for (OutgoingSocketThread outgoingSocketThread : mOutgoingSocketThreads) {
+                if (outgoingSocketThread != null) {
+                    Log.d(TAG, "closeAndRemoveAllOutgoingConnections: Peer: " + outgoingSocketThread.getPeerProperties().toString());
+                    outgoingSocketThreadsToClose.add(outgoingSocketThread);
+                }
             }
+
+            mOutgoingSocketThreads.clear();
+            mOutgoingConnectionCallbacks.clear();
         }
 
-        mOutgoingSocketThreads.clear();
-        mOutgoingConnectionCallbacks.clear();
+        mConnectionCloser.closeAll("Outgoing connections", outgoingSocketThreadsToClose);
     }
 
     /**
-     * Disconnects all incoming connections.
+     * Disconnects all incoming connections. The connections are removed right away, but closed
+     * asynchronously by the connection closer.
      * This method should only be used internally and should, in the future, be made private.
      * For now, this method can be used for testing to emulate 'peer disconnecting' events.
      *
      * @return The number of connections closed.
      */
-    public synchronized int closeAndRemoveAllIncomingConnections() {
-        int numberOfConnectionsClosed = 0;
+    public int closeAndRemoveAllIncomingConnections() {
+        List<IncomingSocketThread> incomingSocketThreadsToClose = new ArrayList<IncomingSocketThread>();
 
-        for (IncomingSocketThread incomingSocketThread : mIncomingSocketThreads) {
-            if (incomingSocketThread != null) {
-                Log.d(TAG, "closeAndRemoveAllIncomingConnections: Peer: " + incomingSocketThread.getPeerProperties().toString());
-                incomingSocketThread.close();
-                numberOfConnectionsClosed++;
+        synchronized (this) {
+            for (IncomingSocketThread incomingSocketThread : mIncomingSocketThreads) {
+                if (incomingSocketThread != null) {
+                    Log.d(TAG, "closeAndRemoveAllIncomingConnections: Peer: " + incomingSocketThread.getPeerProperties().toString());
+                    incomingSocketThreadsToClose.add(incomingSocketThread);
+                }
             }
+
+            mIncomingSocketThreads.clear();
         }
 
-        mIncomingSocketThreads.clear();
-        return numberOfConnectionsClosed;
+        mConnectionCloser.closeAll("Incoming connections", incomingSocketThreadsToClose);
+        return incomingSocketThreadsToClose.size();
     }
 
     /**
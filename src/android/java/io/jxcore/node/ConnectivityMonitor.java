@@ -21,14 +21,28 @@ import org.thaliproject.p2p.btconnectorlib.internal.wifi.WifiDirectManager;
 /**
  * Monitors the connectivity status and provides notifications on connectivity state changes for
  * the node layer.
+ *
+ * The broadcasts and the Bluetooth state changes are debounced: the first event schedules an
+ * evaluation of the connectivity info after the debounce window and the events received within
+ * the window are coalesced into that evaluation. This way the storms of supplicant state changes
+ * (e.g. when roaming) cost a single evaluation. The system service handles are looked up once and
+ * cached.
  */
 class ConnectivityMonitor implements BluetoothManager.BluetoothManagerListener {
     private static final String TAG = ConnectivityMonitor.class.getName();
+    static final long DEBOUNCE_WINDOW_IN_MILLISECONDS = 500;
     private final Activity mActivity = jxcore.activity;
     private final BluetoothManager mBluetoothManager;
     private final WifiDirectManager mWifiDirectManager;
     private final SurroundingStateObserver surroundingStateObserver;
+    private final Scheduler mScheduler;
     private WifiStateChangedAndConnectivityActionBroadcastReceiver mWifiStateChangedAndConnectivityActionBroadcastReceiver = null;
+    private ConnectivityManager mConnectivityManager = null;
+    private WifiManager mWifiManager = null;
+    private Scheduler.ScheduledTask mPendingUpdate = null;
+    private long mNumberOfEventsReceived = 0;
+    private long mNumberOfEvaluations = 0;
+    private long mNumberOfNotifications = 0;
     private String mBssidName = null;
     private String mSsidName = null;
     private boolean mIsConnectedOrConnectingToActiveNetwork = false;
@@ -40,6 +54,18 @@ class ConnectivityMonitor implements BluetoothManager.BluetoothManagerListener {
      * Constructor.
      */
     public ConnectivityMonitor(DiscoveryManager discoveryManager, SurroundingStateObserver stateObserver) {
+        this(discoveryManager, stateObserver, HandlerScheduler.getDefault());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param discoveryManager The discovery manager.
+     * @param stateObserver    The observer to notify of the network changes.
+     * @param scheduler        The scheduler for debouncing the state change events.
+     */
+    public ConnectivityMonitor(
+        DiscoveryManager discoveryManager, SurroundingStateObserver stateObserver, Scheduler scheduler) {
         if (discoveryManager == null) {
             throw new IllegalArgumentException("Discovery manager is null");
         }
@@ -49,6 +75,7 @@ class ConnectivityMonitor implements BluetoothManager.BluetoothManagerListener {
         mIsBluetoothEnabled = mBluetoothManager.isBluetoothEnabled();
         mIsWifiEnabled = mWifiDirectManager.isWifiEnabled();
         surroundingStateObserver = stateObserver;
+        mScheduler = scheduler;
     }
 
     /**
@@ -104,6 +131,11 @@ class ConnectivityMonitor implements BluetoothManager.BluetoothManagerListener {
 
             mWifiStateChangedAndConnectivityActionBroadcastReceiver = null;
         }
+
+        if (mPendingUpdate != null) {
+            mPendingUpdate.cancel();
+            mPendingUpdate = null;
+        }
     }
 
     public boolean isBluetoothSupported() {
@@ -133,7 +165,7 @@ class ConnectivityMonitor implements BluetoothManager.BluetoothManagerListener {
      */
     @Override
     public void onBluetoothAdapterScanModeChanged(int mode) {
-        updateConnectivityInfo(false);
+        requestConnectivityInfoUpdate();
     }
 
     /**
@@ -143,7 +175,48 @@ class ConnectivityMonitor implements BluetoothManager.BluetoothManagerListener {
      */
     @Override
     public void onBluetoothAdapterStateChanged(int mode) {
-        updateConnectivityInfo(false);
+        requestConnectivityInfoUpdate();
+    }
+
+    /**
+     * Schedules an evaluation of the connectivity info after the debounce window, unless one is
+     * already pending, in which case this event is coalesced into it.
+     */
+    synchronized void requestConnectivityInfoUpdate() {
+        mNumberOfEventsReceived++;
+
+        if (mPendingUpdate == null) {
+            mPendingUpdate = mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (ConnectivityMonitor.this) {
+                        mPendingUpdate = null;
+                        updateConnectivityInfo(false);
+                    }
+                }
+            }, DEBOUNCE_WINDOW_IN_MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return The number of state change events (broadcasts and Bluetooth state changes) received.
+     */
+    public synchronized long getNumberOfEventsReceived() {
+        return mNumberOfEventsReceived;
+    }
+
+    /**
+     * @return The number of times the connectivity info was evaluated.
+     */
+    public synchronized long getNumberOfEvaluations() {
+        return mNumberOfEvaluations;
+    }
+
+    /**
+     * @return The number of times the listener was notified of a network change.
+     */
+    public synchronized long getNumberOfNotifications() {
+        return mNumberOfNotifications;
     }
 
     /**
@@ -153,22 +226,29 @@ class ConnectivityMonitor implements BluetoothManager.BluetoothManagerListener {
      * @param forceNotify If true, will notify even if nothing has changed.
      */
     public synchronized void updateConnectivityInfo(boolean forceNotify) {
-        ConnectivityManager connectivityManager =
-            (ConnectivityManager) mActivity.getSystemService(Context.CONNECTIVITY_SERVICE);
-        NetworkInfo activeNetworkInfo = connectivityManager.getActiveNetworkInfo();
+        mNumberOfEvaluations++;
+
+        if (mConnectivityManager == null) {
+            mConnectivityManager = (ConnectivityManager) mActivity.getSystemService(Context.CONNECTIVITY_SERVICE);
+        }
+
+        if (mWifiManager == null) {
+            mWifiManager = (WifiManager) mActivity.getSystemService(Context.WIFI_SERVICE);
+        }
+
+        NetworkInfo activeNetworkInfo = mConnectivityManager.getActiveNetworkInfo();
 
         final boolean isConnectedOrConnecting = (activeNetworkInfo != null && activeNetworkInfo.isConnectedOrConnecting());
         final boolean activeNetworkTypeIsWifi = (activeNetworkInfo != null && activeNetworkInfo.getType() == ConnectivityManager.TYPE_WIFI);
 
-        WifiManager wifiManager = (WifiManager) mActivity.getSystemService(Context.WIFI_SERVICE);
         WifiInfo wifiInfo = null;
         boolean isWifiEnabled = false;
 
-        if (wifiManager != null) {
-            isWifiEnabled = wifiManager.isWifiEnabled();
+        if (mWifiManager != null) {
+            isWifiEnabled = mWifiManager.isWifiEnabled();
 
             if (activeNetworkTypeIsWifi && activeNetworkInfo.isConnected()) {
-                wifiInfo = wifiManager.getConnectionInfo();
+                wifiInfo = mWifiManager.getConnectionInfo();
             }
         }
 
@@ -207,6 +287,7 @@ class ConnectivityMonitor implements BluetoothManager.BluetoothManagerListener {
                 + "\n    - active network type is Wi-Fi: " + mActiveNetworkTypeIsWifi);
 
             if (notificationNecessary) {
+                mNumberOfNotifications++;
                 surroundingStateObserver.notifyNetworkChanged(mIsBluetoothEnabled, mIsWifiEnabled, mBssidName, mSsidName);
             }
         } else {
@@ -231,7 +312,7 @@ class ConnectivityMonitor implements BluetoothManager.BluetoothManagerListener {
     private class WifiStateChangedAndConnectivityActionBroadcastReceiver extends BroadcastReceiver {
         @Override
         public void onReceive(Context context, Intent intent) {
-            updateConnectivityInfo(false);
+            requestConnectivityInfoUpdate();
         }
     }
 }
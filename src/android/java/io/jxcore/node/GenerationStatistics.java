@@ -0,0 +1,215 @@
+/* Copyright (c) 2016 Microsoft Corporation. This software is licensed under the MIT License.
+ * See the license file delivered with this project for further information.
+ */
+package io.jxcore.node;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Keeps the statistics of the beacon generation (the extra information of the beacon
+ * advertisement, which tells the peers that we have new data) updates.
+ *
+ * Locally, the updates made while already advertising (the discovery manager is not started
+ * again) are counted separately from the ones that required starting the advertiser. Whether the
+ * advertisement payload of the former was updated in place is not known here, since that is up to
+ * btconnectorlib. On the observing side, every generation change of a peer is timed from the
+ * previous report of the peer. A change observed while the peer stayed available was seen without
+ * a gap, whereas a change observed only after the peer was lost means that the peers saw a gap in
+ * the advertisements (e.g. an advertiser restart) before observing the new generation, so those
+ * are also timed separately. Since every device runs the same code, the observing side statistics
+ * tell how long the peers take to observe our new generations, too.
+ */
+public class GenerationStatistics {
+
+    /**
+     * The latest observation of a peer.
+     */
+    private static class PeerObservation {
+        int generation;
+        long timeObservedInMilliseconds;
+        boolean isLost = false;
+
+        PeerObservation(int generation, long timeObservedInMilliseconds) {
+            this.generation = generation;
+            this.timeObservedInMilliseconds = timeObservedInMilliseconds;
+        }
+    }
+
+    static final int MAXIMUM_NUMBER_OF_PEERS_TRACKED = 256;
+    private static final int NUMBER_OF_GENERATIONS = 256;
+
+    private final Map<String, PeerObservation> mPeerObservations =
+        new LinkedHashMap<String, PeerObservation>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PeerObservation> eldest) {
+                return size() > MAXIMUM_NUMBER_OF_PEERS_TRACKED;
+            }
+        };
+
+    private long mNumberOfLocalUpdatesWhileAdvertising = 0;
+    private long mNumberOfLocalUpdatesWithStart = 0;
+    private long mNumberOfPeerGenerationChanges = 0;
+    private long mNumberOfPeerGenerationChangesAfterGap = 0;
+    private long mNumberOfPeerGenerationsMissed = 0;
+    private long mTotalObservationDelayInMilliseconds = 0;
+    private long mMaximumObservationDelayInMilliseconds = 0;
+    private long mTotalObservationDelayAfterGapInMilliseconds = 0;
+    private long mMaximumObservationDelayAfterGapInMilliseconds = 0;
+
+    /**
+     * Records a local generation update.
+     *
+     * @param wasAdvertising True, if we were already advertising and the discovery manager was
+     *                       not started. False, if the advertiser had to be started to advertise
+     *                       the new generation.
+     */
+    public synchronized void recordLocalUpdate(boolean wasAdvertising) {
+        if (wasAdvertising) {
+            mNumberOfLocalUpdatesWhileAdvertising++;
+        } else {
+            mNumberOfLocalUpdatesWithStart++;
+        }
+    }
+
+    /**
+     * Records an availability report of a peer.
+     *
+     * @param peerId                     The peer ID.
+     * @param generation                 The generation of the peer.
+     * @param isAvailable                True, if the peer was discovered or updated. False, if lost.
+     * @param timeObservedInMilliseconds The time of the report.
+     * @return True, if the generation of the peer changed since it was last reported.
+     */
+    public synchronized boolean recordPeerAvailability(
+        String peerId, int generation, boolean isAvailable, long timeObservedInMilliseconds) {
+        PeerObservation observation = mPeerObservations.get(peerId);
+
+        if (observation == null) {
+            if (isAvailable) {
+                mPeerObservations.put(peerId, new PeerObservation(generation, timeObservedInMilliseconds));
+            }
+
+            return false;
+        }
+
+        if (!isAvailable) {
+            if (!observation.isLost) {
+                observation.isLost = true;
+                observation.timeObservedInMilliseconds = timeObservedInMilliseconds;
+            }
+
+            return false;
+        }
+
+        boolean isGenerationChanged = (generation != observation.generation);
+
+        if (isGenerationChanged) {
+            long delayInMilliseconds = Math.max(0, timeObservedInMilliseconds - observation.timeObservedInMilliseconds);
+            int generationsAdvanced =
+                (generation - observation.generation + NUMBER_OF_GENERATIONS) % NUMBER_OF_GENERATIONS;
+
+            mNumberOfPeerGenerationChanges++;
+            mNumberOfPeerGenerationsMissed += Math.max(0, generationsAdvanced - 1);
+            mTotalObservationDelayInMilliseconds += delayInMilliseconds;
+            mMaximumObservationDelayInMilliseconds =
+                Math.max(mMaximumObservationDelayInMilliseconds, delayInMilliseconds);
+
+            if (observation.isLost) {
+                mNumberOfPeerGenerationChangesAfterGap++;
+                mTotalObservationDelayAfterGapInMilliseconds += delayInMilliseconds;
+                mMaximumObservationDelayAfterGapInMilliseconds =
+                    Math.max(mMaximumObservationDelayAfterGapInMilliseconds, delayInMilliseconds);
+            }
+
+            observation.generation = generation;
+        }
+
+        observation.isLost = false;
+        observation.timeObservedInMilliseconds = timeObservedInMilliseconds;
+        return isGenerationChanged;
+    }
+
+    /**
+     * @return The number of local generation updates made while already advertising.
+     */
+    public synchronized long getNumberOfLocalUpdatesWhileAdvertising() {
+        return mNumberOfLocalUpdatesWhileAdvertising;
+    }
+
+    /**
+     * @return The number of local generation updates, which required starting the advertiser.
+     */
+    public synchronized long getNumberOfLocalUpdatesWithStart() {
+        return mNumberOfLocalUpdatesWithStart;
+    }
+
+    /**
+     * @return The number of generation changes of the peers observed.
+     */
+    public synchronized long getNumberOfPeerGenerationChanges() {
+        return mNumberOfPeerGenerationChanges;
+    }
+
+    /**
+     * @return The number of generation changes of the peers observed only after the peer was lost.
+     */
+    public synchronized long getNumberOfPeerGenerationChangesAfterGap() {
+        return mNumberOfPeerGenerationChangesAfterGap;
+    }
+
+    /**
+     * @return The number of generations of the peers never observed, since the peer advanced more
+     * than one generation between the reports.
+     */
+    public synchronized long getNumberOfPeerGenerationsMissed() {
+        return mNumberOfPeerGenerationsMissed;
+    }
+
+    /**
+     * @return The average time from the previous report of a peer until observing its new
+     * generation in milliseconds or 0, if no change was observed.
+     */
+    public synchronized long getAverageObservationDelayInMilliseconds() {
+        return mNumberOfPeerGenerationChanges == 0
+            ? 0 : mTotalObservationDelayInMilliseconds / mNumberOfPeerGenerationChanges;
+    }
+
+    /**
+     * @return The maximum time from the previous report of a peer until observing its new
+     * generation in milliseconds.
+     */
+    public synchronized long getMaximumObservationDelayInMilliseconds() {
+        return mMaximumObservationDelayInMilliseconds;
+    }
+
+    /**
+     * @return The average time from losing a peer until observing its new generation in
+     * milliseconds or 0, if no such change was observed.
+     */
+    public synchronized long getAverageObservationDelayAfterGapInMilliseconds() {
+        return mNumberOfPeerGenerationChangesAfterGap == 0
+            ? 0 : mTotalObservationDelayAfterGapInMilliseconds / mNumberOfPeerGenerationChangesAfterGap;
+    }
+
+    /**
+     * @return The maximum time from losing a peer until observing its new generation in
+     * milliseconds.
+     */
+    public synchronized long getMaximumObservationDelayAfterGapInMilliseconds() {
+        return mMaximumObservationDelayAfterGapInMilliseconds;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US,
+            "Local updates: %d while advertising, %d with start; peer generation changes: %d (average delay %d ms, "
+                + "maximum delay %d ms; %d after a gap, average delay %d ms, maximum delay %d ms), "
+                + "%d generations missed",
+            mNumberOfLocalUpdatesWhileAdvertising, mNumberOfLocalUpdatesWithStart, mNumberOfPeerGenerationChanges,
+            getAverageObservationDelayInMilliseconds(), mMaximumObservationDelayInMilliseconds,
+            mNumberOfPeerGenerationChangesAfterGap, getAverageObservationDelayAfterGapInMilliseconds(),
+            mMaximumObservationDelayAfterGapInMilliseconds, mNumberOfPeerGenerationsMissed);
+    }
+}
@@ -0,0 +1,299 @@
+/* Copyright (c) 2016 Microsoft Corporation. This software is licensed under the MIT License.
+ * See the license file delivered with this project for further information.
+ */
+package io.jxcore.node;
+
+import android.net.LocalSocket;
+import android.util.Log;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Stream wrappers, which let one direction of a relayed connection finish while the other keeps
+ * streaming (half-close). When a stream copying thread reaches the end of its input, it shuts down
+ * the output of a half-closable stream instead of closing it, which would close the socket.
+ *
+ * On the localhost leg the output of the socket (TCP or Unix domain) is shut down, which the
+ * local peer sees as the end of the stream.
+ *
+ * The Bluetooth leg (RFCOMM) has no half-close, so the end of the stream is signalled in-band:
+ * the data is sent in frames (two byte length, big-endian, followed by the payload) and an empty
+ * frame marks the end of the stream. Both peers must frame the stream, so the marker is disabled
+ * by default, in which case the end of the stream closes the Bluetooth socket like before. It is
+ * enabled from JS (see setHalfCloseEnabled in JXcoreExtension).
+ */
+public class HalfCloseStreams {
+
+    /**
+     * A stream, which can signal the end of the stream without closing the underlying socket.
+     */
+    interface HalfClosable {
+        /**
+         * Signals the end of the stream to the other end. Writing after this fails, but the other
+         * direction of the connection is not affected.
+         *
+         * @throws IOException If signalling fails.
+         */
+        void shutdownOutput() throws IOException;
+    }
+
+    /**
+     * The output stream of a localhost socket, which is half-closed with Socket.shutdownOutput.
+     */
+    static class SocketOutputStream extends OutputStream implements HalfClosable {
+        private final Socket mSocket;
+        private final OutputStream mOutputStream;
+
+        SocketOutputStream(Socket socket, OutputStream outputStream) {
+            mSocket = socket;
+            mOutputStream = outputStream;
+        }
+
+        @Override
+        public void write(int oneByte) throws IOException {
+            mOutputStream.write(oneByte);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            mOutputStream.write(buffer, offset, count);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            mOutputStream.flush();
+        }
+
+        @Override
+        public void shutdownOutput() throws IOException {
+            mOutputStream.flush();
+            mSocket.shutdownOutput();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOutputStream.close();
+        }
+    }
+
+    /**
+     * The output stream of a Unix domain socket, which is half-closed with LocalSocket.shutdownOutput.
+     */
+    static class LocalSocketOutputStream extends OutputStream implements HalfClosable {
+        private final LocalSocket mLocalSocket;
+        private final OutputStream mOutputStream;
+
+        LocalSocketOutputStream(LocalSocket localSocket, OutputStream outputStream) {
+            mLocalSocket = localSocket;
+            mOutputStream = outputStream;
+        }
+
+        @Override
+        public void write(int oneByte) throws IOException {
+            mOutputStream.write(oneByte);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            mOutputStream.write(buffer, offset, count);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            mOutputStream.flush();
+        }
+
+        @Override
+        public void shutdownOutput() throws IOException {
+            mOutputStream.flush();
+            mLocalSocket.shutdownOutput();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOutputStream.close();
+        }
+    }
+
+    /**
+     * Writes the data in frames. The end of the stream is marked with an empty frame.
+     */
+    static class FramingOutputStream extends OutputStream implements HalfClosable {
+        private final OutputStream mOutputStream;
+        private final byte[] mOneByte = new byte[1];
+        private byte[] mFrameBuffer = new byte[0];
+        private boolean mIsEnded = false;
+
+        FramingOutputStream(OutputStream outputStream) {
+            mOutputStream = outputStream;
+        }
+
+        @Override
+        public void write(int oneByte) throws IOException {
+            mOneByte[0] = (byte) oneByte;
+            write(mOneByte, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            if (mIsEnded) {
+                throw new IOException("The end of the stream has been marked");
+            }
+
+            while (count > 0) {
+                int frameLength = Math.min(count, MAXIMUM_FRAME_LENGTH);
+
+                // The header and the payload are written at once to not split them into separate
+                // packets. The buffer is reused, since this is called for every chunk copied.
+                if (mFrameBuffer.length < HEADER_LENGTH + frameLength) {
+                    mFrameBuffer = new byte[HEADER_LENGTH + frameLength];
+                }
+
+                mFrameBuffer[0] = (byte) (frameLength >>> 8);
+                mFrameBuffer[1] = (byte) frameLength;
+                System.arraycopy(buffer, offset, mFrameBuffer, HEADER_LENGTH, frameLength);
+                mOutputStream.write(mFrameBuffer, 0, HEADER_LENGTH + frameLength);
+                offset += frameLength;
+                count -= frameLength;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            mOutputStream.flush();
+        }
+
+        @Override
+        public void shutdownOutput() throws IOException {
+            if (!mIsEnded) {
+                mIsEnded = true;
+                mOutputStream.write(END_OF_STREAM_MARKER);
+                mOutputStream.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mIsEnded = true;
+            mOutputStream.close();
+        }
+    }
+
+    /**
+     * Reads the data written by FramingOutputStream. Returns the end of the stream, when the
+     * end-of-stream marker is read.
+     */
+    static class FramingInputStream extends InputStream {
+        private final InputStream mInputStream;
+        private final byte[] mHeader = new byte[HEADER_LENGTH];
+        private final byte[] mOneByte = new byte[1];
+        private int mNumberOfBytesLeftInFrame = 0;
+        private boolean mIsEnded = false;
+
+        FramingInputStream(InputStream inputStream) {
+            mInputStream = inputStream;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(mOneByte, 0, 1) == -1 ? -1 : mOneByte[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (count == 0) {
+                return 0;
+            }
+
+            while (!mIsEnded && mNumberOfBytesLeftInFrame == 0) {
+                if (!readHeader()) {
+                    // The stream ended without the marker i.e. the other end does not frame
+                    // the stream or closed the socket
+                    mIsEnded = true;
+                } else {
+                    mNumberOfBytesLeftInFrame = ((mHeader[0] & 0xff) << 8) | (mHeader[1] & 0xff);
+
+                    if (mNumberOfBytesLeftInFrame == 0) {
+                        Log.d(TAG, "read: The end-of-stream marker received");
+                        mIsEnded = true;
+                    }
+                }
+            }
+
+            if (mIsEnded) {
+                return -1;
+            }
+
+            int numberOfBytesRead = mInputStream.read(buffer, offset, Math.min(count, mNumberOfBytesLeftInFrame));
+
+            if (numberOfBytesRead == -1) {
+                throw new EOFException("The stream ended in the middle of a frame");
+            }
+
+            mNumberOfBytesLeftInFrame -= numberOfBytesRead;
+            return numberOfBytesRead;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return Math.min(mInputStream.available(), mNumberOfBytesLeftInFrame);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mInputStream.close();
+        }
+
+        /**
+         * @return True, if the header was read. False, if the stream ended before the header.
+         * @throws IOException If the stream ended in the middle of the header or reading failed.
+         */
+        private boolean readHeader() throws IOException {
+            int numberOfBytesRead = 0;
+
+            while (numberOfBytesRead < HEADER_LENGTH) {
+                int result = mInputStream.read(mHeader, numberOfBytesRead, HEADER_LENGTH - numberOfBytesRead);
+
+                if (result == -1) {
+                    if (numberOfBytesRead == 0) {
+                        return false;
+                    }
+
+                    throw new EOFException("The stream ended in the middle of a frame header");
+                }
+
+                numberOfBytesRead += result;
+            }
+
+            return true;
+        }
+    }
+
+    private static final String TAG = HalfCloseStreams.class.getName();
+    private static final int HEADER_LENGTH = 2;
+    static final int MAXIMUM_FRAME_LENGTH = 0xffff;
+    private static final byte[] END_OF_STREAM_MARKER = new byte[HEADER_LENGTH];
+    private static volatile boolean mIsBluetoothEndOfStreamMarkerEnabled = false;
+
+    private HalfCloseStreams() {
+    }
+
+    /**
+     * Enables or disables framing the Bluetooth streams with the end-of-stream marker for the
+     * connections established after this call. Must match the setting of the peers.
+     *
+     * @param enabled If true, will frame the Bluetooth streams.
+     */
+    public static void setBluetoothEndOfStreamMarkerEnabled(boolean enabled) {
+        Log.i(TAG, "setBluetoothEndOfStreamMarkerEnabled: " + enabled);
+        mIsBluetoothEndOfStreamMarkerEnabled = enabled;
+    }
+
+    public static boolean isBluetoothEndOfStreamMarkerEnabled() {
+        return mIsBluetoothEndOfStreamMarkerEnabled;
+    }
+}
@@ -0,0 +1,65 @@
+/* Copyright (c) 2016 Microsoft Corporation. This software is licensed under the MIT License.
+ * See the license file delivered with this project for further information.
+ */
+package io.jxcore.node;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * A scheduler running the tasks on the thread of the given looper. The time is the time since
+ * boot (SystemClock.elapsedRealtime).
+ *
+ * The default instance runs the tasks on the main thread like the CountDownTimer instances this
+ * replaces did.
+ */
+public class HandlerScheduler implements Scheduler {
+    private static HandlerScheduler mDefaultInstance = null;
+    private final Handler mHandler;
+
+    /**
+     * @return The scheduler running the tasks on the main thread.
+     */
+    public static synchronized HandlerScheduler getDefault() {
+        if (mDefaultInstance == null) {
+            mDefaultInstance = new HandlerScheduler(Looper.getMainLooper());
+        }
+
+        return mDefaultInstance;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param looper The looper of the thread to run the tasks on.
+     */
+    public HandlerScheduler(Looper looper) {
+        mHandler = new Handler(looper);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public ScheduledTask schedule(final Runnable runnable, long delayInMilliseconds) {
+        // Wrapped so that cancelling one task does not remove the other posts of the same runnable
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                runnable.run();
+            }
+        };
+
+        mHandler.postDelayed(task, delayInMilliseconds);
+
+        return new ScheduledTask() {
+            @Override
+            public void cancel() {
+                mHandler.removeCallbacks(task);
+            }
+        };
+    }
+}
@@ -16,6 +16,7 @@ import java.net.Socket;
  */
 class IncomingSocketThread extends SocketThreadBase {
     private int mTcpPortNumber = 0;
+    private String mServerSocketPath = null;
     private ConnectionData connectionData;
 
     /**
@@ -48,6 +49,38 @@ class IncomingSocketThread extends SocketThreadBase {
         mTag = IncomingSocketThread.class.getName();
     }
 
+    /**
+     * Constructor for connections over a transport other than Bluetooth, e.g. TCP.
+     *
+     * @param transport      The transport.
+     * @param connectionData The connection data.
+     * @param listener       The listener.
+     * @throws IOException Thrown, if getting the streams of the transport fails.
+     */
+    public IncomingSocketThread(RelayTransport transport, ConnectionData connectionData, Listener listener)
+            throws IOException {
+        super(transport, listener);
+        this.connectionData = connectionData;
+        mTag = IncomingSocketThread.class.getName();
+    }
+
+    /**
+     * Constructor for connections, which streams are not taken from the Bluetooth socket
+     * (e.g. a simulated transport).
+     *
+     * @param bluetoothSocket The Bluetooth socket. Can be null.
+     * @param connectionData  The connection data.
+     * @param listener        The listener.
+     * @param inputStream     The InputStream.
+     * @param outputStream    The OutputStream.
+     */
+    public IncomingSocketThread(BluetoothSocket bluetoothSocket, ConnectionData connectionData, Listener listener,
+                                InputStream inputStream, OutputStream outputStream) {
+        super(bluetoothSocket, listener, inputStream, outputStream);
+        this.connectionData = connectionData;
+        mTag = IncomingSocketThread.class.getName();
+    }
+
     public int getLocalHostPort() {
         Socket copyOfLocalHostSocket = mLocalhostSocket;
         return copyOfLocalHostSocket == null ? ConnectionHelper.NO_PORT_NUMBER : copyOfLocalHostSocket.getPort();
@@ -61,31 +94,61 @@ class IncomingSocketThread extends SocketThreadBase {
         mTcpPortNumber = portNumber;
     }
 
+    public String getServerSocketPath() {
+        return mServerSocketPath;
+    }
+
+    /**
+     * Sets the Unix domain socket of the Node server to connect to instead of the TCP port.
+     *
+     * @param serverSocketPath The path of the socket or null to connect to the TCP port.
+     */
+    public void setServerSocketPath(String serverSocketPath) {
+        mServerSocketPath = serverSocketPath;
+    }
+
     /**
-     * From Thread.
+     * From Runnable.
      */
     @Override
     public void run() {
         Log.d(mTag, "Entering thread (ID: " + getId() + "). Connection data  = " + connectionData.toString());
-        mIsClosing = false;
+
+        if (mIsClosing) {
+            // The thread cannot be restarted so there is no point in resetting the flag
+            Log.d(mTag, "Closed before started (thread ID: " + getId() + ")");
+            return;
+        }
+
         InputStream tempInputStream = null;
         OutputStream tempOutputStream = null;
         boolean localStreamsCreatedSuccessfully = false;
 
         try {
-            mLocalhostSocket = new Socket();
-            InetSocketAddress inetSocketAddress = new InetSocketAddress("localhost", mTcpPortNumber);
-            configureSocket();
-            mLocalhostSocket.connect(inetSocketAddress);
-            Log.i(mTag, "Creating TCP android... " );
-            Log.i(mTag, "Local host address: " + getLocalHostAddressAsString() + ", port: " + getLocalHostPort());
-
-            tempInputStream = mLocalhostSocket.getInputStream();
-            tempOutputStream = mLocalhostSocket.getOutputStream();
+            if (mServerSocketPath != null) {
+                mLocalDomainSocket = LocalDomainSockets.connect(mServerSocketPath);
+                Log.i(mTag, "Connected to the Unix domain socket " + mServerSocketPath);
+
+                tempInputStream = mLocalDomainSocket.getInputStream();
+                tempOutputStream = mLocalDomainSocket.getOutputStream();
+            } else {
+                mLocalhostSocket = new Socket();
+                InetSocketAddress inetSocketAddress = new InetSocketAddress("localhost", mTcpPortNumber);
+                configureSocket();
+                mLocalhostSocket.connect(inetSocketAddress);
+                Log.i(mTag, "Creating TCP android... " );
+                Log.i(mTag, "Local host address: " + getLocalHostAddressAsString() + ", port: " + getLocalHostPort());
+
+                tempInputStream = mLocalhostSocket.getInputStream();
+                tempOutputStream = mLocalhostSocket.getOutputStream();
+            }
+
             localStreamsCreatedSuccessfully = true;
         } catch (IOException e) {
-            Log.e(mTag, "Failed to create the local streams: " + e.getMessage(), e);
-            mListener.onDisconnected(this, "Failed to create the local streams: " + e.getMessage());
+            if (!mIsClosing) {
+                Log.e(mTag, "Failed to create the local streams: " + e.getMessage(), e);
+                mListener.onDisconnected(this, "Failed to create the local streams: " + e.getMessage());
+            }
         }
 
         if (localStreamsCreatedSuccessfully) {
@@ -19,8 +19,8 @@ import org.thaliproject.p2p.btconnectorlib.internal.bluetooth.BluetoothManager;
 import org.thaliproject.p2p.btconnectorlib.internal.bluetooth.BluetoothUtils;
 import org.thaliproject.p2p.btconnectorlib.utils.CommonUtils;
 
+import java.net.InetAddress;
 import java.util.ArrayList;
-import java.util.Date;
 
 import io.jxcore.node.jxcore.JXcoreCallback;
 
@@ -49,6 +49,8 @@ public class JXcoreExtension implements SurroundingStateObserver {
     private static final String EVENT_NAME_DISCOVERY_ADVERTISING_STATE_UPDATE = "discoveryAdvertisingStateUpdateNonTCP";
     private static final String EVENT_NAME_NETWORK_CHANGED = "networkChanged";
     private static final String EVENT_NAME_INCOMING_CONNECTION_TO_PORT_NUMBER_FAILED = "incomingConnectionToPortNumberFailed";
+    private static final String EVENT_NAME_MULTICONNECT_RESOLVED = "multiConnectResolved";
+    private static final String EVENT_NAME_MULTICONNECT_CONNECTION_FAILURE = "multiConnectConnectionFailure";
     private static final String METHOD_NAME_LOCK_WIFI_MULTICAST = "lockAndroidWifiMulticast";
     private static final String METHOD_NAME_UNLOCK_WIFI_MULTICAST = "unlockAndroidWifiMulticast";
     private static final String METHOD_ARGUMENT_NETWORK_CHANGED = EVENT_NAME_NETWORK_CHANGED;
@@ -65,6 +67,7 @@ public class JXcoreExtension implements SurroundingStateObserver {
     private static final String EVENT_VALUE_BSSID_NAME = "bssidName";
     private static final String EVENT_VALUE_SSID_NAME = "ssidName";
     private static final String EVENT_VALUE_PORT_NUMBER = "portNumber";
+    private static final String EVENT_VALUE_ERROR = "error";
     // Android specific methods and events
     private static final String METHOD_NAME_IS_BLE_MULTIPLE_ADVERTISEMENT_SUPPORTED = "isBleMultipleAdvertisementSupported";
     private static final String METHOD_NAME_GET_BLUETOOTH_ADDRESS = "getBluetoothAddress";
@@ -73,16 +76,20 @@ public class JXcoreExtension implements SurroundingStateObserver {
     private static final String METHOD_NAME_GET_OS_VERSION = "getOSVersion";
     private static final String METHOD_NAME_RECONNECT_WIFI_AP = "reconnectWifiAp";
     private static final String METHOD_NAME_SHOW_TOAST = "showToast";
+    private static final String METHOD_NAME_SET_BANDWIDTH_SHAPING = "setBandwidthShaping";
+    private static final String METHOD_NAME_SET_SPECULATIVE_PRECONNECT_ENABLED = "setSpeculativePreconnectEnabled";
+    private static final String METHOD_NAME_SET_CONNECTION_UPGRADE_ENABLED = "setConnectionUpgradeEnabled";
+    private static final String METHOD_NAME_SET_HALF_CLOSE_ENABLED = "setHalfCloseEnabled";
 
     private static final String TAG = JXcoreExtension.class.getName();
     private static final long INCOMING_CONNECTION_FAILED_NOTIFICATION_MIN_INTERVAL_IN_MILLISECONDS = 100;
 
-    private static final String ERROR_PLATFORM_DOES_NOT_SUPPORT_MULTICONNECT = "Platform does not support multiConnect";
-    private static final String ERROR_NOT_MULTICONNECT_PLATFORM = "Not multiConnect platform";
+    private static final String ERROR_BAD_PARAMETERS = "Bad parameters";
 
     private static ConnectionHelper mConnectionHelper = null;
     private static WifiLocker wifiLocker = new WifiLocker();
-    private static long mLastTimeIncomingConnectionFailedNotificationWasFired = 0;
+    private static volatile Scheduler mScheduler = HandlerScheduler.getDefault();
+    private static long mLastTimeIncomingConnectionFailedNotificationWasFired = Long.MIN_VALUE;
     private static boolean mNetworkChangedRegistered = false;
 
     private static class Holder {
@@ -96,6 +103,16 @@ public class JXcoreExtension implements SurroundingStateObserver {
         return Holder.INSTANCE;
     }
 
+    /**
+     * Sets the source of time for throttling the events. Resets the throttling.
+     *
+     * @param scheduler The scheduler.
+     */
+    static void setScheduler(Scheduler scheduler) {
+        mScheduler = scheduler;
+        mLastTimeIncomingConnectionFailedNotificationWasFired = Long.MIN_VALUE;
+    }
+
     public static void LoadExtensions() {
         if (mConnectionHelper != null) {
             Log.e(TAG, "LoadExtensions: A connection helper instance already exists - this indicates that this method was called twice - disposing of the previous instance");
@@ -130,7 +147,7 @@ public class JXcoreExtension implements SurroundingStateObserver {
             @Override
             public void Receiver(ArrayList<Object> params, String callbackId) {
                 Log.d(TAG, METHOD_NAME_START_LISTENING_FOR_ADVERTISEMENTS);
-                startConnectionHelper(ConnectionHelper.NO_PORT_NUMBER, false, callbackId);
+                startConnectionHelper(ConnectionHelper.NO_PORT_NUMBER, null, false, callbackId);
             }
         });
 
@@ -161,7 +178,11 @@ public class JXcoreExtension implements SurroundingStateObserver {
                     Object parameterObject = params.get(0);
 
                     if (parameterObject instanceof Integer && ((Integer) parameterObject > 0)) {
-                        startConnectionHelper((Integer) parameterObject, true, callbackId);
+                        startConnectionHelper((Integer) parameterObject, null, true, callbackId);
+                    } else if (parameterObject instanceof String
+                        && LocalDomainSockets.isSocketPath((String) parameterObject)) {
+                        // The Node server listens on a Unix domain socket instead of a TCP port
+                        startConnectionHelper(ConnectionHelper.NO_PORT_NUMBER, (String) parameterObject, true, callbackId);
                     } else {
                         errorString = "Required parameter, {number} portNumber, is invalid - must be a positive integer";
                     }
@@ -204,51 +225,33 @@ public class JXcoreExtension implements SurroundingStateObserver {
                     return;
                 }
 
-                if (mConnectionHelper.getConnectivityMonitor().isBleMultipleAdvertisementSupported() ==
-                    BluetoothManager.FeatureSupportedStatus.NOT_SUPPORTED) {
-                    ArrayList<Object> args = new ArrayList<Object>();
-                    args.add("No Native Non-TCP Support");
-                    args.add(null);
-                    jxcore.CallJSMethod(callbackId, args.toArray());
-                    return;
-                }
+                String bluetoothMacAddress = params.get(0).toString();
+                String preconditionErrorMessage = getConnectPreconditionErrorMessage(bluetoothMacAddress);
 
-                if (mConnectionHelper.getDiscoveryManager().getState() ==
-                    DiscoveryManager.DiscoveryManagerState.WAITING_FOR_SERVICES_TO_BE_ENABLED) {
+                if (preconditionErrorMessage != null) {
                     ArrayList<Object> args = new ArrayList<Object>();
-                    args.add("Radio Turned Off");
+                    args.add(preconditionErrorMessage);
                     args.add(null);
                     jxcore.CallJSMethod(callbackId, args.toArray());
                     return;
                 }
 
-                final DiscoveryManager discoveryManager = mConnectionHelper.getDiscoveryManager();
-                final DiscoveryManager.DiscoveryManagerState discoveryManagerState = discoveryManager.getState();
+                // The optional priority class of the connection: "interactive", "default" or "bulk"
+                BandwidthShaper.PriorityClass priorityClass = BandwidthShaper.PriorityClass.DEFAULT;
 
-                if (discoveryManagerState != DiscoveryManager.DiscoveryManagerState.RUNNING_BLE) {
-                    ArrayList<Object> args = new ArrayList<Object>();
-                    args.add("startListeningForAdvertisements is not active");
-                    args.add(null);
-                    jxcore.CallJSMethod(callbackId, args.toArray());
-                    return;
-                }
-
-                String peerId = params.get(0).toString();
-                String bluetoothMacAddress = null;
+                if (params.size() > 1 && params.get(1) != null) {
+                    priorityClass = BandwidthShaper.PriorityClass.fromName(params.get(1).toString());
 
-                if (peerId != null) {
-                    bluetoothMacAddress = peerId;
-                }
-
-                if (!BluetoothUtils.isValidBluetoothMacAddress(bluetoothMacAddress)) {
-                    ArrayList<Object> args = new ArrayList<Object>();
-                    args.add("Illegal peerID");
-                    args.add(null);
-                    jxcore.CallJSMethod(callbackId, args.toArray());
-                    return;
+                    if (priorityClass == null) {
+                        ArrayList<Object> args = new ArrayList<Object>();
+                        args.add(ERROR_BAD_PARAMETERS);
+                        args.add(null);
+                        jxcore.CallJSMethod(callbackId, args.toArray());
+                        return;
+                    }
                 }
 
-                Log.d(TAG, METHOD_NAME_CONNECT + ": " + bluetoothMacAddress);
+                Log.d(TAG, METHOD_NAME_CONNECT + ": " + bluetoothMacAddress + " (priority class: " + priorityClass + ")");
 
                 if (mConnectionHelper.getConnectionModel().getOutgoingConnectionCallbackByBluetoothMacAddress(bluetoothMacAddress) != null) {
                     Log.e(TAG, METHOD_NAME_CONNECT + ": Already connecting");
@@ -271,27 +274,31 @@ public class JXcoreExtension implements SurroundingStateObserver {
                     return;
                 }
 
-                final String errorMessage =
-                    mConnectionHelper.connect(bluetoothMacAddress, new JXcoreThaliCallback() {
-                        @Override
-                        public void onConnectCallback(
-                            String errorMessage,
-                            ListenerOrIncomingConnection listenerOrIncomingConnection) {
-                            ArrayList<Object> args = new ArrayList<Object>();
-                            args.add(errorMessage);
-
-                            if (errorMessage == null) {
-                                if (listenerOrIncomingConnection != null) {
-                                    args.add(listenerOrIncomingConnection.toString());
-                                } else {
-                                    throw new NullPointerException(
-                                        "ListenerOrIncomingConnection is null even though there is no error message");
-                                }
-                            }
+                JXcoreThaliCallback connectCallback = new JXcoreThaliCallback() {
+                    @Override
+                    public void onConnectCallback(
+                        String errorMessage,
+                        ListenerOrIncomingConnection listenerOrIncomingConnection) {
+                        ArrayList<Object> args = new ArrayList<Object>();
+                        args.add(errorMessage);
 
-                            jxcore.CallJSMethod(callbackId, args.toArray());
+                        if (errorMessage == null) {
+                            if (listenerOrIncomingConnection != null) {
+                                args.add(listenerOrIncomingConnection.toString());
+                            } else {
+                                throw new NullPointerException(
+                                    "ListenerOrIncomingConnection is null even though there is no error message");
+                            }
                         }
-                    });
+
+                        jxcore.CallJSMethod(callbackId, args.toArray());
+                    }
+                };
+
+                connectCallback.setPriorityClass(priorityClass);
+                // The Node layer connects to the path, if it negotiated Unix domain sockets
+                connectCallback.setLocalSocketPathAccepted(true);
+                final String errorMessage = mConnectionHelper.connect(bluetoothMacAddress, connectCallback);
 
                 if (errorMessage != null) {
                     // Failed to start connecting
@@ -348,14 +355,38 @@ public class JXcoreExtension implements SurroundingStateObserver {
             }
         });
 
+        /**
+         * Keeps one Bluetooth link per peer open and reuses it for the successive calls. The
+         * callback only tells whether the parameters were accepted, the port of the link (or the
+         * error) is delivered with the multiConnectResolved event matched by the sync value.
+         */
         jxcore.RegisterMethod(METHOD_NAME_MULTICONNECT, new JXcoreCallback() {
             @Override
             public void Receiver(ArrayList<Object> params, String callbackId) {
                 ArrayList<Object> args = new ArrayList<Object>();
 
-                args.add(ERROR_PLATFORM_DOES_NOT_SUPPORT_MULTICONNECT);
+                if (params.size() < 2 || params.get(0) == null || params.get(1) == null) {
+                    args.add(ERROR_BAD_PARAMETERS);
+                    args.add(null);
+                    jxcore.CallJSMethod(callbackId, args.toArray());
+                    return;
+                }
+
+                String bluetoothMacAddress = params.get(0).toString();
+                String syncValue = params.get(1).toString();
+                args.add(null);
                 args.add(null);
                 jxcore.CallJSMethod(callbackId, args.toArray());
+
+                String errorString = getConnectPreconditionErrorMessage(bluetoothMacAddress);
+
+                if (errorString != null) {
+                    getInstance().notifyMultiConnectResolved(syncValue, errorString, ConnectionHelper.NO_PORT_NUMBER);
+                    return;
+                }
+
+                Log.d(TAG, METHOD_NAME_MULTICONNECT + ": " + bluetoothMacAddress + ", sync value: " + syncValue);
+                mConnectionHelper.multiConnect(bluetoothMacAddress, syncValue);
             }
         });
 
@@ -363,8 +394,16 @@ public class JXcoreExtension implements SurroundingStateObserver {
             @Override
             public void Receiver(ArrayList<Object> params, String callbackId) {
                 ArrayList<Object> args = new ArrayList<Object>();
+                String errorString = null;
+
+                if (params.size() == 0 || params.get(0) == null) {
+                    errorString = ERROR_BAD_PARAMETERS;
+                } else {
+                    // Disconnecting from a peer we have no connection with is a success
+                    mConnectionHelper.disconnect(params.get(0).toString());
+                }
 
-                args.add(ERROR_NOT_MULTICONNECT_PLATFORM);
+                args.add(errorString);
                 args.add(null);
                 jxcore.CallJSMethod(callbackId, args.toArray());
             }
@@ -516,6 +555,99 @@ public class JXcoreExtension implements SurroundingStateObserver {
             }
         });
 
+        jxcore.RegisterMethod(METHOD_NAME_SET_BANDWIDTH_SHAPING, new JXcoreCallback() {
+            @Override
+            public void Receiver(ArrayList<Object> params, String callbackId) {
+                ArrayList<Object> args = new ArrayList<Object>();
+
+                // The link rate and, optionally, the rate limit of a priority class:
+                // [linkRateInBytesPerSecond, priorityClass, rateLimitInBytesPerSecond]
+                BandwidthShaper.PriorityClass priorityClass = null;
+
+                if (params.size() > 1) {
+                    priorityClass = BandwidthShaper.PriorityClass.fromName(String.valueOf(params.get(1)));
+                }
+
+                if (params.size() == 0 || !(params.get(0) instanceof Integer) || ((Integer) params.get(0)) < 0
+                        || (params.size() > 1 && (priorityClass == null || params.size() < 3
+                        || !(params.get(2) instanceof Integer) || ((Integer) params.get(2)) < 0))) {
+                    Log.e(TAG, METHOD_NAME_SET_BANDWIDTH_SHAPING + ": Bad parameters: " + params);
+                    args.add(ERROR_BAD_PARAMETERS);
+                } else {
+                    BandwidthShaper bandwidthShaper = BandwidthShaper.getDefault();
+                    bandwidthShaper.setLinkRate((Integer) params.get(0));
+
+                    if (priorityClass != null) {
+                        bandwidthShaper.setConnectionRateLimit(priorityClass, (Integer) params.get(2));
+                    }
+
+                    args.add(null);
+                }
+
+                jxcore.CallJSMethod(callbackId, args.toArray());
+            }
+        });
+
+        jxcore.RegisterMethod(METHOD_NAME_SET_SPECULATIVE_PRECONNECT_ENABLED, new JXcoreCallback() {
+            @Override
+            public void Receiver(ArrayList<Object> params, String callbackId) {
+                ArrayList<Object> args = new ArrayList<Object>();
+
+                if (params.size() == 0 || !(params.get(0) instanceof Boolean)) {
+                    Log.e(TAG, METHOD_NAME_SET_SPECULATIVE_PRECONNECT_ENABLED + ": Bad parameters: " + params);
+                    args.add(ERROR_BAD_PARAMETERS);
+                } else {
+                    mConnectionHelper.setSpeculativePreconnectEnabled((Boolean) params.get(0));
+                    args.add(null);
+                }
+
+                jxcore.CallJSMethod(callbackId, args.toArray());
+            }
+        });
+
+        jxcore.RegisterMethod(METHOD_NAME_SET_CONNECTION_UPGRADE_ENABLED, new JXcoreCallback() {
+            @Override
+            public void Receiver(ArrayList<Object> params, String callbackId) {
+                ArrayList<Object> args = new ArrayList<Object>();
+
+                if (params.size() == 0 || !(params.get(0) instanceof Boolean)) {
+                    Log.e(TAG, METHOD_NAME_SET_CONNECTION_UPGRADE_ENABLED + ": Bad parameters: " + params);
+                    args.add(ERROR_BAD_PARAMETERS);
+                } else if (!((Boolean) params.get(0))) {
+                    UpgradableLink.setDefaultEndpointProvider(null);
+                    args.add(null);
+                } else {
+                    InetAddress localNetworkAddress = TcpUpgradeEndpointProvider.findLocalNetworkAddress();
+
+                    if (localNetworkAddress == null) {
+                        args.add("No local network to upgrade the connections to");
+                    } else {
+                        UpgradableLink.setDefaultEndpointProvider(new TcpUpgradeEndpointProvider(localNetworkAddress));
+                        args.add(null);
+                    }
+                }
+
+                jxcore.CallJSMethod(callbackId, args.toArray());
+            }
+        });
+
+        jxcore.RegisterMethod(METHOD_NAME_SET_HALF_CLOSE_ENABLED, new JXcoreCallback() {
+            @Override
+            public void Receiver(ArrayList<Object> params, String callbackId) {
+                ArrayList<Object> args = new ArrayList<Object>();
+
+                if (params.size() == 0 || !(params.get(0) instanceof Boolean)) {
+                    Log.e(TAG, METHOD_NAME_SET_HALF_CLOSE_ENABLED + ": Bad parameters: " + params);
+                    args.add(ERROR_BAD_PARAMETERS);
+                } else {
+                    HalfCloseStreams.setBluetoothEndOfStreamMarkerEnabled((Boolean) params.get(0));
+                    args.add(null);
+                }
+
+                jxcore.CallJSMethod(callbackId, args.toArray());
+            }
+        });
+
         jxcore.RegisterMethod(METHOD_NAME_LOCK_WIFI_MULTICAST, new JXcoreCallback() {
             @Override
             public void Receiver(ArrayList<Object> params, String callbackId) {
@@ -718,9 +850,10 @@ public class JXcoreExtension implements SurroundingStateObserver {
      * @param portNumber The 127.0.0.1 port that the TCP/IP bridge tried to connect to.
      */
     public void notifyIncomingConnectionToPortNumberFailed(int portNumber) {
-        long currentTime = new Date().getTime();
+        long currentTime = mScheduler.currentTimeMillis();
 
-        if (currentTime > mLastTimeIncomingConnectionFailedNotificationWasFired
+        if (mLastTimeIncomingConnectionFailedNotificationWasFired == Long.MIN_VALUE
+            || currentTime > mLastTimeIncomingConnectionFailedNotificationWasFired
             + INCOMING_CONNECTION_FAILED_NOTIFICATION_MIN_INTERVAL_IN_MILLISECONDS) {
             JSONObject jsonObject = new JSONObject();
             boolean jsonObjectCreated = false;
@@ -744,17 +877,100 @@ public class JXcoreExtension implements SurroundingStateObserver {
         }
     }
 
+    /**
+     * Notifies about the result of a multiConnect call.
+     *
+     * @param syncValue           The value given to the multiConnect call.
+     * @param errorMessage        Null, if successful. The error message otherwise.
+     * @param listeningPortNumber The 127.0.0.1 port of the link to the peer, if successful.
+     */
+    public void notifyMultiConnectResolved(String syncValue, String errorMessage, int listeningPortNumber) {
+        final ArrayList<Object> args = new ArrayList<Object>();
+        args.add(syncValue);
+        args.add(errorMessage);
+        args.add((errorMessage == null) ? Integer.valueOf(listeningPortNumber) : null);
+
+        jxcore.activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                jxcore.CallJSMethod(EVENT_NAME_MULTICONNECT_RESOLVED, args.toArray());
+            }
+        });
+    }
+
+    /**
+     * Notifies that the link to a peer, established by multiConnect, failed.
+     *
+     * @param peerId       The peer ID.
+     * @param errorMessage The error message.
+     */
+    public void notifyMultiConnectConnectionFailure(String peerId, String errorMessage) {
+        JSONObject jsonObject = new JSONObject();
+        boolean jsonObjectCreated = false;
+
+        try {
+            putValueInJson(jsonObject, EVENT_VALUE_PEER_ID, peerId);
+            putValueInJson(jsonObject, EVENT_VALUE_ERROR, errorMessage);
+            jsonObjectCreated = true;
+        } catch (JSONException e) {
+            Log.e(TAG, "notifyMultiConnectConnectionFailure: Failed to populate the JSON object: " + e.getMessage(), e);
+        }
+
+        if (jsonObjectCreated) {
+            final String jsonObjectAsString = jsonObject.toString();
+
+            jxcore.activity.runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    jxcore.CallJSMethod(EVENT_NAME_MULTICONNECT_CONNECTION_FAILURE, jsonObjectAsString);
+                }
+            });
+        }
+    }
+
+    /**
+     * Checks the state required for connecting to a peer.
+     *
+     * @param bluetoothMacAddress The Bluetooth MAC address (peer ID) of the peer to connect to.
+     * @return Null, if the connection can be attempted. The error message otherwise.
+     */
+    private static String getConnectPreconditionErrorMessage(String bluetoothMacAddress) {
+        if (mConnectionHelper.getConnectivityMonitor().isBleMultipleAdvertisementSupported() ==
+            BluetoothManager.FeatureSupportedStatus.NOT_SUPPORTED) {
+            return "No Native Non-TCP Support";
+        }
+
+        DiscoveryManager.DiscoveryManagerState discoveryManagerState =
+            mConnectionHelper.getDiscoveryManager().getState();
+
+        if (discoveryManagerState == DiscoveryManager.DiscoveryManagerState.WAITING_FOR_SERVICES_TO_BE_ENABLED) {
+            return "Radio Turned Off";
+        }
+
+        if (discoveryManagerState != DiscoveryManager.DiscoveryManagerState.RUNNING_BLE) {
+            return "startListeningForAdvertisements is not active";
+        }
+
+        if (!BluetoothUtils.isValidBluetoothMacAddress(bluetoothMacAddress)) {
+            return "Illegal peerID";
+        }
+
+        return null;
+    }
+
     /**
      * Tries to starts the connection helper.
      *
      * @param serverPortNumber    The port on 127.0.0.1 that any incoming connections over the native
      *                            non-TCP/IP transport should be bridged to.
+     * @param serverSocketPath    The Unix domain socket to bridge the incoming connections to
+     *                            instead of the port or null.
      * @param startAdvertisements If true, will start advertising our presence and scanning for other peers.
      *                            If false, will only scan for other peers.
      * @param callbackId          The JXcore callback ID.
      */
     private static void startConnectionHelper(
-        int serverPortNumber, boolean startAdvertisements, final String callbackId) {
+        int serverPortNumber, String serverSocketPath, boolean startAdvertisements, final String callbackId) {
         final ArrayList<Object> args = new ArrayList<Object>();
         String errorString = null;
 
@@ -763,14 +979,17 @@ public class JXcoreExtension implements SurroundingStateObserver {
         } else {
             if (mConnectionHelper.getConnectivityMonitor().isBleMultipleAdvertisementSupported() !=
                 BluetoothManager.FeatureSupportedStatus.NOT_SUPPORTED) {
-                boolean succeededToStartOrWasAlreadyRunning =
-                    mConnectionHelper.start(serverPortNumber, startAdvertisements, new JXcoreThaliCallback() {
-                        @Override
-                        protected void onStartStopCallback(final String errorMessage) {
-                            args.add(errorMessage);
-                            jxcore.CallJSMethod(callbackId, args.toArray());
-                        }
-                    });
+                JXcoreThaliCallback startCallback = new JXcoreThaliCallback() {
+                    @Override
+                    protected void onStartStopCallback(final String errorMessage) {
+                        args.add(errorMessage);
+                        jxcore.CallJSMethod(callbackId, args.toArray());
+                    }
+                };
+
+                boolean succeededToStartOrWasAlreadyRunning = (serverSocketPath != null)
+                    ? mConnectionHelper.start(serverSocketPath, startAdvertisements, startCallback)
+                    : mConnectionHelper.start(serverPortNumber, startAdvertisements, startCallback);
 
                 if (succeededToStartOrWasAlreadyRunning) {
                     final DiscoveryManager discoveryManager = mConnectionHelper.getDiscoveryManager();
@@ -9,6 +9,8 @@ package io.jxcore.node;
 abstract class JXcoreThaliCallback {
     private final ListenerOrIncomingConnection mListenerOrIncomingConnection = new ListenerOrIncomingConnection();
     private String mErrorMessage = null;
+    private BandwidthShaper.PriorityClass mPriorityClass = BandwidthShaper.PriorityClass.DEFAULT;
+    private boolean mIsLocalSocketPathAccepted = false;
 
     /**
      * @return The ListenerOrIncomingConnection instance. Guaranteed not be null.
@@ -25,6 +27,29 @@ abstract class JXcoreThaliCallback {
         mErrorMessage = errorMessage;
     }
 
+    /**
+     * @return The priority class of the connection made with this callback.
+     */
+    public BandwidthShaper.PriorityClass getPriorityClass() {
+        return mPriorityClass;
+    }
+
+    public void setPriorityClass(BandwidthShaper.PriorityClass priorityClass) {
+        mPriorityClass = priorityClass;
+    }
+
+    /**
+     * @return True, if the connection may be given as the path of a Unix domain socket instead of
+     * a port number.
+     */
+    public boolean isLocalSocketPathAccepted() {
+        return mIsLocalSocketPathAccepted;
+    }
+
+    public void setLocalSocketPathAccepted(boolean accepted) {
+        mIsLocalSocketPathAccepted = accepted;
+    }
+
     public void callOnConnectCallback(
             final String errorMessage, final ListenerOrIncomingConnection listenerOrIncomingConnection) {
         jxcore.activity.runOnUiThread(new Runnable() {
@@ -15,6 +15,7 @@ class ListenerOrIncomingConnection {
     private int mListeningOnPortNumber = 0;
     private int mClientPortNumber = 0;
     private int mServerPortNumber = 0;
+    private String mListeningOnSocketPath = null;
 
     /**
      * Constructor.
@@ -55,10 +56,29 @@ class ListenerOrIncomingConnection {
         mListeningOnPortNumber = listeningOnPortNumber;
     }
 
+    public String getListeningOnSocketPath() {
+        return mListeningOnSocketPath;
+    }
+
+    /**
+     * Sets the Unix domain socket the native layer is listening on. If set, it is given to the
+     * Node layer as the listening port instead of the port number.
+     *
+     * @param listeningOnSocketPath The path of the socket.
+     */
+    public void setListeningOnSocketPath(String listeningOnSocketPath) {
+        mListeningOnSocketPath = listeningOnSocketPath;
+    }
+
     public JSONObject toJsonObject() {
         try {
             JSONObject jsonObject = new JSONObject();
-            jsonObject.put(JXcoreExtension.CALLBACK_VALUE_LISTENING_ON_PORT_NUMBER, mListeningOnPortNumber);
+            if (mListeningOnSocketPath != null) {
+                jsonObject.put(JXcoreExtension.CALLBACK_VALUE_LISTENING_ON_PORT_NUMBER, mListeningOnSocketPath);
+            } else {
+                jsonObject.put(JXcoreExtension.CALLBACK_VALUE_LISTENING_ON_PORT_NUMBER, mListeningOnPortNumber);
+            }
+
             jsonObject.put(JXcoreExtension.CALLBACK_VALUE_CLIENT_PORT_NUMBER, mClientPortNumber);
             jsonObject.put(JXcoreExtension.CALLBACK_VALUE_SERVER_PORT_NUMBER, mServerPortNumber);
             return jsonObject;
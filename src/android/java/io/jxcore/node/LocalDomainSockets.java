@@ -0,0 +1,173 @@
+/* Copyright (c) 2016 Microsoft Corporation. This software is licensed under the MIT License.
+ * See the license file delivered with this project for further information.
+ */
+package io.jxcore.node;
+
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Unix domain sockets for the localhost leg of the relay. The traffic between the relay and the
+ * Node layer never leaves the process, so the loopback TCP stack, the ephemeral ports and the
+ * extra file descriptors of a TCP connection are pure overhead.
+ *
+ * The sockets live in the filesystem namespace, since the Node layer (libuv) can not address the
+ * abstract namespace. The Node layer negotiates the use of Unix domain sockets by giving the path
+ * of its server socket instead of a port number, and the sockets of the outgoing connections are
+ * created in the same directory.
+ */
+class LocalDomainSockets {
+
+    /**
+     * A listening Unix domain socket.
+     */
+    static class ServerEndpoint {
+        private final String mPath;
+        private final LocalSocket mBoundSocket;
+        private final LocalServerSocket mServerSocket;
+        private volatile boolean mIsClosed = false;
+
+        private ServerEndpoint(String path) throws IOException {
+            mPath = path;
+            deleteSocketFile(path);
+            mBoundSocket = new LocalSocket();
+
+            try {
+                mBoundSocket.bind(new LocalSocketAddress(path, LocalSocketAddress.Namespace.FILESYSTEM));
+                mServerSocket = new LocalServerSocket(mBoundSocket.getFileDescriptor());
+            } catch (IOException e) {
+                mBoundSocket.close();
+                deleteSocketFile(path);
+                throw e;
+            }
+        }
+
+        public String getPath() {
+            return mPath;
+        }
+
+        /**
+         * Waits for the Node layer to connect.
+         *
+         * @return The accepted socket.
+         * @throws IOException If accepting fails or the endpoint is closed.
+         */
+        public LocalSocket accept() throws IOException {
+            LocalSocket localSocket = mServerSocket.accept(); // Blocking call
+
+            if (mIsClosed) {
+                // Woken up by close()
+                localSocket.close();
+                throw new IOException("The server endpoint is closed");
+            }
+
+            return localSocket;
+        }
+
+        /**
+         * Closes the endpoint and removes the socket file. Unlike ServerSocket, closing
+         * LocalServerSocket does not interrupt a blocked accept, so it is woken up by connecting.
+         */
+        public void close() {
+            if (mIsClosed) {
+                return;
+            }
+
+            mIsClosed = true;
+
+            try {
+                LocalSocket wakeUpSocket = connect(mPath);
+                wakeUpSocket.close();
+            } catch (IOException e) {
+                // Nobody waiting
+            }
+
+            try {
+                mServerSocket.close();
+            } catch (IOException e) {
+                Log.e(TAG, "close: Failed to close the server socket: " + e.getMessage(), e);
+            }
+
+            try {
+                mBoundSocket.close();
+            } catch (IOException e) {
+                Log.e(TAG, "close: Failed to close the bound socket: " + e.getMessage(), e);
+            }
+
+            deleteSocketFile(mPath);
+        }
+    }
+
+    private static final String TAG = LocalDomainSockets.class.getName();
+    private static final String OUTGOING_SOCKET_FILE_NAME_PREFIX = "thali-outgoing-";
+    private static final String SOCKET_FILE_NAME_SUFFIX = ".sock";
+
+    private LocalDomainSockets() {
+    }
+
+    /**
+     * @param serverPortNumberOrPath The value the Node layer gave for the server.
+     * @return True, if the value is the path of a Unix domain socket.
+     */
+    static boolean isSocketPath(String serverPortNumberOrPath) {
+        return (serverPortNumberOrPath != null && serverPortNumberOrPath.startsWith(File.separator));
+    }
+
+    /**
+     * Connects to the Unix domain socket at the given path.
+     *
+     * @param path The path of the socket.
+     * @return The connected socket.
+     * @throws IOException If connecting fails.
+     */
+    static LocalSocket connect(String path) throws IOException {
+        LocalSocket localSocket = new LocalSocket();
+
+        try {
+            localSocket.connect(new LocalSocketAddress(path, LocalSocketAddress.Namespace.FILESYSTEM));
+        } catch (IOException e) {
+            localSocket.close();
+            throw e;
+        }
+
+        return localSocket;
+    }
+
+    /**
+     * Starts listening on the given path. A stale socket file is replaced.
+     *
+     * @param path The path of the socket.
+     * @return The listening endpoint.
+     * @throws IOException If binding fails.
+     */
+    static ServerEndpoint listen(String path) throws IOException {
+        return new ServerEndpoint(path);
+    }
+
+    /**
+     * Creates the path for the socket of an outgoing connection next to the socket of the Node
+     * server, which the Node layer can certainly access.
+     *
+     * @param serverSocketPath The path of the Node server socket.
+     * @param connectionId     The ID of the connection.
+     * @return The path.
+     */
+    static String createOutgoingSocketPath(String serverSocketPath, int connectionId) {
+        File directory = new File(serverSocketPath).getParentFile();
+        String fileName = OUTGOING_SOCKET_FILE_NAME_PREFIX + connectionId + SOCKET_FILE_NAME_SUFFIX;
+        return (directory != null) ? new File(directory, fileName).getPath() : fileName;
+    }
+
+    private static void deleteSocketFile(String path) {
+        File file = new File(path);
+
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "deleteSocketFile: Failed to delete " + path);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/* Copyright (c) 2016 Microsoft Corporation. This software is licensed under the MIT License.
+ * See the license file delivered with this project for further information.
+ */
+package io.jxcore.node;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implements the multiConnect and disconnect methods on top of the outgoing connections: one
+ * Bluetooth link per peer is kept open until disconnect is called or the link fails, in which
+ * case the failure is notified.
+ *
+ * Unlike the multiConnect platforms, whose port accepts any number of TCP connections, the link
+ * relays a single TCP connection: the port of the outgoing connection accepts once and is then
+ * closed. Therefore a repeated multiConnect call is resolved with the port of the link only while
+ * the port still accepts, i.e. the Node layer has not connected to it yet. Once the connection has
+ * been accepted, the call fails with ERROR_LINK_IN_USE rather than resolving with a port nothing
+ * listens on. A second link to the same peer can not be opened, since there is at most one
+ * outgoing connection per peer.
+ *
+ * Only the links established by multiConnect are tracked. An outgoing connection made with
+ * connect belongs to its caller, so multiConnect to the same peer fails.
+ *
+ * The multiConnect calls made while the link is being established are resolved together, when
+ * the connection attempt completes.
+ */
+public class MultiConnectLinks {
+
+    /**
+     * The outgoing connections.
+     */
+    interface Connector {
+        /**
+         * Starts connecting to the given peer.
+         *
+         * @param peerId   The peer ID.
+         * @param callback The callback to call with the result.
+         * @return Null, if the connection process was started. An error message otherwise.
+         */
+        String connect(String peerId, JXcoreThaliCallback callback);
+
+        /**
+         * @param peerId The peer ID.
+         * @return The port the outgoing connection to the given peer still accepts its local
+         * connection on or ConnectionHelper.NO_PORT_NUMBER, if already accepted or not connected.
+         */
+        int getListeningPortNumber(String peerId);
+
+        /**
+         * Closes the outgoing connection to the given peer.
+         *
+         * @param peerId The peer ID.
+         * @return True, if the connection was found and closed.
+         */
+        boolean disconnect(String peerId);
+    }
+
+    public interface Listener {
+        /**
+         * Called, outside the locks of this class, when a multiConnect call is resolved.
+         *
+         * @param syncValue           The value given to the multiConnect call.
+         * @param errorMessage        Null, if successful. The error message otherwise.
+         * @param listeningPortNumber The port of the link or ConnectionHelper.NO_PORT_NUMBER, if failed.
+         */
+        void onMultiConnectResolved(String syncValue, String errorMessage, int listeningPortNumber);
+
+        /**
+         * Called, outside the locks of this class, when an established link fails.
+         *
+         * @param peerId       The peer ID.
+         * @param errorMessage The error message.
+         */
+        void onMultiConnectConnectionFailure(String peerId, String errorMessage);
+    }
+
+    private static final String TAG = MultiConnectLinks.class.getName();
+    static final String ERROR_CONNECTION_COULD_NOT_BE_ESTABLISHED = "Connection could not be established";
+    static final String ERROR_DISCONNECTED = "Disconnected before the connection was established";
+    static final String ERROR_CONNECTION_CLOSED = "Connection closed";
+    static final String ERROR_LINK_IN_USE = "The connection to the peer is already in use";
+    private final Connector mConnector;
+    private final Listener mListener;
+    private final Map<String, List<String>> mPendingSyncValues = new HashMap<String, List<String>>();
+    private final Map<String, Integer> mLinkPortNumbers = new HashMap<String, Integer>(); // Peer ID to port
+    private long mNumberOfLinksInUse = 0;
+    private long mNumberOfLinksEstablished = 0;
+    private long mNumberOfLinksReused = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param connector The outgoing connections.
+     * @param listener  The listener.
+     */
+    MultiConnectLinks(Connector connector, Listener listener) {
+        mConnector = connector;
+        mListener = listener;
+    }
+
+    /**
+     * Resolves the port of the link to the given peer, establishing the link, if necessary.
+     * The result is delivered via the listener.
+     *
+     * @param peerId    The peer ID.
+     * @param syncValue The value identifying the call.
+     */
+    public void multiConnect(final String peerId, String syncValue) {
+        int listeningPortNumber = ConnectionHelper.NO_PORT_NUMBER;
+        boolean isLinked = false;
+
+        synchronized (this) {
+            if (mLinkPortNumbers.containsKey(peerId)) {
+                listeningPortNumber = mLinkPortNumbers.get(peerId);
+                isLinked = true;
+            } else if (mPendingSyncValues.containsKey(peerId)) {
+                Log.d(TAG, "multiConnect: Waiting for the link to peer " + peerId + " being established");
+                mPendingSyncValues.get(peerId).add(syncValue);
+                return;
+            } else {
+                List<String> syncValues = new ArrayList<String>();
+                syncValues.add(syncValue);
+                mPendingSyncValues.put(peerId, syncValues);
+            }
+        }
+
+        if (isLinked) {
+            if (mConnector.getListeningPortNumber(peerId) == listeningPortNumber) {
+                synchronized (this) {
+                    mNumberOfLinksReused++;
+                }
+
+                Log.d(TAG, "multiConnect: Reusing the link to peer " + peerId + " (port " + listeningPortNumber + ")");
+                mListener.onMultiConnectResolved(syncValue, null, listeningPortNumber);
+            } else {
+                synchronized (this) {
+                    mNumberOfLinksInUse++;
+                }
+
+                Log.w(TAG, "multiConnect: The port of the link to peer " + peerId + " has already been used");
+                mListener.onMultiConnectResolved(syncValue, ERROR_LINK_IN_USE, ConnectionHelper.NO_PORT_NUMBER);
+            }
+
+            return;
+        }
+
+        String errorMessage = mConnector.connect(peerId, new JXcoreThaliCallback() {
+            @Override
+            protected void onConnectCallback(String errorMessage,
+                                             ListenerOrIncomingConnection listenerOrIncomingConnection) {
+                onLinkResult(peerId, errorMessage, (errorMessage == null && listenerOrIncomingConnection != null)
+                    ? listenerOrIncomingConnection.getListeningOnPortNumber() : ConnectionHelper.NO_PORT_NUMBER);
+            }
+        });
+
+        if (errorMessage != null) {
+            onLinkResult(peerId, errorMessage, ConnectionHelper.NO_PORT_NUMBER);
+        }
+    }
+
+    /**
+     * Closes the link to the given peer. The multiConnect calls waiting for the link are resolved
+     * with an error.
+     *
+     * @param peerId The peer ID.
+     * @return True, if there was a link or one being established.
+     */
+    public boolean disconnect(String peerId) {
+        List<String> pendingSyncValues;
+        boolean wasLinked;
+
+        synchronized (this) {
+            pendingSyncValues = mPendingSyncValues.remove(peerId);
+            wasLinked = (mLinkPortNumbers.remove(peerId) != null);
+        }
+
+        if (pendingSyncValues != null) {
+            // The link is closed when the connection attempt completes, see onLinkResult
+            resolve(pendingSyncValues, ERROR_DISCONNECTED, ConnectionHelper.NO_PORT_NUMBER);
+        }
+
+        boolean wasDisconnected = mConnector.disconnect(peerId);
+        return (wasDisconnected || wasLinked || pendingSyncValues != null);
+    }
+
+    /**
+     * Called when an outgoing connection is closed.
+     *
+     * @param peerId The peer ID.
+     */
+    public void onLinkClosed(String peerId) {
+        boolean wasLinked;
+
+        synchronized (this) {
+            wasLinked = (mLinkPortNumbers.remove(peerId) != null);
+        }
+
+        if (wasLinked) {
+            Log.i(TAG, "onLinkClosed: The link to peer " + peerId + " failed");
+            mListener.onMultiConnectConnectionFailure(peerId, ERROR_CONNECTION_CLOSED);
+        }
+    }
+
+    /**
+     * Forgets the links without notifying, e.g. when all the outgoing connections are killed.
+     */
+    public synchronized void clear() {
+        mLinkPortNumbers.clear();
+    }
+
+    /**
+     * @param peerId The peer ID.
+     * @return True, if there is an established link to the given peer.
+     */
+    public synchronized boolean isLinked(String peerId) {
+        return mLinkPortNumbers.containsKey(peerId);
+    }
+
+    /**
+     * @return The number of links established.
+     */
+    public synchronized long getNumberOfLinksEstablished() {
+        return mNumberOfLinksEstablished;
+    }
+
+    /**
+     * @return The number of multiConnect calls resolved with an existing link, whose port had not
+     * been used yet.
+     */
+    public synchronized long getNumberOfLinksReused() {
+        return mNumberOfLinksReused;
+    }
+
+    /**
+     * @return The number of multiConnect calls failed, since the link already relayed a connection.
+     */
+    public synchronized long getNumberOfLinksInUse() {
+        return mNumberOfLinksInUse;
+    }
+
+    /**
+     * Resolves the multiConnect calls waiting for the link to the given peer.
+     */
+    private void onLinkResult(String peerId, String errorMessage, int listeningPortNumber) {
+        List<String> pendingSyncValues;
+
+        synchronized (this) {
+            pendingSyncValues = mPendingSyncValues.remove(peerId);
+
+            if (pendingSyncValues != null && errorMessage == null) {
+                mLinkPortNumbers.put(peerId, listeningPortNumber);
+                mNumberOfLinksEstablished++;
+            }
+        }
+
+        if (pendingSyncValues == null) {
+            if (errorMessage == null) {
+                Log.d(TAG, "onLinkResult: Disconnect was requested while connecting to peer " + peerId);
+                mConnector.disconnect(peerId);
+            }
+
+            return;
+        }
+
+        if (errorMessage != null) {
+            Log.w(TAG, "onLinkResult: Failed to connect to peer " + peerId + ": " + errorMessage);
+            errorMessage = ERROR_CONNECTION_COULD_NOT_BE_ESTABLISHED;
+        }
+
+        resolve(pendingSyncValues, errorMessage, listeningPortNumber);
+    }
+
+    private void resolve(List<String> syncValues, String errorMessage, int listeningPortNumber) {
+        for (String syncValue : syncValues) {
+            mListener.onMultiConnectResolved(syncValue, errorMessage, listeningPortNumber);
+        }
+    }
+}
@@ -20,7 +20,9 @@ import java.net.ServerSocket;
 class OutgoingSocketThread extends SocketThreadBase {
 
     private ServerSocket mServerSocket = null;
-    private int mListeningOnPortNumber = ConnectionHelper.NO_PORT_NUMBER;
+    private LocalDomainSockets.ServerEndpoint mServerEndpoint = null;
+    private volatile int mListeningOnPortNumber = ConnectionHelper.NO_PORT_NUMBER;
+    private String mLocalSocketPath = null;
     //TODO remove it. Just for logging and test purposes
     private ConnectionData connectionData = new ConnectionData(
         new PeerProperties(PeerProperties.BLUETOOTH_MAC_ADDRESS_UNKNOWN), false);
@@ -55,28 +57,96 @@ class OutgoingSocketThread extends SocketThreadBase {
         mTag = OutgoingSocketThread.class.getName();
     }
 
+    /**
+     * Constructor for connections over a transport other than Bluetooth, e.g. TCP.
+     *
+     * @param transport      The transport.
+     * @param connectionData The connection data.
+     * @param listener       The listener.
+     * @throws IOException Thrown, if getting the streams of the transport fails.
+     */
+    public OutgoingSocketThread(RelayTransport transport, ConnectionData connectionData, Listener listener)
+            throws IOException {
+        super(transport, listener);
+        this.connectionData = connectionData;
+        mTag = OutgoingSocketThread.class.getName();
+    }
+
+    /**
+     * Constructor for connections, which streams are not taken from the Bluetooth socket
+     * (e.g. a simulated transport).
+     *
+     * @param bluetoothSocket The Bluetooth socket. Can be null.
+     * @param connectionData  The connection data.
+     * @param listener        The listener.
+     * @param inputStream     The InputStream.
+     * @param outputStream    The OutputStream.
+     */
+    public OutgoingSocketThread(BluetoothSocket bluetoothSocket, ConnectionData connectionData, Listener listener,
+                                InputStream inputStream, OutputStream outputStream) {
+        super(bluetoothSocket, listener, inputStream, outputStream);
+        this.connectionData = connectionData;
+        mTag = OutgoingSocketThread.class.getName();
+    }
+
+    /**
+     * @return The port listened on for the local connection or ConnectionHelper.NO_PORT_NUMBER, if
+     * not listening yet or anymore. Only a single local connection is accepted.
+     */
     public int getListeningOnPortNumber() {
         return mListeningOnPortNumber;
     }
 
+    public String getLocalSocketPath() {
+        return mLocalSocketPath;
+    }
+
     /**
-     * From Thread.
+     * Sets the path of the Unix domain socket to listen on instead of a TCP port. Must be called
+     * before the thread is started. When listening, the listener is notified with
+     * ConnectionHelper.NO_PORT_NUMBER.
+     *
+     * @param localSocketPath The path or null to listen on a TCP port.
+     */
+    public void setLocalSocketPath(String localSocketPath) {
+        mLocalSocketPath = localSocketPath;
+    }
+
+    /**
+     * From Runnable.
      */
     @Override
     public void run() {
         Log.d(mTag, "Entering thread (ID: " + getId() + "). Connection data  = " + connectionData.toString());
-        mIsClosing = false;
+
+        if (mLocalSocketPath != null) {
+            runWithLocalDomainSocket();
+            Log.d(mTag, "Exiting thread (ID: " + getId() + "). Connection data  = " + connectionData.toString());
+            return;
+        }
+
+        // A local copy, since close() can be called at any time from another thread
+        ServerSocket serverSocket = null;
 
         try {
-            mServerSocket = new ServerSocket(0);
-            Log.d(mTag, "Server socket local port: " + mServerSocket.getLocalPort());
+            synchronized (this) {
+                // If close() was already called, it had no server socket to close and the accept
+                // below would block forever
+                if (!mIsClosing) {
+                    mServerSocket = new ServerSocket(0);
+                    serverSocket = mServerSocket;
+                    Log.d(mTag, "Server socket local port: " + serverSocket.getLocalPort());
+                } else {
+                    Log.d(mTag, "Closed before started (thread ID: " + getId() + ")");
+                }
+            }
         } catch (IOException e) {
             Log.e(mTag, "Failed to create a server socket instance: " + e.getMessage(), e);
             mServerSocket = null;
             mListener.onDisconnected(this, e);
         }
 
-        if (mServerSocket != null) {
+        if (serverSocket != null) {
             InputStream tempInputStream = null;
             OutputStream tempOutputStream = null;
             boolean localStreamsCreatedSuccessfully = false;
@@ -85,17 +155,20 @@ class OutgoingSocketThread extends SocketThreadBase {
                 Log.i(mTag, "Now accepting connections...");
 
                 if (mListener != null) {
-                    mListeningOnPortNumber = mServerSocket.getLocalPort();
+                    mListeningOnPortNumber = serverSocket.getLocalPort();
                     mListener.onListeningForIncomingConnections(mListeningOnPortNumber);
                 }
-                mLocalhostSocket = mServerSocket.accept(); // Blocking call
+                mLocalhostSocket = serverSocket.accept(); // Blocking call
+                mListeningOnPortNumber = ConnectionHelper.NO_PORT_NUMBER; // Only one connection is accepted
                 Log.i(mTag, "Incoming data from address: " + getLocalHostAddressAsString()
-                    + ", port: " + mServerSocket.getLocalPort());
+                    + ", port: " + serverSocket.getLocalPort());
 
                 tempInputStream = mLocalhostSocket.getInputStream();
                 tempOutputStream = mLocalhostSocket.getOutputStream();
                 localStreamsCreatedSuccessfully = true;
             } catch (IOException e) {
+                mListeningOnPortNumber = ConnectionHelper.NO_PORT_NUMBER;
+
                 if (!mIsClosing) {
                     String errorMessage = "Failed to create local streams: " + e.getMessage();
                     Log.e(mTag, errorMessage, e);
@@ -111,9 +184,9 @@ class OutgoingSocketThread extends SocketThreadBase {
             }
         }
 
-        if (mServerSocket != null) {
+        if (serverSocket != null) {
             try {
-                mServerSocket.close();
+                serverSocket.close();
             } catch (IOException e) {
                 Log.e(mTag, "Failed to close the server socket: " + e.getMessage(), e);
             }
@@ -124,6 +197,70 @@ class OutgoingSocketThread extends SocketThreadBase {
         Log.d(mTag, "Exiting thread (ID: " + getId() + "). Connection data  = " + connectionData.toString());
     }
 
+    /**
+     * Listens on the Unix domain socket and relays the connection of the Node layer.
+     */
+    private void runWithLocalDomainSocket() {
+        // A local copy, since close() can be called at any time from another thread
+        LocalDomainSockets.ServerEndpoint serverEndpoint = null;
+
+        try {
+            synchronized (this) {
+                if (!mIsClosing) {
+                    mServerEndpoint = LocalDomainSockets.listen(mLocalSocketPath);
+                    serverEndpoint = mServerEndpoint;
+                    Log.d(mTag, "Listening on the Unix domain socket " + mLocalSocketPath);
+                } else {
+                    Log.d(mTag, "Closed before started (thread ID: " + getId() + ")");
+                }
+            }
+        } catch (IOException e) {
+            Log.e(mTag, "Failed to create a Unix domain server socket: " + e.getMessage(), e);
+            mServerEndpoint = null;
+            mListener.onDisconnected(this, e);
+        }
+
+        if (serverEndpoint == null) {
+            return;
+        }
+
+        InputStream tempInputStream = null;
+        OutputStream tempOutputStream = null;
+        boolean localStreamsCreatedSuccessfully = false;
+
+        try {
+            if (mListener != null) {
+                mListener.onListeningForIncomingConnections(ConnectionHelper.NO_PORT_NUMBER);
+            }
+
+            mLocalDomainSocket = serverEndpoint.accept(); // Blocking call
+            Log.i(mTag, "Incoming data from the Unix domain socket " + mLocalSocketPath);
+
+            tempInputStream = mLocalDomainSocket.getInputStream();
+            tempOutputStream = mLocalDomainSocket.getOutputStream();
+            localStreamsCreatedSuccessfully = true;
+        } catch (IOException e) {
+            if (!mIsClosing) {
+                Log.e(mTag, "Failed to create local streams: " + e.getMessage(), e);
+                mListener.onDisconnected(this, e);
+            }
+        }
+
+        if (localStreamsCreatedSuccessfully) {
+            Log.d(mTag, "Setting local streams and starting stream copying threads...");
+            mLocalInputStream = tempInputStream;
+            mLocalOutputStream = tempOutputStream;
+            startStreamCopyingThreads(connectionData);
+        }
+
+        // Only one connection is accepted, the socket file is not needed anymore
+        serverEndpoint.close();
+
+        synchronized (this) {
+            mServerEndpoint = null;
+        }
+    }
+
     /**
      * Closes all the streams and sockets.
      */
@@ -131,6 +268,11 @@ class OutgoingSocketThread extends SocketThreadBase {
         Log.i(mTag, "close (thread ID: " + getId() + ")");
         super.close();
 
+        if (mServerEndpoint != null) {
+            mServerEndpoint.close();
+            mServerEndpoint = null;
+        }
+
         if (mServerSocket != null) {
             try {
                 mServerSocket.close();
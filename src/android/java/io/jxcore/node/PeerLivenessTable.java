@@ -0,0 +1,296 @@
+/* Copyright (c) 2016 Microsoft Corporation. This software is licensed under the MIT License.
+ * See the license file delivered with this project for further information.
+ */
+package io.jxcore.node;
+
+import android.util.Log;
+
+import org.thaliproject.p2p.btconnectorlib.PeerProperties;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks the liveness of the peers and decides which of the discovery events are forwarded as
+ * peer availability changes. At the edge of the radio range a peer is lost and rediscovered over
+ * and over, which would otherwise result in bursts of availability events and connection
+ * attempts doomed to fail.
+ *
+ * A peer is available from the first time it is seen until it has been missed the given number
+ * of times: being lost (by the discovery) is the first miss and every time to live period passing
+ * without the peer being seen again is another. Seeing the peer again resets the misses without
+ * any event. An available peer is only notified again when its generation changes. A peer, which
+ * we are connected to, is never missed.
+ */
+public class PeerLivenessTable {
+
+    public interface Listener {
+        /**
+         * @param peerId The peer ID.
+         * @return True, if we have a connection to the peer.
+         */
+        boolean hasConnection(String peerId);
+
+        /**
+         * Called, outside the locks of this class, when the availability of a peer changes or
+         * an available peer has a new generation.
+         *
+         * @param peerProperties The peer properties.
+         * @param isAvailable    True, if available. False, if unavailable.
+         */
+        void onPeerAvailabilityChanged(PeerProperties peerProperties, boolean isAvailable);
+    }
+
+    /**
+     * A peer considered available.
+     */
+    private static class PeerEntry {
+        PeerProperties peerProperties;
+        long lastSeenOrMissedTime;
+        int numberOfMisses = 0;
+
+        PeerEntry(PeerProperties peerProperties, long lastSeenOrMissedTime) {
+            this.peerProperties = peerProperties;
+            this.lastSeenOrMissedTime = lastSeenOrMissedTime;
+        }
+    }
+
+    private static final String TAG = PeerLivenessTable.class.getName();
+    public static final long DEFAULT_TIME_TO_LIVE_IN_MILLISECONDS = 10000;
+    public static final int DEFAULT_NUMBER_OF_MISSES_BEFORE_UNAVAILABLE = 2;
+    private final Scheduler mScheduler;
+    private final Listener mListener;
+    private final ReusableTimer mMissTimer;
+    private final Map<String, PeerEntry> mPeerEntries = new HashMap<String, PeerEntry>();
+    private long mTimeToLiveInMilliseconds = DEFAULT_TIME_TO_LIVE_IN_MILLISECONDS;
+    private int mNumberOfMissesBeforeUnavailable = DEFAULT_NUMBER_OF_MISSES_BEFORE_UNAVAILABLE;
+    private long mNumberOfEventsSuppressed = 0;
+    private long mNumberOfNotifications = 0;
+    private long mNumberOfRecoveries = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param scheduler The scheduler for the time to live.
+     * @param listener  The listener.
+     */
+    public PeerLivenessTable(Scheduler scheduler, Listener listener) {
+        mScheduler = scheduler;
+        mListener = listener;
+        mMissTimer = new ReusableTimer(mScheduler, new Runnable() {
+            @Override
+            public void run() {
+                checkMissedPeers();
+            }
+        });
+    }
+
+    /**
+     * Sets the time to live and the hysteresis.
+     *
+     * @param timeToLiveInMilliseconds       The time a missed peer has to be seen again.
+     * @param numberOfMissesBeforeUnavailable The number of misses before a peer is unavailable.
+     *                                        One notifies the peer unavailable as soon as lost.
+     */
+    public synchronized void setParameters(long timeToLiveInMilliseconds, int numberOfMissesBeforeUnavailable) {
+        if (timeToLiveInMilliseconds <= 0 || numberOfMissesBeforeUnavailable < 1) {
+            throw new IllegalArgumentException("Invalid time to live (" + timeToLiveInMilliseconds
+                + ") or number of misses (" + numberOfMissesBeforeUnavailable + ")");
+        }
+
+        mTimeToLiveInMilliseconds = timeToLiveInMilliseconds;
+        mNumberOfMissesBeforeUnavailable = numberOfMissesBeforeUnavailable;
+    }
+
+    /**
+     * Called when a peer is discovered or updated.
+     *
+     * @param peerProperties The peer properties.
+     */
+    public void onPeerSeen(PeerProperties peerProperties) {
+        boolean notify;
+
+        synchronized (this) {
+            PeerEntry peerEntry = mPeerEntries.get(peerProperties.getId());
+
+            if (peerEntry == null) {
+                mPeerEntries.put(peerProperties.getId(),
+                    new PeerEntry(peerProperties, mScheduler.currentTimeMillis()));
+                notify = true;
+            } else {
+                if (peerEntry.numberOfMisses > 0) {
+                    Log.d(TAG, "onPeerSeen: Peer " + peerProperties.getId() + " recovered after "
+                        + peerEntry.numberOfMisses + " miss(es)");
+                    mNumberOfRecoveries++;
+                }
+
+                notify = (peerProperties.getExtraInformation() != peerEntry.peerProperties.getExtraInformation());
+                peerEntry.peerProperties = peerProperties;
+                peerEntry.lastSeenOrMissedTime = mScheduler.currentTimeMillis();
+                peerEntry.numberOfMisses = 0;
+            }
+
+            if (notify) {
+                mNumberOfNotifications++;
+            } else {
+                mNumberOfEventsSuppressed++;
+            }
+        }
+
+        if (notify) {
+            mListener.onPeerAvailabilityChanged(peerProperties, true);
+        }
+    }
+
+    /**
+     * Called when the discovery loses a peer.
+     *
+     * @param peerProperties The peer properties.
+     */
+    public void onPeerLost(PeerProperties peerProperties) {
+        boolean notify = false;
+
+        synchronized (this) {
+            PeerEntry peerEntry = mPeerEntries.get(peerProperties.getId());
+
+            if (peerEntry == null || peerEntry.numberOfMisses > 0) {
+                // Not available or already missed
+                mNumberOfEventsSuppressed++;
+                return;
+            }
+
+            peerEntry.numberOfMisses = 1;
+            peerEntry.lastSeenOrMissedTime = mScheduler.currentTimeMillis();
+
+            if (peerEntry.numberOfMisses >= mNumberOfMissesBeforeUnavailable) {
+                mPeerEntries.remove(peerProperties.getId());
+                mNumberOfNotifications++;
+                notify = true;
+            } else {
+                mNumberOfEventsSuppressed++;
+
+                if (!mMissTimer.isArmed()) {
+                    // If armed, the timer expires for an earlier miss, and is then armed for this one.
+                    // Arming it again would postpone the earlier misses.
+                    mMissTimer.arm(mTimeToLiveInMilliseconds);
+                }
+            }
+        }
+
+        if (notify) {
+            mListener.onPeerAvailabilityChanged(peerProperties, false);
+        }
+    }
+
+    /**
+     * Forgets all the peers without notifying, e.g. when everything is stopped.
+     */
+    public synchronized void clear() {
+        mMissTimer.cancel();
+        mPeerEntries.clear();
+    }
+
+    /**
+     * @param peerId The peer ID.
+     * @return True, if the peer is considered available.
+     */
+    public synchronized boolean isAvailable(String peerId) {
+        return mPeerEntries.containsKey(peerId);
+    }
+
+    /**
+     * @return The number of discovery events not forwarded.
+     */
+    public synchronized long getNumberOfEventsSuppressed() {
+        return mNumberOfEventsSuppressed;
+    }
+
+    /**
+     * @return The number of availability changes notified.
+     */
+    public synchronized long getNumberOfNotifications() {
+        return mNumberOfNotifications;
+    }
+
+    /**
+     * @return The number of missed peers seen again before becoming unavailable.
+     */
+    public synchronized long getNumberOfRecoveries() {
+        return mNumberOfRecoveries;
+    }
+
+    /**
+     * Adds a miss to every missed peer not seen within the time to live and notifies the ones,
+     * which have been missed enough times, unavailable.
+     */
+    private void checkMissedPeers() {
+        List<PeerEntry> peerEntriesToCheck = new ArrayList<PeerEntry>();
+
+        synchronized (this) {
+            for (PeerEntry peerEntry : mPeerEntries.values()) {
+                if (peerEntry.numberOfMisses > 0) {
+                    peerEntriesToCheck.add(peerEntry);
+                }
+            }
+        }
+
+        // Resolved outside the lock, since the listener takes the locks of the connection model
+        List<String> connectedPeerIds = new ArrayList<String>();
+
+        for (PeerEntry peerEntry : peerEntriesToCheck) {
+            if (mListener.hasConnection(peerEntry.peerProperties.getId())) {
+                connectedPeerIds.add(peerEntry.peerProperties.getId());
+            }
+        }
+
+        List<PeerProperties> unavailablePeers = new ArrayList<PeerProperties>();
+
+        synchronized (this) {
+            long now = mScheduler.currentTimeMillis();
+            long earliestMissTime = Long.MAX_VALUE;
+            Iterator<PeerEntry> iterator = mPeerEntries.values().iterator();
+
+            while (iterator.hasNext()) {
+                PeerEntry peerEntry = iterator.next();
+
+                if (peerEntry.numberOfMisses == 0) {
+                    continue;
+                }
+
+                if (connectedPeerIds.contains(peerEntry.peerProperties.getId())) {
+                    // We are connected, so the peer can't certainly be lost
+                    peerEntry.numberOfMisses = 0;
+                    peerEntry.lastSeenOrMissedTime = now;
+                    continue;
+                }
+
+                if (now - peerEntry.lastSeenOrMissedTime >= mTimeToLiveInMilliseconds) {
+                    peerEntry.numberOfMisses++;
+                    peerEntry.lastSeenOrMissedTime = now;
+                }
+
+                if (peerEntry.numberOfMisses >= mNumberOfMissesBeforeUnavailable) {
+                    iterator.remove();
+                    unavailablePeers.add(peerEntry.peerProperties);
+                    mNumberOfNotifications++;
+                } else {
+                    earliestMissTime = Math.min(earliestMissTime,
+                        peerEntry.lastSeenOrMissedTime + mTimeToLiveInMilliseconds);
+                }
+            }
+
+            if (earliestMissTime != Long.MAX_VALUE) {
+                // Armed for the next miss of any peer, not the time to live from now
+                mMissTimer.arm(Math.max(0, earliestMissTime - now));
+            }
+        }
+
+        for (PeerProperties peerProperties : unavailablePeers) {
+            Log.d(TAG, "checkMissedPeers: Peer " + peerProperties.getId() + " is unavailable");
+            mListener.onPeerAvailabilityChanged(peerProperties, false);
+        }
+    }
+}
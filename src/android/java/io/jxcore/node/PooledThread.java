@@ -0,0 +1,115 @@
+/* Copyright (c) 2016 Microsoft Corporation. This software is licensed under the MIT License.
+ * See the license file delivered with this project for further information.
+ */
+package io.jxcore.node;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A unit of work with the life cycle of a thread (start, join, isAlive and a unique ID), which is
+ * run as a task on a shared executor (see ConnectionExecutors) instead of a dedicated thread.
+ * The socket threads and the stream copying threads are pooled threads.
+ *
+ * Subclasses implement the work in run(). It can also be run on a dedicated Thread, in which
+ * case join and isAlive do not track it.
+ */
+abstract class PooledThread implements Runnable {
+    private static final AtomicLong mNextId = new AtomicLong(1);
+    private final long mId = mNextId.getAndIncrement();
+    private final CountDownLatch mFinishedLatch = new CountDownLatch(1);
+    private volatile boolean mIsStarted = false;
+    private volatile Thread.UncaughtExceptionHandler mUncaughtExceptionHandler = null;
+
+    /**
+     * @return The executor to run this thread on.
+     */
+    protected abstract Executor getExecutor();
+
+    /**
+     * Submits this thread to its executor, which will call run().
+     *
+     * @throws IllegalThreadStateException If the thread has already been started.
+     * @throws java.util.concurrent.RejectedExecutionException If the executor is saturated.
+     */
+    public void start() {
+        synchronized (mFinishedLatch) {
+            if (mIsStarted) {
+                throw new IllegalThreadStateException("Already started");
+            }
+
+            mIsStarted = true;
+        }
+
+        try {
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        PooledThread.this.run();
+                    } catch (RuntimeException e) {
+                        handleUncaughtException(e);
+                    } catch (Error e) {
+                        handleUncaughtException(e);
+                    } finally {
+                        mFinishedLatch.countDown();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            mFinishedLatch.countDown();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for the thread to finish. Returns immediately, if the thread has not been started.
+     *
+     * @param timeoutInMilliseconds The maximum time to wait in milliseconds.
+     * @return True, if the thread is not running. False, if the timeout elapsed first.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean join(long timeoutInMilliseconds) throws InterruptedException {
+        return !mIsStarted || mFinishedLatch.await(timeoutInMilliseconds, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return True, if the thread has been started and has not yet finished.
+     */
+    public boolean isAlive() {
+        return mIsStarted && mFinishedLatch.getCount() > 0;
+    }
+
+    /**
+     * @return The unique ID of this thread.
+     */
+    public long getId() {
+        return mId;
+    }
+
+    public Thread.UncaughtExceptionHandler getUncaughtExceptionHandler() {
+        return mUncaughtExceptionHandler;
+    }
+
+    /**
+     * @param uncaughtExceptionHandler The handler for the exceptions thrown by the work of this
+     *                                 thread or null to leave them to the executor thread.
+     */
+    public void setUncaughtExceptionHandler(Thread.UncaughtExceptionHandler uncaughtExceptionHandler) {
+        mUncaughtExceptionHandler = uncaughtExceptionHandler;
+    }
+
+    private void handleUncaughtException(Throwable throwable) {
+        Thread.UncaughtExceptionHandler uncaughtExceptionHandler = mUncaughtExceptionHandler;
+
+        if (uncaughtExceptionHandler != null) {
+            uncaughtExceptionHandler.uncaughtException(Thread.currentThread(), throwable);
+        } else if (throwable instanceof RuntimeException) {
+            throw (RuntimeException) throwable;
+        } else {
+            throw (Error) throwable;
+        }
+    }
+}
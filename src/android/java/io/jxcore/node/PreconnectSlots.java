@@ -0,0 +1,279 @@
+/* Copyright (c) 2016 Microsoft Corporation. This software is licensed under the MIT License.
+ * See the license file delivered with this project for further information.
+ */
+package io.jxcore.node;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The bounded slots for the speculative outgoing connections: when a peer announces a new
+ * generation, the node layer will almost always connect to it, so the connection can be started
+ * before it asks. A slot is reserved when the speculative connection attempt is started and,
+ * once connected, holds the socket (warm) until the connect call takes it or the time to live
+ * expires, in which case the socket is closed and the connection counted as wasted. A connect
+ * call made while the attempt is still in flight claims the slot, so that the connection is
+ * finalized right away when established.
+ *
+ * @param <S> The type of the socket.
+ */
+class PreconnectSlots<S extends Closeable> {
+
+    /**
+     * A slot of a peer.
+     */
+    private class Slot {
+        S socket = null;
+        boolean isClaimed = false;
+        Scheduler.ScheduledTask expiryTask = null;
+    }
+
+    /**
+     * The outcome of a connect call, which found the slot of the peer.
+     */
+    public class Claim {
+        private final S mWarmSocket;
+
+        private Claim(S warmSocket) {
+            mWarmSocket = warmSocket;
+        }
+
+        /**
+         * @return The warm socket taken or null, if the attempt in flight was claimed.
+         */
+        public S getWarmSocket() {
+            return mWarmSocket;
+        }
+    }
+
+    private static final String TAG = PreconnectSlots.class.getName();
+    private final Scheduler mScheduler;
+    private final int mMaximumNumberOfSlots;
+    private final long mTimeToLiveInMilliseconds;
+    private final Map<String, Slot> mSlots = new HashMap<String, Slot>();
+    private long mNumberOfSpeculativeConnects = 0;
+    private long mNumberOfHits = 0;
+    private long mNumberOfInFlightHits = 0;
+    private long mNumberOfMisses = 0;
+    private long mNumberOfWastedConnections = 0;
+    private long mNumberOfFailedConnects = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param scheduler                The scheduler for the time to live of the warm sockets.
+     * @param maximumNumberOfSlots     The maximum number of slots (in flight and warm).
+     * @param timeToLiveInMilliseconds The time a warm socket is held until closed.
+     */
+    PreconnectSlots(Scheduler scheduler, int maximumNumberOfSlots, long timeToLiveInMilliseconds) {
+        mScheduler = scheduler;
+        mMaximumNumberOfSlots = maximumNumberOfSlots;
+        mTimeToLiveInMilliseconds = timeToLiveInMilliseconds;
+    }
+
+    /**
+     * Reserves a slot for a speculative connection attempt to the given peer.
+     *
+     * @param address The address of the peer.
+     * @return True, if reserved and the attempt should be started. False, if the peer already has
+     * a slot or all the slots are taken.
+     */
+    public synchronized boolean reserve(String address) {
+        if (mSlots.containsKey(address) || mSlots.size() >= mMaximumNumberOfSlots) {
+            return false;
+        }
+
+        mSlots.put(address, new Slot());
+        mNumberOfSpeculativeConnects++;
+        return true;
+    }
+
+    /**
+     * Takes the warm socket of the given peer or, if the attempt is still in flight, claims its
+     * slot. Done in one step, so that the attempt cannot complete between the two.
+     *
+     * @param address The address of the peer.
+     * @return The claim or null, if the peer has no slot.
+     */
+    public synchronized Claim takeOrClaim(String address) {
+        Slot slot = mSlots.get(address);
+
+        if (slot == null || slot.isClaimed) {
+            return null;
+        }
+
+        if (slot.socket != null) {
+            mSlots.remove(address);
+            slot.expiryTask.cancel();
+            mNumberOfHits++;
+            return new Claim(slot.socket);
+        }
+
+        slot.isClaimed = true;
+        mNumberOfInFlightHits++;
+        return new Claim(null);
+    }
+
+    /**
+     * Records a connect call, which found no slot.
+     */
+    public synchronized void recordMiss() {
+        mNumberOfMisses++;
+    }
+
+    /**
+     * Called when an outgoing connection is established.
+     *
+     * @param address The address of the peer.
+     * @param socket  The socket.
+     * @return True, if the socket is held in the slot until claimed. False, if it should be
+     * finalized right away (the slot was claimed or this was not a speculative connection).
+     */
+    public synchronized boolean onConnected(final String address, final S socket) {
+        Slot slot = mSlots.get(address);
+
+        if (slot == null || slot.socket != null) {
+            return false;
+        }
+
+        if (slot.isClaimed) {
+            mSlots.remove(address);
+            return false;
+        }
+
+        Log.d(TAG, "onConnected: Holding the speculative connection to " + address);
+        slot.socket = socket;
+        slot.expiryTask = mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                expire(address, socket);
+            }
+        }, mTimeToLiveInMilliseconds);
+
+        return true;
+    }
+
+    /**
+     * Called when an outgoing connection attempt fails. Frees the slot of the peer, if the attempt
+     * was speculative.
+     *
+     * @param address The address of the peer.
+     * @return True, if the attempt was speculative and no connect call had claimed it.
+     */
+    public synchronized boolean onConnectionFailed(String address) {
+        Slot slot = mSlots.get(address);
+
+        if (slot == null || slot.socket != null) {
+            return false;
+        }
+
+        mSlots.remove(address);
+        mNumberOfFailedConnects++;
+        return !slot.isClaimed;
+    }
+
+    /**
+     * Closes the warm sockets and frees all the slots.
+     */
+    public void clear() {
+        List<S> sockets = new ArrayList<S>();
+
+        synchronized (this) {
+            for (Slot slot : mSlots.values()) {
+                if (slot.socket != null) {
+                    slot.expiryTask.cancel();
+                    sockets.add(slot.socket);
+                    mNumberOfWastedConnections++;
+                }
+            }
+
+            mSlots.clear();
+        }
+
+        for (S socket : sockets) {
+            close(socket);
+        }
+    }
+
+    /**
+     * @return The number of slots taken (in flight and warm).
+     */
+    public synchronized int size() {
+        return mSlots.size();
+    }
+
+    /**
+     * @return The number of speculative connection attempts started.
+     */
+    public synchronized long getNumberOfSpeculativeConnects() {
+        return mNumberOfSpeculativeConnects;
+    }
+
+    /**
+     * @return The number of connect calls, which took a warm socket.
+     */
+    public synchronized long getNumberOfHits() {
+        return mNumberOfHits;
+    }
+
+    /**
+     * @return The number of connect calls, which claimed an attempt in flight.
+     */
+    public synchronized long getNumberOfInFlightHits() {
+        return mNumberOfInFlightHits;
+    }
+
+    /**
+     * @return The number of connect calls, which found no slot.
+     */
+    public synchronized long getNumberOfMisses() {
+        return mNumberOfMisses;
+    }
+
+    /**
+     * @return The number of speculative connections closed without being used.
+     */
+    public synchronized long getNumberOfWastedConnections() {
+        return mNumberOfWastedConnections;
+    }
+
+    /**
+     * @return The number of speculative connection attempts failed.
+     */
+    public synchronized long getNumberOfFailedConnects() {
+        return mNumberOfFailedConnects;
+    }
+
+    /**
+     * Closes the warm socket of the given peer, if still held.
+     */
+    private void expire(String address, S socket) {
+        synchronized (this) {
+            Slot slot = mSlots.get(address);
+
+            if (slot == null || slot.socket != socket) {
+                return;
+            }
+
+            mSlots.remove(address);
+            mNumberOfWastedConnections++;
+        }
+
+        Log.d(TAG, "expire: The speculative connection to " + address + " was not used, closing");
+        close(socket);
+    }
+
+    private void close(S socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Log.w(TAG, "close: Failed to close the socket: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/* Copyright (c) 2016 Microsoft Corporation. This software is licensed under the MIT License.
+ * See the license file delivered with this project for further information.
+ */
+package io.jxcore.node;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The peer-to-peer leg of a relayed connection. SocketThreadBase relays the localhost connection
+ * to the peer over any transport implementing this, e.g. Bluetooth (BluetoothRelayTransport) or
+ * TCP (TcpRelayTransport), which is used for benchmarking the relay without a radio.
+ */
+interface RelayTransport extends Closeable {
+
+    /**
+     * The value of getMaximumFrameSize, when the transport takes writes of any size.
+     */
+    int NO_MAXIMUM_FRAME_SIZE = 0;
+
+    /**
+     * @return The name of the transport for the logs.
+     */
+    String getName();
+
+    /**
+     * @return The address of the peer at the other end, e.g. the Bluetooth MAC address.
+     */
+    String getRemoteAddress();
+
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * @return The output stream. If the transport supports half-close, the stream implements
+     * HalfCloseStreams.HalfClosable.
+     * @throws IOException If the stream can not be obtained.
+     */
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * @return True, if the end of the stream can be signalled without closing the transport.
+     * Otherwise the end of the stream marker is needed (see HalfCloseStreams).
+     */
+    boolean isHalfCloseSupported();
+
+    /**
+     * @return The largest write the transport takes in one go or NO_MAXIMUM_FRAME_SIZE.
+     */
+    int getMaximumFrameSize();
+
+    /**
+     * Closes the transport and its streams.
+     *
+     * @throws IOException If closing fails.
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,130 @@
+/* Copyright (c) 2016 Microsoft Corporation. This software is licensed under the MIT License.
+ * See the license file delivered with this project for further information.
+ */
+package io.jxcore.node;
+
+/**
+ * A timer for the debounce and timeout uses, which are re-armed far more often than they expire
+ * (e.g. on every chunk of data transferred or on every state change).
+ *
+ * Re-arming only moves the deadline and does not touch the scheduler nor allocate: the task
+ * scheduled is left as is and, when run before the deadline, schedules itself again for the time
+ * remaining. Thus a timer re-armed any number of times within its delay is scheduled at most
+ * twice. The action is run on the thread of the scheduler.
+ */
+public class ReusableTimer implements Scheduler.ScheduledTask {
+    private static final long NOT_ARMED = -1;
+    private final Scheduler mScheduler;
+    private final Runnable mAction;
+    private final Runnable mExpiryCheck = new Runnable() {
+        @Override
+        public void run() {
+            checkExpiry();
+        }
+    };
+    private Scheduler.ScheduledTask mScheduledTask = null;
+    private long mScheduledTime = NOT_ARMED;
+    private long mDeadline = NOT_ARMED;
+    private long mNumberOfTimesArmed = 0;
+    private long mNumberOfTimesScheduled = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param scheduler The scheduler.
+     * @param action    The action to run when the timer expires.
+     */
+    public ReusableTimer(Scheduler scheduler, Runnable action) {
+        mScheduler = scheduler;
+        mAction = action;
+    }
+
+    /**
+     * Arms the timer to expire after the given delay. If the timer is already armed, the deadline
+     * is moved.
+     *
+     * @param delayInMilliseconds The delay in milliseconds.
+     */
+    public synchronized void arm(long delayInMilliseconds) {
+        mNumberOfTimesArmed++;
+        mDeadline = mScheduler.currentTimeMillis() + delayInMilliseconds;
+
+        if (mScheduledTask != null && mScheduledTime > mDeadline) {
+            // The deadline was moved earlier, the task would be run too late
+            mScheduledTask.cancel();
+            mScheduledTask = null;
+        }
+
+        if (mScheduledTask == null) {
+            schedule(delayInMilliseconds);
+        }
+    }
+
+    /**
+     * Disarms the timer. Does nothing, if the timer is not armed.
+     */
+    @Override
+    public synchronized void cancel() {
+        mDeadline = NOT_ARMED;
+
+        if (mScheduledTask != null) {
+            mScheduledTask.cancel();
+            mScheduledTask = null;
+            mScheduledTime = NOT_ARMED;
+        }
+    }
+
+    /**
+     * @return True, if the timer is armed i.e. waiting to expire.
+     */
+    public synchronized boolean isArmed() {
+        return mDeadline != NOT_ARMED;
+    }
+
+    /**
+     * @return The number of times the timer was armed (or re-armed).
+     */
+    public synchronized long getNumberOfTimesArmed() {
+        return mNumberOfTimesArmed;
+    }
+
+    /**
+     * @return The number of times a task was handed to the scheduler.
+     */
+    public synchronized long getNumberOfTimesScheduled() {
+        return mNumberOfTimesScheduled;
+    }
+
+    /**
+     * Runs the action, if the deadline has passed. Otherwise schedules the check again for the
+     * time remaining.
+     */
+    private void checkExpiry() {
+        synchronized (this) {
+            mScheduledTask = null;
+            mScheduledTime = NOT_ARMED;
+
+            if (mDeadline == NOT_ARMED) {
+                return;
+            }
+
+            long timeRemaining = mDeadline - mScheduler.currentTimeMillis();
+
+            if (timeRemaining > 0) {
+                schedule(timeRemaining);
+                return;
+            }
+
+            mDeadline = NOT_ARMED;
+        }
+
+        // Run outside the lock, since the action may take the locks of the owner
+        mAction.run();
+    }
+
+    private void schedule(long delayInMilliseconds) {
+        mNumberOfTimesScheduled++;
+        mScheduledTime = mScheduler.currentTimeMillis() + delayInMilliseconds;
+        mScheduledTask = mScheduler.schedule(mExpiryCheck, delayInMilliseconds);
+    }
+}
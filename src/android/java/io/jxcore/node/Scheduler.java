@@ -0,0 +1,35 @@
+/* Copyright (c) 2016 Microsoft Corporation. This software is licensed under the MIT License.
+ * See the license file delivered with this project for further information.
+ */
+package io.jxcore.node;
+
+/**
+ * The source of time and delayed execution for the timer driven logic (operation timeouts,
+ * debouncing and throttling). Injected so that the logic can be run in virtual time in tests.
+ */
+public interface Scheduler {
+    /**
+     * A task scheduled for delayed execution.
+     */
+    interface ScheduledTask {
+        /**
+         * Cancels the task. Does nothing, if the task has already been run or cancelled.
+         */
+        void cancel();
+    }
+
+    /**
+     * @return The current time in milliseconds. The time is monotonic, but has no relation to the
+     * wall clock time and thus should only be used to measure intervals.
+     */
+    long currentTimeMillis();
+
+    /**
+     * Runs the given runnable once after the given delay.
+     *
+     * @param runnable            The runnable to run.
+     * @param delayInMilliseconds The delay in milliseconds.
+     * @return The scheduled task, which can be used to cancel the execution.
+     */
+    ScheduledTask schedule(Runnable runnable, long delayInMilliseconds);
+}
@@ -4,6 +4,7 @@
 package io.jxcore.node;
 
 import android.bluetooth.BluetoothSocket;
+import android.net.LocalSocket;
 import android.util.Log;
 
 import org.thaliproject.p2p.btconnectorlib.PeerProperties;
@@ -13,13 +14,16 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import android.os.Build;
 
 /**
- * The base (thread) class for outgoing and incoming socket threads.
+ * The base (thread) class for outgoing and incoming socket threads. Run on the shared control
+ * executor.
  */
-abstract class SocketThreadBase extends Thread implements StreamCopyingThread.Listener {
+abstract class SocketThreadBase extends PooledThread implements StreamCopyingThread.Listener {
 
     public interface Listener {
 
@@ -28,7 +32,8 @@ abstract class SocketThreadBase extends Thread implements StreamCopyingThread.Li
         void onDataTransferred(int numberOfBytes);
 
         /**
-         * Called when either the sending or the receiving thread is done.
+         * Called when both the sending and the receiving thread are done i.e. both directions
+         * have been half-closed.
          *
          * @param who                  The associated SocketThreadBase instance (this).
          * @param threadDoneWasSending If true, the sending thread is done. If false, the receiving thread is done.
@@ -46,18 +51,22 @@ abstract class SocketThreadBase extends Thread implements StreamCopyingThread.Li
     private static final String RECEIVING_THREAD_NAME = "Receiver";
     protected static final int STREAM_COPYING_THREAD_BUFFER_SIZE = 1024 * 4;
 
-    protected final BluetoothSocket mBluetoothSocket;
+    protected final RelayTransport mTransport; // Null, if the streams were given without a socket
     protected final Listener mListener;
-    protected final InputStream mBluetoothInputStream;
-    protected final OutputStream mBluetoothOutputStream;
+    protected final InputStream mTransportInputStream;
+    protected final OutputStream mTransportOutputStream;
     protected String mTag = SocketThreadBase.class.getName();
     protected Socket mLocalhostSocket = null;
+    protected LocalSocket mLocalDomainSocket = null; // Used instead of mLocalhostSocket, if negotiated
     protected InputStream mLocalInputStream = null;
     protected OutputStream mLocalOutputStream = null;
     protected StreamCopyingThread mSendingThread = null;
     protected StreamCopyingThread mReceivingThread = null;
     protected PeerProperties mPeerProperties = null;
-    protected boolean mIsClosing = false;
+    protected TrafficRecorder mTrafficRecorder = null;
+    protected UpgradableLink mUpgradableLink = null; // Null, unless the link can be upgraded
+    protected volatile boolean mIsClosing = false;
+    private boolean mIsDoneNotified = false;
 
     /**
      * Constructor.
@@ -68,8 +77,22 @@ abstract class SocketThreadBase extends Thread implements StreamCopyingThread.Li
      */
     public SocketThreadBase(BluetoothSocket bluetoothSocket, Listener listener)
         throws IOException {
-        this(bluetoothSocket, listener, bluetoothSocket.getInputStream(),
-            bluetoothSocket.getOutputStream());
+        this(new BluetoothRelayTransport(bluetoothSocket), listener);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param transport The transport to relay the localhost connection over.
+     * @param listener  The listener.
+     * @throws IOException Thrown, if getting the streams of the transport fails.
+     */
+    public SocketThreadBase(RelayTransport transport, Listener listener)
+        throws IOException {
+        mTransport = transport;
+        mListener = listener;
+        mTransportInputStream = transport.getInputStream();
+        mTransportOutputStream = transport.getOutputStream();
     }
 
     /**
@@ -82,10 +105,15 @@ abstract class SocketThreadBase extends Thread implements StreamCopyingThread.Li
      */
     public SocketThreadBase(BluetoothSocket bluetoothSocket, Listener listener,
                             InputStream inputStream, OutputStream outputStream) {
-        mBluetoothInputStream = inputStream;
-        mBluetoothOutputStream = outputStream;
+        mTransportInputStream = inputStream;
+        mTransportOutputStream = outputStream;
         mListener = listener;
-        mBluetoothSocket = bluetoothSocket;
+        mTransport = (bluetoothSocket != null) ? new BluetoothRelayTransport(bluetoothSocket) : null;
+    }
+
+    @Override
+    protected Executor getExecutor() {
+        return ConnectionExecutors.getControlExecutor();
     }
 
     public Listener getListener() {
@@ -100,6 +128,13 @@ abstract class SocketThreadBase extends Thread implements StreamCopyingThread.Li
         mPeerProperties = peerProperties;
     }
 
+    /**
+     * @return The transport or null, if the streams were given without a socket.
+     */
+    public RelayTransport getTransport() {
+        return mTransport;
+    }
+
     /**
      * Resolves the address of the local host.
      *
@@ -130,27 +165,79 @@ abstract class SocketThreadBase extends Thread implements StreamCopyingThread.Li
             mSendingThread = null;
         }
 
-        if (mBluetoothSocket != null) {
+        if (mTrafficRecorder != null) {
+            mTrafficRecorder.close();
+            mTrafficRecorder = null;
+        }
+
+        if (mUpgradableLink != null) {
+            Log.v(mTag, "close: Closing the upgradable link...");
+            mUpgradableLink.close();
+            mUpgradableLink = null;
+        }
+
+        if (mTransport != null) {
             try {
-                Log.v(mTag, "close: Closing the Bluetooth socket...");
-                mBluetoothSocket.close();
+                Log.v(mTag, "close: Closing the " + mTransport.getName() + " transport...");
+                mTransport.close();
             } catch (IOException e) {
-                Log.e(mTag, "close: Failed to close the Bluetooth socket: " + e.getMessage(), e);
+                Log.e(mTag, "close: Failed to close the " + mTransport.getName() + " transport: " + e.getMessage(), e);
             }
+        } else {
+            // The streams were not taken from a transport so we own them. Note that the
+            // stream copying threads only close them, if they were started.
+            closeTransportStreams();
         }
 
+        Log.v(mTag, "close: Closing the localhost socket...");
+        closeLocalSockets("close");
+
+        Log.i(mTag, "close: Complete (thread ID: " + getId() + ")");
+    }
+
+    /**
+     * Closes the socket of the localhost leg, TCP or Unix domain, if any.
+     *
+     * @param caller The name of the calling method for the log.
+     */
+    private void closeLocalSockets(String caller) {
         if (mLocalhostSocket != null) {
             try {
-                Log.v(mTag, "close: Closing the localhost socket...");
                 mLocalhostSocket.close();
             } catch (IOException e) {
-                Log.e(mTag, "close: Failed to close the localhost socket: " + e.getMessage(), e);
+                Log.e(mTag, caller + ": Failed to close the localhost socket: " + e.getMessage(), e);
             }
 
             mLocalhostSocket = null;
         }
 
-        Log.i(mTag, "close: Complete (thread ID: " + getId() + ")");
+        if (mLocalDomainSocket != null) {
+            try {
+                mLocalDomainSocket.close();
+            } catch (IOException e) {
+                Log.e(mTag, caller + ": Failed to close the Unix domain socket: " + e.getMessage(), e);
+            }
+
+            mLocalDomainSocket = null;
+        }
+    }
+
+    private void closeTransportStreams() {
+        if (mTransportInputStream != null) {
+            try {
+                mTransportInputStream.close();
+            } catch (IOException e) {
+                Log.e(mTag, "closeTransportStreams: Failed to close the input stream: " + e.getMessage(), e);
+            }
+        }
+
+        if (mTransportOutputStream != null) {
+            try {
+                mTransportOutputStream.close();
+            } catch (IOException e) {
+                Log.e(mTag, "closeTransportStreams: Failed to close the output stream: " + e.getMessage(), e);
+            }
+        }
     }
 
     /**
@@ -179,27 +266,34 @@ abstract class SocketThreadBase extends Thread implements StreamCopyingThread.Li
      */
     @Override
     public void onStreamCopyingThreadDone(final StreamCopyingThread who) {
-        if (who == mReceivingThread) {
-            Log.i(mTag, "The receiving thread is done");
-        } else if (who == mSendingThread) {
-            Log.i(mTag, "The sending thread is done");
-        } else {
-            Log.i(mTag, "Unidentified stream copying thread done");
-        }
+        final boolean threadDoneWasSending;
+        boolean notifyListener = false;
 
-        final SocketThreadBase socketThreadBase = this;
+        // Both of the stream copying threads can be done at the same time and close() can null
+        // the threads at any time. The listener is notified exactly once, but not while holding
+        // the lock, since the listener calls into ConnectionModel, which in turn calls close().
+        synchronized (this) {
+            threadDoneWasSending = (who == mSendingThread);
 
-        /*jxcore.coreThread.handler.postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                mListener.onDone(socketThreadBase, (who == mSendingThread));
+            if (who == mReceivingThread) {
+                Log.i(mTag, "The receiving thread is done, the sending thread keeps streaming until done");
+            } else if (threadDoneWasSending) {
+                Log.i(mTag, "The sending thread is done, the receiving thread keeps streaming until done");
+            } else {
+                Log.i(mTag, "Unidentified stream copying thread done");
             }
-        }, 1000);*/
 
-        if (mReceivingThread != null && mReceivingThread.getIsDone()
-            && mSendingThread != null && mSendingThread.getIsDone()) {
+            if (!mIsDoneNotified
+                && mReceivingThread != null && mReceivingThread.getIsDone()
+                && mSendingThread != null && mSendingThread.getIsDone()) {
+                mIsDoneNotified = true;
+                notifyListener = true;
+            }
+        }
+
+        if (notifyListener) {
             Log.i(mTag, "Both threads are done, notifying the listener...");
-            mListener.onDone(socketThreadBase, (who == mSendingThread));
+            mListener.onDone(this, threadDoneWasSending);
         }
     }
 
@@ -213,7 +307,7 @@ abstract class SocketThreadBase extends Thread implements StreamCopyingThread.Li
     public void onStreamCopyError(StreamCopyingThread who, String errorMessage) {
         if (!mIsClosing) {
             if (who == mReceivingThread) {
-                // The receiving thread is the one having the Bluetooth input stream. Thus, if it fails,
+                // The receiving thread is the one having the transport input stream. Thus, if it fails,
                 // we know that connection was disconnected from the other end.
                 Log.e(mTag, "The receiving thread failed with error \"" + errorMessage
                     + "\", this is likely due to peer having disconnected");
@@ -252,14 +346,51 @@ abstract class SocketThreadBase extends Thread implements StreamCopyingThread.Li
     /**
      * Creates the stream copying threads (one for sending and one for receiving) and starts them.
      */
-    protected synchronized void startStreamCopyingThreads(ConnectionData connectionData) {
-        if (mBluetoothInputStream == null
+    protected void startStreamCopyingThreads(ConnectionData connectionData) {
+        boolean isStreamMissing;
+        StreamCopyingThread sendingThread;
+        StreamCopyingThread receivingThread;
+
+        // The listener is notified outside of the lock, see onStreamCopyingThreadDone
+        synchronized (this) {
+            isStreamMissing = createStreamCopyingThreadsIfNotClosing(connectionData);
+            sendingThread = mSendingThread;
+            receivingThread = mReceivingThread;
+        }
+
+        if (isStreamMissing) {
+            mListener.onDisconnected(this, "Cannot start stream copying threads since at least one of the streams is null");
+        } else if (sendingThread != null && receivingThread != null) {
+            // If closed in the meanwhile, the threads exit right away since their streams are closed
+            try {
+                sendingThread.start();
+                receivingThread.start();
+                Log.i(mTag, "startStreamCopyingThreads: OK (thread ID: " + getId() + ")");
+            } catch (RejectedExecutionException e) {
+                Log.e(mTag, "startStreamCopyingThreads: Failed to start the stream copying threads: " + e.getMessage());
+                mListener.onDisconnected(this, "Failed to start the stream copying threads: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return True, if the threads could not be created, because a stream is missing.
+     */
+    private boolean createStreamCopyingThreadsIfNotClosing(ConnectionData connectionData) {
+        boolean isStreamMissing = false;
+
+        if (mIsClosing) {
+            // Closed while the local connection was being established, close() may have run
+            // before the localhost socket was set
+            Log.d(mTag, "startStreamCopyingThreads: Already closing, not starting");
+            closeLocalSockets("startStreamCopyingThreads");
+        } else if (mTransportInputStream == null
             || mLocalInputStream == null
-            || mBluetoothOutputStream == null
+            || mTransportOutputStream == null
             || mLocalOutputStream == null
-            || mLocalhostSocket == null) {
+            || (mLocalhostSocket == null && mLocalDomainSocket == null)) {
             Log.e(mTag, "startStreamCopyingThreads: Cannot start since at least one of the streams is null");
-            mListener.onDisconnected(this, "Cannot start stream copying threads since at least one of the streams is null");
+            isStreamMissing = true;
         } else {
             String[] temp = mTag.split("\\.");
             String shortName;
@@ -270,22 +401,61 @@ abstract class SocketThreadBase extends Thread implements StreamCopyingThread.Li
                 shortName = mTag;
             }
 
-            mSendingThread = new StreamCopyingThread(this, mLocalInputStream, mBluetoothOutputStream,
+            // Null, unless the traffic capture is enabled
+            mTrafficRecorder = TrafficRecorder.createIfEnabled(connectionData);
+
+            // When a direction is done, the stream copying thread shuts down the output of the
+            // half-closable streams so that the other direction can keep streaming
+            InputStream transportInputStream = mTransportInputStream;
+            OutputStream transportOutputStream = mTransportOutputStream;
+            OutputStream localOutputStream = (mLocalDomainSocket != null)
+                ? new HalfCloseStreams.LocalSocketOutputStream(mLocalDomainSocket, mLocalOutputStream)
+                : new HalfCloseStreams.SocketOutputStream(mLocalhostSocket, mLocalOutputStream);
+            // Without a transport, the streams are those of a Bluetooth socket
+            boolean isTransportHalfClosable = (mTransport != null && mTransport.isHalfCloseSupported());
+
+            if (!isTransportHalfClosable && UpgradableLink.isEnabled()) {
+                // The link carries the end of the stream along with the upgrade negotiation
+                mUpgradableLink = new UpgradableLink(mTransportInputStream, mTransportOutputStream,
+                    !connectionData.isIncoming, UpgradableLink.getDefaultEndpointProvider(),
+                    ConnectionExecutors.getControlExecutor());
+                transportInputStream = mUpgradableLink.getInputStream();
+                transportOutputStream = mUpgradableLink.getOutputStream();
+            } else if (!isTransportHalfClosable && HalfCloseStreams.isBluetoothEndOfStreamMarkerEnabled()) {
+                transportInputStream = new HalfCloseStreams.FramingInputStream(mTransportInputStream);
+                transportOutputStream = new HalfCloseStreams.FramingOutputStream(mTransportOutputStream);
+            }
+
+            mSendingThread = new StreamCopyingThread(this, mLocalInputStream, transportOutputStream,
                 shortName + "/" + SENDING_THREAD_NAME, connectionData, false);
+            mSendingThread.setTrafficRecorder(mTrafficRecorder);
+            // Only the direction towards the radio is shaped, the other one is paced by the peer
+            mSendingThread.setBandwidthShare(
+                BandwidthShaper.getDefault().register(connectionData.priorityClass));
             mSendingThread.setUncaughtExceptionHandler(this.getUncaughtExceptionHandler());
-            mSendingThread.setBufferSize(STREAM_COPYING_THREAD_BUFFER_SIZE);
+            mSendingThread.setBufferSize(getSendingBufferSize());
             mSendingThread.setNotifyStreamCopyingProgress(true);
-            mSendingThread.start();
-            mReceivingThread = new StreamCopyingThread(this, mBluetoothInputStream, mLocalOutputStream,
+            mReceivingThread = new StreamCopyingThread(this, transportInputStream, localOutputStream,
                 shortName + "/" + RECEIVING_THREAD_NAME, connectionData, true);
+            mReceivingThread.setTrafficRecorder(mTrafficRecorder);
             mReceivingThread.setUncaughtExceptionHandler(this.getUncaughtExceptionHandler());
             mReceivingThread.setBufferSize(STREAM_COPYING_THREAD_BUFFER_SIZE);
             mReceivingThread.setNotifyStreamCopyingProgress(true);
-            mReceivingThread.start();
+        }
+
+        return isStreamMissing;
+    }
 
+    /**
+     * @return The buffer size of the sending thread, which writes to the transport, capped to the
+     * maximum frame size of the transport.
+     */
+    private int getSendingBufferSize() {
+        int maximumFrameSize = (mTransport != null)
+            ? mTransport.getMaximumFrameSize() : RelayTransport.NO_MAXIMUM_FRAME_SIZE;
 
-            Log.i(mTag, "startStreamCopyingThreads: OK (thread ID: " + getId() + ")");
-        }
+        return (maximumFrameSize != RelayTransport.NO_MAXIMUM_FRAME_SIZE)
+            ? Math.min(maximumFrameSize, STREAM_COPYING_THREAD_BUFFER_SIZE) : STREAM_COPYING_THREAD_BUFFER_SIZE;
     }
 
     protected void configureSocket() throws SocketException {
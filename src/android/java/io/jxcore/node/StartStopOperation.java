@@ -7,6 +7,9 @@ import android.util.Log;
 import org.thaliproject.p2p.btconnectorlib.ConnectionManager.ConnectionManagerState;
 import org.thaliproject.p2p.btconnectorlib.DiscoveryManager.DiscoveryManagerState;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Represents a start or a stop operation.
  */
@@ -15,6 +18,7 @@ public class StartStopOperation {
     private final JXcoreThaliCallback mCallback;
     private final boolean mIsStartOperation;
     private final boolean mShouldAffectListeningToAdvertisementsOnly;
+    private final List<StartStopOperation> mCoalescedOperations = new ArrayList<StartStopOperation>();
     private long mOperationExecutedTime = 0;
 
     /**
@@ -77,6 +81,51 @@ public class StartStopOperation {
         return mShouldAffectListeningToAdvertisementsOnly;
     }
 
+    /**
+     * @param other The other operation.
+     * @return True, if the other operation has the same type and scope as this one i.e. executing
+     * both in a row has the same outcome as executing only one of them.
+     */
+    public boolean isSameOperationAs(StartStopOperation other) {
+        return other != null
+            && mIsStartOperation == other.mIsStartOperation
+            && mShouldAffectListeningToAdvertisementsOnly == other.mShouldAffectListeningToAdvertisementsOnly;
+    }
+
+    /**
+     * Merges the given operation, which will not be executed, into this one. The callback of the
+     * merged operation (and of the ones merged into it) is called with the result of this
+     * operation.
+     *
+     * @param other The operation to merge into this one.
+     */
+    public void coalesce(StartStopOperation other) {
+        mCoalescedOperations.add(other);
+        mCoalescedOperations.addAll(other.mCoalescedOperations);
+        other.mCoalescedOperations.clear();
+    }
+
+    /**
+     * @return The number of operations merged into this one.
+     */
+    public int getNumberOfCoalescedOperations() {
+        return mCoalescedOperations.size();
+    }
+
+    /**
+     * Calls the callback of this operation and the callbacks of the operations merged into this
+     * one.
+     *
+     * @param errorMessage The error message or null, if the operation was successful.
+     */
+    public void callOnStartStopCallbacks(String errorMessage) {
+        mCallback.callOnStartStopCallback(errorMessage);
+
+        for (StartStopOperation coalescedOperation : mCoalescedOperations) {
+            coalescedOperation.getCallback().callOnStartStopCallback(errorMessage);
+        }
+    }
+
     /**
      * @return The time when this operation was executed or 0 if not executed.
      */
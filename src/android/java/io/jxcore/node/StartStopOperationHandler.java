@@ -3,25 +3,58 @@
  */
 package io.jxcore.node;
 
-import android.os.CountDownTimer;
 import android.util.Log;
 
 import org.thaliproject.p2p.btconnectorlib.ConnectionManager;
 import org.thaliproject.p2p.btconnectorlib.DiscoveryManager;
 import org.thaliproject.p2p.btconnectorlib.DiscoveryManagerSettings;
 
-import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * A handler for the asynchronous start and stop calls.
+ *
+ * The operations are executed one at a time in the order they are requested: a new operation
+ * waits in a queue until the operation being executed has finished (succeeded, failed or timed
+ * out). Redundant operations waiting in the queue are coalesced (see StartStopOperationQueue).
+ * The callback of every operation is called, including the ones coalesced.
+ *
+ * The connection manager and the discovery manager are independent, so an operation starts or
+ * stops them concurrently: the connection manager step is run on the executor, while the
+ * discovery manager step is run on the calling thread. The completion is tracked via the state
+ * change callbacks (see processCurrentOperationStatus) like before, and a failing step fails the
+ * operation. Note that the lock of this handler is not held while the connection manager step is
+ * run, since the state change callback of the connection manager calls back into this handler.
+ * Since the discovery manager has been started by the time the connection manager fails to start,
+ * the discovery manager is then returned to the state preceding the operation: we must not
+ * advertise without listening for the incoming connections.
+ *
+ * A start operation executed while everything is running and we are already advertising only
+ * updates the generation (see updateBeaconAdExtraInformation) and completes without starting the
+ * discovery manager again. Whether the advertisement payload is then updated in place or the
+ * advertiser is restarted is up to the discovery manager settings of btconnectorlib. The local
+ * updates are counted in the generation statistics.
  */
 public class StartStopOperationHandler {
     private static final String TAG = StartStopOperationHandler.class.getName();
+    // The timeout until the latency statistics of a transition have enough samples
     private static final long OPERATION_TIMEOUT_IN_MILLISECONDS = 3000;
+    private static final String OPERATION_CANCELLED_ERROR_MESSAGE = "Operation cancelled";
     private final ConnectionManager mConnectionManager;
     private final DiscoveryManager mDiscoveryManager;
-    private CountDownTimer mOperationTimeoutTimer = null;
+    private final Scheduler mScheduler;
+    private final Executor mExecutor;
+    private final StartStopOperationQueue mPendingOperations = new StartStopOperationQueue();
+    private final TransitionLatencyStatistics mLatencyStatistics =
+        new TransitionLatencyStatistics(OPERATION_TIMEOUT_IN_MILLISECONDS);
+    private Scheduler.ScheduledTask mOperationTimeoutTimer = null;
     private StartStopOperation mCurrentOperation = null;
+    private final GenerationStatistics mGenerationStatistics = new GenerationStatistics();
+    private long mNumberOfOperationsExecuted = 0;
+    private boolean mWasDiscoveringBeforeOperation = false; // Valid during a start operation
+    private boolean mWasAdvertisingBeforeOperation = false; // Valid during a start operation
 
     /**
      * Constructor.
@@ -30,38 +63,71 @@ public class StartStopOperationHandler {
      * @param discoveryManager  The discovery manager.
      */
     public StartStopOperationHandler(ConnectionManager connectionManager, DiscoveryManager discoveryManager) {
+        this(connectionManager, discoveryManager, HandlerScheduler.getDefault());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param connectionManager The connection manager.
+     * @param discoveryManager  The discovery manager.
+     * @param scheduler         The scheduler for the operation timeout.
+     */
+    public StartStopOperationHandler(
+        ConnectionManager connectionManager, DiscoveryManager discoveryManager, Scheduler scheduler) {
+        this(connectionManager, discoveryManager, scheduler, ConnectionExecutors.getControlExecutor());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param connectionManager The connection manager.
+     * @param discoveryManager  The discovery manager.
+     * @param scheduler         The scheduler for the operation timeout.
+     * @param executor          The executor for the connection manager steps.
+     */
+    public StartStopOperationHandler(
+        ConnectionManager connectionManager, DiscoveryManager discoveryManager,
+        Scheduler scheduler, Executor executor) {
         mConnectionManager = connectionManager;
         mDiscoveryManager = discoveryManager;
+        mScheduler = scheduler;
+        mExecutor = executor;
     }
 
     /**
-     * Cancels the current operation.
-     * Note that the callback of the current operations, if one exists, will not be called.
+     * Cancels the current operation and the pending ones. Their callbacks are called with an
+     * error.
      */
     public synchronized void cancelCurrentOperation() {
         cancelOperationTimeoutTimer();
-        mCurrentOperation = null;
+        List<StartStopOperation> pendingOperations = mPendingOperations.clear();
+
+        if (mCurrentOperation != null) {
+            Log.w(TAG, "cancelCurrentOperation: Cancelling " + mCurrentOperation
+                + " and " + pendingOperations.size() + " pending operation(s)");
+            pendingOperations.add(0, mCurrentOperation);
+            mCurrentOperation = null;
+        }
+
+        for (StartStopOperation pendingOperation : pendingOperations) {
+            pendingOperation.callOnStartStopCallbacks(OPERATION_CANCELLED_ERROR_MESSAGE);
+        }
     }
 
     /**
-     * Executes a new start operation. Any pending operations will be cancelled.
+     * Executes a new start operation once the operations requested before it have finished.
      *
      * @param startAdvertising If true, will start advertising. If false, will only start listening
      *                         for advertisements.
      * @param callback         The callback to call when we get the operation result.
      */
     public synchronized void executeStartOperation(boolean startAdvertising, JXcoreThaliCallback callback) {
-        if (mCurrentOperation != null) {
-            Log.w(TAG, "executeStartOperation: Cancelling a pending operation");
-            cancelCurrentOperation();
-        }
-
-        mCurrentOperation = StartStopOperation.createStartOperation(!startAdvertising, callback);
-        executeCurrentOperation();
+        queueOperation(StartStopOperation.createStartOperation(!startAdvertising, callback));
     }
 
     /**
-     * Executes a new stop operation. Any pending operations will be cancelled.
+     * Executes a new stop operation once the operations requested before it have finished.
      *
      * @param stopOnlyListeningForAdvertisements If true, will only stop listening for advertisements.
      *                                           If false, will stop everything.
@@ -69,25 +135,101 @@ public class StartStopOperationHandler {
      */
     public synchronized void executeStopOperation(
         boolean stopOnlyListeningForAdvertisements, JXcoreThaliCallback callback) {
-        if (mCurrentOperation != null) {
-            Log.w(TAG, "executeStartOperation: Cancelling a pending operation");
-            cancelCurrentOperation();
-        }
-
-        mCurrentOperation = StartStopOperation.createStopOperation(stopOnlyListeningForAdvertisements, callback);
-        executeCurrentOperation();
+        queueOperation(StartStopOperation.createStopOperation(stopOnlyListeningForAdvertisements, callback));
     }
 
     /**
      * Calls callback of the current operation if the current operation is successful (the current state matches the expected
-     * outcome).
+     * outcome) and executes the next operation, if any.
      */
     public synchronized void processCurrentOperationStatus() {
         if (mCurrentOperation != null && isTargetState(mCurrentOperation) == null) {
             Log.d(TAG, "processCurrentOperationStatus: Operation successfully executed");
+
+            if (mOperationTimeoutTimer != null) {
+                // The timer is running only, if the operation was executed and did not reach the
+                // target state right away
+                recordLatency(mCurrentOperation, false);
+            }
+
             cancelOperationTimeoutTimer();
-            mCurrentOperation.getCallback().callOnStartStopCallback(null);
+            mCurrentOperation.callOnStartStopCallbacks(null);
             mCurrentOperation = null;
+            executeNextOperations();
+        }
+    }
+
+    /**
+     * @return The latency statistics of the state transitions executed.
+     */
+    public TransitionLatencyStatistics getLatencyStatistics() {
+        return mLatencyStatistics;
+    }
+
+    /**
+     * @return The number of operations waiting to be executed, excluding the one being executed.
+     */
+    public synchronized int getQueueLength() {
+        return mPendingOperations.size();
+    }
+
+    /**
+     * @return The maximum number of operations, which have been waiting at the same time.
+     */
+    public synchronized int getMaximumQueueLength() {
+        return mPendingOperations.getMaximumLength();
+    }
+
+    /**
+     * @return The total number of operations requested.
+     */
+    public synchronized long getNumberOfOperationsRequested() {
+        return mPendingOperations.getNumberOfOperationsAdded();
+    }
+
+    /**
+     * @return The statistics of the generation updates.
+     */
+    public GenerationStatistics getGenerationStatistics() {
+        return mGenerationStatistics;
+    }
+
+    /**
+     * @return The total number of operations coalesced with other operations instead of executed.
+     */
+    public synchronized long getNumberOfOperationsCoalesced() {
+        return mPendingOperations.getNumberOfOperationsCoalesced();
+    }
+
+    /**
+     * @return The total number of operations executed (including the ones, which were skipped,
+     * because the state already matched the desired outcome).
+     */
+    public synchronized long getNumberOfOperationsExecuted() {
+        return mNumberOfOperationsExecuted;
+    }
+
+    private void queueOperation(StartStopOperation operation) {
+        mPendingOperations.add(operation);
+
+        if (mCurrentOperation != null) {
+            Log.d(TAG, "queueOperation: Waiting for the current operation to finish, queue length: "
+                + mPendingOperations.size() + ", coalesced so far: "
+                + mPendingOperations.getNumberOfOperationsCoalesced());
+        }
+
+        executeNextOperations();
+    }
+
+    /**
+     * Executes the pending operations until one is left running (waiting for the state change)
+     * or the queue is empty.
+     */
+    private void executeNextOperations() {
+        while (mCurrentOperation == null && mPendingOperations.size() > 0) {
+            mCurrentOperation = mPendingOperations.poll();
+            mNumberOfOperationsExecuted++;
+            executeCurrentOperation();
         }
     }
 
@@ -100,32 +242,35 @@ public class StartStopOperationHandler {
             return;
         }
 
+        String currentStateError = isTargetState(mCurrentOperation);
+
         if (mCurrentOperation.isStartOperation()
             && !mCurrentOperation.shouldAffectListeningToAdvertisementsOnly()) {
             updateBeaconAdExtraInformation();
+            mGenerationStatistics.recordLocalUpdate(currentStateError == null);
         }
 
-        if (isTargetState(mCurrentOperation) == null) {
+        if (currentStateError == null) {
             // The current state already matches the desired outcome of this operation so it is
             // pointless to execute this
             Log.v(TAG, "executeCurrentOperation: The current state already matches the desired outcome of this operation, skipping...");
-            mCurrentOperation.getCallback().callOnStartStopCallback(null);
+            mCurrentOperation.callOnStartStopCallbacks(null);
             mCurrentOperation = null;
         } else {
             Log.v(TAG, "executeCurrentOperation: Executing: " + mCurrentOperation.toString());
+            final StartStopOperation operation = mCurrentOperation;
             final boolean shouldAffectListeningToAdvertisementsOnly =
-                mCurrentOperation.shouldAffectListeningToAdvertisementsOnly();
+                operation.shouldAffectListeningToAdvertisementsOnly();
+
+            if (operation.isStartOperation()) {
+                mWasDiscoveringBeforeOperation = mDiscoveryManager.isDiscovering();
+                mWasAdvertisingBeforeOperation = mDiscoveryManager.isAdvertising();
 
-            if (mCurrentOperation.isStartOperation()) {
                 // Connection manager shouldn't be started if we want to listen to *advertisements* only
-                if (!shouldAffectListeningToAdvertisementsOnly
-                    && !mConnectionManager.startListeningForIncomingConnections()) {
-                    final String errorMessage = "Failed to start the connection manager (Bluetooth connection listener)";
-                    Log.e(TAG, "executeCurrentOperation: " + errorMessage);
-                    mCurrentOperation.getCallback().callOnStartStopCallback(errorMessage);
-                    mCurrentOperation = null;
-                    return;
+                if (!shouldAffectListeningToAdvertisementsOnly) {
+                    executeConnectionManagerStep(operation, true);
                 }
+
                 boolean shouldAdvertise = !shouldAffectListeningToAdvertisementsOnly;
                 boolean shouldDiscovery = shouldAffectListeningToAdvertisementsOnly;
 
@@ -134,11 +279,10 @@ public class StartStopOperationHandler {
                 } else {
                     shouldDiscovery = mDiscoveryManager.isDiscovering();
                 }
-                if (!mDiscoveryManager.start(shouldDiscovery, shouldAdvertise)) {
-                    final String errorMessage = "Failed to start the discovery manager";
-                    Log.e(TAG, "executeCurrentOperation: " + errorMessage);
-                    mCurrentOperation.getCallback().callOnStartStopCallback(errorMessage);
-                    mCurrentOperation = null;
+
+                if (mCurrentOperation == operation
+                    && !mDiscoveryManager.start(shouldDiscovery, shouldAdvertise)) {
+                    failOperation(operation, "Failed to start the discovery manager");
                 }
             } else {
                 // Is stop operation
@@ -147,8 +291,7 @@ public class StartStopOperationHandler {
                     mDiscoveryManager.stopDiscovery();
                 } else {
                     // Should stop everything
-                    mConnectionManager.stopListeningForIncomingConnections();
-                    mConnectionManager.cancelAllConnectionAttempts();
+                    executeConnectionManagerStep(operation, false);
                     mDiscoveryManager.stop();
                 }
             }
@@ -157,29 +300,135 @@ public class StartStopOperationHandler {
         if (mCurrentOperation != null) {
             cancelOperationTimeoutTimer();
 
-            mCurrentOperation.setOperationExecutedTime(new Date().getTime());
+            mCurrentOperation.setOperationExecutedTime(mScheduler.currentTimeMillis());
+            long timeoutInMilliseconds =
+                mLatencyStatistics.getTimeout(TransitionLatencyStatistics.Transition.of(mCurrentOperation));
 
-            mOperationTimeoutTimer = new CountDownTimer(
-                OPERATION_TIMEOUT_IN_MILLISECONDS, OPERATION_TIMEOUT_IN_MILLISECONDS) {
+            mOperationTimeoutTimer = mScheduler.schedule(new Runnable() {
                 @Override
-                public void onTick(long l) {
-                    // Not used
+                public void run() {
+                    synchronized (StartStopOperationHandler.this) {
+                        if (mCurrentOperation != null) {
+                            String stateError = isTargetState(mCurrentOperation);
+
+                            if (stateError == null) {
+                                // The target state was reached without a state change event, so
+                                // the latency is unknown
+                                Log.d(TAG, "The target state reached, but not notified");
+                                mCurrentOperation.callOnStartStopCallbacks(null);
+                            } else {
+                                String errorMessage = "Operation timeout, state error: " + stateError;
+                                Log.d(TAG, errorMessage);
+                                recordLatency(mCurrentOperation, true);
+                                mCurrentOperation.callOnStartStopCallbacks(errorMessage);
+                            }
+
+                            mCurrentOperation = null;
+                            mOperationTimeoutTimer = null;
+                            executeNextOperations();
+                        }
+                    }
                 }
+            }, timeoutInMilliseconds);
+        }
+    }
 
+    /**
+     * Starts or stops the connection manager on the executor. If the executor is saturated, the
+     * step is run on the calling thread instead.
+     *
+     * @param operation The operation the step is executed for.
+     * @param start     If true, will start listening for incoming connections. If false, will
+     *                  stop listening and cancel the connection attempts.
+     */
+    private void executeConnectionManagerStep(final StartStopOperation operation, final boolean start) {
+        try {
+            mExecutor.execute(new Runnable() {
                 @Override
-                public void onFinish() {
-                    if (mCurrentOperation != null) {
-                        String errorMessage = "Operation timeout, state error: " + isTargetState(mCurrentOperation);
-                        Log.d(TAG, errorMessage);
-                        mCurrentOperation.getCallback().callOnStartStopCallback(errorMessage);
-                        mCurrentOperation = null;
-                        mOperationTimeoutTimer = null;
+                public void run() {
+                    if (!runConnectionManagerStep(operation, start)) {
+                        synchronized (StartStopOperationHandler.this) {
+                            executeNextOperations();
+                        }
                     }
                 }
-            };
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "executeConnectionManagerStep: The executor is saturated, running on the calling thread");
+            runConnectionManagerStep(operation, start);
+        }
+    }
 
-            mOperationTimeoutTimer.start();
+    /**
+     * @param operation The operation the step is executed for.
+     * @param start     If true, will start listening for incoming connections. If false, will
+     *                  stop listening and cancel the connection attempts.
+     * @return True, if the step succeeded. False, if it failed.
+     */
+    private boolean runConnectionManagerStep(StartStopOperation operation, boolean start) {
+        if (start) {
+            if (!mConnectionManager.startListeningForIncomingConnections()) {
+                synchronized (this) {
+                    if (failOperation(operation,
+                        "Failed to start the connection manager (Bluetooth connection listener)")) {
+                        rollBackDiscoveryManager();
+                    }
+                }
+
+                return false;
+            }
+        } else {
+            mConnectionManager.stopListeningForIncomingConnections();
+            mConnectionManager.cancelAllConnectionAttempts();
         }
+
+        return true;
+    }
+
+    /**
+     * Fails the given operation, if it is still being executed. Note that the caller is
+     * responsible for executing the next operations.
+     *
+     * @param operation    The operation.
+     * @param errorMessage The error message.
+     * @return True, if the operation was failed. False, if it had already finished.
+     */
+    private synchronized boolean failOperation(StartStopOperation operation, String errorMessage) {
+        if (mCurrentOperation == operation) {
+            Log.e(TAG, "failOperation: " + errorMessage);
+            cancelOperationTimeoutTimer();
+            operation.callOnStartStopCallbacks(errorMessage);
+            mCurrentOperation = null;
+            return true;
+        }
+
+        Log.d(TAG, "failOperation: The operation has already finished, ignoring: " + errorMessage);
+        return false;
+    }
+
+    /**
+     * Returns the discovery manager to the state preceding the failed start operation. Does
+     * nothing, if the discovery manager was not started by the operation.
+     */
+    private synchronized void rollBackDiscoveryManager() {
+        if (!mWasDiscoveringBeforeOperation && !mWasAdvertisingBeforeOperation) {
+            Log.i(TAG, "rollBackDiscoveryManager: Stopping the discovery manager");
+            mDiscoveryManager.stop();
+        } else if (!mWasAdvertisingBeforeOperation && mDiscoveryManager.isAdvertising()) {
+            Log.i(TAG, "rollBackDiscoveryManager: Stopping advertising");
+            mDiscoveryManager.stopAdvertising();
+        }
+    }
+
+    /**
+     * Records the time it took for the given executed operation to reach the target state or to
+     * time out.
+     */
+    private void recordLatency(StartStopOperation operation, boolean timedOut) {
+        TransitionLatencyStatistics.Transition transition = TransitionLatencyStatistics.Transition.of(operation);
+        mLatencyStatistics.record(transition,
+            mScheduler.currentTimeMillis() - operation.getOperationExecutedTime(), timedOut);
+        Log.d(TAG, "recordLatency: " + mLatencyStatistics.getSnapshot(transition));
     }
 
     private void cancelOperationTimeoutTimer() {
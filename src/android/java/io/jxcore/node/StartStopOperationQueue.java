@@ -0,0 +1,116 @@
+/* Copyright (c) 2016 Microsoft Corporation. This software is licensed under the MIT License.
+ * See the license file delivered with this project for further information.
+ */
+package io.jxcore.node;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * The queue of the start and stop operations waiting for the operation being executed to finish.
+ * Redundant operations are coalesced when added i.e. merged into an operation already in the
+ * queue, so that they are not executed, but their callbacks are called with the result of the
+ * operation they were merged into:
+ *
+ * - An operation identical to the last one in the queue (e.g. start after start) is merged into
+ *   the last one.
+ * - A start following a stop, which in turn follows an identical start in the queue
+ *   (start, stop, start) has no observable effect compared to a single start, so the stop and the
+ *   second start are merged into the first start.
+ *
+ * Not thread-safe, guarded by the lock of StartStopOperationHandler.
+ */
+class StartStopOperationQueue {
+    private static final String TAG = StartStopOperationQueue.class.getName();
+    private final LinkedList<StartStopOperation> mOperations = new LinkedList<StartStopOperation>();
+    private long mNumberOfOperationsAdded = 0;
+    private long mNumberOfOperationsCoalesced = 0;
+    private int mMaximumLength = 0;
+
+    /**
+     * Adds the given operation to the end of the queue or merges it into an operation in the queue.
+     *
+     * @param operation The operation to add.
+     * @return True, if the operation was merged into another operation. False, if it was added.
+     */
+    public boolean add(StartStopOperation operation) {
+        mNumberOfOperationsAdded++;
+        StartStopOperation lastOperation = mOperations.peekLast();
+
+        if (operation.isSameOperationAs(lastOperation)) {
+            Log.d(TAG, "add: Coalescing with the last operation: " + operation);
+            lastOperation.coalesce(operation);
+            mNumberOfOperationsCoalesced++;
+            return true;
+        }
+
+        if (mOperations.size() >= 2 && lastOperation != null
+            && !lastOperation.isStartOperation() && operation.isStartOperation()) {
+            StartStopOperation operationBeforeLast = mOperations.get(mOperations.size() - 2);
+
+            if (operation.isSameOperationAs(operationBeforeLast)
+                && lastOperation.shouldAffectListeningToAdvertisementsOnly()
+                == operation.shouldAffectListeningToAdvertisementsOnly()) {
+                Log.d(TAG, "add: Coalescing a stop and a start with no observable effect: " + operation);
+                mOperations.removeLast();
+                operationBeforeLast.coalesce(lastOperation);
+                operationBeforeLast.coalesce(operation);
+                mNumberOfOperationsCoalesced += 2;
+                return true;
+            }
+        }
+
+        mOperations.addLast(operation);
+        mMaximumLength = Math.max(mMaximumLength, mOperations.size());
+        return false;
+    }
+
+    /**
+     * @return The first operation in the queue, which is removed, or null, if the queue is empty.
+     */
+    public StartStopOperation poll() {
+        return mOperations.pollFirst();
+    }
+
+    /**
+     * Removes all the operations from the queue.
+     *
+     * @return The operations removed.
+     */
+    public List<StartStopOperation> clear() {
+        List<StartStopOperation> operations = new ArrayList<StartStopOperation>(mOperations);
+        mOperations.clear();
+        return operations;
+    }
+
+    /**
+     * @return The number of operations in the queue.
+     */
+    public int size() {
+        return mOperations.size();
+    }
+
+    /**
+     * @return The total number of operations added (including the coalesced ones).
+     */
+    public long getNumberOfOperationsAdded() {
+        return mNumberOfOperationsAdded;
+    }
+
+    /**
+     * @return The total number of operations merged into other operations instead of executed.
+     */
+    public long getNumberOfOperationsCoalesced() {
+        return mNumberOfOperationsCoalesced;
+    }
+
+    /**
+     * @return The maximum number of operations in the queue at the same time.
+     */
+    public int getMaximumLength() {
+        return mMaximumLength;
+    }
+}
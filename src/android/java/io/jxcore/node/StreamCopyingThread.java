@@ -3,17 +3,17 @@
  */
 package io.jxcore.node;
 
-import android.os.CountDownTimer;
 import android.util.Log;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.Executor;
 
 /**
- * Copies content from the input stream to the output stream.
+ * Copies content from the input stream to the output stream. Run on the shared data executor.
  */
-class StreamCopyingThread extends Thread {
+class StreamCopyingThread extends PooledThread {
 
     interface Listener {
         /**
@@ -51,12 +51,14 @@ class StreamCopyingThread extends Thread {
     private final String mThreadName;
     private int mBufferSize = DEFAULT_BUFFER_SIZE;
     private boolean mNotifyStreamCopyingProgress = false;
-    private boolean mIsInputStreamDone = false;
-    private boolean mDoStop = false;
+    private volatile boolean mIsInputStreamDone = false;
+    private volatile boolean mDoStop = false;
     private boolean mIsClosed = false;
     private boolean fromBluetoothToTCP = false;
 
     private ConnectionData connectionData;
+    private TrafficRecorder mTrafficRecorder = null;
+    private BandwidthShaper.Share mBandwidthShare = null;
 
     /**
      * Constructor. Note that the responsibility to close the given streams is that of the caller
@@ -102,6 +104,25 @@ class StreamCopyingThread extends Thread {
         mNotifyStreamCopyingProgress = notify;
     }
 
+    /**
+     * Sets the recorder for the traffic pattern. Must be called before the thread is started.
+     *
+     * @param trafficRecorder The recorder or null, if the traffic should not be recorded.
+     */
+    public void setTrafficRecorder(TrafficRecorder trafficRecorder) {
+        mTrafficRecorder = trafficRecorder;
+    }
+
+    /**
+     * Sets the share of the bandwidth the content is written with. The thread takes the ownership
+     * of the share and closes it when done. Must be called before the thread is started.
+     *
+     * @param bandwidthShare The share or null, if the bandwidth should not be shaped.
+     */
+    public void setBandwidthShare(BandwidthShaper.Share bandwidthShare) {
+        mBandwidthShare = bandwidthShare;
+    }
+
     /**
      * @return True, if the input stream is done (the end of the stream was reached).
      */
@@ -109,8 +130,13 @@ class StreamCopyingThread extends Thread {
         return mIsInputStreamDone;
     }
 
+    @Override
+    protected Executor getExecutor() {
+        return ConnectionExecutors.getDataExecutor();
+    }
+
     /**
-     * From Thread.
+     * From Runnable.
      * <p>
      * Keeps on copying the content of the input stream to the output stream.
      */
@@ -135,6 +161,16 @@ class StreamCopyingThread extends Thread {
 
                 totalNumberOfBytesRead += numberOfBytesRead;
                 isRead = true;
+
+                if (mTrafficRecorder != null) {
+                    mTrafficRecorder.record(fromBluetoothToTCP, numberOfBytesRead);
+                }
+
+                if (mBandwidthShare != null && !mBandwidthShare.acquire(numberOfBytesRead)) {
+                    // Closed while waiting for our turn
+                    break;
+                }
+
                 mOutputStream.write(buffer, 0, numberOfBytesRead); // Can throw IOException
 
                 isFlushing = true;
@@ -179,14 +215,18 @@ class StreamCopyingThread extends Thread {
         if (numberOfBytesRead == -1 && !mDoStop) {
             Log.d(TAG, "The end of the input stream has been reached (thread ID: "
                 + getId() + ", thread name: " + mThreadName + "). Connection data: " + connectionData.toString());
-            closeOutputStream();
+            finishOutputStream();
             mIsInputStreamDone = true;
         } else if (numberOfBytesRead == -1) {
             Log.d(TAG, "Input is closed");
-            closeOutputStream();
+            finishOutputStream();
             mIsInputStreamDone = true;
         }
 
+        if (mBandwidthShare != null) {
+            mBandwidthShare.close();
+        }
+
         Log.d(TAG, "number of bytes read = " + numberOfBytesRead);
         if (mIsInputStreamDone) {
             Log.d(TAG, "onStreamCopyingThreadDone");
@@ -199,10 +239,15 @@ class StreamCopyingThread extends Thread {
             + totalNumberOfBytesWritten);
     }
 
-    private void closeOutputStream() {
-        Log.d(TAG, "closeOutputStream. Connection data: " + connectionData.toString());
+    /**
+     * Signals the end of the stream to the receiving end of the output stream. If the output
+     * stream is half-closable, only its output is shut down so that the other direction of the
+     * connection can keep streaming. Otherwise the output stream is closed.
+     */
+    private void finishOutputStream() {
+        Log.d(TAG, "finishOutputStream. Connection data: " + connectionData.toString());
         try {
-            Log.d(TAG, "closeOutputStream. Flushing");
+            Log.d(TAG, "finishOutputStream. Flushing");
             mOutputStream.flush();
         } catch (IOException e) {
             String errorMessage = "Failed to flush output stream";
@@ -210,11 +255,17 @@ class StreamCopyingThread extends Thread {
                 + mThreadName + "): " + e.getMessage());
         }
         try {
-            Log.d(TAG, "closeOutputStream. Closing");
-            mOutputStream.close();
-            Log.d(TAG, "closeOutputStream. Closed");
+            if (mOutputStream instanceof HalfCloseStreams.HalfClosable) {
+                Log.d(TAG, "finishOutputStream. Shutting down the output");
+                ((HalfCloseStreams.HalfClosable) mOutputStream).shutdownOutput();
+                Log.d(TAG, "finishOutputStream. Output shut down");
+            } else {
+                Log.d(TAG, "finishOutputStream. Closing");
+                mOutputStream.close();
+                Log.d(TAG, "finishOutputStream. Closed");
+            }
         } catch (IOException e) {
-            String errorMessage = "Failed to close output stream";
+            String errorMessage = "Failed to finish output stream";
             Log.e(TAG, errorMessage + " (thread ID: " + getId() + ", thread name: "
                 + mThreadName + "): " + e.getMessage());
             errorMessage += ": " + e.getMessage();
@@ -229,6 +280,11 @@ class StreamCopyingThread extends Thread {
         Log.i(TAG, "close: Thread ID: " + getId() + ". Connection data: " + connectionData.toString());
         mDoStop = true;
 
+        if (mBandwidthShare != null) {
+            // Wakes up the thread, if waiting for its share
+            mBandwidthShare.close();
+        }
+
         if (!mIsClosed) {
             try {
                 mInputStream.close();
@@ -44,4 +44,21 @@ public interface SurroundingStateObserver {
      * @param portNumber The 127.0.0.1 port that the TCP/IP bridge tried to connect to.
      */
     void notifyIncomingConnectionToPortNumberFailed(int portNumber);
+
+    /**
+     * Notifies about the result of a multiConnect call.
+     *
+     * @param syncValue           The value given to the multiConnect call.
+     * @param errorMessage        Null, if successful. The error message otherwise.
+     * @param listeningPortNumber The 127.0.0.1 port of the link to the peer, if successful.
+     */
+    void notifyMultiConnectResolved(String syncValue, String errorMessage, int listeningPortNumber);
+
+    /**
+     * Notifies that the link to a peer, established by multiConnect, failed.
+     *
+     * @param peerId       The peer ID.
+     * @param errorMessage The error message.
+     */
+    void notifyMultiConnectConnectionFailure(String peerId, String errorMessage);
 }
@@ -0,0 +1,71 @@
+/* Copyright (c) 2016 Microsoft Corporation. This software is licensed under the MIT License.
+ * See the license file delivered with this project for further information.
+ */
+package io.jxcore.node;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * A TCP connection as a relay transport, e.g. for benchmarking the relay over loopback without
+ * a radio. The output is half-closed with Socket.shutdownOutput.
+ */
+class TcpRelayTransport implements RelayTransport {
+    private final Socket mSocket;
+    private OutputStream mOutputStream = null;
+
+    /**
+     * Constructor.
+     *
+     * @param socket The connected socket.
+     */
+    TcpRelayTransport(Socket socket) {
+        if (socket == null) {
+            throw new NullPointerException("The socket is null");
+        }
+
+        mSocket = socket;
+    }
+
+    @Override
+    public String getName() {
+        return "TCP";
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return (mSocket.getInetAddress() != null)
+            ? mSocket.getInetAddress().getHostAddress() + ":" + mSocket.getPort() : null;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return mSocket.getInputStream();
+    }
+
+    @Override
+    public synchronized OutputStream getOutputStream() throws IOException {
+        if (mOutputStream == null) {
+            mOutputStream = new HalfCloseStreams.SocketOutputStream(mSocket, mSocket.getOutputStream());
+        }
+
+        return mOutputStream;
+    }
+
+    @Override
+    public boolean isHalfCloseSupported() {
+        return true;
+    }
+
+    @Override
+    public int getMaximumFrameSize() {
+        return NO_MAXIMUM_FRAME_SIZE;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSocket.close();
+    }
+}
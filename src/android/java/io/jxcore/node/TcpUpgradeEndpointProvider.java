@@ -0,0 +1,151 @@
+/* Copyright (c) 2016 Microsoft Corporation. This software is licensed under the MIT License.
+ * See the license file delivered with this project for further information.
+ */
+package io.jxcore.node;
+
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.Enumeration;
+
+/**
+ * Upgrades the relayed connections to TCP over a network both the peers are on, e.g. a Wi-Fi
+ * (Direct) group, or over loopback, which stands in for the faster transport in the tests.
+ */
+class TcpUpgradeEndpointProvider implements UpgradeEndpointProvider {
+
+    private static class TcpEndpoint implements Endpoint {
+        private final ServerSocket mServerSocket;
+
+        TcpEndpoint(ServerSocket serverSocket) {
+            mServerSocket = serverSocket;
+        }
+
+        @Override
+        public String getAddress() {
+            return mServerSocket.getInetAddress().getHostAddress() + ADDRESS_SEPARATOR + mServerSocket.getLocalPort();
+        }
+
+        @Override
+        public RelayTransport accept(int timeoutInMilliseconds, long nonce) throws IOException {
+            mServerSocket.setSoTimeout(timeoutInMilliseconds);
+            Socket socket = mServerSocket.accept();
+
+            try {
+                socket.setTcpNoDelay(true);
+
+                // A peer, which connects but sends nothing, must not block the link
+                socket.setSoTimeout(timeoutInMilliseconds);
+
+                if (new DataInputStream(socket.getInputStream()).readLong() != nonce) {
+                    throw new IOException("Unexpected peer connected");
+                }
+
+                socket.setSoTimeout(0);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+
+            return new TcpRelayTransport(socket);
+        }
+
+        @Override
+        public void close() {
+            try {
+                mServerSocket.close();
+            } catch (IOException e) {
+                // Nothing to do
+            }
+        }
+    }
+
+    private static final String TAG = TcpUpgradeEndpointProvider.class.getName();
+    private static final String ADDRESS_SEPARATOR = ":";
+    private final InetAddress mLocalAddress;
+
+    /**
+     * Constructor.
+     *
+     * @param localAddress The address of the network interface to listen on. Offered to the peer,
+     *                     thus the wildcard address is not accepted.
+     */
+    TcpUpgradeEndpointProvider(InetAddress localAddress) {
+        if (localAddress == null || localAddress.isAnyLocalAddress()) {
+            throw new IllegalArgumentException("The address is not routable: " + localAddress);
+        }
+
+        mLocalAddress = localAddress;
+    }
+
+    /**
+     * Finds the address of the local network, e.g. the Wi-Fi (Direct) group, to upgrade to.
+     *
+     * @return The IPv4 site local address of the first network interface up or null, if none.
+     */
+    public static InetAddress findLocalNetworkAddress() {
+        try {
+            Enumeration<NetworkInterface> networkInterfaces = NetworkInterface.getNetworkInterfaces();
+
+            while (networkInterfaces != null && networkInterfaces.hasMoreElements()) {
+                NetworkInterface networkInterface = networkInterfaces.nextElement();
+
+                if (!networkInterface.isUp() || networkInterface.isLoopback()) {
+                    continue;
+                }
+
+                for (InetAddress address : Collections.list(networkInterface.getInetAddresses())) {
+                    if (address instanceof Inet4Address && address.isSiteLocalAddress()) {
+                        return address;
+                    }
+                }
+            }
+        } catch (SocketException e) {
+            Log.e(TAG, "findLocalNetworkAddress: Failed to list the network interfaces: " + e.getMessage(), e);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Endpoint open() throws IOException {
+        return new TcpEndpoint(new ServerSocket(0, 1, mLocalAddress));
+    }
+
+    @Override
+    public RelayTransport connect(String address, int timeoutInMilliseconds) throws IOException {
+        int separatorIndex = address.lastIndexOf(ADDRESS_SEPARATOR);
+        int portNumber;
+
+        try {
+            portNumber = Integer.parseInt(address.substring(separatorIndex + 1));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid address: " + address);
+        }
+
+        if (separatorIndex <= 0) {
+            throw new IOException("Invalid address: " + address);
+        }
+
+        Socket socket = new Socket();
+
+        try {
+            socket.connect(new InetSocketAddress(address.substring(0, separatorIndex), portNumber), timeoutInMilliseconds);
+            socket.setTcpNoDelay(true);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+
+        return new TcpRelayTransport(socket);
+    }
+}
@@ -0,0 +1,248 @@
+/* Copyright (c) 2016 Microsoft Corporation. This software is licensed under the MIT License.
+ * See the license file delivered with this project for further information.
+ */
+package io.jxcore.node;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the traffic pattern of a relayed connection: the size, the direction and the
+ * inter-arrival time of every chunk read by the stream copying threads. The payload is never
+ * recorded.
+ *
+ * The capture is disabled by default. It is enabled by setting the directory, where the capture
+ * files are written to (one file per connection).
+ *
+ * File format: the magic number, the format version, the direction of the connection (1 if
+ * incoming) and then one record per chunk: the direction of the chunk (one byte) followed by the
+ * time since the previous chunk in microseconds and the size of the chunk, both as variable
+ * length integers (7 bits per byte, least significant group first).
+ */
+public class TrafficRecorder {
+
+    public static class Record {
+        public final boolean isFromBluetoothToLocal;
+        public final long interArrivalTimeInMicroseconds;
+        public final int numberOfBytes;
+
+        public Record(boolean isFromBluetoothToLocal, long interArrivalTimeInMicroseconds, int numberOfBytes) {
+            this.isFromBluetoothToLocal = isFromBluetoothToLocal;
+            this.interArrivalTimeInMicroseconds = interArrivalTimeInMicroseconds;
+            this.numberOfBytes = numberOfBytes;
+        }
+    }
+
+    private static final String TAG = TrafficRecorder.class.getName();
+    private static final int MAGIC_NUMBER = 0x54485443; // "THTC"
+    private static final int FORMAT_VERSION = 1;
+    private static final String FILE_EXTENSION = ".thtc";
+    private static final int DIRECTION_LOCAL_TO_BLUETOOTH = 0;
+    private static final int DIRECTION_BLUETOOTH_TO_LOCAL = 1;
+    private static volatile File mCaptureDirectory = null;
+
+    private final DataOutputStream mOutputStream;
+    private final String mName;
+    private long mPreviousRecordTime = 0;
+    private boolean mIsClosed = false;
+
+    /**
+     * Enables or disables the capture for the connections established after this call.
+     *
+     * @param captureDirectory The directory for the capture files or null to disable the capture.
+     */
+    public static void setCaptureDirectory(File captureDirectory) {
+        Log.i(TAG, "setCaptureDirectory: " + captureDirectory);
+        mCaptureDirectory = captureDirectory;
+    }
+
+    public static boolean isEnabled() {
+        return mCaptureDirectory != null;
+    }
+
+    /**
+     * Creates a recorder for the given connection, if the capture is enabled.
+     *
+     * @param connectionData The connection data.
+     * @return A new recorder or null, if the capture is disabled or the file cannot be created.
+     */
+    public static TrafficRecorder createIfEnabled(ConnectionData connectionData) {
+        File captureDirectory = mCaptureDirectory;
+
+        if (captureDirectory == null) {
+            return null;
+        }
+
+        File file = new File(captureDirectory, "connection-" + connectionData.id + "-"
+            + (connectionData.isIncoming ? "incoming" : "outgoing") + "-"
+            + System.currentTimeMillis() + FILE_EXTENSION);
+
+        try {
+            return new TrafficRecorder(new FileOutputStream(file), connectionData.isIncoming, file.getName());
+        } catch (IOException e) {
+            Log.e(TAG, "createIfEnabled: Failed to create the capture file " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param outputStream The stream to write the capture to. This class takes the ownership.
+     * @param isIncoming   True, if the captured connection is incoming.
+     * @param name         The name of the capture for the logs.
+     * @throws IOException If the header cannot be written.
+     */
+    public TrafficRecorder(OutputStream outputStream, boolean isIncoming, String name) throws IOException {
+        mOutputStream = new DataOutputStream(new BufferedOutputStream(outputStream));
+        mName = name;
+        mOutputStream.writeInt(MAGIC_NUMBER);
+        mOutputStream.writeByte(FORMAT_VERSION);
+        mOutputStream.writeByte(isIncoming ? 1 : 0);
+    }
+
+    /**
+     * Records a chunk. Called by the stream copying threads after every read.
+     *
+     * @param isFromBluetoothToLocal True, if the chunk was read from the Bluetooth socket.
+     * @param numberOfBytes          The size of the chunk.
+     */
+    public synchronized void record(boolean isFromBluetoothToLocal, int numberOfBytes) {
+        if (mIsClosed) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        long interArrivalTime = (mPreviousRecordTime == 0) ? 0 : (now - mPreviousRecordTime) / 1000;
+        mPreviousRecordTime = now;
+
+        try {
+            mOutputStream.writeByte(isFromBluetoothToLocal ? DIRECTION_BLUETOOTH_TO_LOCAL : DIRECTION_LOCAL_TO_BLUETOOTH);
+            writeVariableLengthInteger(interArrivalTime);
+            writeVariableLengthInteger(numberOfBytes);
+        } catch (IOException e) {
+            Log.e(TAG, "record: Failed to write to " + mName + ", stopping the capture: " + e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Flushes and closes the capture.
+     */
+    public synchronized void close() {
+        if (!mIsClosed) {
+            mIsClosed = true;
+
+            try {
+                mOutputStream.close();
+            } catch (IOException e) {
+                Log.e(TAG, "close: Failed to close " + mName + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reads a capture file.
+     *
+     * @param file The capture file.
+     * @return The records in the order they were captured.
+     * @throws IOException If the file cannot be read or is not a capture file.
+     */
+    public static List<Record> read(File file) throws IOException {
+        InputStream inputStream = new FileInputStream(file);
+
+        try {
+            return read(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Reads a capture.
+     *
+     * @param inputStream The stream to read the capture from. Not closed by this method.
+     * @return The records in the order they were captured.
+     * @throws IOException If the stream cannot be read or does not contain a capture.
+     */
+    public static List<Record> read(InputStream inputStream) throws IOException {
+        DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(inputStream));
+
+        if (dataInputStream.readInt() != MAGIC_NUMBER) {
+            throw new IOException("Not a traffic capture");
+        }
+
+        int version = dataInputStream.readUnsignedByte();
+
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported traffic capture version " + version);
+        }
+
+        dataInputStream.readUnsignedByte(); // Incoming or outgoing connection
+        List<Record> records = new ArrayList<Record>();
+
+        while (true) {
+            int direction = dataInputStream.read();
+
+            if (direction == -1) {
+                break;
+            }
+
+            long interArrivalTime;
+            long numberOfBytes;
+
+            try {
+                interArrivalTime = readVariableLengthInteger(dataInputStream);
+                numberOfBytes = readVariableLengthInteger(dataInputStream);
+            } catch (EOFException e) {
+                // The capture was cut short (e.g. the process was killed), skip the partial record
+                break;
+            }
+
+            records.add(new Record(direction == DIRECTION_BLUETOOTH_TO_LOCAL, interArrivalTime, (int) numberOfBytes));
+        }
+
+        return records;
+    }
+
+    private void writeVariableLengthInteger(long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            mOutputStream.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+
+        mOutputStream.writeByte((int) value);
+    }
+
+    private static long readVariableLengthInteger(DataInputStream dataInputStream) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int oneByte;
+
+        do {
+            oneByte = dataInputStream.read();
+
+            if (oneByte == -1) {
+                throw new EOFException("Truncated traffic capture");
+            }
+
+            value |= (long) (oneByte & 0x7f) << shift;
+            shift += 7;
+        } while ((oneByte & 0x80) != 0);
+
+        return value;
+    }
+}
@@ -0,0 +1,191 @@
+/* Copyright (c) 2016 Microsoft Corporation. This software is licensed under the MIT License.
+ * See the license file delivered with this project for further information.
+ */
+package io.jxcore.node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Keeps the rolling latency percentiles of the radio state transitions (how long it takes from
+ * executing a start or stop operation until the state matches the desired outcome) per kind of
+ * transition, and derives the operation timeout from them.
+ *
+ * Until a transition has enough samples, the default timeout is used. After that, the timeout is
+ * a multiple of the 95th percentile, bounded by the minimum and the maximum timeout. A timed out
+ * operation is recorded with the time it was given, so on a device slower than the timeout, the
+ * timeout grows until the transitions fit in.
+ */
+public class TransitionLatencyStatistics {
+
+    public enum Transition {
+        START_ADVERTISING,
+        START_LISTENING_ONLY,
+        STOP_LISTENING_ONLY,
+        STOP_ALL;
+
+        /**
+         * @param operation The operation.
+         * @return The transition the given operation executes.
+         */
+        public static Transition of(StartStopOperation operation) {
+            if (operation.isStartOperation()) {
+                return operation.shouldAffectListeningToAdvertisementsOnly() ? START_LISTENING_ONLY : START_ADVERTISING;
+            }
+
+            return operation.shouldAffectListeningToAdvertisementsOnly() ? STOP_LISTENING_ONLY : STOP_ALL;
+        }
+    }
+
+    /**
+     * A snapshot of the statistics of a transition.
+     */
+    public static class Snapshot {
+        public final Transition transition;
+        public final int numberOfSamples;
+        public final long numberOfTimeouts;
+        public final long medianInMilliseconds;
+        public final long percentile90InMilliseconds;
+        public final long percentile95InMilliseconds;
+        public final long maximumInMilliseconds;
+        public final long timeoutInMilliseconds;
+
+        Snapshot(Transition transition, int numberOfSamples, long numberOfTimeouts,
+                 long medianInMilliseconds, long percentile90InMilliseconds, long percentile95InMilliseconds,
+                 long maximumInMilliseconds, long timeoutInMilliseconds) {
+            this.transition = transition;
+            this.numberOfSamples = numberOfSamples;
+            this.numberOfTimeouts = numberOfTimeouts;
+            this.medianInMilliseconds = medianInMilliseconds;
+            this.percentile90InMilliseconds = percentile90InMilliseconds;
+            this.percentile95InMilliseconds = percentile95InMilliseconds;
+            this.maximumInMilliseconds = maximumInMilliseconds;
+            this.timeoutInMilliseconds = timeoutInMilliseconds;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                "%s: %d samples, median %d ms, p90 %d ms, p95 %d ms, max %d ms, %d timeouts, timeout %d ms",
+                transition, numberOfSamples, medianInMilliseconds, percentile90InMilliseconds,
+                percentile95InMilliseconds, maximumInMilliseconds, numberOfTimeouts, timeoutInMilliseconds);
+        }
+    }
+
+    /**
+     * The latest samples of a transition in a ring buffer.
+     */
+    private static class Samples {
+        private final long[] mLatencies = new long[WINDOW_SIZE];
+        private int mNumberOfSamples = 0;
+        private int mNextIndex = 0;
+        private long mNumberOfTimeouts = 0;
+
+        void add(long latencyInMilliseconds) {
+            mLatencies[mNextIndex] = latencyInMilliseconds;
+            mNextIndex = (mNextIndex + 1) % WINDOW_SIZE;
+            mNumberOfSamples = Math.min(mNumberOfSamples + 1, WINDOW_SIZE);
+        }
+
+        long[] getSorted() {
+            long[] sorted = Arrays.copyOf(mLatencies, mNumberOfSamples);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+
+    static final int WINDOW_SIZE = 50;
+    static final int MINIMUM_NUMBER_OF_SAMPLES = 5;
+    static final int TIMEOUT_MULTIPLIER = 2;
+    static final long MINIMUM_TIMEOUT_IN_MILLISECONDS = 1000;
+    static final long MAXIMUM_TIMEOUT_IN_MILLISECONDS = 15000;
+    private final Samples[] mSamples = new Samples[Transition.values().length];
+    private final long mDefaultTimeoutInMilliseconds;
+
+    /**
+     * Constructor.
+     *
+     * @param defaultTimeoutInMilliseconds The timeout until a transition has enough samples.
+     */
+    public TransitionLatencyStatistics(long defaultTimeoutInMilliseconds) {
+        mDefaultTimeoutInMilliseconds = defaultTimeoutInMilliseconds;
+
+        for (int i = 0; i < mSamples.length; i++) {
+            mSamples[i] = new Samples();
+        }
+    }
+
+    /**
+     * Records the latency of a transition.
+     *
+     * @param transition            The transition.
+     * @param latencyInMilliseconds The time from executing the operation until the target state
+     *                              was reached or, in case of a timeout, the time until the timeout.
+     * @param timedOut              True, if the operation timed out.
+     */
+    public synchronized void record(Transition transition, long latencyInMilliseconds, boolean timedOut) {
+        Samples samples = mSamples[transition.ordinal()];
+        samples.add(latencyInMilliseconds);
+
+        if (timedOut) {
+            samples.mNumberOfTimeouts++;
+        }
+    }
+
+    /**
+     * @param transition The transition.
+     * @return The timeout for the given transition in milliseconds.
+     */
+    public synchronized long getTimeout(Transition transition) {
+        return getTimeout(mSamples[transition.ordinal()].getSorted());
+    }
+
+    /**
+     * @param transition The transition.
+     * @return The snapshot of the statistics of the given transition.
+     */
+    public synchronized Snapshot getSnapshot(Transition transition) {
+        Samples samples = mSamples[transition.ordinal()];
+        long[] sorted = samples.getSorted();
+
+        return new Snapshot(transition, sorted.length, samples.mNumberOfTimeouts,
+            getPercentile(sorted, 50), getPercentile(sorted, 90), getPercentile(sorted, 95),
+            sorted.length > 0 ? sorted[sorted.length - 1] : 0, getTimeout(sorted));
+    }
+
+    /**
+     * @return The snapshots of the statistics of all the transitions.
+     */
+    public synchronized List<Snapshot> getSnapshots() {
+        List<Snapshot> snapshots = new ArrayList<Snapshot>();
+
+        for (Transition transition : Transition.values()) {
+            snapshots.add(getSnapshot(transition));
+        }
+
+        return snapshots;
+    }
+
+    private long getTimeout(long[] sortedLatencies) {
+        if (sortedLatencies.length < MINIMUM_NUMBER_OF_SAMPLES) {
+            return mDefaultTimeoutInMilliseconds;
+        }
+
+        long timeout = getPercentile(sortedLatencies, 95) * TIMEOUT_MULTIPLIER;
+        return Math.max(MINIMUM_TIMEOUT_IN_MILLISECONDS, Math.min(MAXIMUM_TIMEOUT_IN_MILLISECONDS, timeout));
+    }
+
+    /**
+     * @return The percentile of the given sorted values (nearest rank) or 0, if there are none.
+     */
+    private static long getPercentile(long[] sortedValues, int percentile) {
+        if (sortedValues.length == 0) {
+            return 0;
+        }
+
+        int rank = (int) Math.ceil(percentile / 100d * sortedValues.length);
+        return sortedValues[Math.max(0, rank - 1)];
+    }
+}
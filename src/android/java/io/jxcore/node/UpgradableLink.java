@@ -0,0 +1,729 @@
+/* Copyright (c) 2016 Microsoft Corporation. This software is licensed under the MIT License.
+ * See the license file delivered with this project for further information.
+ */
+package io.jxcore.node;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves the peer leg of a relayed connection from the Bluetooth link to a higher-bandwidth
+ * transport, when the demand calls for it, without the localhost side noticing.
+ *
+ * The link carries typed frames (one byte type, two byte length, big-endian, and the payload) so
+ * that the negotiation can take place in-band:
+ *
+ * 1. When the data written has exceeded the demand threshold for the given number of windows,
+ *    the peer opens an endpoint (see UpgradeEndpointProvider) and sends OFFER with its address.
+ * 2. The other peer connects to the endpoint and sends ACCEPT or, if it fails, REJECT.
+ * 3. The offering peer accepts the connection and sends SWITCH or, if it fails, ABORT.
+ * 4. The other peer answers SWITCH with SWITCH.
+ *
+ * SWITCH is the last frame sent over the Bluetooth link in its direction, after which the data
+ * continues over the new transport, so no data is lost or reordered. If the negotiation fails, the
+ * data keeps flowing over the Bluetooth link and no new offer is made for the retry interval. If
+ * both the peers offer at the same time, the offer of the peer that made the connection wins. The
+ * answers can not be read after the peer has ended its direction, in which case the negotiation is
+ * left pending until the link is closed.
+ *
+ * Both the peers must use the link, so it is disabled by default and enabled from JS (see
+ * setConnectionUpgradeEnabled in JXcoreExtension). It also carries the end of the stream, so it
+ * replaces the end of the stream marker of HalfCloseStreams.
+ */
+class UpgradableLink {
+
+    private enum State {
+        IDLE,
+        OFFERED, // We have offered an endpoint and wait for the answer
+        CONNECTING, // We are connecting to the endpoint offered by the peer
+        ACCEPTED, // We are connected to the endpoint offered by the peer and wait for SWITCH
+        UPGRADED
+    }
+
+    private static final String TAG = UpgradableLink.class.getName();
+    private static final int FRAME_TYPE_DATA = 0;
+    private static final int FRAME_TYPE_END_OF_STREAM = 1;
+    private static final int FRAME_TYPE_OFFER = 2;
+    private static final int FRAME_TYPE_ACCEPT = 3;
+    private static final int FRAME_TYPE_REJECT = 4;
+    private static final int FRAME_TYPE_ABORT = 5;
+    private static final int FRAME_TYPE_SWITCH = 6;
+    static final int MAXIMUM_FRAME_LENGTH = 0xffff;
+    private static final int HEADER_LENGTH = 3;
+    private static final int OUTPUT_BUFFER_SIZE = HEADER_LENGTH + SocketThreadBase.STREAM_COPYING_THREAD_BUFFER_SIZE;
+    private static final String OFFER_SEPARATOR = " ";
+    private static final long NANOSECONDS_PER_MILLISECOND = 1000000L;
+    public static final long DEFAULT_DEMAND_THRESHOLD_IN_BYTES_PER_SECOND = 64 * 1024;
+    public static final long DEFAULT_DEMAND_WINDOW_IN_MILLISECONDS = 1000;
+    public static final int DEFAULT_NUMBER_OF_WINDOWS_BEFORE_UPGRADE = 3;
+    public static final long DEFAULT_RETRY_INTERVAL_IN_MILLISECONDS = 30000;
+    public static final int DEFAULT_UPGRADE_TIMEOUT_IN_MILLISECONDS = 3000;
+    private static final SecureRandom mSecureRandom = new SecureRandom();
+    private static final AtomicLong mNumberOfUpgrades = new AtomicLong(0);
+    private static final AtomicLong mNumberOfFallbacks = new AtomicLong(0);
+    private static volatile UpgradeEndpointProvider mDefaultEndpointProvider = null;
+    private static volatile long mDemandThresholdInBytesPerSecond = DEFAULT_DEMAND_THRESHOLD_IN_BYTES_PER_SECOND;
+    private static volatile long mDemandWindowInMilliseconds = DEFAULT_DEMAND_WINDOW_IN_MILLISECONDS;
+    private static volatile int mNumberOfWindowsBeforeUpgrade = DEFAULT_NUMBER_OF_WINDOWS_BEFORE_UPGRADE;
+    private static volatile long mRetryIntervalInMilliseconds = DEFAULT_RETRY_INTERVAL_IN_MILLISECONDS;
+    private static volatile int mUpgradeTimeoutInMilliseconds = DEFAULT_UPGRADE_TIMEOUT_IN_MILLISECONDS;
+
+    private final UpgradeEndpointProvider mEndpointProvider;
+    private final boolean mIsInitiator;
+    private final Executor mExecutor;
+    private final InputStream mLinkInputStream;
+    private final OutputStream mLinkOutputStream;
+    private final Object mOutputLock = new Object();
+    private final LinkInputStream mInputStream = new LinkInputStream();
+    private final LinkOutputStream mOutputStream = new LinkOutputStream();
+    private DataOutputStream mCurrentOutput; // Guarded by mOutputLock
+    private State mState = State.IDLE;
+    private UpgradeEndpointProvider.Endpoint mEndpoint = null;
+    private long mNonce = 0;
+    private RelayTransport mUpgradedTransport = null;
+    private long mNextOfferTimeInNanoseconds;
+    private boolean mIsClosed = false;
+
+    // Used only by the writing thread
+    private long mWindowStartTimeInNanoseconds = 0;
+    private long mNumberOfBytesInWindow = 0;
+    private int mNumberOfWindowsOverThreshold = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param linkInputStream  The input stream of the Bluetooth link.
+     * @param linkOutputStream The output stream of the Bluetooth link.
+     * @param isInitiator      True, if we made the connection, false, if the peer did.
+     * @param endpointProvider The provider of the faster transport or null, if we can not upgrade.
+     * @param executor         The executor for sending the answers without blocking the reading.
+     */
+    UpgradableLink(InputStream linkInputStream, OutputStream linkOutputStream, boolean isInitiator,
+                   UpgradeEndpointProvider endpointProvider, Executor executor) {
+        mLinkInputStream = linkInputStream;
+        mLinkOutputStream = linkOutputStream;
+        mIsInitiator = isInitiator;
+        mEndpointProvider = endpointProvider;
+        mExecutor = executor;
+        mCurrentOutput = new DataOutputStream(new BufferedOutputStream(linkOutputStream, OUTPUT_BUFFER_SIZE));
+        mInputStream.mCurrentInput = new DataInputStream(linkInputStream);
+        mNextOfferTimeInNanoseconds = System.nanoTime();
+    }
+
+    /**
+     * Enables the upgrade for the connections established after this call. Must match the setting
+     * of the peers.
+     *
+     * @param endpointProvider The provider of the faster transport or null to disable.
+     */
+    public static void setDefaultEndpointProvider(UpgradeEndpointProvider endpointProvider) {
+        Log.i(TAG, "setDefaultEndpointProvider: " + endpointProvider);
+        mDefaultEndpointProvider = endpointProvider;
+    }
+
+    public static UpgradeEndpointProvider getDefaultEndpointProvider() {
+        return mDefaultEndpointProvider;
+    }
+
+    public static boolean isEnabled() {
+        return (mDefaultEndpointProvider != null);
+    }
+
+    /**
+     * Sets the sustained demand, which triggers an upgrade.
+     *
+     * @param thresholdInBytesPerSecond The rate of the data written.
+     * @param windowInMilliseconds      The length of the window the rate is measured over.
+     * @param numberOfWindows           The number of consecutive windows over the threshold.
+     */
+    public static void setDemandThreshold(long thresholdInBytesPerSecond, long windowInMilliseconds, int numberOfWindows) {
+        if (thresholdInBytesPerSecond <= 0 || windowInMilliseconds <= 0 || numberOfWindows < 1) {
+            throw new IllegalArgumentException("Invalid threshold (" + thresholdInBytesPerSecond
+                + "), window (" + windowInMilliseconds + ") or number of windows (" + numberOfWindows + ")");
+        }
+
+        mDemandThresholdInBytesPerSecond = thresholdInBytesPerSecond;
+        mDemandWindowInMilliseconds = windowInMilliseconds;
+        mNumberOfWindowsBeforeUpgrade = numberOfWindows;
+    }
+
+    /**
+     * Sets the time limits of the negotiation.
+     *
+     * @param timeoutInMilliseconds       The maximum time to connect to or accept the peer.
+     * @param retryIntervalInMilliseconds The time to wait after a failed upgrade before offering again.
+     */
+    public static void setTimeouts(int timeoutInMilliseconds, long retryIntervalInMilliseconds) {
+        mUpgradeTimeoutInMilliseconds = timeoutInMilliseconds;
+        mRetryIntervalInMilliseconds = retryIntervalInMilliseconds;
+    }
+
+    /**
+     * @return The number of connections upgraded.
+     */
+    public static long getNumberOfUpgrades() {
+        return mNumberOfUpgrades.get();
+    }
+
+    /**
+     * @return The number of failed upgrades, after which the connection stayed on Bluetooth.
+     */
+    public static long getNumberOfFallbacks() {
+        return mNumberOfFallbacks.get();
+    }
+
+    /**
+     * @return The input stream for the receiving thread.
+     */
+    public InputStream getInputStream() {
+        return mInputStream;
+    }
+
+    /**
+     * @return The output stream for the sending thread. Half-closable.
+     */
+    public OutputStream getOutputStream() {
+        return mOutputStream;
+    }
+
+    /**
+     * @return True, if the data is relayed over the faster transport.
+     */
+    public synchronized boolean isUpgraded() {
+        return (mState == State.UPGRADED);
+    }
+
+    /**
+     * Offers an upgrade regardless of the demand, unless already negotiating or upgraded.
+     */
+    public void requestUpgrade() {
+        offer(true);
+    }
+
+    /**
+     * Closes the faster transport and the streams of the link.
+     */
+    public void close() {
+        RelayTransport upgradedTransport;
+        UpgradeEndpointProvider.Endpoint endpoint;
+
+        synchronized (this) {
+            if (mIsClosed) {
+                return;
+            }
+
+            mIsClosed = true;
+            upgradedTransport = mUpgradedTransport;
+            endpoint = mEndpoint;
+            mUpgradedTransport = null;
+            mEndpoint = null;
+        }
+
+        if (endpoint != null) {
+            endpoint.close();
+        }
+
+        if (upgradedTransport != null) {
+            try {
+                upgradedTransport.close();
+            } catch (IOException e) {
+                Log.e(TAG, "close: Failed to close the " + upgradedTransport.getName() + " transport: " + e.getMessage());
+            }
+        }
+
+        try {
+            mLinkInputStream.close();
+        } catch (IOException e) {
+            Log.e(TAG, "close: Failed to close the input stream: " + e.getMessage());
+        }
+
+        try {
+            mLinkOutputStream.close();
+        } catch (IOException e) {
+            Log.e(TAG, "close: Failed to close the output stream: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Measures the demand and offers an upgrade, when sustained. Called by the writing thread.
+     */
+    private void onDataWritten(int numberOfBytes) {
+        long now = System.nanoTime();
+
+        if (mWindowStartTimeInNanoseconds == 0) {
+            mWindowStartTimeInNanoseconds = now;
+        }
+
+        mNumberOfBytesInWindow += numberOfBytes;
+        long windowLength = now - mWindowStartTimeInNanoseconds;
+
+        if (windowLength >= mDemandWindowInMilliseconds * NANOSECONDS_PER_MILLISECOND) {
+            long rate = mNumberOfBytesInWindow * 1000 * NANOSECONDS_PER_MILLISECOND / windowLength;
+            mNumberOfWindowsOverThreshold = (rate >= mDemandThresholdInBytesPerSecond) ? mNumberOfWindowsOverThreshold + 1 : 0;
+            mWindowStartTimeInNanoseconds = now;
+            mNumberOfBytesInWindow = 0;
+
+            if (mNumberOfWindowsOverThreshold >= mNumberOfWindowsBeforeUpgrade) {
+                mNumberOfWindowsOverThreshold = 0;
+                offer(false);
+            }
+        }
+    }
+
+    /**
+     * Opens an endpoint and offers it to the peer.
+     *
+     * @param ignoreRetryInterval If true, will offer even if the last upgrade failed recently.
+     */
+    private void offer(boolean ignoreRetryInterval) {
+        synchronized (this) {
+            if (mState != State.IDLE || mEndpointProvider == null || mIsClosed
+                || (!ignoreRetryInterval && System.nanoTime() < mNextOfferTimeInNanoseconds)) {
+                return;
+            }
+
+            mState = State.OFFERED;
+        }
+
+        UpgradeEndpointProvider.Endpoint endpoint;
+
+        try {
+            endpoint = mEndpointProvider.open();
+        } catch (IOException e) {
+            Log.w(TAG, "offer: Failed to open an endpoint: " + e.getMessage());
+            fallBack(State.OFFERED);
+            return;
+        }
+
+        long nonce = mSecureRandom.nextLong();
+
+        synchronized (this) {
+            if (mState != State.OFFERED || mIsClosed) {
+                // Withdrawn in favor of the offer of the peer
+                endpoint.close();
+                return;
+            }
+
+            mEndpoint = endpoint;
+            mNonce = nonce;
+        }
+
+        Log.i(TAG, "offer: Offering " + endpoint.getAddress());
+
+        try {
+            writeControlFrame(FRAME_TYPE_OFFER, nonce + OFFER_SEPARATOR + endpoint.getAddress(), false);
+        } catch (IOException e) {
+            // The link is failing, the relay finds out by itself
+            Log.e(TAG, "offer: Failed to send the offer: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Called by the reading thread, when the peer offers an endpoint.
+     */
+    private void onOffer(String payload) {
+        UpgradeEndpointProvider.Endpoint withdrawnEndpoint = null;
+        boolean reject = false;
+
+        synchronized (this) {
+            if (mState == State.OFFERED && !mIsInitiator) {
+                // Both offered, the offer of the initiator wins
+                Log.d(TAG, "onOffer: Withdrawing our offer");
+                withdrawnEndpoint = mEndpoint;
+                mEndpoint = null;
+                mState = State.IDLE;
+            }
+
+            if (mState != State.IDLE || mEndpointProvider == null || mIsClosed) {
+                reject = true;
+            } else {
+                mState = State.CONNECTING;
+            }
+        }
+
+        if (withdrawnEndpoint != null) {
+            withdrawnEndpoint.close();
+        }
+
+        if (reject) {
+            Log.d(TAG, "onOffer: Rejecting the offer");
+            sendControlFrame(FRAME_TYPE_REJECT, false);
+            return;
+        }
+
+        RelayTransport transport = null;
+
+        try {
+            int separatorIndex = payload.indexOf(OFFER_SEPARATOR);
+            long nonce = Long.parseLong(payload.substring(0, separatorIndex));
+            String address = payload.substring(separatorIndex + 1);
+            Log.i(TAG, "onOffer: Connecting to " + address);
+
+            // Blocks the reading for the time of connecting, the data waits in the link
+            transport = mEndpointProvider.connect(address, mUpgradeTimeoutInMilliseconds);
+            DataOutputStream outputStream = new DataOutputStream(transport.getOutputStream());
+            outputStream.writeLong(nonce);
+            outputStream.flush();
+        } catch (Exception e) {
+            Log.w(TAG, "onOffer: Failed to connect: " + e.getMessage());
+            closeTransport(transport);
+            fallBack(State.CONNECTING);
+            sendControlFrame(FRAME_TYPE_REJECT, false);
+            return;
+        }
+
+        synchronized (this) {
+            if (mState != State.CONNECTING || mIsClosed) {
+                closeTransport(transport);
+                return;
+            }
+
+            mUpgradedTransport = transport;
+            mState = State.ACCEPTED;
+        }
+
+        sendControlFrame(FRAME_TYPE_ACCEPT, false);
+    }
+
+    /**
+     * Called by the reading thread, when the peer has connected to our endpoint.
+     */
+    private void onAccept() {
+        UpgradeEndpointProvider.Endpoint endpoint;
+        long nonce;
+
+        synchronized (this) {
+            if (mState != State.OFFERED || mEndpoint == null) {
+                Log.w(TAG, "onAccept: Not offering, aborting");
+                endpoint = null;
+                nonce = 0;
+            } else {
+                endpoint = mEndpoint;
+                nonce = mNonce;
+                mEndpoint = null;
+            }
+        }
+
+        if (endpoint == null) {
+            sendControlFrame(FRAME_TYPE_ABORT, false);
+            return;
+        }
+
+        RelayTransport transport = null;
+
+        try {
+            // Makes sure it is the peer that connected
+            transport = endpoint.accept(mUpgradeTimeoutInMilliseconds, nonce);
+        } catch (IOException e) {
+            Log.w(TAG, "onAccept: Failed to accept: " + e.getMessage());
+            closeTransport(transport);
+            transport = null;
+        } finally {
+            // Only one connection is accepted
+            endpoint.close();
+        }
+
+        if (transport == null) {
+            fallBack(State.OFFERED);
+            sendControlFrame(FRAME_TYPE_ABORT, false);
+            return;
+        }
+
+        synchronized (this) {
+            if (mState != State.OFFERED || mIsClosed) {
+                closeTransport(transport);
+                return;
+            }
+
+            mUpgradedTransport = transport;
+            mState = State.UPGRADED;
+        }
+
+        mNumberOfUpgrades.incrementAndGet();
+        Log.i(TAG, "onAccept: Upgraded to " + transport.getName() + ", switching");
+        sendControlFrame(FRAME_TYPE_SWITCH, true);
+    }
+
+    /**
+     * Called by the reading thread, when the peer did not upgrade.
+     *
+     * @param expectedState The state, in which we wait for the answer.
+     */
+    private void onRejectOrAbort(State expectedState) {
+        RelayTransport transport = null;
+        UpgradeEndpointProvider.Endpoint endpoint = null;
+
+        synchronized (this) {
+            if (mState != expectedState) {
+                // E.g. the rejection of a withdrawn offer
+                return;
+            }
+
+            transport = mUpgradedTransport;
+            endpoint = mEndpoint;
+            mUpgradedTransport = null;
+            mEndpoint = null;
+        }
+
+        Log.i(TAG, "onRejectOrAbort: The peer did not upgrade, staying on the link");
+        closeTransport(transport);
+
+        if (endpoint != null) {
+            endpoint.close();
+        }
+
+        fallBack(expectedState);
+    }
+
+    /**
+     * Called by the reading thread, when the peer has switched its output.
+     *
+     * @return The input stream of the faster transport.
+     * @throws IOException If not expecting a switch.
+     */
+    private InputStream onSwitch() throws IOException {
+        boolean switchOutput = false;
+        RelayTransport transport;
+
+        synchronized (this) {
+            if (mState == State.ACCEPTED) {
+                mState = State.UPGRADED;
+                switchOutput = true;
+            } else if (mState != State.UPGRADED) {
+                throw new IOException("Unexpected switch in state " + mState);
+            }
+
+            transport = mUpgradedTransport;
+        }
+
+        if (transport == null) {
+            throw new IOException("Closed while switching");
+        }
+
+        if (switchOutput) {
+            mNumberOfUpgrades.incrementAndGet();
+            Log.i(TAG, "onSwitch: Upgraded to " + transport.getName() + ", switching");
+            sendControlFrame(FRAME_TYPE_SWITCH, true);
+        }
+
+        return transport.getInputStream();
+    }
+
+    private synchronized void fallBack(State expectedState) {
+        if (mState == expectedState) {
+            mState = State.IDLE;
+            mNextOfferTimeInNanoseconds = System.nanoTime() + mRetryIntervalInMilliseconds * NANOSECONDS_PER_MILLISECOND;
+            mNumberOfFallbacks.incrementAndGet();
+        }
+    }
+
+    /**
+     * Sends a control frame without blocking the reading thread. The writing thread may be
+     * waiting for the peer to read, while the peer is waiting for us to read.
+     */
+    private void sendControlFrame(final int type, final boolean switchOutput) {
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writeControlFrame(type, null, switchOutput);
+                    } catch (IOException e) {
+                        // The link is failing, the relay finds out by itself
+                        Log.e(TAG, "sendControlFrame: Failed to send frame of type " + type + ": " + e.getMessage());
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "sendControlFrame: Failed to send frame of type " + type + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param switchOutput If true, the data is written to the faster transport after the frame.
+     */
+    private void writeControlFrame(int type, String payload, boolean switchOutput) throws IOException {
+        byte[] payloadBytes = (payload != null) ? payload.getBytes("UTF-8") : new byte[0];
+
+        synchronized (mOutputLock) {
+            writeFrame(type, payloadBytes, 0, payloadBytes.length);
+            mCurrentOutput.flush();
+
+            if (switchOutput) {
+                RelayTransport transport;
+
+                synchronized (this) {
+                    transport = mUpgradedTransport;
+                }
+
+                if (transport == null) {
+                    throw new IOException("Closed while switching");
+                }
+
+                mCurrentOutput = new DataOutputStream(
+                    new BufferedOutputStream(transport.getOutputStream(), OUTPUT_BUFFER_SIZE));
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding mOutputLock.
+     */
+    private void writeFrame(int type, byte[] buffer, int offset, int length) throws IOException {
+        mCurrentOutput.writeByte(type);
+        mCurrentOutput.writeShort(length);
+        mCurrentOutput.write(buffer, offset, length);
+    }
+
+    private static void closeTransport(RelayTransport transport) {
+        if (transport != null) {
+            try {
+                transport.close();
+            } catch (IOException e) {
+                Log.e(TAG, "closeTransport: Failed to close the " + transport.getName() + " transport: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reads the data frames, handles the control frames and follows the switch of the peer.
+     */
+    private class LinkInputStream extends InputStream {
+        private DataInputStream mCurrentInput;
+        private int mNumberOfBytesLeftInFrame = 0;
+        private boolean mIsEndOfStream = false;
+
+        @Override
+        public int read() throws IOException {
+            byte[] buffer = new byte[1];
+            return (read(buffer, 0, 1) == -1) ? -1 : (buffer[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (count == 0) {
+                return 0;
+            }
+
+            while (mNumberOfBytesLeftInFrame == 0) {
+                if (mIsEndOfStream || !readFrameHeader()) {
+                    return -1;
+                }
+            }
+
+            int numberOfBytesRead = mCurrentInput.read(buffer, offset, Math.min(count, mNumberOfBytesLeftInFrame));
+
+            if (numberOfBytesRead == -1) {
+                throw new IOException("The link ended in the middle of a frame");
+            }
+
+            mNumberOfBytesLeftInFrame -= numberOfBytesRead;
+            return numberOfBytesRead;
+        }
+
+        @Override
+        public void close() throws IOException {
+            UpgradableLink.this.close();
+        }
+
+        /**
+         * Reads the next frame header and handles the control frames.
+         *
+         * @return False, if the link ended.
+         */
+        private boolean readFrameHeader() throws IOException {
+            int type = mCurrentInput.read();
+
+            if (type == -1) {
+                return false;
+            }
+
+            int length = mCurrentInput.readUnsignedShort();
+
+            switch (type) {
+                case FRAME_TYPE_DATA:
+                    mNumberOfBytesLeftInFrame = length;
+                    break;
+                case FRAME_TYPE_END_OF_STREAM:
+                    mIsEndOfStream = true;
+                    break;
+                case FRAME_TYPE_OFFER:
+                    byte[] payload = new byte[length];
+                    mCurrentInput.readFully(payload);
+                    onOffer(new String(payload, "UTF-8"));
+                    break;
+                case FRAME_TYPE_ACCEPT:
+                    onAccept();
+                    break;
+                case FRAME_TYPE_REJECT:
+                    onRejectOrAbort(State.OFFERED);
+                    break;
+                case FRAME_TYPE_ABORT:
+                    onRejectOrAbort(State.ACCEPTED);
+                    break;
+                case FRAME_TYPE_SWITCH:
+                    mCurrentInput = new DataInputStream(onSwitch());
+                    break;
+                default:
+                    throw new IOException("Unknown frame type " + type);
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Writes the data in frames to the current transport.
+     */
+    private class LinkOutputStream extends OutputStream implements HalfCloseStreams.HalfClosable {
+        @Override
+        public void write(int oneByte) throws IOException {
+            write(new byte[]{(byte) oneByte}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            synchronized (mOutputLock) {
+                int numberOfBytesWritten = 0;
+
+                while (numberOfBytesWritten < count) {
+                    int length = Math.min(count - numberOfBytesWritten, MAXIMUM_FRAME_LENGTH);
+                    writeFrame(FRAME_TYPE_DATA, buffer, offset + numberOfBytesWritten, length);
+                    numberOfBytesWritten += length;
+                }
+            }
+
+            onDataWritten(count);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (mOutputLock) {
+                mCurrentOutput.flush();
+            }
+        }
+
+        @Override
+        public void shutdownOutput() throws IOException {
+            synchronized (mOutputLock) {
+                writeFrame(FRAME_TYPE_END_OF_STREAM, new byte[0], 0, 0);
+                mCurrentOutput.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            UpgradableLink.this.close();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/* Copyright (c) 2016 Microsoft Corporation. This software is licensed under the MIT License.
+ * See the license file delivered with this project for further information.
+ */
+package io.jxcore.node;
+
+import java.io.IOException;
+
+/**
+ * Provides the higher-bandwidth transport a relayed connection is upgraded to, see UpgradableLink.
+ * One peer opens an endpoint and offers its address over the established link, the other one
+ * connects to it.
+ */
+interface UpgradeEndpointProvider {
+
+    /**
+     * An endpoint waiting for the peer to connect.
+     */
+    interface Endpoint {
+        /**
+         * @return The address the peer connects to, as given to connect.
+         */
+        String getAddress();
+
+        /**
+         * Waits for the peer to connect and to send the nonce, which the connecting peer writes
+         * first to the transport returned by connect. Both the waits are bounded by the timeout.
+         *
+         * @param timeoutInMilliseconds The maximum time to wait for each.
+         * @param nonce                 The nonce offered to the peer.
+         * @return The transport to the peer.
+         * @throws IOException If accepting or reading the nonce fails or times out, or the nonce
+         *                     does not match.
+         */
+        RelayTransport accept(int timeoutInMilliseconds, long nonce) throws IOException;
+
+        /**
+         * Closes the endpoint. The transports already accepted are not affected.
+         */
+        void close();
+    }
+
+    /**
+     * Opens an endpoint for the peer to connect to.
+     *
+     * @return The endpoint.
+     * @throws IOException If the endpoint can not be opened, e.g. the network is not available.
+     */
+    Endpoint open() throws IOException;
+
+    /**
+     * Connects to the endpoint offered by the peer.
+     *
+     * @param address               The address of the endpoint.
+     * @param timeoutInMilliseconds The maximum time to wait.
+     * @return The transport to the peer.
+     * @throws IOException If connecting fails or times out.
+     */
+    RelayTransport connect(String address, int timeoutInMilliseconds) throws IOException;
+}
@@ -0,0 +1,132 @@
+package io.jxcore.node;
+
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class BandwidthShaperTest {
+
+    private static final long LINK_RATE_IN_BYTES_PER_SECOND = 100 * 1024;
+    private static final int CHUNK_SIZE_IN_BYTES = 1024;
+    private static final long SIMULATION_TIME_IN_MILLISECONDS = 10000;
+    private static final long NANOSECONDS_PER_MILLISECOND = 1000000L;
+
+    private final static String mTag = BandwidthShaperTest.class.getName();
+    private BandwidthShaper mBandwidthShaper;
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        protected void starting(Description description) {
+            Log.i(mTag, "Starting test: " + description.getMethodName());
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        mBandwidthShaper = new BandwidthShaper();
+    }
+
+    @Test
+    public void testBusyLinkIsSharedByWeight() throws Exception {
+        mBandwidthShaper.setLinkRate(LINK_RATE_IN_BYTES_PER_SECOND);
+        BandwidthShaper.Share interactiveShare = mBandwidthShaper.register(BandwidthShaper.PriorityClass.INTERACTIVE);
+        BandwidthShaper.Share bulkShare = mBandwidthShaper.register(BandwidthShaper.PriorityClass.BULK);
+
+        simulate(interactiveShare, bulkShare);
+
+        double interactiveShareAchieved =
+            mBandwidthShaper.getAchievedShare(BandwidthShaper.PriorityClass.INTERACTIVE);
+        assertThat("The interactive class gets about four fifths of the link",
+            Math.abs(interactiveShareAchieved - 0.8) < 0.02, is(true));
+
+        long totalNumberOfBytesSent =
+            mBandwidthShaper.getNumberOfBytesSent(BandwidthShaper.PriorityClass.INTERACTIVE)
+                + mBandwidthShaper.getNumberOfBytesSent(BandwidthShaper.PriorityClass.BULK);
+        assertThat("The link rate is not exceeded", totalNumberOfBytesSent
+            <= LINK_RATE_IN_BYTES_PER_SECOND * SIMULATION_TIME_IN_MILLISECONDS / 1000
+            + BandwidthShaper.BURST_SIZE_IN_BYTES, is(true));
+    }
+
+    @Test
+    public void testSingleShareGetsTheWholeLink() throws Exception {
+        mBandwidthShaper.setLinkRate(LINK_RATE_IN_BYTES_PER_SECOND);
+        BandwidthShaper.Share bulkShare = mBandwidthShaper.register(BandwidthShaper.PriorityClass.BULK);
+
+        simulate(bulkShare);
+
+        long expectedNumberOfBytes = LINK_RATE_IN_BYTES_PER_SECOND * SIMULATION_TIME_IN_MILLISECONDS / 1000;
+        long numberOfBytesSent = mBandwidthShaper.getNumberOfBytesSent(BandwidthShaper.PriorityClass.BULK);
+        assertThat("The idle classes reserve nothing",
+            numberOfBytesSent >= expectedNumberOfBytes - CHUNK_SIZE_IN_BYTES, is(true));
+    }
+
+    @Test
+    public void testConnectionRateLimitIsApplied() throws Exception {
+        long rateLimitInBytesPerSecond = 10 * 1024;
+        mBandwidthShaper.setConnectionRateLimit(BandwidthShaper.PriorityClass.BULK, rateLimitInBytesPerSecond);
+        BandwidthShaper.Share bulkShare = mBandwidthShaper.register(BandwidthShaper.PriorityClass.BULK);
+        BandwidthShaper.Share defaultShare = mBandwidthShaper.register(BandwidthShaper.PriorityClass.DEFAULT);
+
+        simulate(bulkShare, defaultShare);
+
+        long maximumNumberOfBytes = rateLimitInBytesPerSecond * SIMULATION_TIME_IN_MILLISECONDS / 1000
+            + BandwidthShaper.BURST_SIZE_IN_BYTES;
+        long numberOfBytesSent = mBandwidthShaper.getNumberOfBytesSent(BandwidthShaper.PriorityClass.BULK);
+        assertThat("The limited connection is held to its rate",
+            numberOfBytesSent <= maximumNumberOfBytes, is(true));
+        assertThat("The limited connection still gets its rate",
+            numberOfBytesSent >= maximumNumberOfBytes - 2 * BandwidthShaper.BURST_SIZE_IN_BYTES, is(true));
+    }
+
+    @Test
+    public void testClosedShareIsNotGranted() throws Exception {
+        mBandwidthShaper.setLinkRate(LINK_RATE_IN_BYTES_PER_SECOND);
+        BandwidthShaper.Share share = mBandwidthShaper.register(BandwidthShaper.PriorityClass.DEFAULT);
+
+        assertThat("An open share is granted", share.acquire(CHUNK_SIZE_IN_BYTES), is(true));
+        share.close();
+        assertThat("A closed share is not granted", share.acquire(CHUNK_SIZE_IN_BYTES), is(false));
+    }
+
+    @Test
+    public void testPriorityClassFromName() throws Exception {
+        assertThat("The name is case insensitive", BandwidthShaper.PriorityClass.fromName("Bulk"),
+            is(equalTo(BandwidthShaper.PriorityClass.BULK)));
+        assertThat("An unknown name is not recognized", BandwidthShaper.PriorityClass.fromName("urgent"),
+            is(nullValue()));
+    }
+
+    /**
+     * Keeps the given shares backlogged with chunks for the simulation time, checking every
+     * share once a millisecond.
+     */
+    private void simulate(BandwidthShaper.Share... shares) {
+        boolean[] isQueued = new boolean[shares.length];
+
+        for (long time = 0; time < SIMULATION_TIME_IN_MILLISECONDS; time++) {
+            for (int i = 0; i < shares.length; i++) {
+                if (!isQueued[i]) {
+                    mBandwidthShaper.enqueue(shares[i], CHUNK_SIZE_IN_BYTES);
+                    isQueued[i] = true;
+                }
+
+                long result = mBandwidthShaper.tryAcquire(
+                    shares[i], CHUNK_SIZE_IN_BYTES, time * NANOSECONDS_PER_MILLISECOND);
+
+                if (result == BandwidthShaper.GRANTED) {
+                    isQueued[i] = false;
+                }
+            }
+        }
+    }
+}
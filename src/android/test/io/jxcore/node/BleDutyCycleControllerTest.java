@@ -0,0 +1,140 @@
+package io.jxcore.node;
+
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class BleDutyCycleControllerTest {
+
+    private final static String mTag = BleDutyCycleControllerTest.class.getName();
+    private VirtualTimeScheduler mScheduler;
+    private BleDutyCycleController mBleDutyCycleController;
+    private List<BleDutyCycleController.Level> mLevelChanges;
+    private int mNumberOfActiveConnections;
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        protected void starting(Description description) {
+            Log.i(mTag, "Starting test: " + description.getMethodName());
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        mScheduler = new VirtualTimeScheduler();
+        mLevelChanges = new ArrayList<BleDutyCycleController.Level>();
+        mNumberOfActiveConnections = 0;
+        mBleDutyCycleController = new BleDutyCycleController(mScheduler, new BleDutyCycleController.Listener() {
+            @Override
+            public int getNumberOfActiveConnections() {
+                return mNumberOfActiveConnections;
+            }
+
+            @Override
+            public void onDutyCycleLevelChanged(BleDutyCycleController.Level level) {
+                mLevelChanges.add(level);
+            }
+        });
+    }
+
+    /**
+     * Transfers the given number of bytes per second for the given number of seconds in chunks
+     * every 100 ms.
+     */
+    private void transfer(int numberOfBytesPerSecond, int numberOfSeconds) {
+        for (int i = 0; i < numberOfSeconds * 10; i++) {
+            mBleDutyCycleController.onDataTransferred(numberOfBytesPerSecond / 10);
+            mScheduler.advanceBy(100);
+        }
+    }
+
+    @Test
+    public void testResolveLevel() throws Exception {
+        assertThat("Idle link", BleDutyCycleController.resolveLevel(0, 0, 0, 1),
+            is(equalTo(BleDutyCycleController.Level.DISCOVERY)));
+        assertThat("Idle connection", BleDutyCycleController.resolveLevel(0, 1, 0, 1),
+            is(equalTo(BleDutyCycleController.Level.BALANCED)));
+        assertThat("Moderate transfer", BleDutyCycleController.resolveLevel(
+            BleDutyCycleController.LOW_POWER_THROUGHPUT_IN_BYTES_PER_SECOND, 1, 0, 1),
+            is(equalTo(BleDutyCycleController.Level.LOW_POWER)));
+        assertThat("Bulk transfer", BleDutyCycleController.resolveLevel(
+            BleDutyCycleController.SCANNING_PAUSED_THROUGHPUT_IN_BYTES_PER_SECOND, 1, 0, 1),
+            is(equalTo(BleDutyCycleController.Level.SCANNING_PAUSED)));
+        assertThat("Bulk transfer while peers are appearing keeps scanning", BleDutyCycleController.resolveLevel(
+            BleDutyCycleController.SCANNING_PAUSED_THROUGHPUT_IN_BYTES_PER_SECOND, 1,
+            BleDutyCycleController.FRESH_DISCOVERY_EVENTS_PER_EVALUATION, 1),
+            is(equalTo(BleDutyCycleController.Level.LOW_POWER)));
+        assertThat("The exit thresholds are lower", BleDutyCycleController.resolveLevel(
+            BleDutyCycleController.LOW_POWER_THROUGHPUT_IN_BYTES_PER_SECOND / 2, 0, 0, 2),
+            is(equalTo(BleDutyCycleController.Level.LOW_POWER)));
+    }
+
+    @Test
+    public void testBulkTransferPausesScanningRightAway() throws Exception {
+        transfer(1024 * 1024, 2);
+
+        assertThat("The first evaluation moves to the lowest level", mLevelChanges.get(0),
+            is(equalTo(BleDutyCycleController.Level.SCANNING_PAUSED)));
+        assertThat("The level is not changed while the transfer goes on", mLevelChanges.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testDiscoveryIsRaisedOneLevelAtATimeWithHysteresis() throws Exception {
+        transfer(1024 * 1024, 3);
+        mLevelChanges.clear();
+
+        // A transfer with short pauses does not raise the level
+        for (int i = 0; i < 5; i++) {
+            mScheduler.advanceBy(BleDutyCycleController.EVALUATION_INTERVAL_IN_MILLISECONDS);
+            transfer(1024 * 1024, 1);
+        }
+
+        assertThat("The level does not flap during a transfer with pauses", mLevelChanges.isEmpty(), is(true));
+
+        assertThat("Everything is back to full discovery once idle", mScheduler.advanceUntilIdle(120000), is(true));
+        assertThat("The level is raised one level at a time", mLevelChanges.toString(), is(equalTo(
+            "[" + BleDutyCycleController.Level.LOW_POWER + ", " + BleDutyCycleController.Level.BALANCED
+                + ", " + BleDutyCycleController.Level.DISCOVERY + "]")));
+        assertThat("The evaluation has stopped", mBleDutyCycleController.isEvaluating(), is(false));
+    }
+
+    @Test
+    public void testActiveConnectionKeepsTheBalancedLevel() throws Exception {
+        mNumberOfActiveConnections = 1;
+        mBleDutyCycleController.startEvaluating();
+        mScheduler.advanceBy(BleDutyCycleController.EVALUATION_INTERVAL_IN_MILLISECONDS * 30);
+
+        assertThat("An idle connection lowers the discovery a bit", mBleDutyCycleController.getLevel(),
+            is(equalTo(BleDutyCycleController.Level.BALANCED)));
+        assertThat("The connection is evaluated as long as it exists", mBleDutyCycleController.isEvaluating(),
+            is(true));
+
+        mNumberOfActiveConnections = 0;
+        mScheduler.advanceUntilIdle(60000);
+
+        assertThat("Full discovery once the connection is gone", mBleDutyCycleController.getLevel(),
+            is(equalTo(BleDutyCycleController.Level.DISCOVERY)));
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        transfer(1024 * 1024, 2);
+        mBleDutyCycleController.reset();
+
+        assertThat("The level is reset", mBleDutyCycleController.getLevel(),
+            is(equalTo(BleDutyCycleController.Level.DISCOVERY)));
+        assertThat("Nothing is evaluated after the reset", mScheduler.getNumberOfPendingTasks(), is(equalTo(0)));
+    }
+}
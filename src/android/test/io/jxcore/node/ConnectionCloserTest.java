@@ -0,0 +1,227 @@
+package io.jxcore.node;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.thaliproject.p2p.btconnectorlib.PeerProperties;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ConnectionCloserTest {
+
+    private static final long DEADLINE_IN_MILLISECONDS = 1000;
+    private static final long WAIT_TIMEOUT_IN_MILLISECONDS = 5000;
+    private static final long MAXIMUM_CALLER_BLOCKING_TIME_IN_MILLISECONDS = 500;
+
+    private final static String mTag = ConnectionCloserTest.class.getName();
+    private VirtualTimeScheduler mVirtualTimeScheduler;
+    private ConnectionModel mConnectionModel;
+    private CountDownLatch mReleaseLatch;
+    private final AtomicReference<ConnectionCloser.TeardownReport> mTeardownReport =
+        new AtomicReference<ConnectionCloser.TeardownReport>();
+    private final CountDownLatch mTeardownReportLatch = new CountDownLatch(1);
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        protected void starting(Description description) {
+            Log.i(mTag, "Starting test: " + description.getMethodName());
+        }
+    };
+
+    /**
+     * A socket thread, which blocks in close like BluetoothSocket.close() can.
+     */
+    private static class SlowClosingSocketThread extends IncomingSocketThreadMock {
+        private final CountDownLatch mReleaseLatch;
+        private final CountDownLatch mEnteredLatch;
+        private final CountDownLatch mClosedLatch;
+
+        SlowClosingSocketThread(long id, CountDownLatch releaseLatch, CountDownLatch enteredLatch,
+                                CountDownLatch closedLatch) throws IOException {
+            super(null, new ListenerMock(), new InputStreamMock(), new OutputStreamMock());
+            setPeerProperties(new PeerProperties(String.format("00:00:00:00:01:%02X", id)));
+            threadId = id;
+            mReleaseLatch = releaseLatch;
+            mEnteredLatch = enteredLatch;
+            mClosedLatch = closedLatch;
+        }
+
+        @Override
+        public void close() {
+            mEnteredLatch.countDown();
+
+            try {
+                mReleaseLatch.await(WAIT_TIMEOUT_IN_MILLISECONDS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            super.close();
+            mClosedLatch.countDown();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mVirtualTimeScheduler = new VirtualTimeScheduler();
+        mReleaseLatch = new CountDownLatch(1);
+        ConnectionCloser connectionCloser = new ConnectionCloser(
+            ConnectionExecutors.getCloserExecutor(), mVirtualTimeScheduler, DEADLINE_IN_MILLISECONDS);
+
+        connectionCloser.setListener(new ConnectionCloser.Listener() {
+            @Override
+            public void onTeardownFinished(ConnectionCloser.TeardownReport report) {
+                mTeardownReport.set(report);
+                mTeardownReportLatch.countDown();
+            }
+        });
+
+        mConnectionModel = new ConnectionModel(connectionCloser);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mReleaseLatch.countDown();
+    }
+
+    @Test
+    public void testTeardownDoesNotBlockTheCaller() throws Exception {
+        int numberOfConnections = 3;
+        CountDownLatch closedLatch = new CountDownLatch(numberOfConnections);
+        addSlowClosingConnections(numberOfConnections, mReleaseLatch, closedLatch);
+
+        long startTime = System.nanoTime();
+        int numberOfConnectionsClosed = mConnectionModel.closeAndRemoveAllIncomingConnections();
+        long callerBlockingTimeInMilliseconds = (System.nanoTime() - startTime) / 1000000;
+
+        assertThat("The caller is not blocked by the closes (" + callerBlockingTimeInMilliseconds + " ms)",
+            callerBlockingTimeInMilliseconds < MAXIMUM_CALLER_BLOCKING_TIME_IN_MILLISECONDS, is(true));
+        assertThat("All the connections are handed to the closer",
+            numberOfConnectionsClosed, is(equalTo(numberOfConnections)));
+        assertThat("The connections are removed from the model right away",
+            mConnectionModel.getNumberOfCurrentIncomingConnections(), is(equalTo(0)));
+        assertThat("The teardown is not reported before the closes finish",
+            mTeardownReport.get() == null, is(true));
+
+        mReleaseLatch.countDown();
+
+        assertThat("The connections are closed once released",
+            closedLatch.await(WAIT_TIMEOUT_IN_MILLISECONDS, TimeUnit.MILLISECONDS), is(true));
+        assertThat("The teardown is reported",
+            mTeardownReportLatch.await(WAIT_TIMEOUT_IN_MILLISECONDS, TimeUnit.MILLISECONDS), is(true));
+
+        ConnectionCloser.TeardownReport report = mTeardownReport.get();
+        Log.i(mTag, "testTeardownDoesNotBlockTheCaller: " + report);
+
+        assertThat("The report contains all the connections", report.numberOfConnections,
+            is(equalTo(numberOfConnections)));
+        assertThat("No connection exceeded the deadline", report.isComplete(), is(true));
+        assertThat("The deadline is cancelled", mVirtualTimeScheduler.getNumberOfPendingTasks(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testConnectionsExceedingTheDeadlineAreReported() throws Exception {
+        CountDownLatch closedLatch = new CountDownLatch(2);
+        addSlowClosingConnections(2, new CountDownLatch(0), closedLatch);
+        SlowClosingSocketThread stuckSocketThread = new SlowClosingSocketThread(
+            99, mReleaseLatch, new CountDownLatch(1), new CountDownLatch(1));
+        mConnectionModel.addConnectionThread(stuckSocketThread);
+
+        mConnectionModel.closeAndRemoveAllIncomingConnections();
+
+        assertThat("The connections closing fast are closed",
+            closedLatch.await(WAIT_TIMEOUT_IN_MILLISECONDS, TimeUnit.MILLISECONDS), is(true));
+
+        // Let the closer threads of the fast connections finish, leaving only the stuck one
+        long waitStartTime = System.currentTimeMillis();
+
+        while (ConnectionExecutors.getCloserStatistics().activeCount > 1
+                && System.currentTimeMillis() - waitStartTime < WAIT_TIMEOUT_IN_MILLISECONDS) {
+            Thread.sleep(10);
+        }
+
+        assertThat("The teardown is not reported before the deadline, while a close is pending",
+            mTeardownReport.get() == null, is(true));
+
+        mVirtualTimeScheduler.advanceBy(DEADLINE_IN_MILLISECONDS);
+
+        ConnectionCloser.TeardownReport report = mTeardownReport.get();
+        Log.i(mTag, "testConnectionsExceedingTheDeadlineAreReported: " + report);
+
+        assertThat("The teardown is reported at the deadline", report, is(notNullValue()));
+        assertThat("The report contains all the connections", report.numberOfConnections, is(equalTo(3)));
+        assertThat("The duration is the deadline", report.durationInMilliseconds,
+            is(equalTo(DEADLINE_IN_MILLISECONDS)));
+        assertThat("The stuck connection exceeded the deadline", report.connectionsExceedingDeadline.size(),
+            is(equalTo(1)));
+        assertThat("The stuck connection is identified in the report",
+            report.connectionsExceedingDeadline.get(0).contains(stuckSocketThread.getPeerProperties().toString()),
+            is(true));
+    }
+
+    @Test
+    public void testConnectionsAreClosedInParallel() throws Exception {
+        int numberOfConnections = 4;
+        final CountDownLatch enteredLatch = new CountDownLatch(numberOfConnections);
+        CountDownLatch closedLatch = new CountDownLatch(numberOfConnections);
+
+        for (int i = 0; i < numberOfConnections; i++) {
+            // Each close waits for all the closes to have started, which only happens, if they
+            // run in parallel
+            mConnectionModel.addConnectionThread(new SlowClosingSocketThread(
+                i + 1, enteredLatch, enteredLatch, closedLatch));
+        }
+
+        mConnectionModel.closeAndRemoveAllIncomingConnections();
+
+        assertThat("All the closes are started without waiting for the others to finish",
+            enteredLatch.await(WAIT_TIMEOUT_IN_MILLISECONDS, TimeUnit.MILLISECONDS), is(true));
+        assertThat("All the connections are closed",
+            closedLatch.await(WAIT_TIMEOUT_IN_MILLISECONDS, TimeUnit.MILLISECONDS), is(true));
+        assertThat("The teardown is reported",
+            mTeardownReportLatch.await(WAIT_TIMEOUT_IN_MILLISECONDS, TimeUnit.MILLISECONDS), is(true));
+        assertThat("No connection exceeded the deadline", mTeardownReport.get().isComplete(), is(true));
+    }
+
+    @Test
+    public void testOutgoingConnectionsAreRemovedWithTheirCallbacks() throws Exception {
+        OutgoingSocketThreadMock outgoingSocketThreadMock = new OutgoingSocketThreadMock(
+            null, new ListenerMock(), new InputStreamMock(), new OutputStreamMock());
+        outgoingSocketThreadMock.setPeerProperties(new PeerProperties("00:00:00:00:02:01"));
+        mConnectionModel.addConnectionThread(outgoingSocketThreadMock);
+        mConnectionModel.addOutgoingConnectionCallback("00:00:00:00:02:01", new JXcoreThaliCallbackMock());
+
+        mConnectionModel.closeAndRemoveAllOutgoingConnections();
+
+        assertThat("The connection is removed right away",
+            mConnectionModel.getNumberOfCurrentOutgoingConnections(), is(equalTo(0)));
+        assertThat("The callback is removed right away",
+            mConnectionModel.getOutgoingConnectionCallbackByBluetoothMacAddress("00:00:00:00:02:01") == null, is(true));
+        assertThat("The teardown is reported",
+            mTeardownReportLatch.await(WAIT_TIMEOUT_IN_MILLISECONDS, TimeUnit.MILLISECONDS), is(true));
+        assertThat("The connection is closed", outgoingSocketThreadMock.closeCalled, is(true));
+    }
+
+    private void addSlowClosingConnections(
+            int numberOfConnections, CountDownLatch releaseLatch, CountDownLatch closedLatch)
+            throws IOException {
+        for (int i = 0; i < numberOfConnections; i++) {
+            mConnectionModel.addConnectionThread(new SlowClosingSocketThread(
+                i + 1, releaseLatch, new CountDownLatch(1), closedLatch));
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package io.jxcore.node;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.thaliproject.p2p.btconnectorlib.PeerProperties;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ConnectionExecutorsTest {
+
+    private static final int NUMBER_OF_SEQUENTIAL_COPIES = 200;
+    private static final int MAXIMUM_NUMBER_OF_DATA_THREADS_FOR_SATURATION = 4;
+    // The most the default pools serve, more than the former bounds of 40 control and 80 data threads
+    private static final int NUMBER_OF_CONCURRENT_CONNECTIONS =
+        ConnectionExecutors.MAXIMUM_NUMBER_OF_CONNECTIONS_SERVED;
+    private static final long JOIN_TIMEOUT_IN_MILLISECONDS = 5000;
+    private static final byte[] DATA = new byte[1024 * 16];
+
+    private final static String mTag = ConnectionExecutorsTest.class.getName();
+    private int mOriginalMaximumNumberOfControlThreads;
+    private int mOriginalMaximumNumberOfDataThreads;
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        protected void starting(Description description) {
+            Log.i(mTag, "Starting test: " + description.getMethodName());
+        }
+    };
+
+    /**
+     * Blocks in read until released.
+     */
+    private static class BlockingInputStream extends InputStream {
+        private final CountDownLatch mReleaseLatch;
+
+        BlockingInputStream(CountDownLatch releaseLatch) {
+            mReleaseLatch = releaseLatch;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                mReleaseLatch.await();
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted");
+            }
+
+            return -1;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mOriginalMaximumNumberOfControlThreads = ConnectionExecutors.getControlExecutor().getMaximumPoolSize();
+        mOriginalMaximumNumberOfDataThreads = ConnectionExecutors.getDataExecutor().getMaximumPoolSize();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ConnectionExecutors.setMaximumNumberOfThreads(
+            mOriginalMaximumNumberOfControlThreads, mOriginalMaximumNumberOfDataThreads);
+    }
+
+    @Test
+    public void testSequentialCopiesReuseThreads() throws Exception {
+        int largestPoolSizeBefore = ConnectionExecutors.getDataStatistics().largestPoolSize;
+        final List<String> threadNames = new ArrayList<String>();
+        ListenerMock threadNameRecordingListener = new ListenerMock() {
+            @Override
+            public void onDataTransferred(int numberOfBytes) {
+                synchronized (threadNames) {
+                    if (!threadNames.contains(Thread.currentThread().getName())) {
+                        threadNames.add(Thread.currentThread().getName());
+                    }
+                }
+            }
+        };
+
+        for (int i = 0; i < NUMBER_OF_SEQUENTIAL_COPIES; i++) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            StreamCopyingThread streamCopyingThread = new StreamCopyingThread(
+                new SocketThreadBaseMock(null, threadNameRecordingListener, new InputStreamMock(), new OutputStreamMock()),
+                new ByteArrayInputStream(DATA), outputStream, "ExecutorTest",
+                new ConnectionData(new PeerProperties("00:00:00:00:00:05"), true), true);
+            streamCopyingThread.setNotifyStreamCopyingProgress(true);
+            streamCopyingThread.start();
+
+            assertThat("The copy finishes", streamCopyingThread.join(JOIN_TIMEOUT_IN_MILLISECONDS), is(true));
+            assertThat("The thread is not alive after finishing", streamCopyingThread.isAlive(), is(false));
+            assertThat("All the data is copied", outputStream.size(), is(equalTo(DATA.length)));
+        }
+
+        ConnectionExecutors.Statistics statistics = ConnectionExecutors.getDataStatistics();
+        Log.i(mTag, "testSequentialCopiesReuseThreads: " + statistics + ", threads used: " + threadNames);
+
+        assertThat("The copies are run on the data executor threads: " + threadNames,
+            threadNames.size() > 0 && threadNames.get(0).startsWith("Thali/Data-"), is(true));
+        assertThat("The sequential copies reuse the pool threads instead of creating a thread per copy",
+            threadNames.size() < NUMBER_OF_SEQUENTIAL_COPIES / 10, is(true));
+        assertThat("The pool does not grow for sequential copies",
+            statistics.largestPoolSize <= Math.max(largestPoolSizeBefore, threadNames.size()), is(true));
+    }
+
+    @Test
+    public void testSaturationIsRejectedAndCounted() throws Exception {
+        ConnectionExecutors.setMaximumNumberOfThreads(
+            mOriginalMaximumNumberOfControlThreads, MAXIMUM_NUMBER_OF_DATA_THREADS_FOR_SATURATION);
+        long rejectedTaskCountBefore = ConnectionExecutors.getDataStatistics().rejectedTaskCount;
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+        List<StreamCopyingThread> streamCopyingThreads = new ArrayList<StreamCopyingThread>();
+        int numberOfRejections = 0;
+
+        try {
+            // The tasks of the other tests may still occupy threads, so start until rejected
+            for (int i = 0; i < MAXIMUM_NUMBER_OF_DATA_THREADS_FOR_SATURATION + 1; i++) {
+                StreamCopyingThread streamCopyingThread = new StreamCopyingThread(
+                    new SocketThreadBaseMock(null, new ListenerMock(), new InputStreamMock(), new OutputStreamMock()),
+                    new BlockingInputStream(releaseLatch), new ByteArrayOutputStream(), "SaturationTest",
+                    new ConnectionData(new PeerProperties("00:00:00:00:00:06"), true), true);
+
+                try {
+                    streamCopyingThread.start();
+                    streamCopyingThreads.add(streamCopyingThread);
+                } catch (RejectedExecutionException e) {
+                    numberOfRejections++;
+                    assertThat("A rejected thread is not alive", streamCopyingThread.isAlive(), is(false));
+                }
+            }
+
+            ConnectionExecutors.Statistics statistics = ConnectionExecutors.getDataStatistics();
+            Log.i(mTag, "testSaturationIsRejectedAndCounted: " + statistics);
+
+            assertThat("The task exceeding the maximum is rejected", numberOfRejections > 0, is(true));
+            assertThat("The rejections are counted", statistics.rejectedTaskCount - rejectedTaskCountBefore,
+                is(equalTo((long) numberOfRejections)));
+            assertThat("The pool is saturated", statistics.poolSize,
+                is(equalTo(MAXIMUM_NUMBER_OF_DATA_THREADS_FOR_SATURATION)));
+        } finally {
+            releaseLatch.countDown();
+
+            for (StreamCopyingThread streamCopyingThread : streamCopyingThreads) {
+                assertThat("The blocked copy finishes once released",
+                    streamCopyingThread.join(JOIN_TIMEOUT_IN_MILLISECONDS), is(true));
+            }
+        }
+    }
+
+    @Test
+    public void testDefaultPoolsTakeTheConnectionsServedAndRejectBeyond() throws Exception {
+        ConnectionExecutors.setMaximumNumberOfThreads(ConnectionExecutors.DEFAULT_MAXIMUM_NUMBER_OF_CONTROL_THREADS,
+            ConnectionExecutors.DEFAULT_MAXIMUM_NUMBER_OF_DATA_THREADS);
+        final CountDownLatch releaseLatch = new CountDownLatch(1);
+        List<StreamCopyingThread> streamCopyingThreads = new ArrayList<StreamCopyingThread>();
+        long rejectedControlTaskCountBefore = ConnectionExecutors.getControlStatistics().rejectedTaskCount;
+        long rejectedDataTaskCountBefore = ConnectionExecutors.getDataStatistics().rejectedTaskCount;
+
+        try {
+            // One socket thread and two stream copying threads per connection
+            for (int i = 0; i < NUMBER_OF_CONCURRENT_CONNECTIONS; i++) {
+                ConnectionExecutors.getControlExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            releaseLatch.await();
+                        } catch (InterruptedException e) {
+                            Log.e(mTag, "Interrupted");
+                        }
+                    }
+                });
+
+                for (int j = 0; j < 2; j++) {
+                    StreamCopyingThread streamCopyingThread = new StreamCopyingThread(
+                        new SocketThreadBaseMock(null, new ListenerMock(), new InputStreamMock(), new OutputStreamMock()),
+                        new BlockingInputStream(releaseLatch), new ByteArrayOutputStream(), "ConcurrencyTest",
+                        new ConnectionData(new PeerProperties("00:00:00:00:00:08"), true), true);
+                    streamCopyingThread.start();
+                    streamCopyingThreads.add(streamCopyingThread);
+                }
+            }
+
+            Log.i(mTag, "testDefaultPoolsTakeTheConnectionsServedAndRejectBeyond: "
+                + ConnectionExecutors.getControlStatistics() + ", " + ConnectionExecutors.getDataStatistics());
+
+            assertThat("No socket thread is rejected", ConnectionExecutors.getControlStatistics().rejectedTaskCount,
+                is(equalTo(rejectedControlTaskCountBefore)));
+            assertThat("No stream copying thread is rejected", ConnectionExecutors.getDataStatistics().rejectedTaskCount,
+                is(equalTo(rejectedDataTaskCountBefore)));
+            assertThat("The connections are served concurrently",
+                ConnectionExecutors.getDataStatistics().activeCount >= 2 * NUMBER_OF_CONCURRENT_CONNECTIONS, is(true));
+            assertThat("The data pool is saturated by the connections served",
+                ConnectionExecutors.getDataStatistics().getPeakUtilization(), is(equalTo(1d)));
+
+            StreamCopyingThread excessStreamCopyingThread = new StreamCopyingThread(
+                new SocketThreadBaseMock(null, new ListenerMock(), new InputStreamMock(), new OutputStreamMock()),
+                new BlockingInputStream(releaseLatch), new ByteArrayOutputStream(), "ConcurrencyTest",
+                new ConnectionData(new PeerProperties("00:00:00:00:00:09"), true), true);
+            boolean wasRejected = false;
+
+            try {
+                excessStreamCopyingThread.start();
+                streamCopyingThreads.add(excessStreamCopyingThread);
+            } catch (RejectedExecutionException e) {
+                wasRejected = true;
+            }
+
+            assertThat("The connection beyond the ones served is rejected", wasRejected, is(true));
+            assertThat("The rejection is counted", ConnectionExecutors.getDataStatistics().rejectedTaskCount,
+                is(equalTo(rejectedDataTaskCountBefore + 1)));
+        } finally {
+            releaseLatch.countDown();
+
+            for (StreamCopyingThread streamCopyingThread : streamCopyingThreads) {
+                assertThat("The blocked copy finishes once released",
+                    streamCopyingThread.join(JOIN_TIMEOUT_IN_MILLISECONDS), is(true));
+            }
+
+            // Do not leave the idle threads for the other tests, they would not time out soon
+            ConnectionExecutors.setMaximumNumberOfThreads(1, 1);
+            long deadline = System.currentTimeMillis() + JOIN_TIMEOUT_IN_MILLISECONDS;
+
+            while ((ConnectionExecutors.getControlExecutor().getPoolSize() > 1
+                || ConnectionExecutors.getDataExecutor().getPoolSize() > 1)
+                && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    @Test
+    public void testStartTwiceFails() throws Exception {
+        StreamCopyingThread streamCopyingThread = new StreamCopyingThread(
+            new SocketThreadBaseMock(null, new ListenerMock(), new InputStreamMock(), new OutputStreamMock()),
+            new ByteArrayInputStream(DATA), new ByteArrayOutputStream(), "StartTwiceTest",
+            new ConnectionData(new PeerProperties("00:00:00:00:00:07"), true), true);
+        streamCopyingThread.start();
+
+        try {
+            streamCopyingThread.start();
+            assertThat("Starting twice throws", false, is(true));
+        } catch (IllegalThreadStateException e) {
+            // Expected
+        }
+
+        assertThat("The copy finishes", streamCopyingThread.join(JOIN_TIMEOUT_IN_MILLISECONDS), is(true));
+    }
+}
@@ -0,0 +1,110 @@
+package io.jxcore.node;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Drives ConnectionHelper with a swarm of simulated peers (see SimulatedPeerSwarm) through the
+ * full discover, generation change, connect, transfer, disconnect and peer lost cycle. The phase
+ * durations, event rates and resource usage are written to the log.
+ */
+public class ConnectionHelperSwarmTest {
+
+    private static final int NUMBER_OF_PEERS = 50;
+    private static final int NUMBER_OF_OUTGOING_CONNECTIONS = 10;
+    private static final int NUMBER_OF_GENERATION_BUMPS = 5;
+    private static final int NUMBER_OF_BYTES_PER_CONNECTION = 1024 * 64;
+    private static final int CHUNK_SIZE = 1024;
+    private static final long TEARDOWN_TIMEOUT_IN_MILLISECONDS = 10000;
+
+    private final static String mTag = ConnectionHelperSwarmTest.class.getName();
+    private SimulatedPeerSwarm.CountingSurroundingStateObserver mStateObserver;
+    private ConnectionHelper mConnectionHelper;
+    private SimulatedPeerSwarm mSimulatedPeerSwarm;
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        protected void starting(Description description) {
+            Log.i(mTag, "Starting test: " + description.getMethodName());
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        mStateObserver = new SimulatedPeerSwarm.CountingSurroundingStateObserver();
+        mConnectionHelper = new ConnectionHelper(mStateObserver);
+        // Lost peers are notified right away, the hysteresis is covered by PeerLivenessTableTest
+        mConnectionHelper.setPeerLivenessParameters(PeerLivenessTable.DEFAULT_TIME_TO_LIVE_IN_MILLISECONDS, 1);
+        mSimulatedPeerSwarm = new SimulatedPeerSwarm(mConnectionHelper, NUMBER_OF_PEERS);
+        mSimulatedPeerSwarm.startNodeServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mSimulatedPeerSwarm.dispose();
+        mConnectionHelper.killConnections(true);
+        mConnectionHelper.killConnections(false);
+        mConnectionHelper.dispose();
+    }
+
+    @Test
+    public void testFullLifecycle() throws Exception {
+        ResourceSampler.Sample sampleBefore = ResourceSampler.take();
+        List<SimulatedPeerSwarm.VirtualPeer> virtualPeers = mSimulatedPeerSwarm.getVirtualPeers();
+        List<SimulatedPeerSwarm.VirtualPeer> incomingPeers =
+            virtualPeers.subList(NUMBER_OF_OUTGOING_CONNECTIONS, NUMBER_OF_PEERS);
+        List<SimulatedPeerSwarm.VirtualPeer> outgoingPeers =
+            virtualPeers.subList(0, NUMBER_OF_OUTGOING_CONNECTIONS);
+
+        mSimulatedPeerSwarm.discoverAll();
+        mSimulatedPeerSwarm.bumpGenerations(NUMBER_OF_GENERATION_BUMPS);
+
+        assertThat("Every discovery and update is notified", mStateObserver.peerAvailableCount.get(),
+            is(equalTo(NUMBER_OF_PEERS * (NUMBER_OF_GENERATION_BUMPS + 1))));
+
+        mSimulatedPeerSwarm.connectIncoming(incomingPeers);
+        mSimulatedPeerSwarm.connectOutgoing(outgoingPeers);
+
+        assertThat("Every connection is in the model",
+            mConnectionHelper.getConnectionModel().getNumberOfCurrentConnections(), is(equalTo(NUMBER_OF_PEERS)));
+
+        ResourceSampler.Sample sampleConnected = ResourceSampler.take();
+
+        mSimulatedPeerSwarm.transfer(incomingPeers, NUMBER_OF_BYTES_PER_CONNECTION, CHUNK_SIZE);
+        mSimulatedPeerSwarm.transfer(outgoingPeers, NUMBER_OF_BYTES_PER_CONNECTION, CHUNK_SIZE);
+
+        assertThat("All the data is echoed back", mSimulatedPeerSwarm.getNumberOfBytesTransferred(),
+            is(equalTo(2L * NUMBER_OF_PEERS * NUMBER_OF_BYTES_PER_CONNECTION)));
+
+        mSimulatedPeerSwarm.disconnect(virtualPeers);
+
+        assertThat("All the connections are torn down",
+            mSimulatedPeerSwarm.waitForAllConnectionsClosed(TEARDOWN_TIMEOUT_IN_MILLISECONDS), is(true));
+
+        mSimulatedPeerSwarm.loseAll();
+
+        assertThat("Every lost peer is notified", mStateObserver.peerUnavailableCount.get(),
+            is(equalTo(NUMBER_OF_PEERS)));
+        assertThat("No incoming connection failed to connect to the Node server",
+            mStateObserver.incomingConnectionFailedCount.get(), is(equalTo(0)));
+
+        ResourceSampler.Sample sampleAfter = ResourceSampler.take();
+
+        Log.i(mTag, "testFullLifecycle: " + mSimulatedPeerSwarm.getStatistics());
+        Log.i(mTag, "testFullLifecycle: Resources before: " + sampleBefore
+            + "; connected: " + sampleConnected + "; after: " + sampleAfter);
+    }
+}
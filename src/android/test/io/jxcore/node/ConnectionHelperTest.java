@@ -2,7 +2,6 @@ package io.jxcore.node;
 
 import android.bluetooth.BluetoothAdapter;
 import android.content.Context;
-import android.os.CountDownTimer;
 import android.util.Log;
 
 import com.test.thalitest.ThaliTestRunner;
@@ -143,6 +142,16 @@ public class ConnectionHelperTest {
             public void notifyIncomingConnectionToPortNumberFailed(int portNumber) {
 
             }
+
+            @Override
+            public void notifyMultiConnectResolved(String syncValue, String errorMessage, int listeningPortNumber) {
+
+            }
+
+            @Override
+            public void notifyMultiConnectConnectionFailure(String peerId, String errorMessage) {
+
+            }
         });
         isBLESupported = mConnectionHelper.getDiscoveryManager().isBleMultipleAdvertisementSupported();
         mStartStopOperatonHandler = getStartStopOperationHadler();
@@ -262,19 +271,16 @@ public class ConnectionHelperTest {
         }
 
         Field fServerPortNumber = mConnectionHelper.getClass().getDeclaredField("mServerPortNumber");
-        Field fPowerUpBleDiscoveryTimer = mConnectionHelper.getClass()
-            .getDeclaredField("mPowerUpBleDiscoveryTimer");
 
         fServerPortNumber.setAccessible(true);
-        fPowerUpBleDiscoveryTimer.setAccessible(true);
 
         int serverPortNumber = fServerPortNumber.getInt(mConnectionHelper);
-        CountDownTimer powerUpBleDiscoveryTimer = (CountDownTimer) fPowerUpBleDiscoveryTimer.
-            get(mConnectionHelper);
+        BleDutyCycleController.Level bleDutyCycleLevel = mConnectionHelper.getBleDutyCycleController().getLevel();
         StartStopOperationHandler startStopOperationHandler = getStartStopOperationHadler();
 
         assertThat("Port number has a proper value", serverPortNumber, is(equalTo(1111)));
-        assertThat("CountDownTimer is null value", powerUpBleDiscoveryTimer, is(nullValue()));
+        assertThat("BLE discovery is at full power", bleDutyCycleLevel,
+            is(equalTo(BleDutyCycleController.Level.DISCOVERY)));
         assertThat("StartStopOperation handler is not null value", startStopOperationHandler,
             is(notNullValue()));
 
@@ -294,12 +300,13 @@ public class ConnectionHelperTest {
         }
 
         serverPortNumber = fServerPortNumber.getInt(mConnectionHelper);
-        powerUpBleDiscoveryTimer = (CountDownTimer) fPowerUpBleDiscoveryTimer.get(mConnectionHelper);
+        bleDutyCycleLevel = mConnectionHelper.getBleDutyCycleController().getLevel();
         startStopOperationHandler = getStartStopOperationHadler();
 
         assertThat("Port number has a proper value, not changed because -1111 < 0", serverPortNumber,
             is(equalTo(1111)));
-        assertThat("CountDownTimer is null value", powerUpBleDiscoveryTimer, is(nullValue()));
+        assertThat("BLE discovery is at full power", bleDutyCycleLevel,
+            is(equalTo(BleDutyCycleController.Level.DISCOVERY)));
         assertThat("StartStopOperation handler is not null value",
             startStopOperationHandler, is(notNullValue()));
         assertThat("DiscoveryManager isRunning should return " + isBLESupported,
@@ -600,16 +607,16 @@ public class ConnectionHelperTest {
         StartStopOperationHandler startStopOperationHandler = getStartStopOperationHadler();
 
         StartStopOperation currentOperation = getCurrentOperation(startStopOperationHandler);
-        CountDownTimer operationTimeoutTimer = getOperationTimeout(startStopOperationHandler);
+        Scheduler.ScheduledTask operationTimeoutTimer = getOperationTimeout(startStopOperationHandler);
         assertThat("CurrentOperation should be null", currentOperation, is(nullValue()));
         assertThat("OperationTimeoutTimer should be null", operationTimeoutTimer, is(nullValue()));
     }
 
-    private CountDownTimer getOperationTimeout(StartStopOperationHandler handler) throws
+    private Scheduler.ScheduledTask getOperationTimeout(StartStopOperationHandler handler) throws
         IllegalAccessException, NoSuchFieldException {
         Field fOperationTimeoutTimer = handler.getClass().getDeclaredField("mOperationTimeoutTimer");
         fOperationTimeoutTimer.setAccessible(true);
-        return (CountDownTimer) fOperationTimeoutTimer.get(handler);
+        return (Scheduler.ScheduledTask) fOperationTimeoutTimer.get(handler);
     }
 
     @Test
@@ -689,7 +696,7 @@ public class ConnectionHelperTest {
 
         StartStopOperation currentOperation = getCurrentOperation(startStopOperationHandler);
 
-        CountDownTimer operationTimeout = getOperationTimeout(startStopOperationHandler);
+        Scheduler.ScheduledTask operationTimeout = getOperationTimeout(startStopOperationHandler);
 
         assertThat("StartStopOperationHandled should not be null",
             startStopOperationHandler, is(notNullValue()));
@@ -768,6 +775,16 @@ public class ConnectionHelperTest {
 
         }
 
+        @Override
+        public void notifyMultiConnectResolved(String syncValue, String errorMessage, int listeningPortNumber) {
+
+        }
+
+        @Override
+        public void notifyMultiConnectConnectionFailure(String peerId, String errorMessage) {
+
+        }
+
         void resetState() {
             networkChangedCalled = false;
         }
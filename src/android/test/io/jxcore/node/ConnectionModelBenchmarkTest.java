@@ -0,0 +1,211 @@
+package io.jxcore.node;
+
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.thaliproject.p2p.btconnectorlib.PeerProperties;
+
+import java.util.Locale;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Microbenchmarks for the control plane bookkeeping done by ConnectionModel on every connect,
+ * peer lost and teardown. The results are written to the log; the assertions only verify that
+ * the model is left in a consistent state after each workload.
+ */
+public class ConnectionModelBenchmarkTest {
+
+    private static final int[] NUMBERS_OF_CONNECTIONS = { 10, 100, 500 };
+    private static final int[] NUMBERS_OF_THREADS = { 1, 4 };
+    private static final int WARM_UP_ITERATIONS = 200;
+    private static final int MEASURED_ITERATIONS = 2000;
+    private static final long FIRST_BENCHMARK_THREAD_ID = 100000L;
+
+    private final static String mTag = ConnectionModelBenchmarkTest.class.getName();
+    private ConnectionModel mConnectionModel;
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        protected void starting(Description description) {
+            Log.i(mTag, "Starting test: " + description.getMethodName());
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        mConnectionModel = new ConnectionModel();
+    }
+
+    @Test
+    public void benchmarkLookups() throws Exception {
+        for (final int numberOfConnections : NUMBERS_OF_CONNECTIONS) {
+            mConnectionModel = new ConnectionModel();
+            populate(mConnectionModel, numberOfConnections);
+
+            for (int numberOfThreads : NUMBERS_OF_THREADS) {
+                MicroBenchmark.run("hasConnection/" + numberOfConnections, numberOfThreads,
+                    WARM_UP_ITERATIONS, MEASURED_ITERATIONS, new MicroBenchmark.Operation() {
+                        @Override
+                        public void run(int threadIndex, int iteration) {
+                            // Every other lookup is a miss to cover the worst case (full scan)
+                            String peerId = (iteration % 2 == 0)
+                                ? createPeerId(iteration % numberOfConnections)
+                                : createPeerId(numberOfConnections + iteration);
+                            mConnectionModel.hasConnection(peerId);
+                        }
+                    });
+
+                MicroBenchmark.run("getOutgoingConnectionCallback/" + numberOfConnections,
+                    numberOfThreads, WARM_UP_ITERATIONS, MEASURED_ITERATIONS,
+                    new MicroBenchmark.Operation() {
+                        @Override
+                        public void run(int threadIndex, int iteration) {
+                            mConnectionModel.getOutgoingConnectionCallbackByBluetoothMacAddress(
+                                createPeerId(iteration % numberOfConnections));
+                        }
+                    });
+            }
+
+            assertThat("The lookups do not modify the model",
+                mConnectionModel.getNumberOfCurrentConnections(), is(equalTo(numberOfConnections * 2)));
+        }
+    }
+
+    @Test
+    public void benchmarkAddAndRemove() throws Exception {
+        for (final int numberOfConnections : NUMBERS_OF_CONNECTIONS) {
+            for (final int numberOfThreads : NUMBERS_OF_THREADS) {
+                mConnectionModel = new ConnectionModel();
+                populate(mConnectionModel, numberOfConnections);
+
+                final IncomingSocketThreadMock[] incomingSocketThreads =
+                    createIncomingSocketThreads(numberOfConnections, numberOfThreads);
+                final OutgoingSocketThreadMock[] outgoingSocketThreads =
+                    createOutgoingSocketThreads(numberOfConnections, numberOfThreads);
+
+                MicroBenchmark.run("addAndRemoveIncoming/" + numberOfConnections, numberOfThreads,
+                    WARM_UP_ITERATIONS, MEASURED_ITERATIONS, new MicroBenchmark.Operation() {
+                        @Override
+                        public void run(int threadIndex, int iteration) {
+                            IncomingSocketThreadMock incomingSocketThread = incomingSocketThreads[threadIndex];
+                            mConnectionModel.addConnectionThread(incomingSocketThread);
+                            mConnectionModel.closeAndRemoveIncomingConnectionThread(incomingSocketThread.getId());
+                        }
+                    });
+
+                MicroBenchmark.run("addAndRemoveOutgoing/" + numberOfConnections, numberOfThreads,
+                    WARM_UP_ITERATIONS, MEASURED_ITERATIONS, new MicroBenchmark.Operation() {
+                        @Override
+                        public void run(int threadIndex, int iteration) {
+                            OutgoingSocketThreadMock outgoingSocketThread = outgoingSocketThreads[threadIndex];
+                            String peerId = outgoingSocketThread.getPeerProperties().getId();
+                            mConnectionModel.addOutgoingConnectionCallback(peerId, new JXcoreThaliCallbackMock());
+                            mConnectionModel.addConnectionThread(outgoingSocketThread);
+                            mConnectionModel.closeAndRemoveOutgoingConnectionThread(peerId);
+                        }
+                    });
+
+                assertThat("Every added connection is removed",
+                    mConnectionModel.getNumberOfCurrentConnections(), is(equalTo(numberOfConnections * 2)));
+            }
+        }
+    }
+
+    @Test
+    public void benchmarkMixedDiscoveryAndTeardown() throws Exception {
+        // Half of the threads emulate the discovery path (peer lost -> hasConnection) and the
+        // other half emulate connections being established and torn down
+        final int numberOfThreads = 4;
+
+        for (final int numberOfConnections : NUMBERS_OF_CONNECTIONS) {
+            mConnectionModel = new ConnectionModel();
+            populate(mConnectionModel, numberOfConnections);
+
+            final IncomingSocketThreadMock[] incomingSocketThreads =
+                createIncomingSocketThreads(numberOfConnections, numberOfThreads);
+
+            MicroBenchmark.run("mixedDiscoveryAndTeardown/" + numberOfConnections, numberOfThreads,
+                WARM_UP_ITERATIONS, MEASURED_ITERATIONS, new MicroBenchmark.Operation() {
+                    @Override
+                    public void run(int threadIndex, int iteration) {
+                        if (threadIndex % 2 == 0) {
+                            mConnectionModel.hasConnection(createPeerId(iteration % (numberOfConnections * 2)));
+                        } else {
+                            IncomingSocketThreadMock incomingSocketThread = incomingSocketThreads[threadIndex];
+                            mConnectionModel.addConnectionThread(incomingSocketThread);
+                            mConnectionModel.closeAndRemoveIncomingConnectionThread(incomingSocketThread.getId());
+                        }
+                    }
+                });
+
+            assertThat("Every added connection is removed",
+                mConnectionModel.getNumberOfCurrentConnections(), is(equalTo(numberOfConnections * 2)));
+        }
+    }
+
+    /**
+     * Adds the given number of both incoming and outgoing connections (and callbacks for the
+     * outgoing ones) to the given model.
+     */
+    private static void populate(ConnectionModel connectionModel, int numberOfConnections) throws Exception {
+        for (int i = 0; i < numberOfConnections; i++) {
+            IncomingSocketThreadMock incomingSocketThread =
+                new IncomingSocketThreadMock(null, new ListenerMock(), new InputStreamMock(), new OutputStreamMock());
+            incomingSocketThread.setPeerProperties(new PeerProperties(createPeerId(i)));
+            incomingSocketThread.threadId = (long) i;
+            connectionModel.addConnectionThread(incomingSocketThread);
+
+            OutgoingSocketThreadMock outgoingSocketThread =
+                new OutgoingSocketThreadMock(null, new ListenerMock(), new InputStreamMock(), new OutputStreamMock());
+            outgoingSocketThread.setPeerProperties(new PeerProperties(createPeerId(i)));
+            outgoingSocketThread.threadId = (long) i;
+            connectionModel.addConnectionThread(outgoingSocketThread);
+            connectionModel.addOutgoingConnectionCallback(createPeerId(i), new JXcoreThaliCallbackMock());
+        }
+    }
+
+    /**
+     * Creates one incoming socket thread per benchmark thread with peer and thread IDs that do not
+     * collide with the ones created by populate().
+     */
+    private static IncomingSocketThreadMock[] createIncomingSocketThreads(
+            int numberOfConnections, int numberOfThreads) throws Exception {
+        IncomingSocketThreadMock[] incomingSocketThreads = new IncomingSocketThreadMock[numberOfThreads];
+
+        for (int i = 0; i < numberOfThreads; i++) {
+            incomingSocketThreads[i] =
+                new IncomingSocketThreadMock(null, new ListenerMock(), new InputStreamMock(), new OutputStreamMock());
+            incomingSocketThreads[i].setPeerProperties(new PeerProperties(createPeerId(numberOfConnections + i)));
+            incomingSocketThreads[i].threadId = FIRST_BENCHMARK_THREAD_ID + i;
+        }
+
+        return incomingSocketThreads;
+    }
+
+    private static OutgoingSocketThreadMock[] createOutgoingSocketThreads(
+            int numberOfConnections, int numberOfThreads) throws Exception {
+        OutgoingSocketThreadMock[] outgoingSocketThreads = new OutgoingSocketThreadMock[numberOfThreads];
+
+        for (int i = 0; i < numberOfThreads; i++) {
+            outgoingSocketThreads[i] =
+                new OutgoingSocketThreadMock(null, new ListenerMock(), new InputStreamMock(), new OutputStreamMock());
+            outgoingSocketThreads[i].setPeerProperties(new PeerProperties(createPeerId(numberOfConnections + i)));
+            outgoingSocketThreads[i].threadId = FIRST_BENCHMARK_THREAD_ID + i;
+        }
+
+        return outgoingSocketThreads;
+    }
+
+    private static String createPeerId(int index) {
+        return String.format(Locale.US, "00:00:00:%02X:%02X:%02X",
+            (index >> 16) & 0xff, (index >> 8) & 0xff, index & 0xff);
+    }
+}
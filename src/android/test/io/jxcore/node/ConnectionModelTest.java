@@ -36,7 +36,7 @@ public class ConnectionModelTest {
     @Before
     public void setUp() throws Exception {
 
-        mConnectionModel = new ConnectionModel();
+        mConnectionModel = new ConnectionModel(new SynchronousConnectionCloser());
         mInputStreamMock = new InputStreamMock();
         mOutputStreamMock = new OutputStreamMock();
         mListenerMock = new ListenerMock();
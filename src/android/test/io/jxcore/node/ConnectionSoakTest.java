@@ -0,0 +1,329 @@
+package io.jxcore.node;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.thaliproject.p2p.btconnectorlib.PeerProperties;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Churns thousands of connections through the socket threads and ConnectionModel, both on the
+ * happy path and on the error paths (aborts from either end, Node server not listening), and
+ * verifies that the threads, file descriptors and heap are released.
+ *
+ * The resources are sampled after every phase. The first phase is a warm-up after which the
+ * sample is used as the baseline; the last sample must not exceed the baseline by more than the
+ * given tolerances.
+ */
+public class ConnectionSoakTest {
+
+    private static final int NUMBER_OF_PHASES = 10;
+    private static final int NUMBER_OF_CYCLES_PER_PHASE = 200;
+    private static final int NUMBER_OF_BYTES_PER_CYCLE = 1024 * 8;
+    private static final int CHUNK_SIZE = 1024;
+    private static final long CYCLE_TIMEOUT_IN_MILLISECONDS = 5000;
+    private static final long POLLING_INTERVAL_IN_MILLISECONDS = 10;
+    private static final int MAXIMUM_THREAD_DRIFT = 5;
+    private static final int MAXIMUM_FILE_DESCRIPTOR_DRIFT = 10;
+    private static final long MAXIMUM_HEAP_DRIFT_IN_BYTES = 1024 * 1024 * 4;
+
+    private final static String mTag = ConnectionSoakTest.class.getName();
+    private ConnectionModel mConnectionModel;
+    private ServerSocket mNodeServerSocket;
+    private Thread mNodeServerThread;
+    private int mClosedPortNumber;
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        protected void starting(Description description) {
+            Log.i(mTag, "Starting test: " + description.getMethodName());
+        }
+    };
+
+    /**
+     * Removes the connection from the model on any terminal event like ConnectionHelper does.
+     */
+    private class SoakListener implements SocketThreadBase.Listener {
+        final CountDownLatch listeningLatch = new CountDownLatch(1);
+        final CountDownLatch terminatedLatch = new CountDownLatch(1);
+        volatile int listeningOnPortNumber = ConnectionHelper.NO_PORT_NUMBER;
+
+        @Override
+        public void onListeningForIncomingConnections(int portNumber) {
+            listeningOnPortNumber = portNumber;
+            listeningLatch.countDown();
+        }
+
+        @Override
+        public void onDataTransferred(int numberOfBytes) {
+        }
+
+        @Override
+        public void onDone(SocketThreadBase who, boolean threadDoneWasSending) {
+            closeAndRemove(who);
+        }
+
+        @Override
+        public void onDisconnected(SocketThreadBase who, String errorMessage) {
+            closeAndRemove(who);
+        }
+
+        @Override
+        public void onDisconnected(SocketThreadBase who, Exception exception) {
+            closeAndRemove(who);
+        }
+
+        @Override
+        public void onTransferError(SocketThreadBase who, String errorMessage) {
+            closeAndRemove(who);
+        }
+
+        private void closeAndRemove(SocketThreadBase who) {
+            if (who instanceof IncomingSocketThread) {
+                mConnectionModel.closeAndRemoveIncomingConnectionThread(who.getId());
+            } else {
+                mConnectionModel.closeAndRemoveOutgoingConnectionThread(who.getPeerProperties().getId());
+            }
+
+            terminatedLatch.countDown();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mConnectionModel = new ConnectionModel();
+        mNodeServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+        mNodeServerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!mNodeServerSocket.isClosed()) {
+                    try {
+                        SimulatedPeerSwarm.startEchoThread(mNodeServerSocket.accept(), "NodeServer/Echo");
+                    } catch (IOException e) {
+                        // The server socket was closed
+                    }
+                }
+            }
+        }, "NodeServer");
+
+        mNodeServerThread.start();
+
+        // Reserve a port number and close it to emulate a Node server that is not listening
+        ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        mClosedPortNumber = serverSocket.getLocalPort();
+        serverSocket.close();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mConnectionModel.closeAndRemoveAllIncomingConnections();
+        mConnectionModel.closeAndRemoveAllOutgoingConnections();
+        mNodeServerSocket.close();
+        mNodeServerThread.join(CYCLE_TIMEOUT_IN_MILLISECONDS);
+    }
+
+    @Test
+    public void testConnectionChurnDoesNotLeakResources() throws Exception {
+        List<ResourceSampler.Sample> samples = new ArrayList<ResourceSampler.Sample>();
+        int cycle = 0;
+
+        for (int phase = 0; phase < NUMBER_OF_PHASES; phase++) {
+            long startTime = System.nanoTime();
+
+            for (int i = 0; i < NUMBER_OF_CYCLES_PER_PHASE; i++, cycle++) {
+                runCycle(cycle);
+            }
+
+            assertThat("No connections are left in the model after phase " + phase,
+                mConnectionModel.getNumberOfCurrentConnections(), is(equalTo(0)));
+
+            ResourceSampler.Sample sample = ResourceSampler.take();
+            samples.add(sample);
+            Log.i(mTag, String.format(Locale.US, "testConnectionChurnDoesNotLeakResources: Phase %d: %.0f ms, %s",
+                phase, (System.nanoTime() - startTime) / 1000000d, sample));
+        }
+
+        // The first phase is the warm-up
+        ResourceSampler.Sample baseline = samples.get(0);
+        ResourceSampler.Sample last = samples.get(samples.size() - 1);
+
+        assertThat("The number of threads does not drift upward: " + baseline + " -> " + last,
+            last.numberOfThreads - baseline.numberOfThreads <= MAXIMUM_THREAD_DRIFT, is(true));
+        assertThat("The number of file descriptors does not drift upward: " + baseline + " -> " + last,
+            last.numberOfFileDescriptors - baseline.numberOfFileDescriptors <= MAXIMUM_FILE_DESCRIPTOR_DRIFT,
+            is(true));
+        assertThat("The used heap does not drift upward: " + baseline + " -> " + last,
+            last.usedHeapInBytes - baseline.usedHeapInBytes <= MAXIMUM_HEAP_DRIFT_IN_BYTES, is(true));
+    }
+
+    /**
+     * Runs a single connect/transfer/teardown cycle. The kind of the cycle, and thus the path
+     * through the socket threads, depends on the cycle number.
+     */
+    private void runCycle(int cycle) throws Exception {
+        PeerProperties peerProperties = new PeerProperties(String.format(Locale.US, "00:00:5F:%02X:%02X:%02X",
+            (cycle >> 16) & 0xff, (cycle >> 8) & 0xff, cycle & 0xff));
+        SoakListener listener = new SoakListener();
+        Socket[] link = SimulatedPeerSwarm.createLinkSocketPair();
+        Socket nodeClientSocket = null;
+
+        try {
+            switch (cycle % 5) {
+                case 0: {
+                    // Incoming connection, the peer transfers data and disconnects
+                    IncomingSocketThread incomingSocketThread = startIncomingSocketThread(
+                        link[0], peerProperties, listener, mNodeServerSocket.getLocalPort());
+                    echo(link[1], NUMBER_OF_BYTES_PER_CYCLE);
+                    SimulatedPeerSwarm.closeSocket(link[1]);
+                    waitForRemoval(incomingSocketThread, listener);
+                    break;
+                }
+                case 1: {
+                    // Outgoing connection, the Node client transfers data and disconnects
+                    SimulatedPeerSwarm.startEchoThread(link[1], "VirtualPeer/Echo");
+                    OutgoingSocketThread outgoingSocketThread =
+                        startOutgoingSocketThread(link[0], peerProperties, listener);
+                    nodeClientSocket = connectNodeClient(listener);
+                    echo(nodeClientSocket, NUMBER_OF_BYTES_PER_CYCLE);
+                    SimulatedPeerSwarm.closeSocket(nodeClientSocket);
+                    waitForRemoval(outgoingSocketThread, listener);
+                    break;
+                }
+                case 2: {
+                    // Incoming connection aborted by us in the middle of a transfer
+                    IncomingSocketThread incomingSocketThread = startIncomingSocketThread(
+                        link[0], peerProperties, listener, mNodeServerSocket.getLocalPort());
+                    echo(link[1], CHUNK_SIZE);
+                    link[1].getOutputStream().write(new byte[CHUNK_SIZE]);
+                    mConnectionModel.closeAndRemoveIncomingConnectionThread(incomingSocketThread.getId());
+                    waitForRemoval(incomingSocketThread, null);
+                    break;
+                }
+                case 3: {
+                    // Outgoing connection aborted by us before the Node client connects
+                    OutgoingSocketThread outgoingSocketThread =
+                        startOutgoingSocketThread(link[0], peerProperties, listener);
+
+                    if (cycle % 2 == 0) {
+                        listener.listeningLatch.await(CYCLE_TIMEOUT_IN_MILLISECONDS, TimeUnit.MILLISECONDS);
+                    }
+
+                    mConnectionModel.closeAndRemoveOutgoingConnectionThread(peerProperties.getId());
+                    waitForRemoval(outgoingSocketThread, null);
+                    break;
+                }
+                default: {
+                    // Incoming connection while the Node server is not listening
+                    IncomingSocketThread incomingSocketThread =
+                        startIncomingSocketThread(link[0], peerProperties, listener, mClosedPortNumber);
+                    waitForRemoval(incomingSocketThread, listener);
+                    break;
+                }
+            }
+        } finally {
+            SimulatedPeerSwarm.closeSocket(nodeClientSocket);
+            SimulatedPeerSwarm.closeSocket(link[1]);
+        }
+    }
+
+    private IncomingSocketThread startIncomingSocketThread(
+            Socket linkSocket, PeerProperties peerProperties, SoakListener listener, int tcpPortNumber)
+            throws IOException {
+        IncomingSocketThread incomingSocketThread = new IncomingSocketThread(null,
+            new ConnectionData(peerProperties, true), listener,
+            linkSocket.getInputStream(), linkSocket.getOutputStream());
+        incomingSocketThread.setPeerProperties(peerProperties);
+        incomingSocketThread.setTcpPortNumber(tcpPortNumber);
+        mConnectionModel.addConnectionThread(incomingSocketThread);
+        incomingSocketThread.start();
+        return incomingSocketThread;
+    }
+
+    private OutgoingSocketThread startOutgoingSocketThread(
+            Socket linkSocket, PeerProperties peerProperties, SoakListener listener) throws IOException {
+        OutgoingSocketThread outgoingSocketThread = new OutgoingSocketThread(null,
+            new ConnectionData(peerProperties, false), listener,
+            linkSocket.getInputStream(), linkSocket.getOutputStream());
+        outgoingSocketThread.setPeerProperties(peerProperties);
+        mConnectionModel.addConnectionThread(outgoingSocketThread);
+        outgoingSocketThread.start();
+        return outgoingSocketThread;
+    }
+
+    private Socket connectNodeClient(SoakListener listener) throws Exception {
+        assertThat("The outgoing connection starts listening",
+            listener.listeningLatch.await(CYCLE_TIMEOUT_IN_MILLISECONDS, TimeUnit.MILLISECONDS), is(true));
+        return new Socket("127.0.0.1", listener.listeningOnPortNumber);
+    }
+
+    /**
+     * Writes the given number of bytes to the socket in chunks and verifies that they are echoed
+     * back.
+     */
+    private static void echo(Socket socket, int numberOfBytes) throws IOException {
+        OutputStream outputStream = socket.getOutputStream();
+        InputStream inputStream = socket.getInputStream();
+        byte[] chunk = new byte[CHUNK_SIZE];
+        byte[] echoedChunk = new byte[CHUNK_SIZE];
+
+        for (int offset = 0; offset < numberOfBytes; offset += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, numberOfBytes - offset);
+
+            for (int i = 0; i < length; i++) {
+                chunk[i] = (byte) (offset + i);
+            }
+
+            outputStream.write(chunk, 0, length);
+            outputStream.flush();
+            SimulatedPeerSwarm.readFully(inputStream, echoedChunk, length);
+
+            for (int i = 0; i < length; i++) {
+                if (echoedChunk[i] != chunk[i]) {
+                    throw new IOException("Echoed data does not match at offset " + (offset + i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until the socket thread is removed from the model (if a listener is given) and until
+     * the thread itself has exited.
+     */
+    private void waitForRemoval(SocketThreadBase socketThread, SoakListener listener) throws Exception {
+        if (listener != null) {
+            assertThat("The connection is torn down in time",
+                listener.terminatedLatch.await(CYCLE_TIMEOUT_IN_MILLISECONDS, TimeUnit.MILLISECONDS), is(true));
+        }
+
+        socketThread.join(CYCLE_TIMEOUT_IN_MILLISECONDS);
+        assertThat("The socket thread exits", socketThread.isAlive(), is(false));
+
+        long deadline = System.currentTimeMillis() + CYCLE_TIMEOUT_IN_MILLISECONDS;
+
+        while (mConnectionModel.getNumberOfCurrentConnections() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(POLLING_INTERVAL_IN_MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package io.jxcore.node;
+
+import android.util.Log;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.thaliproject.p2p.btconnectorlib.PeerProperties;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * High iteration stress tests racing close(), the end of the streams, copy errors and the
+ * ConnectionModel mutations across threads. The tests fail on lost or duplicate notifications,
+ * uncaught exceptions, connections leaked by the model and threads that never exit.
+ */
+public class ConnectionStressTest {
+
+    private static final int NUMBER_OF_ITERATIONS = 1000;
+    private static final int NUMBER_OF_MODEL_THREADS = 4;
+    private static final int NUMBER_OF_MODEL_OPERATIONS_PER_THREAD = 2000;
+    private static final int NUMBER_OF_CLOSING_THREADS = 4;
+    private static final long JOIN_TIMEOUT_IN_MILLISECONDS = 5000;
+    private static final byte[] DATA = new byte[1024 * 16];
+
+    private final static String mTag = ConnectionStressTest.class.getName();
+    private final List<Throwable> mUncaughtExceptions = new CopyOnWriteArrayList<Throwable>();
+
+    private final Thread.UncaughtExceptionHandler mUncaughtExceptionHandler = new Thread.UncaughtExceptionHandler() {
+        @Override
+        public void uncaughtException(Thread thread, Throwable throwable) {
+            Log.e(mTag, "Uncaught exception in thread " + thread.getName() + ": " + throwable.getMessage(), throwable);
+            mUncaughtExceptions.add(throwable);
+        }
+    };
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        protected void starting(Description description) {
+            Log.i(mTag, "Starting test: " + description.getMethodName());
+        }
+    };
+
+    /**
+     * Counts the terminal notifications of a socket thread.
+     */
+    private static class CountingListener extends ListenerMock {
+        final AtomicInteger onDoneCount = new AtomicInteger();
+        final AtomicInteger onTransferErrorCount = new AtomicInteger();
+        final AtomicInteger onDisconnectedCount = new AtomicInteger();
+
+        @Override
+        public void onDone(SocketThreadBase who, boolean threadDoneWasSending) {
+            onDoneCount.incrementAndGet();
+        }
+
+        @Override
+        public void onTransferError(SocketThreadBase who, String errorMessage) {
+            onTransferErrorCount.incrementAndGet();
+        }
+
+        @Override
+        public void onDisconnected(SocketThreadBase who, String errorMessage) {
+            onDisconnectedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Fails after the given number of bytes.
+     */
+    private static class FailingInputStream extends InputStream {
+        private int mNumberOfBytesLeft;
+
+        FailingInputStream(int numberOfBytesBeforeFailure) {
+            mNumberOfBytesLeft = numberOfBytesBeforeFailure;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (mNumberOfBytesLeft == 0) {
+                throw new IOException("Emulated read failure");
+            }
+
+            int numberOfBytesRead = Math.min(count, mNumberOfBytesLeft);
+            mNumberOfBytesLeft -= numberOfBytesRead;
+            return numberOfBytesRead;
+        }
+    }
+
+    /**
+     * Counts how many times the stream is closed.
+     */
+    private static class CountingOutputStream extends ByteArrayOutputStream {
+        final AtomicInteger closeCount = new AtomicInteger();
+
+        @Override
+        public void close() throws IOException {
+            closeCount.incrementAndGet();
+            super.close();
+        }
+    }
+
+    @Test
+    public void testBothStreamsEndingNotifiesExactlyOnce() throws Exception {
+        for (int i = 0; i < NUMBER_OF_ITERATIONS; i++) {
+            CountingListener listener = new CountingListener();
+            SocketThreadBaseMock socketThreadBase = createSocketThreadBase(listener,
+                new ByteArrayInputStream(DATA), new ByteArrayInputStream(DATA));
+
+            socketThreadBase.startStreamCopyingThreads(createConnectionData(i));
+            joinStreamCopyingThreads(socketThreadBase);
+
+            assertThat("onDone is called exactly once in iteration " + i,
+                listener.onDoneCount.get(), is(equalTo(1)));
+            socketThreadBase.close();
+        }
+
+        assertNoUncaughtExceptions();
+    }
+
+    @Test
+    public void testCloseRacingWithEndOfStream() throws Exception {
+        int numberOfDoneNotifications = 0;
+
+        for (int i = 0; i < NUMBER_OF_ITERATIONS; i++) {
+            CountingListener listener = new CountingListener();
+            final SocketThreadBaseMock socketThreadBase = createSocketThreadBase(listener,
+                new ByteArrayInputStream(DATA, 0, i % DATA.length), new ByteArrayInputStream(DATA));
+
+            socketThreadBase.startStreamCopyingThreads(createConnectionData(i));
+            StreamCopyingThread[] streamCopyingThreads = getStreamCopyingThreads(socketThreadBase);
+            raceClose(socketThreadBase, NUMBER_OF_CLOSING_THREADS);
+            join(streamCopyingThreads);
+
+            assertThat("onDone is called at most once in iteration " + i,
+                listener.onDoneCount.get() <= 1, is(true));
+            numberOfDoneNotifications += listener.onDoneCount.get();
+        }
+
+        Log.i(mTag, "testCloseRacingWithEndOfStream: " + numberOfDoneNotifications
+            + " connections completed before close in " + NUMBER_OF_ITERATIONS + " iterations");
+        assertNoUncaughtExceptions();
+    }
+
+    @Test
+    public void testCloseRacingWithCopyError() throws Exception {
+        for (int i = 0; i < NUMBER_OF_ITERATIONS; i++) {
+            CountingListener listener = new CountingListener();
+            SocketThreadBaseMock socketThreadBase = createSocketThreadBase(listener,
+                new FailingInputStream(i % DATA.length), new ByteArrayInputStream(DATA));
+
+            socketThreadBase.startStreamCopyingThreads(createConnectionData(i));
+            StreamCopyingThread[] streamCopyingThreads = getStreamCopyingThreads(socketThreadBase);
+            raceClose(socketThreadBase, NUMBER_OF_CLOSING_THREADS);
+            join(streamCopyingThreads);
+
+            assertThat("onDone is not called, when a copy error occurs, in iteration " + i,
+                listener.onDoneCount.get(), is(equalTo(0)));
+        }
+
+        assertNoUncaughtExceptions();
+    }
+
+    @Test
+    public void testConcurrentCloseClosesStreamsOnce() throws Exception {
+        for (int i = 0; i < NUMBER_OF_ITERATIONS; i++) {
+            CountingOutputStream outputStream = new CountingOutputStream();
+            final StreamCopyingThread streamCopyingThread = new StreamCopyingThread(new NullStreamCopyingListener(),
+                new ByteArrayInputStream(DATA), outputStream, "StressTest", createConnectionData(i), false);
+            final CyclicBarrier barrier = new CyclicBarrier(NUMBER_OF_CLOSING_THREADS);
+            Thread[] closingThreads = new Thread[NUMBER_OF_CLOSING_THREADS];
+
+            for (int j = 0; j < closingThreads.length; j++) {
+                closingThreads[j] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            barrier.await();
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+
+                        streamCopyingThread.close();
+                    }
+                });
+
+                closingThreads[j].setUncaughtExceptionHandler(mUncaughtExceptionHandler);
+                closingThreads[j].start();
+            }
+
+            join(closingThreads);
+
+            assertThat("The output stream is closed exactly once in iteration " + i,
+                outputStream.closeCount.get(), is(equalTo(1)));
+        }
+
+        assertNoUncaughtExceptions();
+    }
+
+    @Test
+    public void testConcurrentModelMutations() throws Exception {
+        final ConnectionModel connectionModel = new ConnectionModel(new SynchronousConnectionCloser());
+        final List<IncomingSocketThreadMock> incomingSocketThreads = new CopyOnWriteArrayList<IncomingSocketThreadMock>();
+        final List<OutgoingSocketThreadMock> outgoingSocketThreads = new CopyOnWriteArrayList<OutgoingSocketThreadMock>();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        Thread[] threads = new Thread[NUMBER_OF_MODEL_THREADS];
+
+        for (int i = 0; i < threads.length; i++) {
+            final int threadIndex = i;
+
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(threadIndex);
+
+                    try {
+                        startLatch.await();
+
+                        for (int j = 0; j < NUMBER_OF_MODEL_OPERATIONS_PER_THREAD; j++) {
+                            String peerId = createPeerId(threadIndex * NUMBER_OF_MODEL_OPERATIONS_PER_THREAD + j);
+
+                            switch (random.nextInt(6)) {
+                                case 0:
+                                case 1: {
+                                    IncomingSocketThreadMock incomingSocketThread = new IncomingSocketThreadMock(
+                                        null, new ListenerMock(), new InputStreamMock(), new OutputStreamMock());
+                                    incomingSocketThread.setPeerProperties(new PeerProperties(peerId));
+                                    incomingSocketThread.threadId = (long) (threadIndex * NUMBER_OF_MODEL_OPERATIONS_PER_THREAD + j);
+                                    incomingSocketThreads.add(incomingSocketThread);
+                                    connectionModel.addConnectionThread(incomingSocketThread);
+                                    break;
+                                }
+                                case 2: {
+                                    OutgoingSocketThreadMock outgoingSocketThread = new OutgoingSocketThreadMock(
+                                        null, new ListenerMock(), new InputStreamMock(), new OutputStreamMock());
+                                    outgoingSocketThread.setPeerProperties(new PeerProperties(peerId));
+                                    outgoingSocketThreads.add(outgoingSocketThread);
+                                    connectionModel.addOutgoingConnectionCallback(peerId, new JXcoreThaliCallbackMock());
+                                    connectionModel.addConnectionThread(outgoingSocketThread);
+                                    break;
+                                }
+                                case 3:
+                                    if (!incomingSocketThreads.isEmpty()) {
+                                        connectionModel.closeAndRemoveIncomingConnectionThread(
+                                            incomingSocketThreads.get(random.nextInt(incomingSocketThreads.size())).getId());
+                                    }
+
+                                    break;
+                                case 4:
+                                    if (!outgoingSocketThreads.isEmpty()) {
+                                        connectionModel.closeAndRemoveOutgoingConnectionThread(
+                                            outgoingSocketThreads.get(random.nextInt(outgoingSocketThreads.size()))
+                                                .getPeerProperties().getId());
+                                    }
+
+                                    break;
+                                default:
+                                    if (random.nextInt(20) == 0) {
+                                        connectionModel.closeAndRemoveAllIncomingConnections();
+                                        connectionModel.closeAndRemoveAllOutgoingConnections();
+                                    } else {
+                                        connectionModel.hasConnection(peerId);
+                                    }
+
+                                    break;
+                            }
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+
+            threads[i].setUncaughtExceptionHandler(mUncaughtExceptionHandler);
+            threads[i].start();
+        }
+
+        startLatch.countDown();
+        join(threads);
+        assertNoUncaughtExceptions();
+
+        // Every thread not in the model anymore must have been closed i.e. the model may not
+        // drop a connection without closing it
+        for (IncomingSocketThreadMock incomingSocketThread : incomingSocketThreads) {
+            assertThat("An incoming connection removed from the model is closed",
+                incomingSocketThread.closeCalled || connectionModel.contains(incomingSocketThread), is(true));
+        }
+
+        for (OutgoingSocketThreadMock outgoingSocketThread : outgoingSocketThreads) {
+            assertThat("An outgoing connection removed from the model is closed",
+                outgoingSocketThread.closeCalled || connectionModel.contains(outgoingSocketThread), is(true));
+        }
+
+        int numberOfConnectionsLeft = connectionModel.getNumberOfCurrentConnections();
+        connectionModel.closeAndRemoveAllIncomingConnections();
+        connectionModel.closeAndRemoveAllOutgoingConnections();
+
+        assertThat("The model is empty after closing everything",
+            connectionModel.getNumberOfCurrentConnections(), is(equalTo(0)));
+        Log.i(mTag, "testConcurrentModelMutations: " + incomingSocketThreads.size() + " incoming and "
+            + outgoingSocketThreads.size() + " outgoing connections added, " + numberOfConnectionsLeft + " left");
+    }
+
+    private static class NullStreamCopyingListener implements StreamCopyingThread.Listener {
+        @Override
+        public void onStreamCopyingThreadDone(StreamCopyingThread who) {
+        }
+
+        @Override
+        public void onStreamCopyError(StreamCopyingThread who, String errorMessage) {
+        }
+
+        @Override
+        public void onStreamCopySucceeded(StreamCopyingThread who, int numberOfBytes) {
+        }
+    }
+
+    private SocketThreadBaseMock createSocketThreadBase(
+            SocketThreadBase.Listener listener, InputStream localInputStream, InputStream bluetoothInputStream)
+            throws IOException {
+        SocketThreadBaseMock socketThreadBase = new SocketThreadBaseMock(null, listener,
+            bluetoothInputStream, new ByteArrayOutputStream());
+        socketThreadBase.setUncaughtExceptionHandler(mUncaughtExceptionHandler);
+        socketThreadBase.mLocalhostSocket = new Socket();
+        socketThreadBase.mLocalInputStream = localInputStream;
+        socketThreadBase.mLocalOutputStream = new ByteArrayOutputStream();
+        return socketThreadBase;
+    }
+
+    private static StreamCopyingThread[] getStreamCopyingThreads(SocketThreadBase socketThreadBase) {
+        synchronized (socketThreadBase) {
+            return new StreamCopyingThread[] { socketThreadBase.mSendingThread, socketThreadBase.mReceivingThread };
+        }
+    }
+
+    private static void joinStreamCopyingThreads(SocketThreadBase socketThreadBase) throws InterruptedException {
+        join(getStreamCopyingThreads(socketThreadBase));
+    }
+
+    /**
+     * Calls close() of the given socket thread from the given number of threads at once.
+     */
+    private void raceClose(final SocketThreadBase socketThreadBase, int numberOfThreads) throws InterruptedException {
+        final CyclicBarrier barrier = new CyclicBarrier(numberOfThreads);
+        Thread[] closingThreads = new Thread[numberOfThreads];
+
+        for (int i = 0; i < numberOfThreads; i++) {
+            closingThreads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        barrier.await();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+
+                    socketThreadBase.close();
+                }
+            });
+
+            closingThreads[i].setUncaughtExceptionHandler(mUncaughtExceptionHandler);
+            closingThreads[i].start();
+        }
+
+        join(closingThreads);
+    }
+
+    private static void join(PooledThread[] pooledThreads) throws InterruptedException {
+        for (PooledThread pooledThread : pooledThreads) {
+            if (pooledThread != null) {
+                assertThat("Thread " + pooledThread.getId() + " exits",
+                    pooledThread.join(JOIN_TIMEOUT_IN_MILLISECONDS), is(true));
+            }
+        }
+    }
+
+    private static void join(Thread[] threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            if (thread != null) {
+                thread.join(JOIN_TIMEOUT_IN_MILLISECONDS);
+                assertThat("Thread " + thread.getName() + " exits", thread.isAlive(), is(false));
+            }
+        }
+    }
+
+    private void assertNoUncaughtExceptions() {
+        assertThat("No uncaught exceptions: " + mUncaughtExceptions, mUncaughtExceptions.isEmpty(), is(true));
+    }
+
+    private static ConnectionData createConnectionData(int index) {
+        return new ConnectionData(new PeerProperties(createPeerId(index)), true);
+    }
+
+    private static String createPeerId(int index) {
+        return String.format(Locale.US, "00:00:60:%02X:%02X:%02X",
+            (index >> 16) & 0xff, (index >> 8) & 0xff, index & 0xff);
+    }
+}
@@ -80,6 +80,16 @@ public class ConnectivityMonitorTest {
             public void notifyIncomingConnectionToPortNumberFailed(int portNumber) {
 
             }
+
+            @Override
+            public void notifyMultiConnectResolved(String syncValue, String errorMessage, int listeningPortNumber) {
+
+            }
+
+            @Override
+            public void notifyMultiConnectConnectionFailure(String peerId, String errorMessage) {
+
+            }
         });
 
         mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
@@ -356,4 +366,35 @@ public class ConnectivityMonitorTest {
         assertThat("Returns proper state of WIFI when switched on",
             mConnectivityMonitor.isWifiEnabled(), is(true));
     }
+
+    @Test
+    public void testBurstOfEventsIsCoalesced() throws Exception {
+        VirtualTimeScheduler virtualTimeScheduler = new VirtualTimeScheduler();
+        ConnectivityMonitor connectivityMonitor = new ConnectivityMonitor(
+            mConnectionHelper.getDiscoveryManager(), new SimulatedPeerSwarm.CountingSurroundingStateObserver(), virtualTimeScheduler);
+        final int numberOfEvents = 20;
+
+        for (int i = 0; i < numberOfEvents; i++) {
+            connectivityMonitor.requestConnectivityInfoUpdate();
+            virtualTimeScheduler.advanceBy(ConnectivityMonitor.DEBOUNCE_WINDOW_IN_MILLISECONDS / numberOfEvents);
+        }
+
+        assertThat("Nothing is evaluated within the window", connectivityMonitor.getNumberOfEvaluations(),
+            is(equalTo(0L)));
+
+        virtualTimeScheduler.advanceBy(ConnectivityMonitor.DEBOUNCE_WINDOW_IN_MILLISECONDS);
+
+        assertThat("Every event is counted", connectivityMonitor.getNumberOfEventsReceived(),
+            is(equalTo((long) numberOfEvents)));
+        assertThat("The burst is evaluated once", connectivityMonitor.getNumberOfEvaluations(),
+            is(equalTo(1L)));
+        assertThat("The burst notifies at most once",
+            connectivityMonitor.getNumberOfNotifications() <= 1, is(true));
+
+        connectivityMonitor.requestConnectivityInfoUpdate();
+        virtualTimeScheduler.advanceBy(ConnectivityMonitor.DEBOUNCE_WINDOW_IN_MILLISECONDS);
+
+        assertThat("An event after the window is evaluated again", connectivityMonitor.getNumberOfEvaluations(),
+            is(equalTo(2L)));
+    }
 }
@@ -0,0 +1,108 @@
+package io.jxcore.node;
+
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class GenerationStatisticsTest {
+
+    private static final String PEER_ID = "00:11:22:33:44:55";
+
+    private final static String mTag = GenerationStatisticsTest.class.getName();
+    private GenerationStatistics mGenerationStatistics;
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        protected void starting(Description description) {
+            Log.i(mTag, "Starting test: " + description.getMethodName());
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        mGenerationStatistics = new GenerationStatistics();
+    }
+
+    @Test
+    public void testLocalUpdatesAreCounted() throws Exception {
+        mGenerationStatistics.recordLocalUpdate(true);
+        mGenerationStatistics.recordLocalUpdate(true);
+        mGenerationStatistics.recordLocalUpdate(false);
+
+        assertThat("The updates while advertising are counted",
+            mGenerationStatistics.getNumberOfLocalUpdatesWhileAdvertising(), is(equalTo(2L)));
+        assertThat("The updates with start are counted",
+            mGenerationStatistics.getNumberOfLocalUpdatesWithStart(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testGenerationChangeWithoutGap() throws Exception {
+        mGenerationStatistics.recordPeerAvailability(PEER_ID, 1, true, 0);
+        mGenerationStatistics.recordPeerAvailability(PEER_ID, 1, true, 100);
+        mGenerationStatistics.recordPeerAvailability(PEER_ID, 2, true, 500);
+
+        assertThat("The change is counted",
+            mGenerationStatistics.getNumberOfPeerGenerationChanges(), is(equalTo(1L)));
+        assertThat("The change was observed without a gap",
+            mGenerationStatistics.getNumberOfPeerGenerationChangesAfterGap(), is(equalTo(0L)));
+        assertThat("No generation was missed",
+            mGenerationStatistics.getNumberOfPeerGenerationsMissed(), is(equalTo(0L)));
+        assertThat("The change is timed from the previous report",
+            mGenerationStatistics.getMaximumObservationDelayInMilliseconds(), is(equalTo(400L)));
+        assertThat("The average delay of all the changes",
+            mGenerationStatistics.getAverageObservationDelayInMilliseconds(), is(equalTo(400L)));
+        assertThat("No delay after a gap",
+            mGenerationStatistics.getMaximumObservationDelayAfterGapInMilliseconds(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void testGenerationChangeAfterGap() throws Exception {
+        mGenerationStatistics.recordPeerAvailability(PEER_ID, 254, true, 0);
+        mGenerationStatistics.recordPeerAvailability(PEER_ID, 254, false, 1000);
+        mGenerationStatistics.recordPeerAvailability(PEER_ID, 254, false, 1500);
+        mGenerationStatistics.recordPeerAvailability(PEER_ID, 1, true, 4000);
+
+        assertThat("The change is counted as observed after a gap",
+            mGenerationStatistics.getNumberOfPeerGenerationChangesAfterGap(), is(equalTo(1L)));
+        assertThat("The delay is measured from the first loss",
+            mGenerationStatistics.getMaximumObservationDelayAfterGapInMilliseconds(), is(equalTo(3000L)));
+        assertThat("The average delay",
+            mGenerationStatistics.getAverageObservationDelayAfterGapInMilliseconds(), is(equalTo(3000L)));
+        assertThat("The change is also timed among all the changes",
+            mGenerationStatistics.getMaximumObservationDelayInMilliseconds(), is(equalTo(3000L)));
+        assertThat("The generations skipped over the wrap around are missed",
+            mGenerationStatistics.getNumberOfPeerGenerationsMissed(), is(equalTo(2L)));
+    }
+
+    @Test
+    public void testRediscoveryWithSameGenerationIsNotAChange() throws Exception {
+        mGenerationStatistics.recordPeerAvailability(PEER_ID, 7, true, 0);
+        mGenerationStatistics.recordPeerAvailability(PEER_ID, 7, false, 1000);
+        mGenerationStatistics.recordPeerAvailability(PEER_ID, 7, true, 2000);
+
+        assertThat("No change is counted",
+            mGenerationStatistics.getNumberOfPeerGenerationChanges(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void testNumberOfPeersTrackedIsBounded() throws Exception {
+        for (int i = 0; i <= GenerationStatistics.MAXIMUM_NUMBER_OF_PEERS_TRACKED; i++) {
+            mGenerationStatistics.recordPeerAvailability("peer" + i, 1, true, i);
+        }
+
+        // The first peer was evicted, so its change is not observed
+        mGenerationStatistics.recordPeerAvailability("peer0", 2, true, 1000);
+
+        assertThat("The evicted peer starts over",
+            mGenerationStatistics.getNumberOfPeerGenerationChanges(), is(equalTo(0L)));
+    }
+}
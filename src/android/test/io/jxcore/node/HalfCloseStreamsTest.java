@@ -0,0 +1,195 @@
+package io.jxcore.node;
+
+import android.util.Log;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.thaliproject.p2p.btconnectorlib.PeerProperties;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class HalfCloseStreamsTest {
+
+    private static final long JOIN_TIMEOUT_IN_MILLISECONDS = 5000;
+    private static final int SOCKET_TIMEOUT_IN_MILLISECONDS = 5000;
+
+    private final static String mTag = HalfCloseStreamsTest.class.getName();
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        protected void starting(Description description) {
+            Log.i(mTag, "Starting test: " + description.getMethodName());
+        }
+    };
+
+    @Test
+    public void testFramedStreamEndsAtTheMarker() throws Exception {
+        byte[] data = createData(HalfCloseStreams.MAXIMUM_FRAME_LENGTH * 2 + 100);
+        final ByteArrayOutputStream link = new ByteArrayOutputStream();
+        OutputStreamMock closeTrackingLink = new OutputStreamMock() {
+            @Override
+            public void write(byte[] buffer, int offset, int count) {
+                link.write(buffer, offset, count);
+            }
+        };
+        HalfCloseStreams.FramingOutputStream framingOutputStream =
+            new HalfCloseStreams.FramingOutputStream(closeTrackingLink);
+
+        framingOutputStream.write(data, 0, 10);
+        framingOutputStream.write(data[10]);
+        framingOutputStream.write(data, 11, data.length - 11);
+        framingOutputStream.shutdownOutput();
+
+        assertThat("Shutting down the output does not close the link", closeTrackingLink.isClosed, is(false));
+
+        // Anything after the marker belongs to the next exchange and is not read
+        link.write(new byte[] { 0, 3, 1, 2, 3 });
+
+        InputStream framingInputStream = new HalfCloseStreams.FramingInputStream(
+            new ByteArrayInputStream(link.toByteArray()));
+
+        assertThat("The data is read up to the marker", readFully(framingInputStream), is(equalTo(data)));
+        assertThat("The end of the stream stays", framingInputStream.read(), is(equalTo(-1)));
+    }
+
+    @Test
+    public void testWriteAfterShutdownFails() throws Exception {
+        HalfCloseStreams.FramingOutputStream framingOutputStream =
+            new HalfCloseStreams.FramingOutputStream(new ByteArrayOutputStream());
+        framingOutputStream.shutdownOutput();
+
+        try {
+            framingOutputStream.write(new byte[1], 0, 1);
+            assertThat("Writing after the marker throws", false, is(true));
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testStreamEndingWithoutTheMarkerEnds() throws Exception {
+        InputStream framingInputStream = new HalfCloseStreams.FramingInputStream(
+            new ByteArrayInputStream(new byte[] { 0, 2, 7, 8 }));
+
+        assertThat("The data is read", readFully(framingInputStream), is(equalTo(new byte[] { 7, 8 })));
+    }
+
+    @Test
+    public void testTruncatedFrameFails() throws Exception {
+        InputStream framingInputStream = new HalfCloseStreams.FramingInputStream(
+            new ByteArrayInputStream(new byte[] { 0, 10, 1, 2, 3 }));
+
+        try {
+            readFully(framingInputStream);
+            assertThat("Reading a truncated frame throws", false, is(true));
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testStreamCopyingThreadHalfClosesTheBluetoothLeg() throws Exception {
+        byte[] request = createData(1000);
+        final ByteArrayOutputStream link = new ByteArrayOutputStream();
+        OutputStreamMock closeTrackingLink = new OutputStreamMock() {
+            @Override
+            public void write(byte[] buffer, int offset, int count) {
+                link.write(buffer, offset, count);
+            }
+        };
+
+        StreamCopyingThread sendingThread = new StreamCopyingThread(
+            new SocketThreadBaseMock(null, new ListenerMock(), new InputStreamMock(), new OutputStreamMock()),
+            new ByteArrayInputStream(request), new HalfCloseStreams.FramingOutputStream(closeTrackingLink),
+            "HalfCloseTest", new ConnectionData(new PeerProperties("00:00:00:00:03:01"), false), false);
+        sendingThread.start();
+
+        assertThat("The copy finishes", sendingThread.join(JOIN_TIMEOUT_IN_MILLISECONDS), is(true));
+        assertThat("The input is done", sendingThread.getIsDone(), is(true));
+        assertThat("The Bluetooth output is not closed so the response can still be received",
+            closeTrackingLink.isClosed, is(false));
+        assertThat("The other end reads the request and the end of the stream",
+            readFully(new HalfCloseStreams.FramingInputStream(new ByteArrayInputStream(link.toByteArray()))),
+            is(equalTo(request)));
+    }
+
+    @Test
+    public void testStreamCopyingThreadHalfClosesTheLocalhostLeg() throws Exception {
+        byte[] request = createData(1000);
+        byte[] response = createData(2000);
+        ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getByName("localhost"));
+        Socket localPeerSocket = null;
+        Socket relaySocket = null;
+
+        try {
+            localPeerSocket = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+            localPeerSocket.setSoTimeout(SOCKET_TIMEOUT_IN_MILLISECONDS);
+            relaySocket = serverSocket.accept();
+            relaySocket.setSoTimeout(SOCKET_TIMEOUT_IN_MILLISECONDS);
+
+            // The request from the Bluetooth leg is relayed to the local peer and ends
+            StreamCopyingThread receivingThread = new StreamCopyingThread(
+                new SocketThreadBaseMock(null, new ListenerMock(), new InputStreamMock(), new OutputStreamMock()),
+                new ByteArrayInputStream(request),
+                new HalfCloseStreams.SocketOutputStream(relaySocket, relaySocket.getOutputStream()),
+                "HalfCloseTest", new ConnectionData(new PeerProperties("00:00:00:00:03:02"), true), true);
+            receivingThread.start();
+
+            assertThat("The copy finishes", receivingThread.join(JOIN_TIMEOUT_IN_MILLISECONDS), is(true));
+            assertThat("The local peer reads the request and the end of the stream",
+                readFully(localPeerSocket.getInputStream()), is(equalTo(request)));
+            assertThat("The localhost socket is not closed", relaySocket.isClosed(), is(false));
+
+            // The response still flows the other way
+            OutputStream localPeerOutputStream = localPeerSocket.getOutputStream();
+            localPeerOutputStream.write(response);
+            localPeerSocket.shutdownOutput();
+
+            assertThat("The response is relayed after the request has ended",
+                readFully(relaySocket.getInputStream()), is(equalTo(response)));
+        } finally {
+            if (localPeerSocket != null) {
+                localPeerSocket.close();
+            }
+
+            if (relaySocket != null) {
+                relaySocket.close();
+            }
+
+            serverSocket.close();
+        }
+    }
+
+    private static byte[] createData(int numberOfBytes) {
+        byte[] data = new byte[numberOfBytes];
+        new Random(numberOfBytes).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int numberOfBytesRead;
+
+        while ((numberOfBytesRead = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, numberOfBytesRead);
+        }
+
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,371 @@
+package io.jxcore.node;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Emulates a slow, bursty and high latency link (e.g. Bluetooth RFCOMM) by shaping the streams
+ * given to the socket threads.
+ *
+ * The data written to a shaped output stream is split into packets of at most MTU bytes. Each
+ * packet is serialized at the configured bandwidth, delayed by the latency (plus jitter) and
+ * occasionally stalled before it is written to the underlying stream by a delivery thread. The
+ * order of the packets is preserved like on a reliable link. The writer is blocked, when the
+ * number of bytes in flight exceeds the send window, which emulates the backpressure of the real
+ * socket.
+ */
+public class LinkEmulator {
+
+    private static final String TAG = LinkEmulator.class.getName();
+    private static final int PIPE_BUFFER_SIZE = 1024 * 64;
+    private static final int PUMP_BUFFER_SIZE = 1024 * 8;
+
+    /**
+     * The properties of the emulated link.
+     */
+    public static class Profile {
+        public final String name;
+        public final long bandwidthInBytesPerSecond;
+        public final long latencyInMilliseconds;
+        public final long jitterInMilliseconds;
+        public final int mtu;
+        public final double stallProbability;
+        public final long stallDurationInMilliseconds;
+        public final int sendWindowInBytes;
+
+        /**
+         * Constructor.
+         *
+         * @param name                        The name of the profile for the logs.
+         * @param bandwidthInBytesPerSecond   The bandwidth cap. If 0 or less, the bandwidth is not limited.
+         * @param latencyInMilliseconds       The one-way latency per packet.
+         * @param jitterInMilliseconds        The maximum random addition to the latency.
+         * @param mtu                         The maximum packet size.
+         * @param stallProbability            The probability (0..1) of a packet being stalled.
+         * @param stallDurationInMilliseconds The duration of a stall.
+         * @param sendWindowInBytes           The maximum number of bytes in flight.
+         */
+        public Profile(String name, long bandwidthInBytesPerSecond, long latencyInMilliseconds,
+                       long jitterInMilliseconds, int mtu, double stallProbability,
+                       long stallDurationInMilliseconds, int sendWindowInBytes) {
+            if (mtu <= 0 || sendWindowInBytes < mtu) {
+                throw new IllegalArgumentException("mtu must be > 0 and sendWindowInBytes at least mtu");
+            }
+
+            this.name = name;
+            this.bandwidthInBytesPerSecond = bandwidthInBytesPerSecond;
+            this.latencyInMilliseconds = latencyInMilliseconds;
+            this.jitterInMilliseconds = jitterInMilliseconds;
+            this.mtu = mtu;
+            this.stallProbability = stallProbability;
+            this.stallDurationInMilliseconds = stallDurationInMilliseconds;
+            this.sendWindowInBytes = sendWindowInBytes;
+        }
+
+        /**
+         * @return A profile resembling an insecure RFCOMM connection between two phones.
+         */
+        public static Profile bluetoothRfcomm() {
+            return new Profile("RFCOMM", 1024 * 160, 20, 15, 990, 0.002, 200, 1024 * 16);
+        }
+
+        /**
+         * @return A profile resembling a congested RFCOMM connection (e.g. Wi-Fi coexistence).
+         */
+        public static Profile congestedBluetoothRfcomm() {
+            return new Profile("Congested RFCOMM", 1024 * 40, 60, 80, 990, 0.02, 500, 1024 * 8);
+        }
+
+        /**
+         * @return A profile, which does not shape the traffic at all, for comparison.
+         */
+        public static Profile unshaped() {
+            return new Profile("Unshaped", 0, 0, 0, 1024 * 64, 0, 0, 1024 * 64);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                "%s [%d B/s, latency %d+%d ms, MTU %d, stalls %.3f x %d ms, window %d]",
+                name, bandwidthInBytesPerSecond, latencyInMilliseconds, jitterInMilliseconds, mtu,
+                stallProbability, stallDurationInMilliseconds, sendWindowInBytes);
+        }
+    }
+
+    private final Profile mProfile;
+    private final Random mRandom;
+
+    /**
+     * Constructor.
+     *
+     * @param profile The link profile.
+     * @param seed    The seed for the jitter and the stalls so that the runs are reproducible.
+     */
+    public LinkEmulator(Profile profile, long seed) {
+        mProfile = profile;
+        mRandom = new Random(seed);
+    }
+
+    public Profile getProfile() {
+        return mProfile;
+    }
+
+    /**
+     * Shapes the data written to the given stream.
+     *
+     * @param outputStream The underlying stream.
+     * @param name         The name of the delivery thread.
+     * @return The shaped stream. Closing it closes the underlying stream, once the data in flight
+     * has been delivered.
+     */
+    public OutputStream shape(OutputStream outputStream, String name) {
+        return new ShapedOutputStream(outputStream, name);
+    }
+
+    /**
+     * Shapes the data read from the given stream.
+     *
+     * @param inputStream The underlying stream.
+     * @param name        The name of the pumping thread.
+     * @return The shaped stream.
+     * @throws IOException If the pipe cannot be created.
+     */
+    public InputStream shape(final InputStream inputStream, final String name) throws IOException {
+        final PipedInputStream pipedInputStream = new PipedInputStream(PIPE_BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inputStream.close();
+            }
+        };
+
+        final OutputStream shapedOutputStream = shape(new PipedOutputStream(pipedInputStream), name + "/Delivery");
+
+        Thread pumpThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[PUMP_BUFFER_SIZE];
+                int numberOfBytesRead;
+
+                try {
+                    while ((numberOfBytesRead = inputStream.read(buffer)) != -1) {
+                        shapedOutputStream.write(buffer, 0, numberOfBytesRead);
+                    }
+                } catch (IOException e) {
+                    Log.d(TAG, "shape: " + name + ": " + e.getMessage());
+                }
+
+                try {
+                    shapedOutputStream.close();
+                } catch (IOException e) {
+                    Log.d(TAG, "shape: " + name + ": Failed to close: " + e.getMessage());
+                }
+            }
+        }, name + "/Pump");
+
+        pumpThread.setDaemon(true);
+        pumpThread.start();
+        return pipedInputStream;
+    }
+
+    /**
+     * @return The time in milliseconds it takes the emulated link to deliver the given number of
+     * bytes without any jitter or stalls. Useful for assertions.
+     */
+    public long getMinimumTransferTimeInMilliseconds(long numberOfBytes) {
+        long serializationTime = mProfile.bandwidthInBytesPerSecond > 0
+            ? numberOfBytes * 1000 / mProfile.bandwidthInBytesPerSecond : 0;
+        return serializationTime + mProfile.latencyInMilliseconds;
+    }
+
+    private synchronized long nextJitterInMilliseconds() {
+        return mProfile.jitterInMilliseconds > 0
+            ? (long) (mRandom.nextDouble() * mProfile.jitterInMilliseconds) : 0;
+    }
+
+    private synchronized boolean nextIsStalled() {
+        return mProfile.stallProbability > 0 && mRandom.nextDouble() < mProfile.stallProbability;
+    }
+
+    private static class Packet {
+        final byte[] data;
+        final long deliveryTimeInNanoseconds;
+
+        Packet(byte[] data, long deliveryTimeInNanoseconds) {
+            this.data = data;
+            this.deliveryTimeInNanoseconds = deliveryTimeInNanoseconds;
+        }
+    }
+
+    private class ShapedOutputStream extends OutputStream {
+        private final OutputStream mOutputStream;
+        private final ArrayDeque<Packet> mPackets = new ArrayDeque<Packet>();
+        private final Thread mDeliveryThread;
+        private long mSerializationDoneTimeInNanoseconds = 0;
+        private long mLastDeliveryTimeInNanoseconds = 0;
+        private int mNumberOfBytesInFlight = 0;
+        private boolean mIsClosed = false;
+        private IOException mDeliveryException = null;
+
+        ShapedOutputStream(OutputStream outputStream, String name) {
+            mOutputStream = outputStream;
+            mDeliveryThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    deliver();
+                }
+            }, name);
+
+            mDeliveryThread.setDaemon(true);
+            mDeliveryThread.start();
+        }
+
+        @Override
+        public void write(int oneByte) throws IOException {
+            write(new byte[] { (byte) oneByte }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            while (count > 0) {
+                int length = Math.min(count, mProfile.mtu);
+                byte[] data = new byte[length];
+                System.arraycopy(buffer, offset, data, 0, length);
+                enqueue(data);
+                offset += length;
+                count -= length;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // The packets are delivered at their own pace, flushing does not speed them up
+            synchronized (this) {
+                throwIfFailedOrClosed();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (this) {
+                if (mIsClosed) {
+                    return;
+                }
+
+                mIsClosed = true;
+                notifyAll();
+            }
+
+            try {
+                mDeliveryThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            mOutputStream.close();
+        }
+
+        private synchronized void enqueue(byte[] data) throws IOException {
+            try {
+                while (mNumberOfBytesInFlight + data.length > mProfile.sendWindowInBytes
+                    && !mIsClosed && mDeliveryException == null) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while waiting for the send window");
+            }
+
+            throwIfFailedOrClosed();
+
+            long now = System.nanoTime();
+            long serializationTime = mProfile.bandwidthInBytesPerSecond > 0
+                ? data.length * 1000000000L / mProfile.bandwidthInBytesPerSecond : 0;
+            mSerializationDoneTimeInNanoseconds =
+                Math.max(now, mSerializationDoneTimeInNanoseconds) + serializationTime;
+
+            if (nextIsStalled()) {
+                mSerializationDoneTimeInNanoseconds += mProfile.stallDurationInMilliseconds * 1000000L;
+            }
+
+            long deliveryTime = mSerializationDoneTimeInNanoseconds
+                + (mProfile.latencyInMilliseconds + nextJitterInMilliseconds()) * 1000000L;
+
+            // The link is reliable and ordered, the jitter must not reorder the packets
+            deliveryTime = Math.max(deliveryTime, mLastDeliveryTimeInNanoseconds);
+            mLastDeliveryTimeInNanoseconds = deliveryTime;
+
+            mPackets.addLast(new Packet(data, deliveryTime));
+            mNumberOfBytesInFlight += data.length;
+            notifyAll();
+        }
+
+        private void throwIfFailedOrClosed() throws IOException {
+            if (mDeliveryException != null) {
+                throw mDeliveryException;
+            }
+
+            if (mIsClosed) {
+                throw new IOException("Stream closed");
+            }
+        }
+
+        private void deliver() {
+            while (true) {
+                Packet packet;
+
+                synchronized (this) {
+                    try {
+                        while (mPackets.isEmpty() && !mIsClosed) {
+                            wait();
+                        }
+
+                        if (mPackets.isEmpty()) {
+                            // Closed and everything delivered
+                            return;
+                        }
+
+                        packet = mPackets.peekFirst();
+                        long waitTime = packet.deliveryTimeInNanoseconds - System.nanoTime();
+
+                        if (waitTime > 0) {
+                            wait(waitTime / 1000000L, (int) (waitTime % 1000000L));
+                            continue;
+                        }
+
+                        mPackets.removeFirst();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+
+                try {
+                    mOutputStream.write(packet.data);
+                    mOutputStream.flush();
+                } catch (IOException e) {
+                    synchronized (this) {
+                        mDeliveryException = e;
+                        mPackets.clear();
+                        mNumberOfBytesInFlight = 0;
+                        notifyAll();
+                    }
+
+                    return;
+                }
+
+                synchronized (this) {
+                    mNumberOfBytesInFlight -= packet.data.length;
+                    notifyAll();
+                }
+            }
+        }
+    }
+}
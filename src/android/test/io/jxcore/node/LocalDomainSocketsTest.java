@@ -0,0 +1,244 @@
+package io.jxcore.node;
+
+import android.net.LocalSocket;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class LocalDomainSocketsTest {
+
+    private static final long JOIN_TIMEOUT_IN_MILLISECONDS = 5000;
+    private static final int BENCHMARK_SIZE_IN_BYTES = 16 * 1024 * 1024;
+    private static final int BUFFER_SIZE_IN_BYTES = SocketThreadBase.STREAM_COPYING_THREAD_BUFFER_SIZE;
+
+    private final static String mTag = LocalDomainSocketsTest.class.getName();
+    private File mSocketDirectory;
+    private String mServerSocketPath;
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        protected void starting(Description description) {
+            Log.i(mTag, "Starting test: " + description.getMethodName());
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        mSocketDirectory = new File(System.getProperty("java.io.tmpdir"),
+            "local-domain-sockets-" + System.currentTimeMillis());
+        assertThat("The socket directory is created", mSocketDirectory.mkdirs(), is(true));
+        mServerSocketPath = new File(mSocketDirectory, "node-server.sock").getPath();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = mSocketDirectory.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        mSocketDirectory.delete();
+    }
+
+    @Test
+    public void testOutgoingSocketIsCreatedNextToTheServerSocket() throws Exception {
+        String path = LocalDomainSockets.createOutgoingSocketPath(mServerSocketPath, 7);
+
+        assertThat("The path is recognized", LocalDomainSockets.isSocketPath(path), is(true));
+        assertThat("The socket is in the directory of the server socket",
+            new File(path).getParentFile(), is(equalTo(mSocketDirectory)));
+        assertThat("A port number is not a path", LocalDomainSockets.isSocketPath("8080"), is(false));
+    }
+
+    @Test
+    public void testDataIsRelayedAndSocketFileRemoved() throws Exception {
+        final LocalDomainSockets.ServerEndpoint serverEndpoint = LocalDomainSockets.listen(mServerSocketPath);
+        final byte[] received = new byte[3];
+        Thread acceptingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    LocalSocket acceptedSocket = serverEndpoint.accept();
+                    readFully(acceptedSocket.getInputStream(), received);
+                    acceptedSocket.close();
+                } catch (IOException e) {
+                    Log.e(mTag, "Failed to accept: " + e.getMessage());
+                }
+            }
+        });
+        acceptingThread.start();
+
+        LocalSocket localSocket = LocalDomainSockets.connect(mServerSocketPath);
+        localSocket.getOutputStream().write(new byte[]{1, 2, 3});
+        localSocket.getOutputStream().flush();
+        acceptingThread.join(JOIN_TIMEOUT_IN_MILLISECONDS);
+        localSocket.close();
+        serverEndpoint.close();
+
+        assertThat("The data is received", received[2], is(equalTo((byte) 3)));
+        assertThat("The socket file is removed", new File(mServerSocketPath).exists(), is(false));
+    }
+
+    @Test
+    public void testCloseWakesUpAccept() throws Exception {
+        final LocalDomainSockets.ServerEndpoint serverEndpoint = LocalDomainSockets.listen(mServerSocketPath);
+        final boolean[] failed = new boolean[1];
+        Thread acceptingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    serverEndpoint.accept();
+                } catch (IOException e) {
+                    failed[0] = true;
+                }
+            }
+        });
+        acceptingThread.start();
+
+        // Give the thread the time to block
+        Thread.sleep(100);
+        serverEndpoint.close();
+        acceptingThread.join(JOIN_TIMEOUT_IN_MILLISECONDS);
+
+        assertThat("The accepting thread is done", acceptingThread.isAlive(), is(false));
+        assertThat("Accepting fails", failed[0], is(true));
+    }
+
+    @Test
+    public void testBenchmarkAgainstLoopbackTcp() throws Exception {
+        // TCP over loopback, the way the relay has bridged the connections so far
+        final ServerSocket serverSocket = new ServerSocket(0);
+        final Socket[] acceptedTcpSocket = new Socket[1];
+        Thread acceptingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    acceptedTcpSocket[0] = serverSocket.accept();
+                } catch (IOException e) {
+                    Log.e(mTag, "Failed to accept: " + e.getMessage());
+                }
+            }
+        });
+        acceptingThread.start();
+        Socket tcpSocket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+        tcpSocket.setTcpNoDelay(true);
+        acceptingThread.join(JOIN_TIMEOUT_IN_MILLISECONDS);
+
+        long tcpTimeInNanoseconds = measureTransfer(
+            tcpSocket.getOutputStream(), acceptedTcpSocket[0].getInputStream());
+        tcpSocket.close();
+        acceptedTcpSocket[0].close();
+        serverSocket.close();
+
+        // Unix domain socket
+        final LocalDomainSockets.ServerEndpoint serverEndpoint = LocalDomainSockets.listen(mServerSocketPath);
+        final LocalSocket[] acceptedLocalSocket = new LocalSocket[1];
+        acceptingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    acceptedLocalSocket[0] = serverEndpoint.accept();
+                } catch (IOException e) {
+                    Log.e(mTag, "Failed to accept: " + e.getMessage());
+                }
+            }
+        });
+        acceptingThread.start();
+        LocalSocket localSocket = LocalDomainSockets.connect(mServerSocketPath);
+        acceptingThread.join(JOIN_TIMEOUT_IN_MILLISECONDS);
+
+        long localTimeInNanoseconds = measureTransfer(
+            localSocket.getOutputStream(), acceptedLocalSocket[0].getInputStream());
+        localSocket.close();
+        acceptedLocalSocket[0].close();
+        serverEndpoint.close();
+
+        Log.i(mTag, "testBenchmarkAgainstLoopbackTcp: Loopback TCP: "
+            + toMegabytesPerSecond(tcpTimeInNanoseconds) + " MB/s, Unix domain socket: "
+            + toMegabytesPerSecond(localTimeInNanoseconds) + " MB/s");
+    }
+
+    /**
+     * Writes the benchmark data in chunks of the relay buffer size and reads all of it.
+     *
+     * @return The time taken in nanoseconds.
+     */
+    private long measureTransfer(final OutputStream outputStream, InputStream inputStream) throws Exception {
+        Thread writingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[BUFFER_SIZE_IN_BYTES];
+
+                try {
+                    for (int i = 0; i < BENCHMARK_SIZE_IN_BYTES / BUFFER_SIZE_IN_BYTES; i++) {
+                        outputStream.write(buffer);
+                    }
+
+                    outputStream.flush();
+                } catch (IOException e) {
+                    Log.e(mTag, "Failed to write: " + e.getMessage());
+                }
+            }
+        });
+
+        long startTime = System.nanoTime();
+        writingThread.start();
+        byte[] buffer = new byte[BUFFER_SIZE_IN_BYTES];
+        int totalNumberOfBytesRead = 0;
+
+        while (totalNumberOfBytesRead < BENCHMARK_SIZE_IN_BYTES) {
+            int numberOfBytesRead = inputStream.read(buffer);
+
+            if (numberOfBytesRead == -1) {
+                break;
+            }
+
+            totalNumberOfBytesRead += numberOfBytesRead;
+        }
+
+        long timeTaken = System.nanoTime() - startTime;
+        writingThread.join(JOIN_TIMEOUT_IN_MILLISECONDS);
+
+        assertThat("All the data is transferred", totalNumberOfBytesRead, is(equalTo(BENCHMARK_SIZE_IN_BYTES)));
+        return timeTaken;
+    }
+
+    private static long toMegabytesPerSecond(long timeInNanoseconds) {
+        return Math.round(BENCHMARK_SIZE_IN_BYTES / (1024.0 * 1024.0) / (timeInNanoseconds / 1e9));
+    }
+
+    private static void readFully(InputStream inputStream, byte[] buffer) throws IOException {
+        int offset = 0;
+
+        while (offset < buffer.length) {
+            int numberOfBytesRead = inputStream.read(buffer, offset, buffer.length - offset);
+
+            if (numberOfBytesRead == -1) {
+                break;
+            }
+
+            offset += numberOfBytesRead;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package io.jxcore.node;
+
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A minimal microbenchmark harness for the on-device test suite.
+ *
+ * Runs the given operation on one or more threads, first for a number of warm-up iterations
+ * (to let the runtime JIT compile the code under test) and then for the measured iterations.
+ * All the threads are released at the same time so that the measured phase reflects contention.
+ */
+public class MicroBenchmark {
+
+    public interface Operation {
+        /**
+         * @param threadIndex The index of the calling thread (0..numberOfThreads-1).
+         * @param iteration   The iteration number of the calling thread.
+         * @throws Exception If the operation fails. Fails the whole benchmark.
+         */
+        void run(int threadIndex, int iteration) throws Exception;
+    }
+
+    public static class Result {
+        public final String name;
+        public final int numberOfThreads;
+        public final long numberOfOperations;
+        public final long elapsedTimeInNanoseconds;
+
+        Result(String name, int numberOfThreads, long numberOfOperations, long elapsedTimeInNanoseconds) {
+            this.name = name;
+            this.numberOfThreads = numberOfThreads;
+            this.numberOfOperations = numberOfOperations;
+            this.elapsedTimeInNanoseconds = elapsedTimeInNanoseconds;
+        }
+
+        public double getOperationsPerSecond() {
+            return elapsedTimeInNanoseconds > 0
+                ? numberOfOperations * 1000000000d / elapsedTimeInNanoseconds : 0d;
+        }
+
+        public double getNanosecondsPerOperation() {
+            return numberOfOperations > 0
+                ? (double) elapsedTimeInNanoseconds / numberOfOperations : 0d;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s [threads: %d]: %d ops in %.1f ms, %.0f ops/s, %.0f ns/op",
+                name, numberOfThreads, numberOfOperations, elapsedTimeInNanoseconds / 1000000d,
+                getOperationsPerSecond(), getNanosecondsPerOperation());
+        }
+    }
+
+    private static final String TAG = MicroBenchmark.class.getName();
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param name                  The name of the benchmark used in the result and the logs.
+     * @param numberOfThreads       The number of threads running the operation concurrently.
+     * @param warmUpIterations      The number of iterations per thread before measuring.
+     * @param iterationsPerThread   The number of measured iterations per thread.
+     * @param operation             The operation to measure.
+     * @return The result.
+     * @throws Exception If any of the operations failed.
+     */
+    public static Result run(final String name, final int numberOfThreads, final int warmUpIterations,
+                             final int iterationsPerThread, final Operation operation) throws Exception {
+        final CyclicBarrier warmUpDoneBarrier = new CyclicBarrier(numberOfThreads + 1);
+        final CountDownLatch measuredPhaseDoneLatch = new CountDownLatch(numberOfThreads);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        Thread[] threads = new Thread[numberOfThreads];
+
+        for (int i = 0; i < numberOfThreads; i++) {
+            final int threadIndex = i;
+
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    boolean isWarmUpDone = false;
+
+                    try {
+                        for (int iteration = 0; iteration < warmUpIterations; iteration++) {
+                            operation.run(threadIndex, iteration);
+                        }
+
+                        isWarmUpDone = true;
+                        warmUpDoneBarrier.await();
+
+                        for (int iteration = 0; iteration < iterationsPerThread; iteration++) {
+                            operation.run(threadIndex, warmUpIterations + iteration);
+                        }
+                    } catch (Exception e) {
+                        if (!(e instanceof BrokenBarrierException)) {
+                            failure.compareAndSet(null, e);
+                        }
+
+                        if (!isWarmUpDone) {
+                            breakBarrier(warmUpDoneBarrier);
+                        }
+                    } finally {
+                        measuredPhaseDoneLatch.countDown();
+                    }
+                }
+            }, name + "/" + i);
+
+            threads[i].start();
+        }
+
+        try {
+            warmUpDoneBarrier.await();
+        } catch (BrokenBarrierException e) {
+            // One of the threads failed during the warm-up
+            measuredPhaseDoneLatch.await();
+            throw (failure.get() != null) ? failure.get() : e;
+        }
+
+        long startTime = System.nanoTime();
+        measuredPhaseDoneLatch.await();
+        long elapsedTime = System.nanoTime() - startTime;
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+
+        Result result = new Result(name, numberOfThreads,
+            (long) numberOfThreads * iterationsPerThread, elapsedTime);
+        Log.i(TAG, result.toString());
+        return result;
+    }
+
+    /**
+     * Breaks the barrier for good: the parties waiting and the ones arriving later get
+     * BrokenBarrierException. Unlike reset, which would leave the later ones waiting forever.
+     */
+    private static void breakBarrier(CyclicBarrier barrier) {
+        try {
+            // Times out right away, unless we are the last party
+            barrier.await(0, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // Broken as intended
+        } catch (BrokenBarrierException e) {
+            // Already broken
+        } catch (InterruptedException e) {
+            // Interrupting breaks the barrier too
+            Thread.currentThread().interrupt();
+        }
+    }
+}
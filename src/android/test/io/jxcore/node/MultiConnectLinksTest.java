@@ -0,0 +1,211 @@
+package io.jxcore.node;
+
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class MultiConnectLinksTest {
+
+    private static final String PEER_ID = "00:11:22:33:44:55";
+    private static final int LISTENING_PORT_NUMBER = 51234;
+
+    private final static String mTag = MultiConnectLinksTest.class.getName();
+    private MultiConnectLinks mMultiConnectLinks;
+    private List<JXcoreThaliCallback> mConnectCallbacks;
+    private List<String> mResolvedSyncValues;
+    private List<String> mResolvedErrorMessages;
+    private List<Integer> mResolvedPortNumbers;
+    private List<String> mFailedPeerIds;
+    private int mListeningPortNumber;
+    private int mNumberOfDisconnects;
+    private String mConnectErrorMessage;
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        protected void starting(Description description) {
+            Log.i(mTag, "Starting test: " + description.getMethodName());
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        mConnectCallbacks = new ArrayList<JXcoreThaliCallback>();
+        mResolvedSyncValues = new ArrayList<String>();
+        mResolvedErrorMessages = new ArrayList<String>();
+        mResolvedPortNumbers = new ArrayList<Integer>();
+        mFailedPeerIds = new ArrayList<String>();
+        mListeningPortNumber = ConnectionHelper.NO_PORT_NUMBER;
+        mNumberOfDisconnects = 0;
+        mConnectErrorMessage = null;
+
+        mMultiConnectLinks = new MultiConnectLinks(new MultiConnectLinks.Connector() {
+            @Override
+            public String connect(String peerId, JXcoreThaliCallback callback) {
+                if (mConnectErrorMessage != null) {
+                    return mConnectErrorMessage;
+                }
+
+                mConnectCallbacks.add(callback);
+                return null;
+            }
+
+            @Override
+            public int getListeningPortNumber(String peerId) {
+                return mListeningPortNumber;
+            }
+
+            @Override
+            public boolean disconnect(String peerId) {
+                boolean wasConnected = (mListeningPortNumber != ConnectionHelper.NO_PORT_NUMBER);
+                mListeningPortNumber = ConnectionHelper.NO_PORT_NUMBER;
+                mNumberOfDisconnects++;
+                return wasConnected;
+            }
+        }, new MultiConnectLinks.Listener() {
+            @Override
+            public void onMultiConnectResolved(String syncValue, String errorMessage, int listeningPortNumber) {
+                mResolvedSyncValues.add(syncValue);
+                mResolvedErrorMessages.add(errorMessage);
+                mResolvedPortNumbers.add(listeningPortNumber);
+            }
+
+            @Override
+            public void onMultiConnectConnectionFailure(String peerId, String errorMessage) {
+                mFailedPeerIds.add(peerId);
+            }
+        });
+    }
+
+    @Test
+    public void testLinkIsEstablishedOnceAndReused() throws Exception {
+        mMultiConnectLinks.multiConnect(PEER_ID, "1");
+        mMultiConnectLinks.multiConnect(PEER_ID, "2");
+
+        assertThat("Only one connection is started", mConnectCallbacks.size(), is(equalTo(1)));
+        assertThat("Nothing is resolved before connected", mResolvedSyncValues.isEmpty(), is(true));
+
+        completeConnection(null);
+
+        assertThat("Both calls are resolved", mResolvedSyncValues.size(), is(equalTo(2)));
+        assertThat("The calls are resolved successfully", mResolvedErrorMessages.get(1), is(nullValue()));
+
+        mMultiConnectLinks.multiConnect(PEER_ID, "3");
+
+        assertThat("The link is reused", mConnectCallbacks.size(), is(equalTo(1)));
+        assertThat("The reuse is resolved right away", mResolvedSyncValues.get(2), is(equalTo("3")));
+        assertThat("The reuse is resolved with the port not yet used", mResolvedPortNumbers.get(2),
+            is(equalTo(LISTENING_PORT_NUMBER)));
+        assertThat("The reuse is counted", mMultiConnectLinks.getNumberOfLinksReused(), is(equalTo(1L)));
+        assertThat("One link is established", mMultiConnectLinks.getNumberOfLinksEstablished(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testUsedLinkIsNotReused() throws Exception {
+        mMultiConnectLinks.multiConnect(PEER_ID, "1");
+        completeConnection(null);
+
+        // The Node layer connected to the port, which accepts only once
+        mListeningPortNumber = ConnectionHelper.NO_PORT_NUMBER;
+        mMultiConnectLinks.multiConnect(PEER_ID, "2");
+
+        assertThat("No new connection is started", mConnectCallbacks.size(), is(equalTo(1)));
+        assertThat("The call fails instead of resolving with a dead port", mResolvedErrorMessages.get(1),
+            is(equalTo(MultiConnectLinks.ERROR_LINK_IN_USE)));
+        assertThat("No port is given", mResolvedPortNumbers.get(1), is(equalTo(ConnectionHelper.NO_PORT_NUMBER)));
+        assertThat("The link in use is counted", mMultiConnectLinks.getNumberOfLinksInUse(), is(equalTo(1L)));
+        assertThat("The link stays", mMultiConnectLinks.isLinked(PEER_ID), is(true));
+    }
+
+    @Test
+    public void testFailedConnectionResolvesAllCalls() throws Exception {
+        mMultiConnectLinks.multiConnect(PEER_ID, "1");
+        mMultiConnectLinks.multiConnect(PEER_ID, "2");
+        completeConnection("Connection timed out");
+
+        assertThat("Both calls are resolved", mResolvedSyncValues.size(), is(equalTo(2)));
+        assertThat("The error is delivered", mResolvedErrorMessages.get(0),
+            is(equalTo(MultiConnectLinks.ERROR_CONNECTION_COULD_NOT_BE_ESTABLISHED)));
+        assertThat("The peer is not linked", mMultiConnectLinks.isLinked(PEER_ID), is(false));
+    }
+
+    @Test
+    public void testDisconnectIsNotAFailure() throws Exception {
+        mMultiConnectLinks.multiConnect(PEER_ID, "1");
+        completeConnection(null);
+
+        assertThat("The link is found", mMultiConnectLinks.disconnect(PEER_ID), is(true));
+        mMultiConnectLinks.onLinkClosed(PEER_ID);
+
+        assertThat("No failure is notified", mFailedPeerIds.isEmpty(), is(true));
+        assertThat("The peer is not linked", mMultiConnectLinks.isLinked(PEER_ID), is(false));
+    }
+
+    @Test
+    public void testLinkFailureIsNotified() throws Exception {
+        mMultiConnectLinks.multiConnect(PEER_ID, "1");
+        completeConnection(null);
+        mMultiConnectLinks.onLinkClosed(PEER_ID);
+
+        assertThat("The failure is notified", mFailedPeerIds.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testDisconnectWhileConnectingClosesTheLink() throws Exception {
+        mMultiConnectLinks.multiConnect(PEER_ID, "1");
+
+        assertThat("The pending link is found", mMultiConnectLinks.disconnect(PEER_ID), is(true));
+        assertThat("The call is resolved with an error", mResolvedErrorMessages.get(0),
+            is(equalTo(MultiConnectLinks.ERROR_DISCONNECTED)));
+
+        completeConnection(null);
+
+        assertThat("The late connection is closed", mNumberOfDisconnects, is(equalTo(2)));
+        assertThat("The call is not resolved again", mResolvedSyncValues.size(), is(equalTo(1)));
+        assertThat("The peer is not linked", mMultiConnectLinks.isLinked(PEER_ID), is(false));
+    }
+
+    @Test
+    public void testConnectionOfConnectIsNotTracked() throws Exception {
+        // The outgoing connection was made with connect, not multiConnect
+        mListeningPortNumber = LISTENING_PORT_NUMBER;
+        mConnectErrorMessage = "Already connect(ing/ed)";
+        mMultiConnectLinks.multiConnect(PEER_ID, "1");
+
+        assertThat("The connection of connect is not reused", mResolvedErrorMessages.get(0),
+            is(equalTo(MultiConnectLinks.ERROR_CONNECTION_COULD_NOT_BE_ESTABLISHED)));
+        assertThat("The peer is not linked", mMultiConnectLinks.isLinked(PEER_ID), is(false));
+
+        mMultiConnectLinks.onLinkClosed(PEER_ID);
+
+        assertThat("Closing the connection of connect is not a multiConnect failure",
+            mFailedPeerIds.isEmpty(), is(true));
+    }
+
+    /**
+     * Completes the last connection attempt the way ConnectionHelper does.
+     */
+    private void completeConnection(String errorMessage) {
+        JXcoreThaliCallback callback = mConnectCallbacks.get(mConnectCallbacks.size() - 1);
+
+        if (errorMessage == null) {
+            mListeningPortNumber = LISTENING_PORT_NUMBER;
+            callback.getListenerOrIncomingConnection().setListeningOnPortNumber(LISTENING_PORT_NUMBER);
+            callback.onConnectCallback(null, callback.getListenerOrIncomingConnection());
+        } else {
+            callback.onConnectCallback(errorMessage, null);
+        }
+    }
+}
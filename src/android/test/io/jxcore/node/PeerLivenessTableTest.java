@@ -0,0 +1,158 @@
+package io.jxcore.node;
+
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.thaliproject.p2p.btconnectorlib.PeerProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PeerLivenessTableTest {
+
+    private static final String PEER_ID = "00:11:22:33:44:55";
+    private static final long TIME_TO_LIVE_IN_MILLISECONDS = 5000;
+    private static final int NUMBER_OF_MISSES_BEFORE_UNAVAILABLE = 3;
+
+    private final static String mTag = PeerLivenessTableTest.class.getName();
+    private VirtualTimeScheduler mScheduler;
+    private PeerLivenessTable mPeerLivenessTable;
+    private List<Boolean> mAvailabilityChanges;
+    private boolean mIsConnected;
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        protected void starting(Description description) {
+            Log.i(mTag, "Starting test: " + description.getMethodName());
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        mScheduler = new VirtualTimeScheduler();
+        mAvailabilityChanges = new ArrayList<Boolean>();
+        mIsConnected = false;
+        mPeerLivenessTable = new PeerLivenessTable(mScheduler, new PeerLivenessTable.Listener() {
+            @Override
+            public boolean hasConnection(String peerId) {
+                return mIsConnected;
+            }
+
+            @Override
+            public void onPeerAvailabilityChanged(PeerProperties peerProperties, boolean isAvailable) {
+                mAvailabilityChanges.add(isAvailable);
+            }
+        });
+        mPeerLivenessTable.setParameters(TIME_TO_LIVE_IN_MILLISECONDS, NUMBER_OF_MISSES_BEFORE_UNAVAILABLE);
+    }
+
+    @Test
+    public void testOnlyNewGenerationsAreNotified() throws Exception {
+        mPeerLivenessTable.onPeerSeen(new PeerProperties(PEER_ID, 1));
+        mPeerLivenessTable.onPeerSeen(new PeerProperties(PEER_ID, 1));
+        mPeerLivenessTable.onPeerSeen(new PeerProperties(PEER_ID, 2));
+
+        assertThat("The discovery and the new generation are notified", mAvailabilityChanges.size(), is(equalTo(2)));
+        assertThat("The repeated generation is suppressed",
+            mPeerLivenessTable.getNumberOfEventsSuppressed(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testFlappingPeerStaysAvailable() throws Exception {
+        PeerProperties peerProperties = new PeerProperties(PEER_ID, 1);
+        mPeerLivenessTable.onPeerSeen(peerProperties);
+
+        for (int i = 0; i < 10; i++) {
+            mPeerLivenessTable.onPeerLost(peerProperties);
+            mScheduler.advanceBy(TIME_TO_LIVE_IN_MILLISECONDS / 2);
+            mPeerLivenessTable.onPeerSeen(peerProperties);
+            mScheduler.advanceBy(TIME_TO_LIVE_IN_MILLISECONDS / 2);
+        }
+
+        mScheduler.advanceUntilIdle(NUMBER_OF_MISSES_BEFORE_UNAVAILABLE * TIME_TO_LIVE_IN_MILLISECONDS);
+
+        assertThat("Only the first discovery is notified", mAvailabilityChanges.size(), is(equalTo(1)));
+        assertThat("The peer is available", mPeerLivenessTable.isAvailable(PEER_ID), is(true));
+        assertThat("Every rediscovery is a recovery", mPeerLivenessTable.getNumberOfRecoveries(), is(equalTo(10L)));
+    }
+
+    @Test
+    public void testPeerIsUnavailableAfterTheMisses() throws Exception {
+        PeerProperties peerProperties = new PeerProperties(PEER_ID, 1);
+        mPeerLivenessTable.onPeerSeen(peerProperties);
+        mPeerLivenessTable.onPeerLost(peerProperties);
+
+        mScheduler.advanceBy((NUMBER_OF_MISSES_BEFORE_UNAVAILABLE - 1) * TIME_TO_LIVE_IN_MILLISECONDS - 1);
+        assertThat("The peer is still available", mPeerLivenessTable.isAvailable(PEER_ID), is(true));
+
+        mScheduler.advanceBy(1);
+        assertThat("The peer is unavailable", mPeerLivenessTable.isAvailable(PEER_ID), is(false));
+        assertThat("The loss is notified once", mAvailabilityChanges.size(), is(equalTo(2)));
+        assertThat("The loss is notified as unavailable", mAvailabilityChanges.get(1), is(false));
+        assertThat("No timer is left", mScheduler.getNumberOfPendingTasks(), is(equalTo(0)));
+
+        mPeerLivenessTable.onPeerSeen(peerProperties);
+        assertThat("The rediscovery is notified", mAvailabilityChanges.get(2), is(true));
+    }
+
+    @Test
+    public void testSingleMissNotifiesRightAway() throws Exception {
+        mPeerLivenessTable.setParameters(TIME_TO_LIVE_IN_MILLISECONDS, 1);
+        PeerProperties peerProperties = new PeerProperties(PEER_ID, 1);
+        mPeerLivenessTable.onPeerSeen(peerProperties);
+        mPeerLivenessTable.onPeerLost(peerProperties);
+
+        assertThat("The loss is notified", mAvailabilityChanges.size(), is(equalTo(2)));
+        assertThat("The peer is unavailable", mPeerLivenessTable.isAvailable(PEER_ID), is(false));
+    }
+
+    @Test
+    public void testConnectedPeerIsNotMissed() throws Exception {
+        PeerProperties peerProperties = new PeerProperties(PEER_ID, 1);
+        mPeerLivenessTable.onPeerSeen(peerProperties);
+        mPeerLivenessTable.onPeerLost(peerProperties);
+        mIsConnected = true;
+
+        mScheduler.advanceBy(NUMBER_OF_MISSES_BEFORE_UNAVAILABLE * TIME_TO_LIVE_IN_MILLISECONDS);
+
+        assertThat("The connected peer is available", mPeerLivenessTable.isAvailable(PEER_ID), is(true));
+        assertThat("Only the discovery is notified", mAvailabilityChanges.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testStaggeredLossesDoNotPostponeEachOther() throws Exception {
+        int numberOfPeers = 10;
+        List<PeerProperties> peers = new ArrayList<PeerProperties>();
+
+        for (int i = 0; i < numberOfPeers; i++) {
+            PeerProperties peerProperties = new PeerProperties("00:11:22:33:44:0" + i, 1);
+            peers.add(peerProperties);
+            mPeerLivenessTable.onPeerSeen(peerProperties);
+        }
+
+        // The losses keep arriving within the time to live of each other, as at the edge of the range
+        for (PeerProperties peerProperties : peers) {
+            mPeerLivenessTable.onPeerLost(peerProperties);
+            mScheduler.advanceBy(TIME_TO_LIVE_IN_MILLISECONDS / 2);
+        }
+
+        long now = numberOfPeers * TIME_TO_LIVE_IN_MILLISECONDS / 2;
+
+        for (int i = 0; i < numberOfPeers; i++) {
+            long unavailableTime = i * TIME_TO_LIVE_IN_MILLISECONDS / 2
+                + (NUMBER_OF_MISSES_BEFORE_UNAVAILABLE - 1) * TIME_TO_LIVE_IN_MILLISECONDS;
+
+            assertThat("Peer " + i + " is unavailable once missed enough times, regardless of the later losses",
+                mPeerLivenessTable.isAvailable(peers.get(i).getId()), is(unavailableTime > now));
+        }
+    }
+}
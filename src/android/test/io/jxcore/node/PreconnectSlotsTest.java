@@ -0,0 +1,147 @@
+package io.jxcore.node;
+
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PreconnectSlotsTest {
+
+    private static final String PEER_ADDRESS = "00:11:22:33:44:55";
+    private static final String OTHER_PEER_ADDRESS = "00:11:22:33:44:66";
+    private static final String THIRD_PEER_ADDRESS = "00:11:22:33:44:77";
+    private static final int MAXIMUM_NUMBER_OF_SLOTS = 2;
+    private static final long TIME_TO_LIVE_IN_MILLISECONDS = 10000;
+
+    private final static String mTag = PreconnectSlotsTest.class.getName();
+    private VirtualTimeScheduler mScheduler;
+    private PreconnectSlots<CloseCountingSocket> mPreconnectSlots;
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        protected void starting(Description description) {
+            Log.i(mTag, "Starting test: " + description.getMethodName());
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        mScheduler = new VirtualTimeScheduler();
+        mPreconnectSlots = new PreconnectSlots<CloseCountingSocket>(
+            mScheduler, MAXIMUM_NUMBER_OF_SLOTS, TIME_TO_LIVE_IN_MILLISECONDS);
+    }
+
+    @Test
+    public void testWarmSocketIsHandedToConnect() throws Exception {
+        CloseCountingSocket socket = new CloseCountingSocket();
+
+        assertThat("The slot is reserved", mPreconnectSlots.reserve(PEER_ADDRESS), is(true));
+        assertThat("The peer has one slot only", mPreconnectSlots.reserve(PEER_ADDRESS), is(false));
+        assertThat("The socket is held", mPreconnectSlots.onConnected(PEER_ADDRESS, socket), is(true));
+
+        assertThat("The warm socket is taken", mPreconnectSlots.takeOrClaim(PEER_ADDRESS).getWarmSocket(),
+            is(sameInstance(socket)));
+        assertThat("The hit is counted", mPreconnectSlots.getNumberOfHits(), is(equalTo(1L)));
+        assertThat("The slot is freed", mPreconnectSlots.size(), is(equalTo(0)));
+
+        mScheduler.advanceBy(TIME_TO_LIVE_IN_MILLISECONDS);
+        assertThat("The socket taken is not closed", socket.numberOfTimesClosed, is(equalTo(0)));
+        assertThat("Nothing was wasted", mPreconnectSlots.getNumberOfWastedConnections(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void testClaimedAttemptIsNotHeld() throws Exception {
+        mPreconnectSlots.reserve(PEER_ADDRESS);
+
+        PreconnectSlots<CloseCountingSocket>.Claim claim = mPreconnectSlots.takeOrClaim(PEER_ADDRESS);
+        assertThat("The attempt in flight is claimed", claim, is(notNullValue()));
+        assertThat("The warm socket is not there yet", claim.getWarmSocket(), is(nullValue()));
+        assertThat("The attempt is claimed once only", mPreconnectSlots.takeOrClaim(PEER_ADDRESS), is(nullValue()));
+        assertThat("The socket of the claimed attempt is finalized right away",
+            mPreconnectSlots.onConnected(PEER_ADDRESS, new CloseCountingSocket()), is(false));
+        assertThat("The in flight hit is counted", mPreconnectSlots.getNumberOfInFlightHits(), is(equalTo(1L)));
+        assertThat("The slot is freed", mPreconnectSlots.size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testUnusedSocketIsClosedAfterTimeToLive() throws Exception {
+        CloseCountingSocket socket = new CloseCountingSocket();
+        mPreconnectSlots.reserve(PEER_ADDRESS);
+        mPreconnectSlots.onConnected(PEER_ADDRESS, socket);
+
+        mScheduler.advanceBy(TIME_TO_LIVE_IN_MILLISECONDS - 1);
+        assertThat("The socket is still held", socket.numberOfTimesClosed, is(equalTo(0)));
+
+        mScheduler.advanceBy(1);
+        assertThat("The socket is closed", socket.numberOfTimesClosed, is(equalTo(1)));
+        assertThat("The connection is counted as wasted",
+            mPreconnectSlots.getNumberOfWastedConnections(), is(equalTo(1L)));
+        assertThat("The connect call finds nothing", mPreconnectSlots.takeOrClaim(PEER_ADDRESS),
+            is(nullValue()));
+    }
+
+    @Test
+    public void testNumberOfSlotsIsBounded() throws Exception {
+        assertThat("The first slot is reserved", mPreconnectSlots.reserve(PEER_ADDRESS), is(true));
+        assertThat("The second slot is reserved", mPreconnectSlots.reserve(OTHER_PEER_ADDRESS), is(true));
+        assertThat("No more slots", mPreconnectSlots.reserve(THIRD_PEER_ADDRESS), is(false));
+
+        assertThat("The unclaimed speculative failure is reported",
+            mPreconnectSlots.onConnectionFailed(PEER_ADDRESS), is(true));
+        assertThat("The failure is counted", mPreconnectSlots.getNumberOfFailedConnects(), is(equalTo(1L)));
+        assertThat("The failed slot is freed", mPreconnectSlots.reserve(THIRD_PEER_ADDRESS), is(true));
+        assertThat("The speculative attempts are counted",
+            mPreconnectSlots.getNumberOfSpeculativeConnects(), is(equalTo(3L)));
+    }
+
+    @Test
+    public void testFailureOfClaimedOrPlainAttemptIsNotSpeculative() throws Exception {
+        mPreconnectSlots.reserve(PEER_ADDRESS);
+        mPreconnectSlots.takeOrClaim(PEER_ADDRESS);
+
+        assertThat("The claimed attempt failed for the connect call",
+            mPreconnectSlots.onConnectionFailed(PEER_ADDRESS), is(false));
+        assertThat("The slot is freed", mPreconnectSlots.size(), is(equalTo(0)));
+        assertThat("An attempt without a slot is not speculative",
+            mPreconnectSlots.onConnectionFailed(OTHER_PEER_ADDRESS), is(false));
+    }
+
+    @Test
+    public void testClearClosesTheWarmSockets() throws Exception {
+        CloseCountingSocket socket = new CloseCountingSocket();
+        mPreconnectSlots.reserve(PEER_ADDRESS);
+        mPreconnectSlots.reserve(OTHER_PEER_ADDRESS);
+        mPreconnectSlots.onConnected(PEER_ADDRESS, socket);
+
+        mPreconnectSlots.clear();
+
+        assertThat("The warm socket is closed", socket.numberOfTimesClosed, is(equalTo(1)));
+        assertThat("All the slots are freed", mPreconnectSlots.size(), is(equalTo(0)));
+        assertThat("No expiry is left", mScheduler.getNumberOfPendingTasks(), is(equalTo(0)));
+        assertThat("A late connection is not held",
+            mPreconnectSlots.onConnected(OTHER_PEER_ADDRESS, new CloseCountingSocket()), is(false));
+    }
+
+    private static class CloseCountingSocket implements Closeable {
+        int numberOfTimesClosed = 0;
+
+        @Override
+        public void close() throws IOException {
+            numberOfTimesClosed++;
+        }
+    }
+}
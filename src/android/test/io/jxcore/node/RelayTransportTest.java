@@ -0,0 +1,134 @@
+package io.jxcore.node;
+
+import android.util.Log;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.thaliproject.p2p.btconnectorlib.PeerProperties;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class RelayTransportTest {
+
+    private static final int SOCKET_TIMEOUT_IN_MILLISECONDS = 5000;
+    private static final long LISTENING_TIMEOUT_IN_MILLISECONDS = 5000;
+    private static final String REQUEST = "request";
+    private static final String RESPONSE = "response";
+
+    private final static String mTag = RelayTransportTest.class.getName();
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        protected void starting(Description description) {
+            Log.i(mTag, "Starting test: " + description.getMethodName());
+        }
+    };
+
+    @Test
+    public void testTcpTransportCapabilities() throws Exception {
+        Socket[] link = SimulatedPeerSwarm.createLinkSocketPair();
+
+        try {
+            TcpRelayTransport transport = new TcpRelayTransport(link[0]);
+
+            assertThat("TCP can be half-closed", transport.isHalfCloseSupported(), is(true));
+            assertThat("The output stream is half-closable",
+                transport.getOutputStream() instanceof HalfCloseStreams.HalfClosable, is(true));
+            assertThat("The peer is identified", transport.getRemoteAddress(), is(notNullValue()));
+            assertThat("Writes of any size are taken", transport.getMaximumFrameSize(),
+                is(equalTo(RelayTransport.NO_MAXIMUM_FRAME_SIZE)));
+        } finally {
+            SimulatedPeerSwarm.closeSocket(link[0]);
+            SimulatedPeerSwarm.closeSocket(link[1]);
+        }
+    }
+
+    @Test
+    public void testRelayOverTcpTransport() throws Exception {
+        ServerSocket nodeServerSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        Socket[] link = SimulatedPeerSwarm.createLinkSocketPair();
+        Socket nodeClientSocket = null;
+        Socket nodeServerSideSocket = null;
+        OutgoingSocketThread outgoingSocketThread = new OutgoingSocketThread(new TcpRelayTransport(link[0]),
+            new ConnectionData(new PeerProperties("00:00:00:00:00:01"), false), new ListenerMock());
+        IncomingSocketThread incomingSocketThread = new IncomingSocketThread(new TcpRelayTransport(link[1]),
+            new ConnectionData(new PeerProperties("00:00:00:00:00:02"), true), new ListenerMock());
+
+        try {
+            incomingSocketThread.setTcpPortNumber(nodeServerSocket.getLocalPort());
+            incomingSocketThread.start();
+            outgoingSocketThread.start();
+
+            nodeClientSocket = new Socket("127.0.0.1", waitForListeningPortNumber(outgoingSocketThread));
+            nodeClientSocket.setSoTimeout(SOCKET_TIMEOUT_IN_MILLISECONDS);
+            nodeServerSocket.setSoTimeout(SOCKET_TIMEOUT_IN_MILLISECONDS);
+            nodeServerSideSocket = nodeServerSocket.accept();
+            nodeServerSideSocket.setSoTimeout(SOCKET_TIMEOUT_IN_MILLISECONDS);
+
+            nodeClientSocket.getOutputStream().write(REQUEST.getBytes("UTF-8"));
+            nodeClientSocket.shutdownOutput();
+
+            // The end of the request arrives over the transport without closing the connection
+            assertThat("The request is relayed",
+                readUntilEndOfStream(nodeServerSideSocket.getInputStream()), is(equalTo(REQUEST)));
+            assertThat("The port is not advertised after the single local connection is accepted",
+                outgoingSocketThread.getListeningOnPortNumber(), is(equalTo(ConnectionHelper.NO_PORT_NUMBER)));
+
+            nodeServerSideSocket.getOutputStream().write(RESPONSE.getBytes("UTF-8"));
+            nodeServerSideSocket.shutdownOutput();
+
+            assertThat("The response is relayed after the request was half-closed",
+                readUntilEndOfStream(nodeClientSocket.getInputStream()), is(equalTo(RESPONSE)));
+        } finally {
+            outgoingSocketThread.close();
+            incomingSocketThread.close();
+            SimulatedPeerSwarm.closeSocket(nodeClientSocket);
+            SimulatedPeerSwarm.closeSocket(nodeServerSideSocket);
+            nodeServerSocket.close();
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testBluetoothTransportRequiresSocket() throws Exception {
+        new BluetoothRelayTransport(null);
+    }
+
+    private static int waitForListeningPortNumber(OutgoingSocketThread outgoingSocketThread)
+        throws InterruptedException {
+        long deadline = System.currentTimeMillis() + LISTENING_TIMEOUT_IN_MILLISECONDS;
+
+        while (outgoingSocketThread.getListeningOnPortNumber() == ConnectionHelper.NO_PORT_NUMBER
+            && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat("The outgoing connection is listening", outgoingSocketThread.getListeningOnPortNumber()
+            != ConnectionHelper.NO_PORT_NUMBER, is(true));
+        return outgoingSocketThread.getListeningOnPortNumber();
+    }
+
+    private static String readUntilEndOfStream(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int numberOfBytesRead;
+
+        while ((numberOfBytesRead = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, numberOfBytesRead);
+        }
+
+        return outputStream.toString("UTF-8");
+    }
+}
@@ -0,0 +1,75 @@
+package io.jxcore.node;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * Samples the process level resources (threads, file descriptors and heap), which the relay
+ * is expected to release after the connections are torn down.
+ */
+public class ResourceSampler {
+
+    private static final String FILE_DESCRIPTOR_DIRECTORY = "/proc/self/fd";
+    private static final int NUMBER_OF_GC_ROUNDS = 3;
+    private static final long GC_ROUND_DELAY_IN_MILLISECONDS = 50;
+
+    public static class Sample {
+        public final int numberOfThreads;
+        public final int numberOfFileDescriptors;
+        public final long usedHeapInBytes;
+        public final long timestamp;
+
+        Sample(int numberOfThreads, int numberOfFileDescriptors, long usedHeapInBytes, long timestamp) {
+            this.numberOfThreads = numberOfThreads;
+            this.numberOfFileDescriptors = numberOfFileDescriptors;
+            this.usedHeapInBytes = usedHeapInBytes;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "threads: %d, file descriptors: %d, used heap: %d KB",
+                numberOfThreads, numberOfFileDescriptors, usedHeapInBytes / 1024);
+        }
+    }
+
+    /**
+     * Runs the garbage collector and takes a sample.
+     *
+     * @return The sample.
+     * @throws InterruptedException If interrupted while waiting for the garbage collector.
+     */
+    public static Sample take() throws InterruptedException {
+        for (int i = 0; i < NUMBER_OF_GC_ROUNDS; i++) {
+            System.gc();
+            System.runFinalization();
+            Thread.sleep(GC_ROUND_DELAY_IN_MILLISECONDS);
+        }
+
+        return new Sample(getNumberOfThreads(), getNumberOfFileDescriptors(),
+            getUsedHeapInBytes(), System.currentTimeMillis());
+    }
+
+    /**
+     * @return The number of live threads in the process.
+     */
+    public static int getNumberOfThreads() {
+        return Thread.getAllStackTraces().size();
+    }
+
+    /**
+     * @return The number of open file descriptors or -1, if they cannot be listed.
+     */
+    public static int getNumberOfFileDescriptors() {
+        String[] fileDescriptors = new File(FILE_DESCRIPTOR_DIRECTORY).list();
+        return fileDescriptors == null ? -1 : fileDescriptors.length;
+    }
+
+    /**
+     * @return The number of bytes currently in use in the heap.
+     */
+    public static long getUsedHeapInBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,110 @@
+package io.jxcore.node;
+
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ReusableTimerTest {
+
+    private static final long DELAY_IN_MILLISECONDS = 1000;
+
+    private final static String mTag = ReusableTimerTest.class.getName();
+    private VirtualTimeScheduler mScheduler;
+    private List<Long> mExpiryTimes;
+    private ReusableTimer mReusableTimer;
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        protected void starting(Description description) {
+            Log.i(mTag, "Starting test: " + description.getMethodName());
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        mScheduler = new VirtualTimeScheduler();
+        mExpiryTimes = new ArrayList<Long>();
+        mReusableTimer = new ReusableTimer(mScheduler, new Runnable() {
+            @Override
+            public void run() {
+                mExpiryTimes.add(mScheduler.currentTimeMillis());
+            }
+        });
+    }
+
+    @Test
+    public void testExpiresAfterTheDelay() throws Exception {
+        mReusableTimer.arm(DELAY_IN_MILLISECONDS);
+        assertThat("The timer is armed", mReusableTimer.isArmed(), is(true));
+
+        mScheduler.advanceBy(DELAY_IN_MILLISECONDS - 1);
+        assertThat("The timer has not expired yet", mExpiryTimes.isEmpty(), is(true));
+
+        mScheduler.advanceBy(1);
+        assertThat("The timer expires once", mExpiryTimes.size(), is(equalTo(1)));
+        assertThat("The timer expires exactly after the delay", mExpiryTimes.get(0), is(equalTo(DELAY_IN_MILLISECONDS)));
+        assertThat("The timer is disarmed", mReusableTimer.isArmed(), is(false));
+    }
+
+    @Test
+    public void testRearmingMovesTheDeadlineWithoutScheduling() throws Exception {
+        final int numberOfTimesArmed = 100;
+
+        for (int i = 0; i < numberOfTimesArmed; i++) {
+            mReusableTimer.arm(DELAY_IN_MILLISECONDS);
+            mScheduler.advanceBy(5);
+        }
+
+        long lastArmTime = (numberOfTimesArmed - 1) * 5;
+        mScheduler.advanceTo(lastArmTime + DELAY_IN_MILLISECONDS - 1);
+        assertThat("The timer has not expired before the last deadline", mExpiryTimes.isEmpty(), is(true));
+
+        mScheduler.advanceBy(1);
+        assertThat("The timer expires once", mExpiryTimes.size(), is(equalTo(1)));
+        assertThat("The timer expires at the last deadline", mExpiryTimes.get(0),
+            is(equalTo(lastArmTime + DELAY_IN_MILLISECONDS)));
+        assertThat("Every arm is counted", mReusableTimer.getNumberOfTimesArmed(),
+            is(equalTo((long) numberOfTimesArmed)));
+        assertThat("The scheduler is used at most twice", mReusableTimer.getNumberOfTimesScheduled() <= 2, is(true));
+        assertThat("No task is left", mScheduler.getNumberOfPendingTasks(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testEarlierDeadlineIsRespected() throws Exception {
+        mReusableTimer.arm(DELAY_IN_MILLISECONDS * 10);
+        mReusableTimer.arm(DELAY_IN_MILLISECONDS);
+
+        mScheduler.advanceBy(DELAY_IN_MILLISECONDS);
+        assertThat("The timer expires at the earlier deadline", mExpiryTimes.size(), is(equalTo(1)));
+
+        mScheduler.advanceBy(DELAY_IN_MILLISECONDS * 10);
+        assertThat("The timer does not expire again", mExpiryTimes.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        mReusableTimer.arm(DELAY_IN_MILLISECONDS);
+        mReusableTimer.cancel();
+
+        assertThat("The timer is disarmed", mReusableTimer.isArmed(), is(false));
+
+        mScheduler.advanceBy(DELAY_IN_MILLISECONDS * 2);
+        assertThat("The cancelled timer does not expire", mExpiryTimes.isEmpty(), is(true));
+
+        mReusableTimer.arm(DELAY_IN_MILLISECONDS);
+        mScheduler.advanceBy(DELAY_IN_MILLISECONDS);
+        assertThat("The timer can be armed again", mExpiryTimes.size(), is(equalTo(1)));
+    }
+}
@@ -0,0 +1,541 @@
+package io.jxcore.node;
+
+import android.util.Log;
+
+import org.thaliproject.p2p.btconnectorlib.PeerProperties;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives a ConnectionHelper instance with a swarm of virtual peers without any radios.
+ *
+ * The Bluetooth links are emulated with loopback TCP socket pairs: the local end of the pair is
+ * given to ConnectionHelper as the "Bluetooth" streams and the remote end is owned by the virtual
+ * peer. The Node layer is emulated with a local echo server (for incoming connections) and with
+ * clients connecting to the ports the outgoing connections listen on.
+ *
+ * The swarm records the duration of each phase, the number of events delivered and the number of
+ * bytes transferred so that the results of different runs can be compared.
+ */
+public class SimulatedPeerSwarm {
+
+    private static final String TAG = SimulatedPeerSwarm.class.getName();
+    private static final int CONNECT_TIMEOUT_IN_MILLISECONDS = 5000;
+    private static final int ECHO_BUFFER_SIZE = 1024 * 4;
+    private static final long POLLING_INTERVAL_IN_MILLISECONDS = 50;
+
+    /**
+     * A virtual peer and the remote end of its (simulated) Bluetooth link.
+     */
+    public static class VirtualPeer {
+        public final String bluetoothMacAddress;
+        private int mGeneration = 0;
+        private Socket mLinkSocket = null;
+        private Socket mNodeClientSocket = null;
+
+        VirtualPeer(String bluetoothMacAddress) {
+            this.bluetoothMacAddress = bluetoothMacAddress;
+        }
+
+        public synchronized int getGeneration() {
+            return mGeneration;
+        }
+
+        public synchronized PeerProperties getPeerProperties() {
+            return new PeerProperties(bluetoothMacAddress, mGeneration);
+        }
+
+        synchronized PeerProperties bumpGeneration() {
+            mGeneration++;
+            return getPeerProperties();
+        }
+    }
+
+    /**
+     * Listens to the state changes of ConnectionHelper and counts them.
+     */
+    public static class CountingSurroundingStateObserver implements SurroundingStateObserver {
+        public final AtomicInteger peerAvailableCount = new AtomicInteger();
+        public final AtomicInteger peerUnavailableCount = new AtomicInteger();
+        public final AtomicInteger incomingConnectionFailedCount = new AtomicInteger();
+
+        @Override
+        public void notifyPeerAvailabilityChanged(PeerProperties peerProperties, boolean isAvailable) {
+            if (isAvailable) {
+                peerAvailableCount.incrementAndGet();
+            } else {
+                peerUnavailableCount.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void notifyDiscoveryAdvertisingStateUpdateNonTcp(boolean isDiscoveryActive, boolean isAdvertisingActive) {
+        }
+
+        @Override
+        public void notifyNetworkChanged(boolean isBluetoothEnabled, boolean isWifiEnabled, String bssidName, String ssidName) {
+        }
+
+        @Override
+        public void notifyIncomingConnectionToPortNumberFailed(int portNumber) {
+            incomingConnectionFailedCount.incrementAndGet();
+        }
+
+        @Override
+        public void notifyMultiConnectResolved(String syncValue, String errorMessage, int listeningPortNumber) {
+        }
+
+        @Override
+        public void notifyMultiConnectConnectionFailure(String peerId, String errorMessage) {
+        }
+    }
+
+    private final ConnectionHelper mConnectionHelper;
+    private final List<VirtualPeer> mVirtualPeers;
+    private final List<Socket> mOpenSockets = new CopyOnWriteArrayList<Socket>();
+    private final Map<String, Long> mPhaseDurations = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+    private final AtomicLong mNumberOfEvents = new AtomicLong();
+    private final AtomicLong mNumberOfBytesTransferred = new AtomicLong();
+    private final AtomicLong mTotalRoundTripTime = new AtomicLong();
+    private final AtomicLong mNumberOfRoundTrips = new AtomicLong();
+    private ServerSocket mNodeServerSocket = null;
+    private Thread mNodeServerThread = null;
+
+    /**
+     * Constructor.
+     *
+     * @param connectionHelper The ConnectionHelper instance to drive.
+     * @param numberOfPeers    The number of virtual peers in the swarm.
+     */
+    public SimulatedPeerSwarm(ConnectionHelper connectionHelper, int numberOfPeers) {
+        mConnectionHelper = connectionHelper;
+        mVirtualPeers = new ArrayList<VirtualPeer>(numberOfPeers);
+
+        for (int i = 0; i < numberOfPeers; i++) {
+            mVirtualPeers.add(new VirtualPeer(String.format(Locale.US, "00:00:5E:%02X:%02X:%02X",
+                (i >> 16) & 0xff, (i >> 8) & 0xff, i & 0xff)));
+        }
+    }
+
+    public List<VirtualPeer> getVirtualPeers() {
+        return mVirtualPeers;
+    }
+
+    /**
+     * Starts the emulated Node server (echoes everything back) and makes ConnectionHelper connect
+     * the incoming connections to it.
+     *
+     * @throws Exception If the server socket cannot be created or the port cannot be set.
+     */
+    public void startNodeServer() throws Exception {
+        mNodeServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+        Field serverPortNumberField = mConnectionHelper.getClass().getDeclaredField("mServerPortNumber");
+        serverPortNumberField.setAccessible(true);
+        serverPortNumberField.setInt(mConnectionHelper, mNodeServerSocket.getLocalPort());
+
+        mNodeServerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!mNodeServerSocket.isClosed()) {
+                    try {
+                        Socket socket = mNodeServerSocket.accept();
+                        mOpenSockets.add(socket);
+                        startEchoThread(socket, "NodeServer/Echo");
+                    } catch (IOException e) {
+                        // The server socket was closed
+                    }
+                }
+            }
+        }, "NodeServer");
+
+        mNodeServerThread.start();
+    }
+
+    /**
+     * Delivers a discovery event for every virtual peer.
+     */
+    public void discoverAll() {
+        long startTime = System.nanoTime();
+
+        for (VirtualPeer virtualPeer : mVirtualPeers) {
+            mConnectionHelper.onPeerDiscovered(virtualPeer.getPeerProperties());
+            mNumberOfEvents.incrementAndGet();
+        }
+
+        recordPhase("discover", startTime);
+    }
+
+    /**
+     * Bumps the generation of every virtual peer the given number of times and delivers the
+     * corresponding peer updated events.
+     *
+     * @param numberOfRounds The number of generation bumps per peer.
+     */
+    public void bumpGenerations(int numberOfRounds) {
+        long startTime = System.nanoTime();
+
+        for (int round = 0; round < numberOfRounds; round++) {
+            for (VirtualPeer virtualPeer : mVirtualPeers) {
+                mConnectionHelper.onPeerUpdated(virtualPeer.bumpGeneration());
+                mNumberOfEvents.incrementAndGet();
+            }
+        }
+
+        recordPhase("bumpGenerations", startTime);
+    }
+
+    /**
+     * Makes the given virtual peers connect to us.
+     *
+     * @param virtualPeers The virtual peers.
+     * @throws IOException If a simulated link cannot be created.
+     */
+    public void connectIncoming(List<VirtualPeer> virtualPeers) throws IOException {
+        long startTime = System.nanoTime();
+
+        for (VirtualPeer virtualPeer : virtualPeers) {
+            Socket[] link = createLink();
+            virtualPeer.mLinkSocket = link[1];
+            mConnectionHelper.onConnected(null, link[0].getInputStream(), link[0].getOutputStream(),
+                true, virtualPeer.getPeerProperties());
+            mNumberOfEvents.incrementAndGet();
+        }
+
+        recordPhase("connectIncoming", startTime);
+    }
+
+    /**
+     * Connects to the given virtual peers and, once ConnectionHelper reports the port the
+     * connection listens on, connects the emulated Node client to it. The remote end echoes
+     * everything back.
+     *
+     * @param virtualPeers The virtual peers.
+     * @throws Exception If a connection cannot be established in time.
+     */
+    public void connectOutgoing(List<VirtualPeer> virtualPeers) throws Exception {
+        long startTime = System.nanoTime();
+        final CountDownLatch listeningLatch = new CountDownLatch(virtualPeers.size());
+        final int[] portNumbers = new int[virtualPeers.size()];
+
+        for (int i = 0; i < virtualPeers.size(); i++) {
+            final int index = i;
+            VirtualPeer virtualPeer = virtualPeers.get(i);
+
+            mConnectionHelper.getConnectionModel().addOutgoingConnectionCallback(
+                virtualPeer.bluetoothMacAddress, new JXcoreThaliCallback() {
+                    @Override
+                    public void callOnConnectCallback(
+                            String errorMessage, ListenerOrIncomingConnection listenerOrIncomingConnection) {
+                        if (errorMessage == null) {
+                            portNumbers[index] = listenerOrIncomingConnection.getListeningOnPortNumber();
+                        } else {
+                            Log.e(TAG, "connectOutgoing: " + errorMessage);
+                        }
+
+                        listeningLatch.countDown();
+                    }
+                });
+
+            Socket[] link = createLink();
+            virtualPeer.mLinkSocket = link[1];
+            startEchoThread(link[1], "VirtualPeer/Echo");
+            mConnectionHelper.onConnected(null, link[0].getInputStream(), link[0].getOutputStream(),
+                false, virtualPeer.getPeerProperties());
+            mNumberOfEvents.incrementAndGet();
+        }
+
+        if (!listeningLatch.await(CONNECT_TIMEOUT_IN_MILLISECONDS, TimeUnit.MILLISECONDS)) {
+            throw new IOException("Not all outgoing connections started listening in time");
+        }
+
+        for (int i = 0; i < virtualPeers.size(); i++) {
+            if (portNumbers[i] <= 0) {
+                throw new IOException("No port for peer " + virtualPeers.get(i).bluetoothMacAddress);
+            }
+
+            Socket nodeClientSocket = new Socket("127.0.0.1", portNumbers[i]);
+            mOpenSockets.add(nodeClientSocket);
+            virtualPeers.get(i).mNodeClientSocket = nodeClientSocket;
+        }
+
+        recordPhase("connectOutgoing", startTime);
+    }
+
+    /**
+     * Sends the given number of bytes, in chunks, from the originating end of every connection of
+     * the given peers and verifies that the same bytes are echoed back.
+     *
+     * @param virtualPeers    The virtual peers.
+     * @param numberOfBytes   The number of bytes to send per connection.
+     * @param chunkSize       The size of a single write.
+     * @throws IOException If the transfer fails or the echoed data does not match.
+     */
+    public void transfer(List<VirtualPeer> virtualPeers, int numberOfBytes, int chunkSize) throws IOException {
+        long startTime = System.nanoTime();
+        byte[] chunk = new byte[chunkSize];
+        byte[] echoedChunk = new byte[chunkSize];
+
+        for (VirtualPeer virtualPeer : virtualPeers) {
+            // For incoming connections the peer originates the data, for outgoing ones the Node client
+            Socket socket = (virtualPeer.mNodeClientSocket != null)
+                ? virtualPeer.mNodeClientSocket : virtualPeer.mLinkSocket;
+            OutputStream outputStream = socket.getOutputStream();
+            InputStream inputStream = socket.getInputStream();
+            int numberOfBytesSent = 0;
+
+            while (numberOfBytesSent < numberOfBytes) {
+                int length = Math.min(chunkSize, numberOfBytes - numberOfBytesSent);
+                Arrays.fill(chunk, 0, length, (byte) (numberOfBytesSent + virtualPeer.bluetoothMacAddress.hashCode()));
+                long roundTripStartTime = System.nanoTime();
+                outputStream.write(chunk, 0, length);
+                outputStream.flush();
+                readFully(inputStream, echoedChunk, length);
+                mTotalRoundTripTime.addAndGet(System.nanoTime() - roundTripStartTime);
+                mNumberOfRoundTrips.incrementAndGet();
+
+                for (int i = 0; i < length; i++) {
+                    if (echoedChunk[i] != chunk[i]) {
+                        throw new IOException("Echoed data does not match for peer " + virtualPeer.bluetoothMacAddress);
+                    }
+                }
+
+                numberOfBytesSent += length;
+                mNumberOfBytesTransferred.addAndGet(length * 2);
+            }
+        }
+
+        recordPhase("transfer", startTime);
+    }
+
+    /**
+     * Closes the originating ends of the connections of the given peers.
+     *
+     * @param virtualPeers The virtual peers.
+     */
+    public void disconnect(List<VirtualPeer> virtualPeers) {
+        long startTime = System.nanoTime();
+
+        for (VirtualPeer virtualPeer : virtualPeers) {
+            closeSocket(virtualPeer.mNodeClientSocket);
+            closeSocket(virtualPeer.mLinkSocket);
+            virtualPeer.mNodeClientSocket = null;
+            virtualPeer.mLinkSocket = null;
+            mNumberOfEvents.incrementAndGet();
+        }
+
+        recordPhase("disconnect", startTime);
+    }
+
+    /**
+     * Waits until ConnectionHelper has torn down all the connections.
+     *
+     * @param timeoutInMilliseconds The maximum time to wait.
+     * @return True, if no connections remain. False, if the timeout elapsed.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean waitForAllConnectionsClosed(long timeoutInMilliseconds) throws InterruptedException {
+        long startTime = System.nanoTime();
+        long deadline = System.currentTimeMillis() + timeoutInMilliseconds;
+
+        while (mConnectionHelper.getConnectionModel().getNumberOfCurrentConnections() > 0
+            && System.currentTimeMillis() < deadline) {
+            Thread.sleep(POLLING_INTERVAL_IN_MILLISECONDS);
+        }
+
+        recordPhase("teardown", startTime);
+        return mConnectionHelper.getConnectionModel().getNumberOfCurrentConnections() == 0;
+    }
+
+    /**
+     * Delivers a peer lost event for every virtual peer.
+     */
+    public void loseAll() {
+        long startTime = System.nanoTime();
+
+        for (VirtualPeer virtualPeer : mVirtualPeers) {
+            mConnectionHelper.onPeerLost(virtualPeer.getPeerProperties());
+            mNumberOfEvents.incrementAndGet();
+        }
+
+        recordPhase("lose", startTime);
+    }
+
+    /**
+     * Closes everything the swarm has opened.
+     */
+    public void dispose() {
+        for (VirtualPeer virtualPeer : mVirtualPeers) {
+            closeSocket(virtualPeer.mNodeClientSocket);
+            closeSocket(virtualPeer.mLinkSocket);
+        }
+
+        for (Socket socket : mOpenSockets) {
+            closeSocket(socket);
+        }
+
+        mOpenSockets.clear();
+
+        if (mNodeServerSocket != null) {
+            try {
+                mNodeServerSocket.close();
+            } catch (IOException e) {
+                Log.e(TAG, "dispose: Failed to close the Node server socket: " + e.getMessage());
+            }
+        }
+
+        if (mNodeServerThread != null) {
+            try {
+                mNodeServerThread.join(CONNECT_TIMEOUT_IN_MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public Map<String, Long> getPhaseDurationsInNanoseconds() {
+        return mPhaseDurations;
+    }
+
+    public long getNumberOfEvents() {
+        return mNumberOfEvents.get();
+    }
+
+    public long getNumberOfBytesTransferred() {
+        return mNumberOfBytesTransferred.get();
+    }
+
+    /**
+     * @return The average round trip time of a chunk in microseconds.
+     */
+    public double getAverageRoundTripTimeInMicroseconds() {
+        long numberOfRoundTrips = mNumberOfRoundTrips.get();
+        return numberOfRoundTrips > 0 ? mTotalRoundTripTime.get() / 1000d / numberOfRoundTrips : 0d;
+    }
+
+    /**
+     * @return The statistics of the run as a human readable string.
+     */
+    public String getStatistics() {
+        StringBuilder stringBuilder = new StringBuilder();
+        long totalDuration = 0;
+
+        synchronized (mPhaseDurations) {
+            for (Map.Entry<String, Long> entry : mPhaseDurations.entrySet()) {
+                stringBuilder.append(String.format(Locale.US, "%s: %.1f ms, ",
+                    entry.getKey(), entry.getValue() / 1000000d));
+                totalDuration += entry.getValue();
+            }
+        }
+
+        stringBuilder.append(String.format(Locale.US,
+            "peers: %d, events: %d (%.0f events/s), bytes transferred: %d, average round trip: %.0f us",
+            mVirtualPeers.size(), mNumberOfEvents.get(),
+            totalDuration > 0 ? mNumberOfEvents.get() * 1000000000d / totalDuration : 0d,
+            mNumberOfBytesTransferred.get(), getAverageRoundTripTimeInMicroseconds()));
+
+        return stringBuilder.toString();
+    }
+
+    /**
+     * Creates a connected pair of loopback sockets emulating a Bluetooth link.
+     *
+     * @return The local end (index 0) and the remote end (index 1) of the link.
+     * @throws IOException If the sockets cannot be created.
+     */
+    static Socket[] createLinkSocketPair() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+
+        try {
+            Socket remoteEnd = new Socket("127.0.0.1", serverSocket.getLocalPort());
+            Socket localEnd = serverSocket.accept();
+            localEnd.setTcpNoDelay(true);
+            remoteEnd.setTcpNoDelay(true);
+            return new Socket[] { localEnd, remoteEnd };
+        } finally {
+            serverSocket.close();
+        }
+    }
+
+    private Socket[] createLink() throws IOException {
+        Socket[] link = createLinkSocketPair();
+        mOpenSockets.add(link[0]);
+        mOpenSockets.add(link[1]);
+        return link;
+    }
+
+    static void startEchoThread(final Socket socket, String threadName) {
+        Thread echoThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[ECHO_BUFFER_SIZE];
+                int numberOfBytesRead;
+
+                try {
+                    InputStream inputStream = socket.getInputStream();
+                    OutputStream outputStream = socket.getOutputStream();
+
+                    while ((numberOfBytesRead = inputStream.read(buffer)) != -1) {
+                        outputStream.write(buffer, 0, numberOfBytesRead);
+                        outputStream.flush();
+                    }
+                } catch (IOException e) {
+                    // The other end is gone
+                }
+
+                closeSocket(socket);
+            }
+        }, threadName);
+
+        echoThread.setDaemon(true);
+        echoThread.start();
+    }
+
+    private void recordPhase(String phase, long startTime) {
+        long duration = System.nanoTime() - startTime;
+        Long previousDuration = mPhaseDurations.get(phase);
+        mPhaseDurations.put(phase, previousDuration == null ? duration : previousDuration + duration);
+    }
+
+    static void readFully(InputStream inputStream, byte[] buffer, int length) throws IOException {
+        int offset = 0;
+
+        while (offset < length) {
+            int numberOfBytesRead = inputStream.read(buffer, offset, length - offset);
+
+            if (numberOfBytesRead == -1) {
+                throw new IOException("End of stream reached after " + offset + " bytes, expected " + length);
+            }
+
+            offset += numberOfBytesRead;
+        }
+    }
+
+    static void closeSocket(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.e(TAG, "closeSocket: Failed to close socket: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -13,4 +13,8 @@ public class SocketThreadBaseMock extends SocketThreadBase {
         super(bluetoothSocket, listener, inputStream, outputStream);
 
     }
+
+    @Override
+    public void run() {
+    }
 }
@@ -1,6 +1,6 @@
 package io.jxcore.node;
 
-import android.os.CountDownTimer;
+import android.content.Context;
 import android.util.Log;
 
 import com.test.thalitest.ThaliTestRunner;
@@ -19,10 +19,16 @@ import org.thaliproject.p2p.btconnectorlib.PeerProperties;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
@@ -124,6 +130,16 @@ public class StartStopOperationHandlerTest {
             public void notifyIncomingConnectionToPortNumberFailed(int portNumber) {
 
             }
+
+            @Override
+            public void notifyMultiConnectResolved(String syncValue, String errorMessage, int listeningPortNumber) {
+
+            }
+
+            @Override
+            public void notifyMultiConnectConnectionFailure(String peerId, String errorMessage) {
+
+            }
         });
         isBLESupported = mConnectionHelper.getDiscoveryManager().isBleMultipleAdvertisementSupported();
         mOperationTimeout = getOperationTimeout();
@@ -205,8 +221,8 @@ public class StartStopOperationHandlerTest {
         Field fOperationTimeoutTimer =
             mStartStopOperationHandler.getClass().getDeclaredField("mOperationTimeoutTimer");
         fOperationTimeoutTimer.setAccessible(true);
-        CountDownTimer mOperationTimeoutTimer =
-            (CountDownTimer) fOperationTimeoutTimer.get(mStartStopOperationHandler);
+        Scheduler.ScheduledTask mOperationTimeoutTimer =
+            (Scheduler.ScheduledTask) fOperationTimeoutTimer.get(mStartStopOperationHandler);
 
         assertThat("mCurrentOperation should be null", mCurrentOperation, is(nullValue()));
         assertThat("mOperationTimeoutTimer should be null", mOperationTimeoutTimer,
@@ -317,4 +333,118 @@ public class StartStopOperationHandlerTest {
             assertThat("mCurrentOperation should be null", currentOperation, is(nullValue()));
         }
     }
+
+    @Test
+    public void testEveryQueuedCallbackIsAnswered() throws Exception {
+        final int numberOfOperations = 4;
+        final CountDownLatch callbackLatch = new CountDownLatch(numberOfOperations);
+        long numberOfOperationsRequestedBefore = mStartStopOperationHandler.getNumberOfOperationsRequested();
+
+        for (int i = 0; i < numberOfOperations; i++) {
+            mStartStopOperationHandler.executeStartOperation(isBLESupported, new JXcoreThaliCallback() {
+                @Override
+                public void callOnStartStopCallback(String errorMessage) {
+                    callbackLatch.countDown();
+                }
+            });
+        }
+
+        assertThat("At most one operation is waiting, since the identical ones are coalesced",
+            mStartStopOperationHandler.getQueueLength() <= 1, is(true));
+        assertThat("All the operations are counted",
+            mStartStopOperationHandler.getNumberOfOperationsRequested() - numberOfOperationsRequestedBefore,
+            is(equalTo((long) numberOfOperations)));
+
+        // Cancelling answers the ones not finished yet
+        mStartStopOperationHandler.cancelCurrentOperation();
+
+        assertThat("Every callback is called", callbackLatch.await(mOperationTimeout, TimeUnit.MILLISECONDS),
+            is(true));
+        assertThat("Nothing is waiting after cancelling", mStartStopOperationHandler.getQueueLength(),
+            is(equalTo(0)));
+
+        mStartStopOperationHandler.executeStopOperation(false, mJXcoreThaliCallback);
+    }
+
+    @Test
+    public void testDiscoveryManagerIsStartedWithoutWaitingForConnectionManager() throws Exception {
+        final List<Runnable> connectionManagerSteps = new ArrayList<Runnable>();
+        Executor recordingExecutor = new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                connectionManagerSteps.add(runnable);
+            }
+        };
+
+        StartStopOperationHandler startStopOperationHandler = new StartStopOperationHandler(
+            mConnectionManager, mDiscoveryManager, HandlerScheduler.getDefault(), recordingExecutor);
+
+        startStopOperationHandler.executeStartOperation(false, mJXcoreThaliCallback);
+
+        assertThat("The connection manager step is handed to the executor",
+            connectionManagerSteps.size(), is(equalTo(1)));
+
+        if (isBLESupported) {
+            assertThat("The discovery manager is started before the connection manager step is run",
+                mDiscoveryManager.getState(),
+                is(not(equalTo(DiscoveryManager.DiscoveryManagerState.NOT_STARTED))));
+        }
+
+        for (Runnable connectionManagerStep : connectionManagerSteps) {
+            connectionManagerStep.run();
+        }
+
+        startStopOperationHandler.cancelCurrentOperation();
+        mConnectionManager.stopListeningForIncomingConnections();
+        mDiscoveryManager.stop();
+    }
+
+    @Test
+    public void testFailedConnectionManagerStartStopsAdvertising() throws Exception {
+        Field fContext = mConnectionHelper.getClass().getDeclaredField("mContext");
+        fContext.setAccessible(true);
+        ConnectionManager failingConnectionManager = new ConnectionManager(
+            (Context) fContext.get(mConnectionHelper), mConnectionHelper,
+            UUID.randomUUID(), "FailingConnectionManager") {
+            @Override
+            public boolean startListeningForIncomingConnections() {
+                return false;
+            }
+        };
+
+        final List<Runnable> connectionManagerSteps = new ArrayList<Runnable>();
+        Executor recordingExecutor = new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                connectionManagerSteps.add(runnable);
+            }
+        };
+
+        final List<String> errorMessages = new ArrayList<String>();
+        StartStopOperationHandler startStopOperationHandler = new StartStopOperationHandler(
+            failingConnectionManager, mDiscoveryManager, HandlerScheduler.getDefault(), recordingExecutor);
+        mDiscoveryManager.stop();
+
+        startStopOperationHandler.executeStartOperation(false, new JXcoreThaliCallback() {
+            @Override
+            public void callOnStartStopCallback(String errorMessage) {
+                errorMessages.add(errorMessage);
+            }
+        });
+
+        // The connection manager fails after the discovery manager was started
+        for (Runnable connectionManagerStep : connectionManagerSteps) {
+            connectionManagerStep.run();
+        }
+
+        assertThat("The operation is answered once", errorMessages.size(), is(equalTo(1)));
+        assertThat("The operation fails", errorMessages.get(0), is(notNullValue()));
+        assertThat("We do not advertise without listening for connections",
+            mDiscoveryManager.isAdvertising(), is(false));
+        assertThat("The discovery manager is stopped like before the operation",
+            mDiscoveryManager.getState(), is(equalTo(DiscoveryManager.DiscoveryManagerState.NOT_STARTED)));
+
+        startStopOperationHandler.cancelCurrentOperation();
+        failingConnectionManager.dispose();
+    }
 }
@@ -0,0 +1,119 @@
+package io.jxcore.node;
+
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class StartStopOperationQueueTest {
+
+    private final static String mTag = StartStopOperationQueueTest.class.getName();
+    private StartStopOperationQueue mStartStopOperationQueue;
+    private List<String> mResults;
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        protected void starting(Description description) {
+            Log.i(mTag, "Starting test: " + description.getMethodName());
+        }
+    };
+
+    /**
+     * Records the results synchronously instead of posting them to the UI thread.
+     */
+    private class RecordingCallback extends JXcoreThaliCallback {
+        @Override
+        public void callOnStartStopCallback(String errorMessage) {
+            mResults.add(errorMessage == null ? "OK" : errorMessage);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mStartStopOperationQueue = new StartStopOperationQueue();
+        mResults = new ArrayList<String>();
+    }
+
+    @Test
+    public void testIdenticalOperationsAreCoalesced() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            mStartStopOperationQueue.add(StartStopOperation.createStartOperation(false, new RecordingCallback()));
+        }
+
+        assertThat("The identical operations are merged", mStartStopOperationQueue.size(), is(equalTo(1)));
+        assertThat("The coalesced operations are counted",
+            mStartStopOperationQueue.getNumberOfOperationsCoalesced(), is(equalTo(2L)));
+        assertThat("All the operations are counted as added",
+            mStartStopOperationQueue.getNumberOfOperationsAdded(), is(equalTo(3L)));
+
+        StartStopOperation operation = mStartStopOperationQueue.poll();
+        operation.callOnStartStopCallbacks(null);
+
+        assertThat("Every callback is called with the result", mResults.size(), is(equalTo(3)));
+        assertThat("The queue is empty", mStartStopOperationQueue.poll(), is(nullValue()));
+    }
+
+    @Test
+    public void testStopFollowedByStartWithNoObservableEffectIsCoalesced() throws Exception {
+        mStartStopOperationQueue.add(StartStopOperation.createStartOperation(false, new RecordingCallback()));
+        mStartStopOperationQueue.add(StartStopOperation.createStopOperation(false, new RecordingCallback()));
+        mStartStopOperationQueue.add(StartStopOperation.createStartOperation(false, new RecordingCallback()));
+
+        assertThat("Start, stop and start are merged into one start", mStartStopOperationQueue.size(), is(equalTo(1)));
+        assertThat("The coalesced operations are counted",
+            mStartStopOperationQueue.getNumberOfOperationsCoalesced(), is(equalTo(2L)));
+
+        StartStopOperation operation = mStartStopOperationQueue.poll();
+        assertThat("The remaining operation is the start", operation.isStartOperation(), is(true));
+
+        operation.callOnStartStopCallbacks("Error");
+        assertThat("Every callback is called with the result", mResults.size(), is(equalTo(3)));
+        assertThat("The result is the one of the executed operation", mResults.get(2), is(equalTo("Error")));
+    }
+
+    @Test
+    public void testOperationsWithDifferentScopeAreNotCoalesced() throws Exception {
+        mStartStopOperationQueue.add(StartStopOperation.createStartOperation(false, new RecordingCallback()));
+        mStartStopOperationQueue.add(StartStopOperation.createStopOperation(true, new RecordingCallback()));
+        mStartStopOperationQueue.add(StartStopOperation.createStartOperation(false, new RecordingCallback()));
+        mStartStopOperationQueue.add(StartStopOperation.createStartOperation(true, new RecordingCallback()));
+
+        assertThat("No operation is merged", mStartStopOperationQueue.size(), is(equalTo(4)));
+        assertThat("The maximum length is tracked", mStartStopOperationQueue.getMaximumLength(), is(equalTo(4)));
+        assertThat("Nothing is coalesced", mStartStopOperationQueue.getNumberOfOperationsCoalesced(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void testStopFollowedByStartAloneIsNotCoalesced() throws Exception {
+        // The start preceding the stop is being executed i.e. not in the queue, so the stop does
+        // have an effect
+        mStartStopOperationQueue.add(StartStopOperation.createStopOperation(false, new RecordingCallback()));
+        mStartStopOperationQueue.add(StartStopOperation.createStartOperation(false, new RecordingCallback()));
+
+        assertThat("The stop and the start are both executed", mStartStopOperationQueue.size(), is(equalTo(2)));
+        assertThat("The stop is first", mStartStopOperationQueue.poll().isStartOperation(), is(false));
+    }
+
+    @Test
+    public void testClearReturnsThePendingOperations() throws Exception {
+        mStartStopOperationQueue.add(StartStopOperation.createStartOperation(false, new RecordingCallback()));
+        mStartStopOperationQueue.add(StartStopOperation.createStopOperation(false, new RecordingCallback()));
+
+        List<StartStopOperation> operations = mStartStopOperationQueue.clear();
+
+        assertThat("The pending operations are returned", operations.size(), is(equalTo(2)));
+        assertThat("The queue is empty", mStartStopOperationQueue.size(), is(equalTo(0)));
+    }
+}
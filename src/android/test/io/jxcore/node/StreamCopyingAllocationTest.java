@@ -0,0 +1,170 @@
+package io.jxcore.node;
+
+import android.os.Debug;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.thaliproject.p2p.btconnectorlib.PeerProperties;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Verifies that the steady state of the data path (StreamCopyingThread.run and the
+ * onStreamCopySucceeded -> onDataTransferred chain) does not allocate. Uses the per-thread
+ * allocation counters of the runtime (android.os.Debug), which are sampled on the copying thread
+ * itself after every chunk.
+ */
+public class StreamCopyingAllocationTest {
+
+    private static final int CHUNK_SIZE = 1024 * 4;
+    private static final int NUMBER_OF_WARM_UP_CHUNKS = 2000;
+    private static final int NUMBER_OF_MEASURED_CHUNKS = 10000;
+    private static final long MAXIMUM_ALLOCATED_BYTES_PER_CHUNK = 0;
+    private static final int NUMBER_OF_NOTIFICATIONS = 10000;
+    private static final long MAXIMUM_ALLOCATED_BYTES_PER_NOTIFICATION = 1;
+    private static final long COPY_TIMEOUT_IN_MILLISECONDS = 30000;
+
+    private final static String mTag = StreamCopyingAllocationTest.class.getName();
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        protected void starting(Description description) {
+            Log.i(mTag, "Starting test: " + description.getMethodName());
+        }
+    };
+
+    /**
+     * Produces the given number of chunks without allocating.
+     */
+    private static class ChunkInputStream extends InputStream {
+        private int mNumberOfChunksLeft;
+
+        ChunkInputStream(int numberOfChunks) {
+            mNumberOfChunksLeft = numberOfChunks;
+        }
+
+        @Override
+        public int read() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) {
+            if (mNumberOfChunksLeft == 0) {
+                return -1;
+            }
+
+            mNumberOfChunksLeft--;
+            return Math.min(count, CHUNK_SIZE);
+        }
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int oneByte) {
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) {
+        }
+    }
+
+    /**
+     * Samples the allocation counter of the calling (copying) thread on every chunk.
+     */
+    private static class AllocationSamplingListener extends ListenerMock {
+        final long[] allocatedBytes = new long[NUMBER_OF_WARM_UP_CHUNKS + NUMBER_OF_MEASURED_CHUNKS];
+        volatile int numberOfSamples = 0;
+
+        @Override
+        public void onDataTransferred(int numberOfBytes) {
+            int index = numberOfSamples;
+
+            if (index < allocatedBytes.length) {
+                allocatedBytes[index] = Debug.getThreadAllocSize();
+                numberOfSamples = index + 1;
+            }
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Debug.startAllocCounting();
+
+        // The counters are not supported by every runtime
+        long allocatedBytesBefore = Debug.getThreadAllocSize();
+        byte[] probe = new byte[1024];
+        Assume.assumeTrue("The runtime counts thread allocations",
+            Debug.getThreadAllocSize() - allocatedBytesBefore >= probe.length);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Debug.stopAllocCounting();
+    }
+
+    @Test
+    public void testCopyLoopDoesNotAllocate() throws Exception {
+        AllocationSamplingListener listener = new AllocationSamplingListener();
+        SocketThreadBaseMock socketThreadBase =
+            new SocketThreadBaseMock(null, listener, new InputStreamMock(), new OutputStreamMock());
+        StreamCopyingThread streamCopyingThread = new StreamCopyingThread(socketThreadBase,
+            new ChunkInputStream(NUMBER_OF_WARM_UP_CHUNKS + NUMBER_OF_MEASURED_CHUNKS),
+            new NullOutputStream(), "AllocationTest", new ConnectionData(new PeerProperties("00:00:00:00:00:03"), true), true);
+        streamCopyingThread.setBufferSize(CHUNK_SIZE);
+        streamCopyingThread.setNotifyStreamCopyingProgress(true);
+        streamCopyingThread.start();
+        streamCopyingThread.join(COPY_TIMEOUT_IN_MILLISECONDS);
+
+        assertThat("Every chunk is sampled", listener.numberOfSamples,
+            is(equalTo(NUMBER_OF_WARM_UP_CHUNKS + NUMBER_OF_MEASURED_CHUNKS)));
+
+        long allocatedBytes = listener.allocatedBytes[listener.numberOfSamples - 1]
+            - listener.allocatedBytes[NUMBER_OF_WARM_UP_CHUNKS - 1];
+        double allocatedBytesPerChunk = (double) allocatedBytes / NUMBER_OF_MEASURED_CHUNKS;
+        Log.i(mTag, String.format(Locale.US, "testCopyLoopDoesNotAllocate: %d bytes allocated in %d chunks (%.2f bytes/chunk)",
+            allocatedBytes, NUMBER_OF_MEASURED_CHUNKS, allocatedBytesPerChunk));
+
+        assertThat("The steady state copy loop does not allocate, allocated " + allocatedBytes + " bytes",
+            allocatedBytesPerChunk <= MAXIMUM_ALLOCATED_BYTES_PER_CHUNK, is(true));
+    }
+
+    @Test
+    public void testDataTransferredNotificationDoesNotAllocate() throws Exception {
+        ConnectionHelper connectionHelper = new ConnectionHelper(new SimulatedPeerSwarm.CountingSurroundingStateObserver());
+
+        try {
+            for (int i = 0; i < NUMBER_OF_NOTIFICATIONS; i++) {
+                connectionHelper.notifyDataTransferred(CHUNK_SIZE);
+            }
+
+            long allocatedBytesBefore = Debug.getThreadAllocSize();
+
+            for (int i = 0; i < NUMBER_OF_NOTIFICATIONS; i++) {
+                connectionHelper.notifyDataTransferred(CHUNK_SIZE);
+            }
+
+            long allocatedBytes = Debug.getThreadAllocSize() - allocatedBytesBefore;
+            Log.i(mTag, "testDataTransferredNotificationDoesNotAllocate: " + allocatedBytes
+                + " bytes allocated in " + NUMBER_OF_NOTIFICATIONS + " notifications");
+
+            assertThat("The notifications do not allocate, allocated " + allocatedBytes + " bytes",
+                allocatedBytes <= MAXIMUM_ALLOCATED_BYTES_PER_NOTIFICATION * NUMBER_OF_NOTIFICATIONS, is(true));
+        } finally {
+            connectionHelper.dispose();
+        }
+    }
+}
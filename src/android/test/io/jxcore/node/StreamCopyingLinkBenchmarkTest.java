@@ -0,0 +1,150 @@
+package io.jxcore.node;
+
+import android.util.Log;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.thaliproject.p2p.btconnectorlib.PeerProperties;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Benchmarks StreamCopyingThread writing to an emulated Bluetooth link (see LinkEmulator) with
+ * different buffer sizes. The throughput and the time to the first byte are written to the log.
+ */
+public class StreamCopyingLinkBenchmarkTest {
+
+    private static final int[] BUFFER_SIZES = { 1024, 1024 * 4, 1024 * 8 };
+    private static final int NUMBER_OF_BYTES = 1024 * 256;
+    private static final int WRITE_SIZE = 1024 * 2;
+    private static final long TRANSFER_TIMEOUT_IN_MILLISECONDS = 30000;
+    private static final long RANDOM_SEED = 20160901L;
+
+    private final static String mTag = StreamCopyingLinkBenchmarkTest.class.getName();
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        protected void starting(Description description) {
+            Log.i(mTag, "Starting test: " + description.getMethodName());
+        }
+    };
+
+    /**
+     * Counts the bytes delivered by the emulated link.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        final AtomicLong numberOfBytes = new AtomicLong();
+        final CountDownLatch firstByteLatch = new CountDownLatch(1);
+        final CountDownLatch doneLatch = new CountDownLatch(1);
+        volatile long firstByteTime = 0;
+        private final long mExpectedNumberOfBytes;
+
+        CountingOutputStream(long expectedNumberOfBytes) {
+            mExpectedNumberOfBytes = expectedNumberOfBytes;
+        }
+
+        @Override
+        public void write(int oneByte) throws IOException {
+            count(1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            count(count);
+        }
+
+        private void count(int count) {
+            if (firstByteLatch.getCount() > 0) {
+                firstByteTime = System.nanoTime();
+                firstByteLatch.countDown();
+            }
+
+            if (numberOfBytes.addAndGet(count) >= mExpectedNumberOfBytes) {
+                doneLatch.countDown();
+            }
+        }
+    }
+
+    private static class ListenerStub implements StreamCopyingThread.Listener {
+        volatile String errorMessage = null;
+
+        @Override
+        public void onStreamCopyingThreadDone(StreamCopyingThread who) {
+        }
+
+        @Override
+        public void onStreamCopyError(StreamCopyingThread who, String errorMessage) {
+            this.errorMessage = errorMessage;
+        }
+
+        @Override
+        public void onStreamCopySucceeded(StreamCopyingThread who, int numberOfBytes) {
+        }
+    }
+
+    @Test
+    public void benchmarkUnshapedLink() throws Exception {
+        benchmark(LinkEmulator.Profile.unshaped());
+    }
+
+    @Test
+    public void benchmarkBluetoothRfcommLink() throws Exception {
+        benchmark(LinkEmulator.Profile.bluetoothRfcomm());
+    }
+
+    private void benchmark(LinkEmulator.Profile profile) throws Exception {
+        for (int bufferSize : BUFFER_SIZES) {
+            LinkEmulator linkEmulator = new LinkEmulator(profile, RANDOM_SEED);
+            CountingOutputStream sink = new CountingOutputStream(NUMBER_OF_BYTES);
+            PipedInputStream localInputStream = new PipedInputStream(NUMBER_OF_BYTES);
+            PipedOutputStream localOutputStream = new PipedOutputStream(localInputStream);
+            ListenerStub listener = new ListenerStub();
+
+            StreamCopyingThread streamCopyingThread = new StreamCopyingThread(listener, localInputStream,
+                linkEmulator.shape(sink, "Link/" + bufferSize), "Sender/" + bufferSize,
+                new ConnectionData(new PeerProperties("00:00:00:00:00:01"), false), false);
+            streamCopyingThread.setBufferSize(bufferSize);
+            streamCopyingThread.start();
+
+            long startTime = System.nanoTime();
+            byte[] data = new byte[WRITE_SIZE];
+
+            for (int offset = 0; offset < NUMBER_OF_BYTES; offset += WRITE_SIZE) {
+                localOutputStream.write(data, 0, Math.min(WRITE_SIZE, NUMBER_OF_BYTES - offset));
+            }
+
+            boolean isDone = sink.doneLatch.await(TRANSFER_TIMEOUT_IN_MILLISECONDS, TimeUnit.MILLISECONDS);
+            long elapsedTime = System.nanoTime() - startTime;
+
+            localOutputStream.close();
+            streamCopyingThread.join(TRANSFER_TIMEOUT_IN_MILLISECONDS);
+            streamCopyingThread.close();
+
+            assertThat("No copy errors", listener.errorMessage, is(equalTo((String) null)));
+            assertThat("All the bytes are delivered with " + profile, isDone, is(true));
+            assertThat("The link emulator does not exceed the bandwidth of " + profile,
+                elapsedTime / 1000000L >= linkEmulator.getMinimumTransferTimeInMilliseconds(NUMBER_OF_BYTES),
+                is(true));
+
+            Log.i(mTag, String.format(Locale.US,
+                "benchmark: %s, buffer size %d: %d bytes in %.1f ms (%.1f KB/s), first byte after %.1f ms",
+                profile, bufferSize, sink.numberOfBytes.get(), elapsedTime / 1000000d,
+                sink.numberOfBytes.get() * 1000000000d / elapsedTime / 1024d,
+                (sink.firstByteTime - startTime) / 1000000d));
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package io.jxcore.node;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A connection closer closing the connections on the calling thread before returning, for the
+ * tests asserting that the connections are closed right after the call.
+ */
+public class SynchronousConnectionCloser extends ConnectionCloser {
+    static final Executor CALLING_THREAD_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    public SynchronousConnectionCloser() {
+        super(CALLING_THREAD_EXECUTOR, new VirtualTimeScheduler(), DEFAULT_DEADLINE_IN_MILLISECONDS);
+    }
+}
@@ -0,0 +1,183 @@
+package io.jxcore.node;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.thaliproject.p2p.btconnectorlib.PeerProperties;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TrafficReplayTest {
+
+    private static final int NUMBER_OF_EXCHANGES = 50;
+    private static final int REQUEST_SIZE = 300;
+    private static final int RESPONSE_SIZE = 1024 * 2;
+    private static final int NUMBER_OF_ATTACHMENTS = 3;
+    private static final int ATTACHMENT_SIZE = 1024 * 128;
+    private static final int ATTACHMENT_CHUNK_SIZE = 1024 * 8;
+    private static final long EXCHANGE_INTERVAL_IN_MICROSECONDS = 5000;
+    private static final long REPLAY_TIMEOUT_IN_MILLISECONDS = 10000;
+
+    private final static String mTag = TrafficReplayTest.class.getName();
+    private File mCaptureDirectory;
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        protected void starting(Description description) {
+            Log.i(mTag, "Starting test: " + description.getMethodName());
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        mCaptureDirectory = new File(System.getProperty("java.io.tmpdir"),
+            "traffic-capture-" + System.currentTimeMillis());
+        assertThat("The capture directory is created", mCaptureDirectory.mkdirs(), is(true));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TrafficRecorder.setCaptureDirectory(null);
+        File[] files = mCaptureDirectory.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        mCaptureDirectory.delete();
+    }
+
+    @Test
+    public void testCaptureFormatRoundTrip() throws Exception {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        TrafficRecorder trafficRecorder = new TrafficRecorder(byteArrayOutputStream, true, "test");
+        List<TrafficRecorder.Record> pattern = createReplicationPattern();
+
+        for (TrafficRecorder.Record record : pattern) {
+            trafficRecorder.record(record.isFromBluetoothToLocal, record.numberOfBytes);
+        }
+
+        trafficRecorder.close();
+        trafficRecorder.record(true, 1); // Ignored after close
+
+        List<TrafficRecorder.Record> records =
+            TrafficRecorder.read(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+
+        assertThat("All the records are read back", records.size(), is(equalTo(pattern.size())));
+
+        for (int i = 0; i < records.size(); i++) {
+            assertThat("The direction matches", records.get(i).isFromBluetoothToLocal,
+                is(equalTo(pattern.get(i).isFromBluetoothToLocal)));
+            assertThat("The size matches", records.get(i).numberOfBytes,
+                is(equalTo(pattern.get(i).numberOfBytes)));
+        }
+
+        Log.i(mTag, "testCaptureFormatRoundTrip: " + records.size() + " records in "
+            + byteArrayOutputStream.size() + " bytes");
+    }
+
+    @Test
+    public void testTruncatedCaptureIsRead() throws Exception {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        TrafficRecorder trafficRecorder = new TrafficRecorder(byteArrayOutputStream, false, "test");
+        trafficRecorder.record(false, REQUEST_SIZE);
+        trafficRecorder.record(true, ATTACHMENT_SIZE);
+        trafficRecorder.close();
+
+        byte[] capture = byteArrayOutputStream.toByteArray();
+        byte[] truncatedCapture = new byte[capture.length - 1];
+        System.arraycopy(capture, 0, truncatedCapture, 0, truncatedCapture.length);
+
+        assertThat("The partial record is skipped",
+            TrafficRecorder.read(new ByteArrayInputStream(truncatedCapture)).size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testReplayThroughRelayIsCaptured() throws Exception {
+        TrafficRecorder.setCaptureDirectory(mCaptureDirectory);
+
+        ServerSocket nodeServerSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        Socket[] link = SimulatedPeerSwarm.createLinkSocketPair();
+        Socket nodeSocket = null;
+        IncomingSocketThread incomingSocketThread = new IncomingSocketThread(null,
+            new ConnectionData(new PeerProperties("00:00:00:00:00:02"), true), new ListenerMock(),
+            link[0].getInputStream(), link[0].getOutputStream());
+        TrafficReplayer.Result result;
+
+        try {
+            incomingSocketThread.setTcpPortNumber(nodeServerSocket.getLocalPort());
+            incomingSocketThread.start();
+            nodeSocket = nodeServerSocket.accept();
+
+            result = new TrafficReplayer(createReplicationPattern(), 1d)
+                .replay(link[1], nodeSocket, REPLAY_TIMEOUT_IN_MILLISECONDS);
+        } finally {
+            incomingSocketThread.close();
+            SimulatedPeerSwarm.closeSocket(nodeSocket);
+            SimulatedPeerSwarm.closeSocket(link[1]);
+            nodeServerSocket.close();
+        }
+
+        assertThat("All the replayed data is relayed: " + result, result.isComplete(), is(true));
+
+        File[] captureFiles = mCaptureDirectory.listFiles();
+        assertThat("The relay wrote a capture file", captureFiles != null && captureFiles.length == 1, is(true));
+
+        long numberOfBytesFromBluetoothToLocal = 0;
+        long numberOfBytesFromLocalToBluetooth = 0;
+
+        for (TrafficRecorder.Record record : TrafficRecorder.read(captureFiles[0])) {
+            if (record.isFromBluetoothToLocal) {
+                numberOfBytesFromBluetoothToLocal += record.numberOfBytes;
+            } else {
+                numberOfBytesFromLocalToBluetooth += record.numberOfBytes;
+            }
+        }
+
+        assertThat("The capture accounts for the data from the peer", numberOfBytesFromBluetoothToLocal,
+            is(equalTo(result.numberOfBytesFromBluetoothToLocal)));
+        assertThat("The capture accounts for the data from the Node layer", numberOfBytesFromLocalToBluetooth,
+            is(equalTo(result.numberOfBytesFromLocalToBluetooth)));
+    }
+
+    /**
+     * Creates a pattern resembling replication: small requests from the Node layer answered by
+     * the peer, interleaved with large attachment bursts.
+     */
+    private static List<TrafficRecorder.Record> createReplicationPattern() {
+        List<TrafficRecorder.Record> records = new ArrayList<TrafficRecorder.Record>();
+        int exchangesBetweenAttachments = NUMBER_OF_EXCHANGES / NUMBER_OF_ATTACHMENTS;
+
+        for (int i = 0; i < NUMBER_OF_EXCHANGES; i++) {
+            records.add(new TrafficRecorder.Record(false, EXCHANGE_INTERVAL_IN_MICROSECONDS, REQUEST_SIZE));
+            records.add(new TrafficRecorder.Record(true, EXCHANGE_INTERVAL_IN_MICROSECONDS / 5, RESPONSE_SIZE));
+
+            if (i % exchangesBetweenAttachments == exchangesBetweenAttachments - 1) {
+                for (int offset = 0; offset < ATTACHMENT_SIZE; offset += ATTACHMENT_CHUNK_SIZE) {
+                    records.add(new TrafficRecorder.Record(true, 0, ATTACHMENT_CHUNK_SIZE));
+                }
+            }
+        }
+
+        return records;
+    }
+}
@@ -0,0 +1,167 @@
+package io.jxcore.node;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays a traffic pattern recorded by TrafficRecorder against the relay: the chunks read from
+ * the Bluetooth socket are written by the (emulated) peer and the chunks read from the local
+ * socket are written by the (emulated) Node layer, with the recorded sizes and inter-arrival
+ * times. The payload is filler since the capture does not contain it.
+ */
+public class TrafficReplayer {
+
+    private static final String TAG = TrafficReplayer.class.getName();
+    private static final int DRAIN_BUFFER_SIZE = 1024 * 8;
+    private static final long POLLING_INTERVAL_IN_MILLISECONDS = 10;
+
+    public static class Result {
+        public final long capturedDurationInMicroseconds;
+        public final long elapsedTimeInMicroseconds;
+        public final long numberOfBytesFromBluetoothToLocal;
+        public final long numberOfBytesFromLocalToBluetooth;
+        public final long numberOfBytesReceivedLocally;
+        public final long numberOfBytesReceivedByPeer;
+
+        Result(long capturedDurationInMicroseconds, long elapsedTimeInMicroseconds,
+               long numberOfBytesFromBluetoothToLocal, long numberOfBytesFromLocalToBluetooth,
+               long numberOfBytesReceivedLocally, long numberOfBytesReceivedByPeer) {
+            this.capturedDurationInMicroseconds = capturedDurationInMicroseconds;
+            this.elapsedTimeInMicroseconds = elapsedTimeInMicroseconds;
+            this.numberOfBytesFromBluetoothToLocal = numberOfBytesFromBluetoothToLocal;
+            this.numberOfBytesFromLocalToBluetooth = numberOfBytesFromLocalToBluetooth;
+            this.numberOfBytesReceivedLocally = numberOfBytesReceivedLocally;
+            this.numberOfBytesReceivedByPeer = numberOfBytesReceivedByPeer;
+        }
+
+        public boolean isComplete() {
+            return numberOfBytesReceivedLocally == numberOfBytesFromBluetoothToLocal
+                && numberOfBytesReceivedByPeer == numberOfBytesFromLocalToBluetooth;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                "captured %.1f ms, replayed in %.1f ms, Bluetooth -> local %d/%d bytes, local -> Bluetooth %d/%d bytes",
+                capturedDurationInMicroseconds / 1000d, elapsedTimeInMicroseconds / 1000d,
+                numberOfBytesReceivedLocally, numberOfBytesFromBluetoothToLocal,
+                numberOfBytesReceivedByPeer, numberOfBytesFromLocalToBluetooth);
+        }
+    }
+
+    private final List<TrafficRecorder.Record> mRecords;
+    private final double mSpeedFactor;
+
+    /**
+     * Constructor.
+     *
+     * @param records     The records to replay.
+     * @param speedFactor The replay speed: 1 replays with the recorded timing, 2 twice as fast and
+     *                    so on. If 0 or less, the chunks are written back-to-back.
+     */
+    public TrafficReplayer(List<TrafficRecorder.Record> records, double speedFactor) {
+        mRecords = new ArrayList<TrafficRecorder.Record>(records);
+        mSpeedFactor = speedFactor;
+    }
+
+    /**
+     * Replays the traffic and waits for it to be delivered.
+     *
+     * @param peerSocket            The remote end of the (emulated) Bluetooth link.
+     * @param nodeSocket            The Node end of the local connection.
+     * @param timeoutInMilliseconds The maximum time to wait for the delivery after the replay.
+     * @return The result.
+     * @throws Exception If writing fails or the thread is interrupted.
+     */
+    public Result replay(Socket peerSocket, Socket nodeSocket, long timeoutInMilliseconds) throws Exception {
+        AtomicLong numberOfBytesReceivedLocally = new AtomicLong();
+        AtomicLong numberOfBytesReceivedByPeer = new AtomicLong();
+        Thread localDrainThread = startDrainThread(nodeSocket.getInputStream(),
+            numberOfBytesReceivedLocally, "Replay/LocalDrain");
+        Thread peerDrainThread = startDrainThread(peerSocket.getInputStream(),
+            numberOfBytesReceivedByPeer, "Replay/PeerDrain");
+
+        OutputStream peerOutputStream = peerSocket.getOutputStream();
+        OutputStream nodeOutputStream = nodeSocket.getOutputStream();
+        long numberOfBytesFromBluetoothToLocal = 0;
+        long numberOfBytesFromLocalToBluetooth = 0;
+        long capturedDuration = 0;
+        byte[] filler = new byte[0];
+        long startTime = System.nanoTime();
+
+        for (TrafficRecorder.Record record : mRecords) {
+            capturedDuration += record.interArrivalTimeInMicroseconds;
+
+            if (mSpeedFactor > 0) {
+                long scheduledTime = startTime + (long) (capturedDuration * 1000 / mSpeedFactor);
+                long waitTime = scheduledTime - System.nanoTime();
+
+                if (waitTime > 0) {
+                    Thread.sleep(waitTime / 1000000L, (int) (waitTime % 1000000L));
+                }
+            }
+
+            if (filler.length < record.numberOfBytes) {
+                filler = new byte[record.numberOfBytes];
+            }
+
+            if (record.isFromBluetoothToLocal) {
+                peerOutputStream.write(filler, 0, record.numberOfBytes);
+                peerOutputStream.flush();
+                numberOfBytesFromBluetoothToLocal += record.numberOfBytes;
+            } else {
+                nodeOutputStream.write(filler, 0, record.numberOfBytes);
+                nodeOutputStream.flush();
+                numberOfBytesFromLocalToBluetooth += record.numberOfBytes;
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + timeoutInMilliseconds;
+
+        while ((numberOfBytesReceivedLocally.get() < numberOfBytesFromBluetoothToLocal
+            || numberOfBytesReceivedByPeer.get() < numberOfBytesFromLocalToBluetooth)
+            && System.currentTimeMillis() < deadline) {
+            Thread.sleep(POLLING_INTERVAL_IN_MILLISECONDS);
+        }
+
+        long elapsedTime = (System.nanoTime() - startTime) / 1000;
+        localDrainThread.interrupt();
+        peerDrainThread.interrupt();
+
+        Result result = new Result(capturedDuration, elapsedTime,
+            numberOfBytesFromBluetoothToLocal, numberOfBytesFromLocalToBluetooth,
+            numberOfBytesReceivedLocally.get(), numberOfBytesReceivedByPeer.get());
+        Log.i(TAG, "replay: " + result);
+        return result;
+    }
+
+    private static Thread startDrainThread(final InputStream inputStream, final AtomicLong counter, String name) {
+        Thread drainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+                int numberOfBytesRead;
+
+                try {
+                    while ((numberOfBytesRead = inputStream.read(buffer)) != -1) {
+                        counter.addAndGet(numberOfBytesRead);
+                    }
+                } catch (IOException e) {
+                    // The socket was closed
+                }
+            }
+        }, name);
+
+        drainThread.setDaemon(true);
+        drainThread.start();
+        return drainThread;
+    }
+}
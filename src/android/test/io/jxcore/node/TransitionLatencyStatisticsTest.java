@@ -0,0 +1,132 @@
+package io.jxcore.node;
+
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TransitionLatencyStatisticsTest {
+
+    private static final long DEFAULT_TIMEOUT_IN_MILLISECONDS = 3000;
+
+    private final static String mTag = TransitionLatencyStatisticsTest.class.getName();
+    private TransitionLatencyStatistics mTransitionLatencyStatistics;
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        protected void starting(Description description) {
+            Log.i(mTag, "Starting test: " + description.getMethodName());
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        mTransitionLatencyStatistics = new TransitionLatencyStatistics(DEFAULT_TIMEOUT_IN_MILLISECONDS);
+    }
+
+    @Test
+    public void testDefaultTimeoutUntilEnoughSamples() throws Exception {
+        for (int i = 0; i < TransitionLatencyStatistics.MINIMUM_NUMBER_OF_SAMPLES - 1; i++) {
+            mTransitionLatencyStatistics.record(TransitionLatencyStatistics.Transition.START_ADVERTISING, 100, false);
+        }
+
+        assertThat("The default timeout is used with too few samples",
+            mTransitionLatencyStatistics.getTimeout(TransitionLatencyStatistics.Transition.START_ADVERTISING),
+            is(equalTo(DEFAULT_TIMEOUT_IN_MILLISECONDS)));
+    }
+
+    @Test
+    public void testTimeoutIsDerivedFromThePercentiles() throws Exception {
+        for (int i = 1; i <= 20; i++) {
+            mTransitionLatencyStatistics.record(TransitionLatencyStatistics.Transition.STOP_ALL, i * 100, false);
+        }
+
+        TransitionLatencyStatistics.Snapshot snapshot =
+            mTransitionLatencyStatistics.getSnapshot(TransitionLatencyStatistics.Transition.STOP_ALL);
+        Log.i(mTag, "testTimeoutIsDerivedFromThePercentiles: " + snapshot);
+
+        assertThat("The number of samples", snapshot.numberOfSamples, is(equalTo(20)));
+        assertThat("The median", snapshot.medianInMilliseconds, is(equalTo(1000L)));
+        assertThat("The 90th percentile", snapshot.percentile90InMilliseconds, is(equalTo(1800L)));
+        assertThat("The 95th percentile", snapshot.percentile95InMilliseconds, is(equalTo(1900L)));
+        assertThat("The maximum", snapshot.maximumInMilliseconds, is(equalTo(2000L)));
+        assertThat("The timeout is a multiple of the 95th percentile", snapshot.timeoutInMilliseconds,
+            is(equalTo(1900L * TransitionLatencyStatistics.TIMEOUT_MULTIPLIER)));
+        assertThat("The other transitions are not affected",
+            mTransitionLatencyStatistics.getTimeout(TransitionLatencyStatistics.Transition.START_ADVERTISING),
+            is(equalTo(DEFAULT_TIMEOUT_IN_MILLISECONDS)));
+    }
+
+    @Test
+    public void testTimeoutIsBounded() throws Exception {
+        for (int i = 0; i < TransitionLatencyStatistics.MINIMUM_NUMBER_OF_SAMPLES; i++) {
+            mTransitionLatencyStatistics.record(TransitionLatencyStatistics.Transition.STOP_LISTENING_ONLY, 10, false);
+            mTransitionLatencyStatistics.record(TransitionLatencyStatistics.Transition.START_LISTENING_ONLY, 60000, true);
+        }
+
+        assertThat("The timeout is not below the minimum",
+            mTransitionLatencyStatistics.getTimeout(TransitionLatencyStatistics.Transition.STOP_LISTENING_ONLY),
+            is(equalTo(TransitionLatencyStatistics.MINIMUM_TIMEOUT_IN_MILLISECONDS)));
+        assertThat("The timeout is not above the maximum",
+            mTransitionLatencyStatistics.getTimeout(TransitionLatencyStatistics.Transition.START_LISTENING_ONLY),
+            is(equalTo(TransitionLatencyStatistics.MAXIMUM_TIMEOUT_IN_MILLISECONDS)));
+        assertThat("The timeouts are counted",
+            mTransitionLatencyStatistics.getSnapshot(TransitionLatencyStatistics.Transition.START_LISTENING_ONLY)
+                .numberOfTimeouts, is(equalTo((long) TransitionLatencyStatistics.MINIMUM_NUMBER_OF_SAMPLES)));
+    }
+
+    @Test
+    public void testTimeoutsGrowTheTimeout() throws Exception {
+        long timeout = DEFAULT_TIMEOUT_IN_MILLISECONDS;
+
+        // A device slower than the timeout: every operation times out
+        for (int i = 0; i < TransitionLatencyStatistics.WINDOW_SIZE; i++) {
+            mTransitionLatencyStatistics.record(TransitionLatencyStatistics.Transition.START_ADVERTISING, timeout, true);
+            timeout = mTransitionLatencyStatistics.getTimeout(TransitionLatencyStatistics.Transition.START_ADVERTISING);
+        }
+
+        assertThat("The timeout grows to the maximum", timeout,
+            is(equalTo(TransitionLatencyStatistics.MAXIMUM_TIMEOUT_IN_MILLISECONDS)));
+    }
+
+    @Test
+    public void testOldSamplesRollOut() throws Exception {
+        for (int i = 0; i < TransitionLatencyStatistics.WINDOW_SIZE; i++) {
+            mTransitionLatencyStatistics.record(TransitionLatencyStatistics.Transition.STOP_ALL, 5000, false);
+        }
+
+        for (int i = 0; i < TransitionLatencyStatistics.WINDOW_SIZE; i++) {
+            mTransitionLatencyStatistics.record(TransitionLatencyStatistics.Transition.STOP_ALL, 700, false);
+        }
+
+        TransitionLatencyStatistics.Snapshot snapshot =
+            mTransitionLatencyStatistics.getSnapshot(TransitionLatencyStatistics.Transition.STOP_ALL);
+
+        assertThat("Only the latest samples are kept", snapshot.numberOfSamples,
+            is(equalTo(TransitionLatencyStatistics.WINDOW_SIZE)));
+        assertThat("The old samples do not affect the percentiles", snapshot.maximumInMilliseconds,
+            is(equalTo(700L)));
+    }
+
+    @Test
+    public void testTransitionOfOperation() throws Exception {
+        JXcoreThaliCallback callback = new JXcoreThaliCallbackMock();
+
+        assertThat(TransitionLatencyStatistics.Transition.of(StartStopOperation.createStartOperation(false, callback)),
+            is(equalTo(TransitionLatencyStatistics.Transition.START_ADVERTISING)));
+        assertThat(TransitionLatencyStatistics.Transition.of(StartStopOperation.createStartOperation(true, callback)),
+            is(equalTo(TransitionLatencyStatistics.Transition.START_LISTENING_ONLY)));
+        assertThat(TransitionLatencyStatistics.Transition.of(StartStopOperation.createStopOperation(true, callback)),
+            is(equalTo(TransitionLatencyStatistics.Transition.STOP_LISTENING_ONLY)));
+        assertThat(TransitionLatencyStatistics.Transition.of(StartStopOperation.createStopOperation(false, callback)),
+            is(equalTo(TransitionLatencyStatistics.Transition.STOP_ALL)));
+    }
+}
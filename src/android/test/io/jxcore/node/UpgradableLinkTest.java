@@ -0,0 +1,411 @@
+package io.jxcore.node;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.thaliproject.p2p.btconnectorlib.PeerProperties;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class UpgradableLinkTest {
+
+    private static final int TRANSFER_SIZE_IN_BYTES = 1024 * 1024;
+    private static final int CHUNK_SIZE_IN_BYTES = 1024;
+    private static final int UPGRADE_TIMEOUT_IN_MILLISECONDS = 2000;
+    private static final long WAIT_TIMEOUT_IN_MILLISECONDS = 10000;
+    private static final int SOCKET_TIMEOUT_IN_MILLISECONDS = 10000;
+    private static final long PAUSE_BETWEEN_CHUNKS_IN_MILLISECONDS = 1;
+
+    private final static String mTag = UpgradableLinkTest.class.getName();
+    private Socket[] mLinkSocketPair;
+    private ExecutorService mExecutor;
+    private UpgradeEndpointProvider mLoopbackEndpointProvider;
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        protected void starting(Description description) {
+            Log.i(mTag, "Starting test: " + description.getMethodName());
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        // The Bluetooth link is simulated with a socket pair and the faster transport with loopback TCP
+        mLinkSocketPair = SimulatedPeerSwarm.createLinkSocketPair();
+        mExecutor = Executors.newCachedThreadPool();
+        mLoopbackEndpointProvider = new TcpUpgradeEndpointProvider(InetAddress.getByName("127.0.0.1"));
+        UpgradableLink.setTimeouts(UPGRADE_TIMEOUT_IN_MILLISECONDS, UpgradableLink.DEFAULT_RETRY_INTERVAL_IN_MILLISECONDS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        UpgradableLink.setDefaultEndpointProvider(null);
+        UpgradableLink.setDemandThreshold(UpgradableLink.DEFAULT_DEMAND_THRESHOLD_IN_BYTES_PER_SECOND,
+            UpgradableLink.DEFAULT_DEMAND_WINDOW_IN_MILLISECONDS, UpgradableLink.DEFAULT_NUMBER_OF_WINDOWS_BEFORE_UPGRADE);
+        UpgradableLink.setTimeouts(UpgradableLink.DEFAULT_UPGRADE_TIMEOUT_IN_MILLISECONDS,
+            UpgradableLink.DEFAULT_RETRY_INTERVAL_IN_MILLISECONDS);
+        mExecutor.shutdownNow();
+        SimulatedPeerSwarm.closeSocket(mLinkSocketPair[0]);
+        SimulatedPeerSwarm.closeSocket(mLinkSocketPair[1]);
+    }
+
+    @Test
+    public void testMigrationKeepsDataIntact() throws Exception {
+        UpgradableLink initiatorLink = createLink(0, true, mLoopbackEndpointProvider);
+        UpgradableLink responderLink = createLink(1, false, mLoopbackEndpointProvider);
+        long numberOfUpgrades = UpgradableLink.getNumberOfUpgrades();
+
+        try {
+            // Upgrade in the middle of the transfer in both the directions
+            Transfer toResponder = new Transfer(initiatorLink, responderLink, initiatorLink);
+            Transfer toInitiator = new Transfer(responderLink, initiatorLink, null);
+            toResponder.start();
+            toInitiator.start();
+            waitForUpgrades(numberOfUpgrades + 2);
+            toResponder.end(WAIT_TIMEOUT_IN_MILLISECONDS);
+            toInitiator.end(WAIT_TIMEOUT_IN_MILLISECONDS);
+
+            assertThat("The initiator is upgraded", initiatorLink.isUpgraded(), is(true));
+            assertThat("The responder is upgraded", responderLink.isUpgraded(), is(true));
+            assertThat("Both the peers counted the upgrade", UpgradableLink.getNumberOfUpgrades(),
+                is(equalTo(numberOfUpgrades + 2)));
+            assertThat("The data to the responder is intact", toResponder.getResult(), is(equalTo(Transfer.OK)));
+            assertThat("The data to the initiator is intact", toInitiator.getResult(), is(equalTo(Transfer.OK)));
+        } finally {
+            initiatorLink.close();
+            responderLink.close();
+        }
+    }
+
+    @Test
+    public void testFallbackWhenConnectFails() throws Exception {
+        UpgradeEndpointProvider unreachableEndpointProvider = new UpgradeEndpointProvider() {
+            @Override
+            public Endpoint open() throws IOException {
+                return mLoopbackEndpointProvider.open();
+            }
+
+            @Override
+            public RelayTransport connect(String address, int timeoutInMilliseconds) throws IOException {
+                throw new IOException("Not on the same network");
+            }
+        };
+
+        UpgradableLink initiatorLink = createLink(0, true, mLoopbackEndpointProvider);
+        UpgradableLink responderLink = createLink(1, false, unreachableEndpointProvider);
+        long numberOfFallbacks = UpgradableLink.getNumberOfFallbacks();
+
+        try {
+            Transfer toResponder = new Transfer(initiatorLink, responderLink, initiatorLink);
+            Transfer toInitiator = new Transfer(responderLink, initiatorLink, null);
+            toResponder.start();
+            toInitiator.start();
+            long deadline = System.currentTimeMillis() + WAIT_TIMEOUT_IN_MILLISECONDS;
+
+            while (UpgradableLink.getNumberOfFallbacks() < numberOfFallbacks + 2
+                && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            toResponder.end(WAIT_TIMEOUT_IN_MILLISECONDS);
+            toInitiator.end(WAIT_TIMEOUT_IN_MILLISECONDS);
+
+            assertThat("The initiator stays on the link", initiatorLink.isUpgraded(), is(false));
+            assertThat("The responder stays on the link", responderLink.isUpgraded(), is(false));
+            assertThat("Both the peers counted the fallback", UpgradableLink.getNumberOfFallbacks(),
+                is(equalTo(numberOfFallbacks + 2)));
+            assertThat("The data to the responder is intact", toResponder.getResult(), is(equalTo(Transfer.OK)));
+            assertThat("The data to the initiator is intact", toInitiator.getResult(), is(equalTo(Transfer.OK)));
+        } finally {
+            initiatorLink.close();
+            responderLink.close();
+        }
+    }
+
+    @Test
+    public void testSimultaneousOffersUpgradeOnce() throws Exception {
+        final UpgradableLink initiatorLink = createLink(0, true, mLoopbackEndpointProvider);
+        final UpgradableLink responderLink = createLink(1, false, mLoopbackEndpointProvider);
+        long numberOfUpgrades = UpgradableLink.getNumberOfUpgrades();
+        long numberOfFallbacks = UpgradableLink.getNumberOfFallbacks();
+
+        try {
+            Transfer toResponder = new Transfer(initiatorLink, responderLink, null);
+            Transfer toInitiator = new Transfer(responderLink, initiatorLink, null);
+            toResponder.start();
+            toInitiator.start();
+
+            Thread responderOfferThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    responderLink.requestUpgrade();
+                }
+            });
+
+            responderOfferThread.start();
+            initiatorLink.requestUpgrade();
+            responderOfferThread.join(WAIT_TIMEOUT_IN_MILLISECONDS);
+            waitForUpgrades(numberOfUpgrades + 2);
+            toResponder.end(WAIT_TIMEOUT_IN_MILLISECONDS);
+            toInitiator.end(WAIT_TIMEOUT_IN_MILLISECONDS);
+
+            assertThat("The data to the responder is intact", toResponder.getResult(), is(equalTo(Transfer.OK)));
+            assertThat("The data to the initiator is intact", toInitiator.getResult(), is(equalTo(Transfer.OK)));
+            assertThat("The initiator is upgraded", initiatorLink.isUpgraded(), is(true));
+            assertThat("The responder is upgraded", responderLink.isUpgraded(), is(true));
+            assertThat("A single upgrade is made", UpgradableLink.getNumberOfUpgrades(),
+                is(equalTo(numberOfUpgrades + 2)));
+            assertThat("The withdrawn offer is not a fallback", UpgradableLink.getNumberOfFallbacks(),
+                is(equalTo(numberOfFallbacks)));
+        } finally {
+            initiatorLink.close();
+            responderLink.close();
+        }
+    }
+
+    @Test
+    public void testSilentPeerDoesNotBlockTheAccept() throws Exception {
+        UpgradeEndpointProvider.Endpoint endpoint = mLoopbackEndpointProvider.open();
+        String address = endpoint.getAddress();
+        Socket silentSocket = new Socket(InetAddress.getByName("127.0.0.1"),
+            Integer.parseInt(address.substring(address.lastIndexOf(':') + 1)));
+        long startTime = System.currentTimeMillis();
+        boolean wasAccepted = true;
+
+        try {
+            endpoint.accept(UPGRADE_TIMEOUT_IN_MILLISECONDS, 1L).close();
+        } catch (IOException e) {
+            wasAccepted = false;
+        } finally {
+            endpoint.close();
+            silentSocket.close();
+        }
+
+        assertThat("The peer, which sent no nonce, is not accepted", wasAccepted, is(false));
+        assertThat("The nonce is waited for no longer than the timeout",
+            System.currentTimeMillis() - startTime < WAIT_TIMEOUT_IN_MILLISECONDS, is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWildcardAddressIsNotOffered() throws Exception {
+        new TcpUpgradeEndpointProvider(InetAddress.getByName("0.0.0.0"));
+    }
+
+    @Test
+    public void testRelayIsUpgradedOnSustainedDemand() throws Exception {
+        UpgradableLink.setDefaultEndpointProvider(mLoopbackEndpointProvider);
+        UpgradableLink.setDemandThreshold(1024, 50, 2);
+        long numberOfUpgrades = UpgradableLink.getNumberOfUpgrades();
+
+        ServerSocket nodeServerSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        Socket nodeClientSocket = null;
+        Socket nodeServerSideSocket = null;
+        OutgoingSocketThread outgoingSocketThread = new OutgoingSocketThread(null,
+            new ConnectionData(new PeerProperties("00:00:00:00:00:01"), false), new ListenerMock(),
+            mLinkSocketPair[0].getInputStream(), mLinkSocketPair[0].getOutputStream());
+        IncomingSocketThread incomingSocketThread = new IncomingSocketThread(null,
+            new ConnectionData(new PeerProperties("00:00:00:00:00:02"), true), new ListenerMock(),
+            mLinkSocketPair[1].getInputStream(), mLinkSocketPair[1].getOutputStream());
+
+        try {
+            incomingSocketThread.setTcpPortNumber(nodeServerSocket.getLocalPort());
+            incomingSocketThread.start();
+            outgoingSocketThread.start();
+
+            long deadline = System.currentTimeMillis() + WAIT_TIMEOUT_IN_MILLISECONDS;
+
+            while (outgoingSocketThread.getListeningOnPortNumber() == ConnectionHelper.NO_PORT_NUMBER
+                && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            nodeClientSocket = new Socket("127.0.0.1", outgoingSocketThread.getListeningOnPortNumber());
+            nodeClientSocket.setSoTimeout(SOCKET_TIMEOUT_IN_MILLISECONDS);
+            nodeServerSocket.setSoTimeout(SOCKET_TIMEOUT_IN_MILLISECONDS);
+            nodeServerSideSocket = nodeServerSocket.accept();
+            nodeServerSideSocket.setSoTimeout(SOCKET_TIMEOUT_IN_MILLISECONDS);
+
+            // The localhost side streams on for about a second, unaware of the upgrade
+            final OutputStream outputStream = nodeClientSocket.getOutputStream();
+            Thread writingThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writePattern(outputStream, null, PAUSE_BETWEEN_CHUNKS_IN_MILLISECONDS);
+                        outputStream.flush();
+                    } catch (IOException e) {
+                        Log.e(mTag, "Failed to write: " + e.getMessage());
+                    }
+                }
+            });
+
+            writingThread.start();
+            String result = readPattern(nodeServerSideSocket.getInputStream(), false);
+            writingThread.join(WAIT_TIMEOUT_IN_MILLISECONDS);
+
+            assertThat("The data is relayed intact", result, is(equalTo(Transfer.OK)));
+            assertThat("The relay was upgraded", UpgradableLink.getNumberOfUpgrades(),
+                is(equalTo(numberOfUpgrades + 2)));
+        } finally {
+            outgoingSocketThread.close();
+            incomingSocketThread.close();
+            SimulatedPeerSwarm.closeSocket(nodeClientSocket);
+            SimulatedPeerSwarm.closeSocket(nodeServerSideSocket);
+            nodeServerSocket.close();
+        }
+    }
+
+    private UpgradableLink createLink(int index, boolean isInitiator, UpgradeEndpointProvider endpointProvider)
+        throws IOException {
+        return new UpgradableLink(mLinkSocketPair[index].getInputStream(), mLinkSocketPair[index].getOutputStream(),
+            isInitiator, endpointProvider, mExecutor);
+    }
+
+    /**
+     * Writes the pattern in chunks.
+     *
+     * @param upgradingLink                 The link to request an upgrade on halfway through or null.
+     * @param pauseBetweenChunksInMilliseconds The time to sleep after each chunk for a sustained rate.
+     */
+    private static void writePattern(OutputStream outputStream, UpgradableLink upgradingLink,
+                                     long pauseBetweenChunksInMilliseconds) throws IOException {
+        byte[] buffer = new byte[CHUNK_SIZE_IN_BYTES];
+
+        for (int position = 0; position < TRANSFER_SIZE_IN_BYTES; position += CHUNK_SIZE_IN_BYTES) {
+            if (upgradingLink != null && position == TRANSFER_SIZE_IN_BYTES / 2) {
+                upgradingLink.requestUpgrade();
+            }
+
+            for (int i = 0; i < CHUNK_SIZE_IN_BYTES; i++) {
+                buffer[i] = (byte) (position + i);
+            }
+
+            outputStream.write(buffer);
+
+            if (pauseBetweenChunksInMilliseconds > 0) {
+                try {
+                    Thread.sleep(pauseBetweenChunksInMilliseconds);
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted");
+                }
+            }
+        }
+    }
+
+    private static void waitForUpgrades(long numberOfUpgrades) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_TIMEOUT_IN_MILLISECONDS;
+
+        while (UpgradableLink.getNumberOfUpgrades() < numberOfUpgrades && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Reads and verifies the pattern.
+     *
+     * @param untilEndOfStream If true, expects the end of the stream after the pattern.
+     * @return Transfer.OK or the description of the failure.
+     */
+    private static String readPattern(InputStream inputStream, boolean untilEndOfStream) throws IOException {
+        byte[] buffer = new byte[CHUNK_SIZE_IN_BYTES];
+        int position = 0;
+
+        while (position < TRANSFER_SIZE_IN_BYTES) {
+            int numberOfBytesRead = inputStream.read(buffer);
+
+            if (numberOfBytesRead == -1) {
+                return "Ended at " + position;
+            }
+
+            for (int i = 0; i < numberOfBytesRead; i++, position++) {
+                if (buffer[i] != (byte) position) {
+                    return "Unexpected byte at " + position;
+                }
+            }
+        }
+
+        if (untilEndOfStream && inputStream.read(buffer) != -1) {
+            return "Not ended after " + position;
+        }
+
+        return Transfer.OK;
+    }
+
+    /**
+     * Streams the pattern from one link to another and half-closes, when ended.
+     */
+    private static class Transfer {
+        static final String OK = "OK";
+        private final Thread mWritingThread;
+        private final Thread mReadingThread;
+        private final CountDownLatch mEndLatch = new CountDownLatch(1);
+        private volatile String mResult = "Not done";
+
+        /**
+         * @param upgradingLink The link to request an upgrade on halfway through or null.
+         */
+        Transfer(final UpgradableLink fromLink, final UpgradableLink toLink, final UpgradableLink upgradingLink) {
+            mWritingThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        OutputStream outputStream = fromLink.getOutputStream();
+                        writePattern(outputStream, upgradingLink, 0);
+
+                        // The answers to the negotiation can not be read after the end of the stream
+                        mEndLatch.await();
+                        ((HalfCloseStreams.HalfClosable) outputStream).shutdownOutput();
+                    } catch (IOException e) {
+                        Log.e(mTag, "Failed to write: " + e.getMessage());
+                    } catch (InterruptedException e) {
+                        Log.e(mTag, "Interrupted while writing");
+                    }
+                }
+            });
+
+            mReadingThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mResult = readPattern(toLink.getInputStream(), true);
+                    } catch (IOException e) {
+                        mResult = "Failed to read: " + e.getMessage();
+                    }
+                }
+            });
+        }
+
+        void start() {
+            mWritingThread.start();
+            mReadingThread.start();
+        }
+
+        void end(long timeoutInMilliseconds) throws InterruptedException {
+            mEndLatch.countDown();
+            mWritingThread.join(timeoutInMilliseconds);
+            mReadingThread.join(timeoutInMilliseconds);
+        }
+
+        String getResult() {
+            return mResult;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package io.jxcore.node;
+
+import java.util.PriorityQueue;
+
+/**
+ * A scheduler with a virtual clock. The time only moves when advanced explicitly and the due
+ * tasks are run on the advancing thread, in the order of their due time (tasks due at the same
+ * time in the order they were scheduled). This makes the timer driven logic deterministic and
+ * lets the tests run scenarios spanning minutes in milliseconds.
+ */
+public class VirtualTimeScheduler implements Scheduler {
+
+    private class VirtualTask implements ScheduledTask, Comparable<VirtualTask> {
+        final Runnable runnable;
+        final long dueTime;
+        final long sequenceNumber;
+
+        VirtualTask(Runnable runnable, long dueTime, long sequenceNumber) {
+            this.runnable = runnable;
+            this.dueTime = dueTime;
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (VirtualTimeScheduler.this) {
+                mTasks.remove(this);
+            }
+        }
+
+        @Override
+        public int compareTo(VirtualTask other) {
+            if (dueTime != other.dueTime) {
+                return dueTime < other.dueTime ? -1 : 1;
+            }
+
+            return sequenceNumber < other.sequenceNumber ? -1 : (sequenceNumber == other.sequenceNumber ? 0 : 1);
+        }
+    }
+
+    private final PriorityQueue<VirtualTask> mTasks = new PriorityQueue<VirtualTask>();
+    private long mCurrentTime = 0;
+    private long mNextSequenceNumber = 0;
+    private long mNumberOfTasksRun = 0;
+
+    @Override
+    public synchronized long currentTimeMillis() {
+        return mCurrentTime;
+    }
+
+    @Override
+    public synchronized ScheduledTask schedule(Runnable runnable, long delayInMilliseconds) {
+        VirtualTask task = new VirtualTask(runnable, mCurrentTime + Math.max(0, delayInMilliseconds), mNextSequenceNumber++);
+        mTasks.add(task);
+        return task;
+    }
+
+    /**
+     * Advances the clock by the given amount of time running every task that becomes due,
+     * including the ones scheduled by the tasks run.
+     *
+     * @param timeInMilliseconds The time to advance by.
+     */
+    public void advanceBy(long timeInMilliseconds) {
+        advanceTo(currentTimeMillis() + timeInMilliseconds);
+    }
+
+    /**
+     * Advances the clock to the given time running every task that becomes due, including the
+     * ones scheduled by the tasks run.
+     *
+     * @param time The time to advance to. Ignored, if in the past.
+     */
+    public void advanceTo(long time) {
+        while (true) {
+            VirtualTask task;
+
+            synchronized (this) {
+                task = mTasks.peek();
+
+                if (task == null || task.dueTime > time) {
+                    mCurrentTime = Math.max(mCurrentTime, time);
+                    return;
+                }
+
+                mTasks.poll();
+                mCurrentTime = Math.max(mCurrentTime, task.dueTime);
+                mNumberOfTasksRun++;
+            }
+
+            // Run outside the lock, since the task may take its own locks and schedule new tasks
+            task.runnable.run();
+        }
+    }
+
+    /**
+     * Advances the clock until no tasks are pending.
+     *
+     * @param maximumTimeInMilliseconds The maximum time to advance by, a safeguard against tasks
+     *                                  rescheduling themselves forever.
+     * @return True, if no tasks are pending. False, if the maximum time was reached first.
+     */
+    public boolean advanceUntilIdle(long maximumTimeInMilliseconds) {
+        long deadline = currentTimeMillis() + maximumTimeInMilliseconds;
+
+        while (true) {
+            long nextDueTime;
+
+            synchronized (this) {
+                if (mTasks.isEmpty()) {
+                    return true;
+                }
+
+                nextDueTime = mTasks.peek().dueTime;
+            }
+
+            if (nextDueTime > deadline) {
+                advanceTo(deadline);
+                return false;
+            }
+
+            advanceTo(nextDueTime);
+        }
+    }
+
+    public synchronized int getNumberOfPendingTasks() {
+        return mTasks.size();
+    }
+
+    public synchronized long getNumberOfTasksRun() {
+        return mNumberOfTasksRun;
+    }
+}
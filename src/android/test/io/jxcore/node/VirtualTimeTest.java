@@ -0,0 +1,281 @@
+package io.jxcore.node;
+
+import android.bluetooth.le.AdvertiseSettings;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.thaliproject.p2p.btconnectorlib.ConnectionManager;
+import org.thaliproject.p2p.btconnectorlib.DiscoveryManager;
+import org.thaliproject.p2p.btconnectorlib.DiscoveryManagerSettings;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Runs the timer driven logic (the operation timeout, the discovery state debouncing, the BLE
+ * duty cycle and the incoming connection failure throttling) in virtual time and asserts the
+ * exact timing.
+ */
+public class VirtualTimeTest {
+
+    private static final long OPERATION_TIMEOUT_IN_MILLISECONDS = 3000;
+    private static final long NOTIFY_DISCOVERY_ADVERTISING_STATE_DELAY_IN_MILLISECONDS = 500;
+    private static final long INCOMING_CONNECTION_FAILED_NOTIFICATION_MIN_INTERVAL_IN_MILLISECONDS = 100;
+
+    private final static String mTag = VirtualTimeTest.class.getName();
+    private VirtualTimeScheduler mScheduler;
+    private ConnectionHelper mConnectionHelper;
+    private StateObserver mStateObserver;
+
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        protected void starting(Description description) {
+            Log.i(mTag, "Starting test: " + description.getMethodName());
+        }
+    };
+
+    /**
+     * Records the discovery and advertising state notifications with their virtual time.
+     */
+    private class StateObserver extends SimulatedPeerSwarm.CountingSurroundingStateObserver {
+        final List<Long> notificationTimes = new ArrayList<Long>();
+        boolean lastIsDiscoveryActive = false;
+        boolean lastIsAdvertisingActive = false;
+
+        @Override
+        public void notifyDiscoveryAdvertisingStateUpdateNonTcp(boolean isDiscoveryActive, boolean isAdvertisingActive) {
+            notificationTimes.add(mScheduler.currentTimeMillis());
+            lastIsDiscoveryActive = isDiscoveryActive;
+            lastIsAdvertisingActive = isAdvertisingActive;
+        }
+    }
+
+    /**
+     * Records the start/stop callbacks synchronously with their virtual time.
+     */
+    private class StartStopCallback extends JXcoreThaliCallback {
+        final List<Long> callbackTimes = new ArrayList<Long>();
+        final List<String> errorMessages = new ArrayList<String>();
+
+        @Override
+        public void callOnStartStopCallback(String errorMessage) {
+            callbackTimes.add(mScheduler.currentTimeMillis());
+            errorMessages.add(errorMessage);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mScheduler = new VirtualTimeScheduler();
+        mStateObserver = new StateObserver();
+        mConnectionHelper = new ConnectionHelper(mStateObserver, mScheduler);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mConnectionHelper.dispose();
+        JXcoreExtension.setScheduler(HandlerScheduler.getDefault());
+    }
+
+    @Test
+    public void testSchedulerOrderAndCancel() throws Exception {
+        final List<String> events = new ArrayList<String>();
+        mScheduler.schedule(createRecordingRunnable(events, "b"), 200);
+        mScheduler.schedule(createRecordingRunnable(events, "a"), 100);
+        Scheduler.ScheduledTask cancelledTask = mScheduler.schedule(createRecordingRunnable(events, "x"), 150);
+        mScheduler.schedule(createRecordingRunnable(events, "c"), 200);
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                events.add("d@" + mScheduler.currentTimeMillis());
+                mScheduler.schedule(createRecordingRunnable(events, "e"), 50);
+            }
+        }, 250);
+
+        cancelledTask.cancel();
+        mScheduler.advanceBy(99);
+
+        assertThat("Nothing is run before the due time", events.isEmpty(), is(true));
+
+        mScheduler.advanceBy(1);
+        assertThat("The first task is run at its due time", events.toString(), is(equalTo("[a@100]")));
+
+        mScheduler.advanceBy(1000);
+        assertThat("The tasks are run in order, including the ones scheduled by the tasks",
+            events.toString(), is(equalTo("[a@100, b@200, c@200, d@250, e@300]")));
+        assertThat("The clock is at the target time", mScheduler.currentTimeMillis(), is(equalTo(1100L)));
+        assertThat("No tasks are pending", mScheduler.getNumberOfPendingTasks(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testOperationTimeout() throws Exception {
+        ConnectionManager connectionManager = getField(mConnectionHelper, "mConnectionManager");
+        DiscoveryManager discoveryManager = mConnectionHelper.getDiscoveryManager();
+
+        // Not driven by the state changes of the managers, so only the timeout completes the operation
+        StartStopOperationHandler startStopOperationHandler =
+            new StartStopOperationHandler(connectionManager, discoveryManager, mScheduler);
+        StartStopCallback callback = new StartStopCallback();
+
+        try {
+            startStopOperationHandler.executeStartOperation(false, callback);
+            Assume.assumeTrue("The operation is pending (not completed or failed immediately)",
+                callback.callbackTimes.isEmpty());
+
+            mScheduler.advanceBy(OPERATION_TIMEOUT_IN_MILLISECONDS - 1);
+            assertThat("The operation has not timed out before the timeout",
+                callback.callbackTimes.isEmpty(), is(true));
+
+            mScheduler.advanceBy(1);
+            assertThat("The callback is called once", callback.callbackTimes.size(), is(equalTo(1)));
+            assertThat("The callback is called exactly at the timeout", callback.callbackTimes.get(0),
+                is(equalTo(OPERATION_TIMEOUT_IN_MILLISECONDS)));
+            assertThat("The error message tells about the timeout",
+                callback.errorMessages.get(0).startsWith("Operation timeout"), is(true));
+            assertThat("No timer is left", mScheduler.getNumberOfPendingTasks(), is(equalTo(0)));
+        } finally {
+            startStopOperationHandler.cancelCurrentOperation();
+            discoveryManager.stop();
+            connectionManager.stopListeningForIncomingConnections();
+        }
+    }
+
+    @Test
+    public void testCancelledOperationDoesNotTimeOut() throws Exception {
+        ConnectionManager connectionManager = getField(mConnectionHelper, "mConnectionManager");
+        DiscoveryManager discoveryManager = mConnectionHelper.getDiscoveryManager();
+        StartStopOperationHandler startStopOperationHandler =
+            new StartStopOperationHandler(connectionManager, discoveryManager, mScheduler);
+        StartStopCallback callback = new StartStopCallback();
+
+        try {
+            startStopOperationHandler.executeStartOperation(false, callback);
+            Assume.assumeTrue("The operation is pending (not completed or failed immediately)",
+                callback.callbackTimes.isEmpty());
+
+            mScheduler.advanceBy(OPERATION_TIMEOUT_IN_MILLISECONDS / 2);
+            startStopOperationHandler.cancelCurrentOperation();
+            mScheduler.advanceBy(OPERATION_TIMEOUT_IN_MILLISECONDS * 10);
+
+            assertThat("The callback of the cancelled operation is not called",
+                callback.callbackTimes.isEmpty(), is(true));
+            Scheduler.ScheduledTask operationTimeoutTimer =
+                getField(startStopOperationHandler, "mOperationTimeoutTimer");
+            assertThat("The timer is cleared", operationTimeoutTimer, is(nullValue()));
+        } finally {
+            discoveryManager.stop();
+            connectionManager.stopListeningForIncomingConnections();
+        }
+    }
+
+    @Test
+    public void testDiscoveryStateNotificationIsDebounced() throws Exception {
+        // A burst of state changes 100 ms apart
+        for (int i = 0; i < 5; i++) {
+            mConnectionHelper.onDiscoveryManagerStateChanged(
+                DiscoveryManager.DiscoveryManagerState.RUNNING_BLE, i % 2 == 0, true);
+            mScheduler.advanceBy(100);
+        }
+
+        // The last state change was at 400 ms
+        mScheduler.advanceTo(400 + NOTIFY_DISCOVERY_ADVERTISING_STATE_DELAY_IN_MILLISECONDS - 1);
+        assertThat("Nothing is notified while the state keeps changing",
+            mStateObserver.notificationTimes.isEmpty(), is(true));
+
+        mScheduler.advanceBy(1);
+        assertThat("The burst results in one notification", mStateObserver.notificationTimes.size(), is(equalTo(1)));
+        assertThat("The notification is sent exactly after the delay", mStateObserver.notificationTimes.get(0),
+            is(equalTo(400 + NOTIFY_DISCOVERY_ADVERTISING_STATE_DELAY_IN_MILLISECONDS)));
+        assertThat("The last discovery state is notified", mStateObserver.lastIsDiscoveryActive, is(true));
+        assertThat("The last advertising state is notified", mStateObserver.lastIsAdvertisingActive, is(true));
+
+        mScheduler.advanceBy(NOTIFY_DISCOVERY_ADVERTISING_STATE_DELAY_IN_MILLISECONDS * 10);
+        assertThat("No more notifications", mStateObserver.notificationTimes.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testBleDutyCycleFollowsTheTransferLoad() throws Exception {
+        DiscoveryManagerSettings discoveryManagerSettings = getField(mConnectionHelper, "mDiscoveryManagerSettings");
+        BleDutyCycleController bleDutyCycleController = mConnectionHelper.getBleDutyCycleController();
+
+        // A bulk transfer: 64 KB every 100 ms for 5 seconds
+        for (int i = 0; i < 50; i++) {
+            mConnectionHelper.notifyDataTransferred(64 * 1024);
+            mScheduler.advanceBy(100);
+        }
+
+        assertThat("The power is lowered during the transfer", discoveryManagerSettings.getAdvertiseMode(),
+            is(equalTo(AdvertiseSettings.ADVERTISE_MODE_LOW_POWER)));
+        assertThat("The scanning is paused during the bulk transfer", bleDutyCycleController.getLevel(),
+            is(equalTo(BleDutyCycleController.Level.SCANNING_PAUSED)));
+
+        // A pause shorter than the hysteresis
+        mScheduler.advanceBy(BleDutyCycleController.EVALUATION_INTERVAL_IN_MILLISECONDS
+            * (BleDutyCycleController.NUMBER_OF_EVALUATIONS_BEFORE_RAISING_DISCOVERY - 1));
+        assertThat("The power stays low during a short pause", discoveryManagerSettings.getAdvertiseMode(),
+            is(equalTo(AdvertiseSettings.ADVERTISE_MODE_LOW_POWER)));
+
+        mScheduler.advanceBy(60000);
+        assertThat("The power is restored once the link is idle", discoveryManagerSettings.getAdvertiseMode(),
+            is(equalTo(AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY)));
+        assertThat("The evaluation stops when idle", bleDutyCycleController.isEvaluating(), is(false));
+        assertThat("No timer is left", mScheduler.getNumberOfPendingTasks(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testIncomingConnectionFailedNotificationIsThrottled() throws Exception {
+        JXcoreExtension.setScheduler(mScheduler);
+        mScheduler.advanceTo(1000);
+        SurroundingStateObserver jxcoreExtension = JXcoreExtension.getInstance();
+
+        jxcoreExtension.notifyIncomingConnectionToPortNumberFailed(1111);
+        assertThat("The first notification is fired", getLastTimeIncomingConnectionFailedNotificationWasFired(),
+            is(equalTo(1000L)));
+
+        mScheduler.advanceBy(INCOMING_CONNECTION_FAILED_NOTIFICATION_MIN_INTERVAL_IN_MILLISECONDS);
+        jxcoreExtension.notifyIncomingConnectionToPortNumberFailed(1111);
+        assertThat("The notification within the minimum interval is not fired",
+            getLastTimeIncomingConnectionFailedNotificationWasFired(), is(equalTo(1000L)));
+
+        mScheduler.advanceBy(1);
+        jxcoreExtension.notifyIncomingConnectionToPortNumberFailed(1111);
+        assertThat("The notification after the minimum interval is fired",
+            getLastTimeIncomingConnectionFailedNotificationWasFired(),
+            is(equalTo(1000L + INCOMING_CONNECTION_FAILED_NOTIFICATION_MIN_INTERVAL_IN_MILLISECONDS + 1)));
+    }
+
+    private Runnable createRecordingRunnable(final List<String> events, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                events.add(name + "@" + mScheduler.currentTimeMillis());
+            }
+        };
+    }
+
+    private static long getLastTimeIncomingConnectionFailedNotificationWasFired() throws Exception {
+        Field field = JXcoreExtension.class.getDeclaredField("mLastTimeIncomingConnectionFailedNotificationWasFired");
+        field.setAccessible(true);
+        return field.getLong(null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T getField(Object object, String fieldName) throws Exception {
+        Field field = object.getClass().getDeclaredField(fieldName);
+        field.setAccessible(true);
+        return (T) field.get(object);
+    }
+}
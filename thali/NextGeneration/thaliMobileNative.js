@@ -460,6 +460,87 @@
  * @param {module:thaliMobileNative~ThaliMobileCallback} callback
  */
 
+/**
+ * This method sets the rates used by Android to share the Bluetooth link
+ * between the connections.
+ *
+ * The link rate is shared between the connections in proportion to the weight
+ * of their priority class ("interactive", "default" or "bulk"). It should be
+ * set somewhat below the throughput the radio achieves. A link rate of 0 turns
+ * the link shaping off.
+ *
+ * If a priority class is given then every connection of that class registered
+ * after this call MUST NOT send faster than the given rate limit. A rate limit
+ * of 0 removes the limit.
+ *
+ * If the rates are not non-negative integers or the priority class is not
+ * recognized then the "Bad parameters" error MUST be returned.
+ *
+ * @public
+ * @function external:"Mobile('setBandwidthShaping')".callNative
+ * @param {number} linkRateInBytesPerSecond
+ * @param {string} [priorityClass]
+ * @param {number} [rateLimitInBytesPerSecond] Required if priorityClass is
+ * given.
+ * @param {module:thaliMobileNative~ThaliMobileCallback} callback
+ */
+
+/**
+ * This method enables or disables the speculative connections on Android.
+ *
+ * When enabled, a connection to a peer announcing a new generation is started
+ * before the connect call is made and handed to the connect call, if made
+ * within a short time. Unused connections are closed. The speculative
+ * connections are disabled by default.
+ *
+ * If enabled is not a boolean then the "Bad parameters" error MUST be
+ * returned.
+ *
+ * @public
+ * @function external:"Mobile('setSpeculativePreconnectEnabled')".callNative
+ * @param {boolean} enabled
+ * @param {module:thaliMobileNative~ThaliMobileCallback} callback
+ */
+
+/**
+ * This method enables or disables the upgrade of the busy Bluetooth
+ * connections to TCP over the local network (e.g. a Wi-Fi or Wi-Fi Direct
+ * group) both the peers are on. Applies to the connections established after
+ * this call and MUST be set the same way on the peers.
+ *
+ * When enabled, the endpoints are opened on the IPv4 site local address of the
+ * first network interface up. If there is no such address then an error MUST
+ * be returned and the setting is not changed. A connection, which fails to
+ * upgrade, continues over Bluetooth.
+ *
+ * If enabled is not a boolean then the "Bad parameters" error MUST be
+ * returned.
+ *
+ * @public
+ * @function external:"Mobile('setConnectionUpgradeEnabled')".callNative
+ * @param {boolean} enabled
+ * @param {module:thaliMobileNative~ThaliMobileCallback} callback
+ */
+
+/**
+ * This method enables or disables the half-close of the Bluetooth connections
+ * on Android. Applies to the connections established after this call and MUST
+ * be set the same way on the peers.
+ *
+ * When enabled, the end of the stream in one direction is sent to the peer in
+ * band, so that the other direction keeps streaming until it ends too. When
+ * disabled, the end of the stream in either direction closes the connection.
+ * The half-close is disabled by default.
+ *
+ * If enabled is not a boolean then the "Bad parameters" error MUST be
+ * returned.
+ *
+ * @public
+ * @function external:"Mobile('setHalfCloseEnabled')".callNative
+ * @param {boolean} enabled
+ * @param {module:thaliMobileNative~ThaliMobileCallback} callback
+ */
+
 /*
               registerToNative Methods
  */
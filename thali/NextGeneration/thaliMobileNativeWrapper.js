@@ -927,6 +927,109 @@ module.exports.unlockAndroidWifiMulticast = function () {
   });
 };
 
+/**
+ * This method sets the link rate and, optionally, the rate limit of the
+ * connections of a priority class on Android.
+ *
+ * @param {number} linkRateInBytesPerSecond
+ * @param {string} [priorityClass]
+ * @param {number} [rateLimitInBytesPerSecond]
+ * @return {Promise<?Error>}
+ */
+module.exports.setAndroidBandwidthShaping =
+  function (linkRateInBytesPerSecond, priorityClass,
+            rateLimitInBytesPerSecond) {
+    if (platform.isIOS) {
+      return Promise.reject(new Error(
+        'Mobile(\'setBandwidthShaping\') is not implemented on ios'));
+    }
+
+    var args = [linkRateInBytesPerSecond];
+    if (priorityClass) {
+      args.push(priorityClass, rateLimitInBytesPerSecond);
+    }
+
+    return gPromiseQueue.enqueue(function (resolve, reject) {
+      var mobile = Mobile('setBandwidthShaping');
+      mobile.callNative.apply(mobile, args.concat(function (error) {
+        if (error) {
+          return reject(new Error(error));
+        }
+        resolve();
+      }));
+    });
+  };
+
+/**
+ * This method enables or disables the speculative connections on Android.
+ *
+ * @param {boolean} enabled
+ * @return {Promise<?Error>}
+ */
+module.exports.setAndroidSpeculativePreconnectEnabled = function (enabled) {
+  if (platform.isIOS) {
+    return Promise.reject(new Error(
+      'Mobile(\'setSpeculativePreconnectEnabled\') is not implemented on ios'));
+  }
+
+  return gPromiseQueue.enqueue(function (resolve, reject) {
+    Mobile('setSpeculativePreconnectEnabled').callNative(enabled,
+      function (error) {
+        if (error) {
+          return reject(new Error(error));
+        }
+        resolve();
+      });
+  });
+};
+
+/**
+ * This method enables or disables the upgrade of the busy Bluetooth
+ * connections to the local network on Android.
+ *
+ * @param {boolean} enabled
+ * @return {Promise<?Error>}
+ */
+module.exports.setAndroidConnectionUpgradeEnabled = function (enabled) {
+  if (platform.isIOS) {
+    return Promise.reject(new Error(
+      'Mobile(\'setConnectionUpgradeEnabled\') is not implemented on ios'));
+  }
+
+  return gPromiseQueue.enqueue(function (resolve, reject) {
+    Mobile('setConnectionUpgradeEnabled').callNative(enabled,
+      function (error) {
+        if (error) {
+          return reject(new Error(error));
+        }
+        resolve();
+      });
+  });
+};
+
+/**
+ * This method enables or disables the half-close of the Bluetooth connections
+ * on Android.
+ *
+ * @param {boolean} enabled
+ * @return {Promise<?Error>}
+ */
+module.exports.setAndroidHalfCloseEnabled = function (enabled) {
+  if (platform.isIOS) {
+    return Promise.reject(new Error(
+      'Mobile(\'setHalfCloseEnabled\') is not implemented on ios'));
+  }
+
+  return gPromiseQueue.enqueue(function (resolve, reject) {
+    Mobile('setHalfCloseEnabled').callNative(enabled, function (error) {
+      if (error) {
+        return reject(new Error(error));
+      }
+      resolve();
+    });
+  });
+};
+
 /* EVENTS */
 
 /**